@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
 import org.apache.kudu.Common;
@@ -45,8 +46,14 @@ public abstract class AbstractKuduScannerBuilder
   AsyncKuduScanner.ReadMode readMode = AsyncKuduScanner.ReadMode.READ_LATEST;
   boolean isFaultTolerant = false;
   int batchSizeBytes = 1024 * 1024;
+  int minBatchSizeBytes = 0;
+  int maxBatchSizeBytes = 0;
   long limit = Long.MAX_VALUE;
-  boolean prefetching = false;
+  RowFilter residualFilter = null;
+  ScanResultCache resultCache = null;
+  byte[] resultCacheToken = null;
+  int readAheadBatches = 0;
+  long readAheadMaxBytes = Long.MAX_VALUE;
   boolean cacheBlocks = true;
   long htTimestamp = AsyncKuduClient.NO_TIMESTAMP;
   byte[] lowerBoundPrimaryKey = AsyncKuduClient.EMPTY_ARRAY;
@@ -194,6 +201,43 @@ public abstract class AbstractKuduScannerBuilder
     return (S) this;
   }
 
+  /**
+   * Lets the scanner tune the size of the batches it requests, within the given bounds,
+   * starting from the size set with {@link #batchSizeBytes(int)}. Disabled by default.
+   * <p>
+   * The scanner compares how long the server takes to return a batch with how long the caller
+   * takes to process it. It doubles the batch size when the caller is much faster, so fewer
+   * round trips are needed, and halves it when the caller is much slower, so that each batch is
+   * returned sooner and the scanner doesn't sit idle on the server. When reading ahead with a
+   * byte limit, the batch size also never exceeds that limit divided by the number of batches
+   * read ahead. The sizes requested are reported by the client's {@link Statistics}.
+   * @param minBatchSizeBytes the smallest batch size to request, strictly positive
+   * @param maxBatchSizeBytes the largest batch size to request
+   * @return this instance
+   */
+  public S adaptiveBatchSize(int minBatchSizeBytes, int maxBatchSizeBytes) {
+    Preconditions.checkArgument(minBatchSizeBytes > 0,
+        "Need a strictly positive number of bytes, got %s", minBatchSizeBytes);
+    Preconditions.checkArgument(maxBatchSizeBytes >= minBatchSizeBytes,
+        "The maximum batch size %s is smaller than the minimum %s",
+        maxBatchSizeBytes, minBatchSizeBytes);
+    this.minBatchSizeBytes = minBatchSizeBytes;
+    this.maxBatchSizeBytes = maxBatchSizeBytes;
+    return (S) this;
+  }
+
+  /**
+   * Sets a filter that the client evaluates on the rows returned by the servers, for the
+   * conditions that can't be expressed as predicates. The rows that don't match it are skipped
+   * when iterating over the results. See {@link RowFilter}.
+   * @param filter the filter to evaluate, or null for none
+   * @return this instance
+   */
+  public S residualFilter(RowFilter filter) {
+    this.residualFilter = filter;
+    return (S) this;
+  }
+
   /**
    * Sets a limit on the number of rows that will be returned by the scanner. There's no limit
    * by default.
@@ -208,13 +252,45 @@ public abstract class AbstractKuduScannerBuilder
   /**
    * Enables prefetching of rows for the scanner, i.e. whether to send a request for more data
    * to the server immediately after we receive a response (instead of waiting for the user
-   * to call {@code  nextRows()}). Disabled by default.
-   * NOTE: This is risky until KUDU-1260 is resolved.
+   * to call {@code  nextRows()}). Disabled by default. This is the same as reading ahead a
+   * single batch, see {@link #readAheadBatches(int)}.
    * @param prefetching a boolean that indicates if the scanner should prefetch rows
    * @return this instance
    */
   public S prefetching(boolean prefetching) {
-    this.prefetching = prefetching;
+    this.readAheadBatches = prefetching ? 1 : 0;
+    return (S) this;
+  }
+
+  /**
+   * Sets how many batches the scanner fetches ahead of the calls to {@code nextRows()}. The
+   * scanner keeps requesting the next batch as soon as it receives one, until that many batches
+   * are waiting to be returned. Disabled by default.
+   * <p>
+   * The requests of a scanner are still sent one after the other, so reading ahead doesn't make
+   * a single scanner faster than the server and the network can serve it, but it lets the
+   * scanner keep fetching while the caller is busy processing the previous batches.
+   * @param readAheadBatches the number of batches to fetch ahead, 0 to disable reading ahead
+   * @return this instance
+   */
+  public S readAheadBatches(int readAheadBatches) {
+    Preconditions.checkArgument(readAheadBatches >= 0,
+        "Need a non-negative number of batches, got %s", readAheadBatches);
+    this.readAheadBatches = readAheadBatches;
+    return (S) this;
+  }
+
+  /**
+   * Sets how many bytes of row data the batches fetched ahead can hold, the scanner stops
+   * reading ahead when they hold that much until some are returned. Unlimited by default, in
+   * which case the memory is bounded by the number of batches read ahead times the batch size.
+   * @param readAheadMaxBytes a strictly positive number of bytes
+   * @return this instance
+   */
+  public S readAheadMaxBytes(long readAheadMaxBytes) {
+    Preconditions.checkArgument(readAheadMaxBytes > 0,
+        "Need a strictly positive number of bytes, got %s", readAheadMaxBytes);
+    this.readAheadMaxBytes = readAheadMaxBytes;
     return (S) this;
   }
 
@@ -332,6 +408,19 @@ public abstract class AbstractKuduScannerBuilder
     return (S) this;
   }
 
+  /**
+   * Sets the cache the scan's batches are served from or added to, if it's a snapshot scan at a
+   * fixed timestamp. Package-private, the scans are identified by their scan token.
+   * @param cache the cache
+   * @param token the serialized scan token the scanner is built from
+   * @return this instance
+   */
+  S resultCache(ScanResultCache cache, byte[] token) {
+    this.resultCache = cache;
+    this.resultCacheToken = token;
+    return (S) this;
+  }
+
   /**
    * Set an encoded (inclusive) start partition key for the scan.
    *
@@ -0,0 +1,292 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.MoreObjects;
+import com.stumbleupon.async.Deferred;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kudu.annotations.InterfaceAudience;
+
+/**
+ * Limits the number of write RPCs concurrently in flight to a single tablet server.
+ * <p>
+ * The limit, or window, adapts to the server's load using additive increase and
+ * multiplicative decrease: every write completing with a latency close to the lowest one
+ * observed grows the window by {@code 1 / window}, so about one slot per round trip, while a
+ * server-busy error halves it and a latency much higher than the lowest one shrinks it a little.
+ * A write's latency is compared to the lowest one expected for its number of rows, the larger of
+ * the lowest round trip and the lowest latency per row times its rows, so that large batches
+ * aren't mistaken for congestion. Both lowest values are kept over a sliding window of recent
+ * samples, so that they follow the server without being re-learned from a single sample.
+ * The window shrinks at most once per round trip: writes sent before the last decrease don't
+ * decrease it again, since the writes which were already in flight when the server got
+ * overloaded will all report it.
+ * <p>
+ * Writes beyond the window are queued, and sent as others complete. When too many writes are
+ * queued the limiter is backlogged, which sessions use to push back on their applications with
+ * {@link PleaseThrottleException}.
+ */
+@InterfaceAudience.Private
+@ThreadSafe
+class AdaptiveWriteLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveWriteLimiter.class);
+
+  static final int INITIAL_WINDOW = 16;
+  static final int MIN_WINDOW = 1;
+  static final int MAX_WINDOW = 1024;
+
+  /** Factor applied to the window when the server reports it's too busy. */
+  private static final double BUSY_DECREASE_FACTOR = 0.5;
+
+  /** Factor applied to the window when the latency is well above the lowest one observed. */
+  private static final double LATENCY_DECREASE_FACTOR = 0.9;
+
+  /** Latencies above the lowest one observed times this factor are considered congestion. */
+  private static final double LATENCY_TOLERANCE = 2.0;
+
+  /**
+   * The lowest latency is tracked over a sliding window of this many buckets of samples, so that
+   * it follows changes in the server's baseline.
+   */
+  private static final int MIN_LATENCY_BUCKETS = 8;
+
+  /** The number of samples in each bucket of {@link #MIN_LATENCY_BUCKETS}. */
+  private static final int MIN_LATENCY_BUCKET_SAMPLES = 128;
+
+  /** The limiter is backlogged when more than this many windows worth of writes are queued. */
+  private static final int BACKLOG_WINDOWS = 2;
+
+  private final String uuid;
+
+  /** Counts the backlogged limiters of the client, so that checking for any is cheap. */
+  private final AtomicInteger backloggedLimiters;
+
+  @GuardedBy("this")
+  private double window = INITIAL_WINDOW;
+
+  @GuardedBy("this")
+  private int inFlight = 0;
+
+  @GuardedBy("this")
+  private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+
+  /** The lowest latency of each bucket of samples, the current one included. */
+  @GuardedBy("this")
+  private final long[] minLatencyBuckets = new long[MIN_LATENCY_BUCKETS];
+
+  /** The lowest latency per row of each bucket of samples, the current one included. */
+  @GuardedBy("this")
+  private final long[] minLatencyPerRowBuckets = new long[MIN_LATENCY_BUCKETS];
+
+  @GuardedBy("this")
+  private int currentBucket = 0;
+
+  @GuardedBy("this")
+  private int currentBucketSamples = 0;
+
+  /** The lowest latency over all the buckets, a lower bound of the round trip. */
+  @GuardedBy("this")
+  private long minLatencyNanos = Long.MAX_VALUE;
+
+  /** The lowest latency per row over all the buckets. */
+  @GuardedBy("this")
+  private long minLatencyPerRowNanos = Long.MAX_VALUE;
+
+  @GuardedBy("this")
+  private boolean decreased = false;
+
+  @GuardedBy("this")
+  private long lastDecreaseNanos;
+
+  /** Fired when the limiter stops being backlogged, null when it isn't backlogged. */
+  @GuardedBy("this")
+  private Deferred<Void> backlogNotification;
+
+  AdaptiveWriteLimiter(String uuid, AtomicInteger backloggedLimiters) {
+    this.uuid = uuid;
+    this.backloggedLimiters = backloggedLimiters;
+    Arrays.fill(minLatencyBuckets, Long.MAX_VALUE);
+    Arrays.fill(minLatencyPerRowBuckets, Long.MAX_VALUE);
+  }
+
+  /**
+   * Runs the send task right away if the window allows it, otherwise queues it until another
+   * write completes. Every task that ran must be followed by a call to {@link #release}.
+   * @param send the task which sends the write
+   */
+  void submit(Runnable send) {
+    synchronized (this) {
+      if (inFlight >= (int) window) {
+        queue.add(send);
+        if (backlogNotification == null && queue.size() > BACKLOG_WINDOWS * (int) window) {
+          backlogNotification = new Deferred<>();
+          backloggedLimiters.incrementAndGet();
+          LOG.debug("Writes to tablet server {} are backlogged: {}", uuid, this);
+        }
+        return;
+      }
+      inFlight++;
+    }
+    send.run();
+  }
+
+  /**
+   * Releases the slot of a write which completed, adapting the window, and sends the queued
+   * writes which now fit in it.
+   * @param latencyNanos the write's latency, or a negative value if the write didn't complete
+   *                     with an answer from the server, in which case the window isn't adapted
+   * @param numRows the number of rows the write carried, which its latency is normalized by
+   * @param serverBusy true if the server rejected the write because it's too busy
+   */
+  void release(long latencyNanos, int numRows, boolean serverBusy) {
+    List<Runnable> toSend = null;
+    Deferred<Void> notification = null;
+    synchronized (this) {
+      inFlight--;
+      if (latencyNanos >= 0) {
+        adapt(latencyNanos, numRows, serverBusy);
+      }
+      while (inFlight < (int) window && !queue.isEmpty()) {
+        if (toSend == null) {
+          toSend = new ArrayList<>();
+        }
+        toSend.add(queue.poll());
+        inFlight++;
+      }
+      if (backlogNotification != null && queue.size() <= (int) window) {
+        notification = backlogNotification;
+        backlogNotification = null;
+        backloggedLimiters.decrementAndGet();
+      }
+    }
+    if (notification != null) {
+      notification.callback(null);
+    }
+    if (toSend != null) {
+      for (Runnable send : toSend) {
+        send.run();
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void adapt(long latencyNanos, int numRows, boolean serverBusy) {
+    long now = System.nanoTime();
+    if (serverBusy) {
+      decrease(now, latencyNanos, BUSY_DECREASE_FACTOR);
+      return;
+    }
+    int rows = Math.max(1, numRows);
+    recordLatency(latencyNanos, Math.max(1, latencyNanos / rows));
+    double expectedNanos = Math.max(minLatencyNanos, (double) minLatencyPerRowNanos * rows);
+    if (latencyNanos > LATENCY_TOLERANCE * expectedNanos) {
+      decrease(now, latencyNanos, LATENCY_DECREASE_FACTOR);
+    } else {
+      window = Math.min(MAX_WINDOW, window + 1 / window);
+    }
+  }
+
+  /**
+   * Adds a sample to the current bucket, moving on to the next bucket and forgetting its old
+   * samples once the current one is full.
+   */
+  @GuardedBy("this")
+  private void recordLatency(long latencyNanos, long latencyPerRowNanos) {
+    if (currentBucketSamples == MIN_LATENCY_BUCKET_SAMPLES) {
+      currentBucket = (currentBucket + 1) % MIN_LATENCY_BUCKETS;
+      currentBucketSamples = 0;
+      minLatencyBuckets[currentBucket] = Long.MAX_VALUE;
+      minLatencyPerRowBuckets[currentBucket] = Long.MAX_VALUE;
+      minLatencyNanos = Long.MAX_VALUE;
+      minLatencyPerRowNanos = Long.MAX_VALUE;
+      for (int i = 0; i < MIN_LATENCY_BUCKETS; i++) {
+        minLatencyNanos = Math.min(minLatencyNanos, minLatencyBuckets[i]);
+        minLatencyPerRowNanos = Math.min(minLatencyPerRowNanos, minLatencyPerRowBuckets[i]);
+      }
+    }
+    currentBucketSamples++;
+    minLatencyBuckets[currentBucket] = Math.min(minLatencyBuckets[currentBucket], latencyNanos);
+    minLatencyPerRowBuckets[currentBucket] = Math.min(minLatencyPerRowBuckets[currentBucket],
+                                                      latencyPerRowNanos);
+    minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+    minLatencyPerRowNanos = Math.min(minLatencyPerRowNanos, latencyPerRowNanos);
+  }
+
+  @GuardedBy("this")
+  private void decrease(long now, long latencyNanos, double factor) {
+    // Writes sent before the last decrease saw the same congestion, don't count it twice.
+    long sentNanos = now - latencyNanos;
+    if (decreased && sentNanos - lastDecreaseNanos < 0) {
+      return;
+    }
+    decreased = true;
+    lastDecreaseNanos = now;
+    window = Math.max(MIN_WINDOW, window * factor);
+  }
+
+  /**
+   * @return a deferred fired once this limiter isn't backlogged anymore, or null if it isn't
+   */
+  synchronized Deferred<Void> getBacklogNotification() {
+    return backlogNotification;
+  }
+
+  /**
+   * @return the current number of writes allowed in flight
+   */
+  synchronized int getWindow() {
+    return (int) window;
+  }
+
+  /**
+   * @return the current number of writes in flight
+   */
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return the current number of writes waiting for a slot in the window
+   */
+  synchronized int getQueued() {
+    return queue.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return MoreObjects.toStringHelper(this)
+                      .add("uuid", uuid)
+                      .add("window", window)
+                      .add("inFlight", inFlight)
+                      .add("queued", queue.size())
+                      .add("minLatencyNanos", minLatencyNanos)
+                      .add("minLatencyPerRowNanos", minLatencyPerRowNanos)
+                      .toString();
+  }
+}
@@ -36,6 +36,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
@@ -43,6 +44,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.security.auth.Subject;
@@ -50,6 +53,7 @@ import javax.security.auth.Subject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -182,6 +186,13 @@ public class AsyncKuduClient implements AutoCloseable {
    */
   private final Semaphore masterLookups = new Semaphore(50);
 
+  /** The number of writes to the servers' sockets, and the RPCs they carried. */
+  private final AtomicLong outboundWrites = new AtomicLong();
+  private final AtomicLong outboundWriteRpcs = new AtomicLong();
+
+  /** Shares the tablet location lookups in flight between the cache misses they cover. */
+  private final LocationLookupCoalescer lookupCoalescer = new LocationLookupCoalescer();
+
   private final Random sleepRandomizer = new Random();
 
   private final long defaultOperationTimeoutMs;
@@ -196,6 +207,30 @@ public class AsyncKuduClient implements AutoCloseable {
 
   private final RequestTracker requestTracker;
 
+  /**
+   * Limits the writes in flight to each tablet server, keyed by the servers' UUID.
+   * Empty unless the write limiter is enabled.
+   */
+  private final ConcurrentHashMap<String, AdaptiveWriteLimiter> writeLimiters =
+      new ConcurrentHashMap<>();
+
+  /** The number of {@link #writeLimiters} that are currently backlogged. */
+  private final AtomicInteger backloggedWriteLimiters = new AtomicInteger();
+
+  private final boolean writeLimiterEnabled;
+
+  /** Whether opening a table also looks up the locations of all its tablets. */
+  private final boolean prefetchTableLocations;
+
+  /** Whether cached table locations are looked up again in the background before expiring. */
+  private final boolean refreshTableLocationsAhead;
+
+  /** The number of connections opened to each tablet server. */
+  private final int connectionsPerServer;
+
+  /** Builds and serializes the requests of the RPCs, null to do so on the sending threads. */
+  private final Executor encodingExecutor;
+
   private final SecurityContext securityContext;
 
   private volatile boolean closed;
@@ -211,6 +246,11 @@ public class AsyncKuduClient implements AutoCloseable {
     this.defaultSocketReadTimeoutMs = b.defaultSocketReadTimeoutMs;
     this.statisticsDisabled = b.statisticsDisabled;
     statistics = statisticsDisabled ? null : new Statistics();
+    this.writeLimiterEnabled = b.writeLimiterEnabled;
+    this.prefetchTableLocations = b.prefetchTableLocations;
+    this.refreshTableLocationsAhead = b.refreshTableLocationsAhead;
+    this.connectionsPerServer = b.connectionsPerServer;
+    this.encodingExecutor = b.encodingExecutor;
     this.timer = b.timer;
     String clientId = UUID.randomUUID().toString().replace("-", "");
     this.requestTracker = new RequestTracker(clientId);
@@ -465,7 +505,8 @@ public class AsyncKuduClient implements AutoCloseable {
     };
     fakeRpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
 
-    return getTableSchema(name).addCallbackDeferring(new Callback<Deferred<KuduTable>,
+    Deferred<GetTableSchemaResponse> schema = getTableSchema(name);
+    Deferred<KuduTable> opened = schema.addCallbackDeferring(new Callback<Deferred<KuduTable>,
         GetTableSchemaResponse>() {
       @Override
       public Deferred<KuduTable> call(GetTableSchemaResponse response) throws Exception {
@@ -500,6 +541,39 @@ public class AsyncKuduClient implements AutoCloseable {
         return d;
       }
     });
+    if (!prefetchTableLocations) {
+      return opened;
+    }
+    return opened.addCallbackDeferring(new Callback<Deferred<KuduTable>, KuduTable>() {
+      @Override
+      public Deferred<KuduTable> call(final KuduTable table) {
+        return prefetchTableLocations(table);
+      }
+    });
+  }
+
+  /**
+   * Looks up the locations of all the tablets of a table that was just opened, so that its
+   * first operations don't each wait on a master lookup. Failing to do so doesn't fail the
+   * opening of the table, the locations will be looked up on demand instead.
+   * @param table the opened table
+   * @return a deferred yielding the table once its locations are cached, or failed to be
+   */
+  private Deferred<KuduTable> prefetchTableLocations(final KuduTable table) {
+    Deferred<List<LocatedTablet>> d = locateTable(table, null, null,
+        FETCH_TABLETS_PER_RANGE_LOOKUP, defaultAdminOperationTimeoutMs);
+    return AsyncUtil.addBoth(d, new Callback<KuduTable, Object>() {
+      @Override
+      public KuduTable call(Object arg) {
+        if (arg instanceof Exception) {
+          LOG.warn("Couldn't prefetch the tablet locations of table {}", table.getName(),
+              (Exception) arg);
+        } else {
+          LOG.debug("Prefetched the tablet locations of table {}", table.getName());
+        }
+        return table;
+      }
+    });
   }
 
   /**
@@ -604,6 +678,23 @@ public class AsyncKuduClient implements AutoCloseable {
     return defaultSocketReadTimeoutMs;
   }
 
+  /**
+   * Get the number of connections opened to each tablet server, the RPCs to a server being
+   * spread over them.
+   * @return the number of connections per tablet server
+   */
+  int getConnectionsPerServer() {
+    return connectionsPerServer;
+  }
+
+  /**
+   * Get the executor the requests of the RPCs are built and serialized with.
+   * @return the encoding executor, or null if the threads sending the RPCs encode them
+   */
+  Executor getEncodingExecutor() {
+    return encodingExecutor;
+  }
+
   /**
    * @return the list of master addresses, stringified using commas to separate
    * them
@@ -660,6 +751,24 @@ public class AsyncKuduClient implements AutoCloseable {
     return new AsyncKuduScanner.AsyncKuduScannerBuilder(this, table);
   }
 
+  /**
+   * Looks up rows by primary key. The keys are grouped by tablet and each tablet holding some
+   * of them is scanned once, the tablets being scanned concurrently. With a composite primary
+   * key, only the keys close to each other are scanned together, the others being scanned for
+   * one by one. The rows returned are copies which don't keep the scanned data in memory.
+   * @param table the table to look the keys up in
+   * @param keys the keys, only their primary key columns need to be set
+   * @param projectedColumnNames the columns to return, the primary key columns always being
+   *                             returned first, or null to return all the columns
+   * @return a deferred with the rows in the order of the keys, null for the keys not found
+   */
+  public Deferred<List<RowResult>> multiGet(KuduTable table,
+                                            List<PartialRow> keys,
+                                            List<String> projectedColumnNames) {
+    checkIsClosed();
+    return new MultiGet(this, table, keys, projectedColumnNames).execute();
+  }
+
   /**
    * Create a new session for interacting with the cluster.
    * User is responsible for destroying the session object.
@@ -675,6 +784,17 @@ public class AsyncKuduClient implements AutoCloseable {
     return session;
   }
 
+  /**
+   * Create a new writer for bulk writes of column-oriented row batches to a table.
+   * This is a fully local operation (no RPCs or blocking).
+   * @param table the table to write to
+   * @return a new RowBatchWriter
+   */
+  public RowBatchWriter newRowBatchWriter(KuduTable table) {
+    checkIsClosed();
+    return new RowBatchWriter(this, table);
+  }
+
   /**
    * This method is for KuduSessions so that they can remove themselves as part of closing down.
    * @param session Session to remove
@@ -820,7 +940,7 @@ public class AsyncKuduClient implements AutoCloseable {
         request.setTablet(tablet);
         TabletClient client = connectionCache.getLiveClient(uuid);
         if (client != null) {
-          client.sendRpc(request);
+          sendRpcToTabletServer(client, uuid, request);
           return d;
         }
       }
@@ -853,6 +973,128 @@ public class AsyncKuduClient implements AutoCloseable {
     return AsyncUtil.addCallbacksDeferring(returnedD, cb, eb);
   }
 
+  /**
+   * Sends an RPC to a tablet server, going through the server's write limiter if it's a write.
+   * @param client the connection to the tablet server
+   * @param uuid the tablet server's UUID
+   * @param request the RPC to send
+   */
+  private <R> void sendRpcToTabletServer(final TabletClient client,
+                                         String uuid,
+                                         final KuduRpc<R> request) {
+    if (!writeLimiterEnabled || !Operation.METHOD.equals(request.method())) {
+      client.sendRpc(request);
+      return;
+    }
+    final AdaptiveWriteLimiter limiter = getWriteLimiter(uuid);
+    limiter.submit(new Runnable() {
+      @Override
+      public void run() {
+        request.acquiredWriteLimiterSlot(limiter);
+        // The write may have waited for a slot long enough to time out.
+        if (cannotRetryRequest(request)) {
+          tooManyAttemptsOrTimeout(request, null);
+          return;
+        }
+        client.sendRpc(request);
+      }
+    });
+  }
+
+  private AdaptiveWriteLimiter getWriteLimiter(String uuid) {
+    AdaptiveWriteLimiter limiter = writeLimiters.get(uuid);
+    if (limiter == null) {
+      AdaptiveWriteLimiter newLimiter = new AdaptiveWriteLimiter(uuid, backloggedWriteLimiters);
+      limiter = writeLimiters.putIfAbsent(uuid, newLimiter);
+      if (limiter == null) {
+        limiter = newLimiter;
+      }
+    }
+    return limiter;
+  }
+
+  /**
+   * Checks whether writes to any tablet server are backlogged, meaning more writes are waiting
+   * for the server's in-flight window than the window can hold.
+   * @return a deferred fired once writes to one of the backlogged servers drained, or null if
+   *         no server is backlogged
+   */
+  Deferred<Void> getWriteBacklogNotification() {
+    if (backloggedWriteLimiters.get() == 0) {
+      return null;
+    }
+    for (AdaptiveWriteLimiter limiter : writeLimiters.values()) {
+      Deferred<Void> notification = limiter.getBacklogNotification();
+      if (notification != null) {
+        return notification;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the current number of writes each tablet server may have in flight from this client,
+   * as adapted by the client's write limiter.
+   * @return a map of tablet server UUIDs to their in-flight write window, empty unless the write
+   *         limiter is enabled
+   */
+  public Map<String, Integer> getWriteWindows() {
+    ImmutableMap.Builder<String, Integer> windows = ImmutableMap.builder();
+    for (Map.Entry<String, AdaptiveWriteLimiter> e : writeLimiters.entrySet()) {
+      windows.put(e.getKey(), e.getValue().getWindow());
+    }
+    return windows.build();
+  }
+
+  /**
+   * Records a write of RPCs to a server's socket.
+   * @param rpcs the number of RPCs the write carried
+   */
+  void recordOutboundWrite(int rpcs) {
+    outboundWrites.incrementAndGet();
+    outboundWriteRpcs.addAndGet(rpcs);
+  }
+
+  /**
+   * Get the average number of RPCs this client sent per write to a server's socket. The RPCs
+   * sent to the same server at about the same time are coalesced into a single write.
+   * @return the average number of RPCs per write, 0 if nothing was written yet
+   */
+  public double getRpcsPerWrite() {
+    long writes = outboundWrites.get();
+    return writes == 0 ? 0 : (double) outboundWriteRpcs.get() / writes;
+  }
+
+  /**
+   * Get the number of tablet location lookups this client sent to the master.
+   * @return the number of lookups sent
+   */
+  public long getIssuedMasterLookups() {
+    return lookupCoalescer.getIssuedLookups();
+  }
+
+  /**
+   * Get the number of tablet location lookups this client didn't send to the master because
+   * they shared the result of another lookup already in flight.
+   * @return the number of lookups coalesced
+   */
+  public long getCoalescedMasterLookups() {
+    return lookupCoalescer.getCoalescedLookups();
+  }
+
+  /**
+   * Get the current number of writes waiting for a slot in each tablet server's window.
+   * @return a map of tablet server UUIDs to their number of queued writes, empty unless the write
+   *         limiter is enabled
+   */
+  public Map<String, Integer> getQueuedWrites() {
+    ImmutableMap.Builder<String, Integer> queued = ImmutableMap.builder();
+    for (Map.Entry<String, AdaptiveWriteLimiter> e : writeLimiters.entrySet()) {
+      queued.put(e.getKey(), e.getValue().getQueued());
+    }
+    return queued.build();
+  }
+
   /**
    * Callback used to retry a RPC after another query finished, like looking up where that RPC
    * should go.
@@ -1121,42 +1363,73 @@ public class AsyncKuduClient implements AutoCloseable {
                                                                     byte[] partitionKey,
                                                                     int fetchBatchSize,
                                                                     KuduRpc<?> parentRpc) {
-    boolean hasPermit = acquireMasterLookupPermit();
     String tableId = table.getTableId();
-    if (!hasPermit) {
-      // If we failed to acquire a permit, it's worth checking if someone
-      // looked up the tablet we're interested in.  Every once in a while
-      // this will save us a Master lookup.
-      TableLocationsCache.Entry entry = getTableLocationEntry(tableId, partitionKey);
-      if (entry != null && !entry.isNonCoveredRange() &&
-          entry.getTablet().getLeaderUUID() != null) {
-        return Deferred.fromResult(null);  // Looks like no lookup needed.
+    // Share a lookup already in flight when there's one covering this partition key, so that
+    // a burst of cache misses doesn't send as many lookups to the master.
+    Pair<Deferred<Master.GetTableLocationsResponsePB>, LocationLookupCoalescer.Lookup> coalesced =
+        lookupCoalescer.joinOrStart(tableId, partitionKey == null ? EMPTY_ARRAY : partitionKey,
+                                    fetchBatchSize);
+    if (coalesced.getFirst() != null) {
+      return coalesced.getFirst();
+    }
+    LocationLookupCoalescer.Lookup lookup = coalesced.getSecond();
+
+    // The lookup must end up either attached to what was sent, or abandoned, otherwise the misses
+    // which joined it would wait forever.
+    boolean attached = false;
+    boolean permitHeld = false;
+    try {
+      boolean hasPermit = acquireMasterLookupPermit();
+      permitHeld = hasPermit;
+      if (!hasPermit) {
+        // If we failed to acquire a permit, it's worth checking if someone
+        // looked up the tablet we're interested in.  Every once in a while
+        // this will save us a Master lookup.
+        TableLocationsCache.Entry entry = getTableLocationEntry(tableId, partitionKey);
+        if (entry != null && !entry.isNonCoveredRange() &&
+            entry.getTablet().getLeaderUUID() != null) {
+          // Looks like no lookup needed.
+          Deferred<Master.GetTableLocationsResponsePB> d = Deferred.fromResult(null);
+          lookup.attach(d);
+          attached = true;
+          return d;
+        }
       }
-    }
 
-    // If we know this is going to the master, check the master consensus
-    // configuration (as specified by 'masterAddresses' field) to determine and
-    // cache the current leader.
-    Deferred<Master.GetTableLocationsResponsePB> d;
-    if (isMasterTable(tableId)) {
-      d = getMasterTableLocationsPB(parentRpc);
-    } else {
-      // Leave the end of the partition key range empty in order to pre-fetch tablet locations.
-      GetTableLocationsRequest rpc =
-          new GetTableLocationsRequest(masterTable, partitionKey, null, tableId, fetchBatchSize);
-      if (parentRpc != null) {
-        rpc.setTimeoutMillis(parentRpc.deadlineTracker.getMillisBeforeDeadline());
-        rpc.setParentRpc(parentRpc);
+      // If we know this is going to the master, check the master consensus
+      // configuration (as specified by 'masterAddresses' field) to determine and
+      // cache the current leader.
+      Deferred<Master.GetTableLocationsResponsePB> d;
+      if (isMasterTable(tableId)) {
+        d = getMasterTableLocationsPB(parentRpc);
       } else {
-        rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+        // Leave the end of the partition key range empty in order to pre-fetch tablet locations.
+        GetTableLocationsRequest rpc =
+            new GetTableLocationsRequest(masterTable, partitionKey, null, tableId, fetchBatchSize);
+        if (parentRpc != null) {
+          rpc.setTimeoutMillis(parentRpc.deadlineTracker.getMillisBeforeDeadline());
+          rpc.setParentRpc(parentRpc);
+        } else {
+          rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+        }
+        d = sendRpcToTablet(rpc);
+      }
+      d.addCallback(new MasterLookupCB(table, partitionKey, fetchBatchSize));
+      if (hasPermit) {
+        d.addBoth(new ReleaseMasterLookupPermit<Master.GetTableLocationsResponsePB>());
+        permitHeld = false;
+      }
+      lookup.attach(d);
+      attached = true;
+      return d;
+    } finally {
+      if (!attached) {
+        if (permitHeld) {
+          releaseMasterLookupPermit();
+        }
+        lookup.abandon();
       }
-      d = sendRpcToTablet(rpc);
-    }
-    d.addCallback(new MasterLookupCB(table, partitionKey, fetchBatchSize));
-    if (hasPermit) {
-      d.addBoth(new ReleaseMasterLookupPermit<Master.GetTableLocationsResponsePB>());
     }
-    return d;
   }
 
   /**
@@ -1462,7 +1735,7 @@ public class AsyncKuduClient implements AutoCloseable {
     // already be present.
     TableLocationsCache locationsCache = tableLocations.get(tableId);
     if (locationsCache == null) {
-      locationsCache = new TableLocationsCache();
+      locationsCache = new TableLocationsCache(table);
       TableLocationsCache existingLocationsCache =
           tableLocations.putIfAbsent(tableId, locationsCache);
       if (existingLocationsCache != null) {
@@ -1527,7 +1800,49 @@ public class AsyncKuduClient implements AutoCloseable {
     if (cache == null) {
       return null;
     }
-    return cache.get(partitionKey);
+    TableLocationsCache.Entry entry = cache.get(partitionKey);
+    if (refreshTableLocationsAhead && entry != null && entry.isDueForRefresh() &&
+        !entry.isStale() && entry.tryStartRefresh()) {
+      refreshAhead(cache.getTable(), entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Looks up again, in the background, the locations starting at an entry which is about to
+   * expire, so that the operations using it don't all have to wait on the master once it does.
+   * @param table the table the entry belongs to
+   * @param entry the entry to refresh
+   */
+  private void refreshAhead(final KuduTable table, final TableLocationsCache.Entry entry) {
+    byte[] partitionKey = entry.getLowerBoundPartitionKey();
+    LOG.debug("Refreshing ahead the tablet locations of table {} starting at {}",
+        table.getName(), entry);
+    locateTablet(table, partitionKey, FETCH_TABLETS_PER_RANGE_LOOKUP, null)
+        .addErrback(new Callback<Void, Exception>() {
+          @Override
+          public Void call(Exception e) {
+            LOG.debug("Couldn't refresh ahead the tablet locations of table {}",
+                table.getName(), e);
+            entry.refreshFailed();
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Gets the tablet which covers the partition key in the table from the location cache only,
+   * without looking it up.
+   * @param table the table
+   * @param partitionKey the partition key of the tablet to find
+   * @return the located tablet, or null if the partition key isn't cached or isn't covered
+   */
+  LocatedTablet getCachedTabletLocation(KuduTable table, byte[] partitionKey) {
+    TableLocationsCache.Entry entry = getTableLocationEntry(table.getTableId(), partitionKey);
+    if (entry == null) {
+      return null;
+    }
+    return entry.getLocatedTablet();
   }
 
   /**
@@ -1720,6 +2035,7 @@ public class AsyncKuduClient implements AutoCloseable {
     private static final int DEFAULT_MASTER_PORT = 7051;
     private static final int DEFAULT_BOSS_COUNT = 1;
     private static final int DEFAULT_WORKER_COUNT = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_CONNECTIONS_PER_SERVER = 1;
 
     private final List<HostAndPort> masterAddresses;
     private long defaultAdminOperationTimeoutMs = DEFAULT_OPERATION_TIMEOUT_MS;
@@ -1730,9 +2046,14 @@ public class AsyncKuduClient implements AutoCloseable {
         new HashedWheelTimer(new ThreadFactoryBuilder().setDaemon(true).build(), 20, MILLISECONDS);
     private Executor bossExecutor;
     private Executor workerExecutor;
+    private Executor encodingExecutor;
     private int bossCount = DEFAULT_BOSS_COUNT;
     private int workerCount = DEFAULT_WORKER_COUNT;
+    private int connectionsPerServer = DEFAULT_CONNECTIONS_PER_SERVER;
     private boolean statisticsDisabled = false;
+    private boolean writeLimiterEnabled = false;
+    private boolean prefetchTableLocations = false;
+    private boolean refreshTableLocationsAhead = false;
     private Subject subject;
 
     /**
@@ -1809,6 +2130,22 @@ public class AsyncKuduClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Set an executor to build and serialize the requests of the RPCs with, instead of the
+     * threads sending them: usually the application's threads, or the Netty workers when an RPC
+     * is sent from a callback. Large write batches are then encoded in parallel without stalling
+     * either, and are still written to each connection in the order they were sent.
+     * The executor isn't shut down with the client.
+     * Optional.
+     * If not provided, the RPCs are encoded by the threads sending them.
+     * @param encodingExecutor the executor to encode the RPCs with
+     * @return this builder
+     */
+    public AsyncKuduClientBuilder encodingExecutor(Executor encodingExecutor) {
+      this.encodingExecutor = Preconditions.checkNotNull(encodingExecutor);
+      return this;
+    }
+
     /**
      * Set the executors which will be used for the embedded Netty boss and workers.
      * Optional.
@@ -1846,6 +2183,21 @@ public class AsyncKuduClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Set the number of connections opened to each tablet server. The RPCs to a server are
+     * spread over its connections round-robin, each connection being decoded by its own worker
+     * thread, which helps when a single socket can't keep up with the traffic to a server.
+     * The connections are opened as they're first needed.
+     * Optional.
+     * If not provided, 1 is used.
+     */
+    public AsyncKuduClientBuilder connectionsPerServer(int connectionsPerServer) {
+      Preconditions.checkArgument(connectionsPerServer > 0,
+                                  "connectionsPerServer should be greater than 0");
+      this.connectionsPerServer = connectionsPerServer;
+      return this;
+    }
+
     /**
      * Creates the channel factory for Netty. The user can specify the executors, but
      * if they don't, we'll use a simple thread pool.
@@ -1884,6 +2236,42 @@ public class AsyncKuduClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Enable an adaptive limit on the number of writes in flight to each tablet server. The
+     * limit grows while the servers keep up and shrinks when they report being too busy or
+     * their latency degrades, queueing the writes beyond it. When too many writes are queued,
+     * sessions flushing in the background throw {@link PleaseThrottleException} from
+     * {@code apply}, as they do when their own buffers are full.
+     * Disabled by default.
+     * @return this builder
+     */
+    public AsyncKuduClientBuilder enableWriteLimiter() {
+      this.writeLimiterEnabled = true;
+      return this;
+    }
+
+    /**
+     * Makes opening a table also look up the locations of all its tablets, so that the first
+     * operations on it don't wait on the master. A failed lookup doesn't fail the opening.
+     * Disabled by default.
+     * @return this builder
+     */
+    public AsyncKuduClientBuilder prefetchTableLocations() {
+      this.prefetchTableLocations = true;
+      return this;
+    }
+
+    /**
+     * Makes cached tablet locations get looked up again in the background when they're used
+     * shortly before expiring, instead of blocking the operations that find them expired.
+     * Disabled by default.
+     * @return this builder
+     */
+    public AsyncKuduClientBuilder refreshTableLocationsAhead() {
+      this.refreshTableLocationsAhead = true;
+      return this;
+    }
+
     /**
      * Creates a new client that connects to the masters.
      * Doesn't block and won't throw an exception if the masters don't exist.
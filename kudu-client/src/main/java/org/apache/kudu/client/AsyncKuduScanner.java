@@ -32,10 +32,12 @@ import static org.apache.kudu.tserver.Tserver.ScanRequestPB;
 import static org.apache.kudu.tserver.Tserver.ScanResponsePB;
 import static org.apache.kudu.tserver.Tserver.TabletServerErrorPB;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
 
 import com.google.common.collect.ImmutableList;
 import com.google.protobuf.Message;
@@ -50,6 +52,8 @@ import org.apache.kudu.Common;
 import org.apache.kudu.Schema;
 import org.apache.kudu.annotations.InterfaceAudience;
 import org.apache.kudu.annotations.InterfaceStability;
+import org.apache.kudu.client.Statistics.Statistic;
+import org.apache.kudu.client.Statistics.TabletStatistics;
 import org.apache.kudu.tserver.Tserver;
 import org.apache.kudu.util.Pair;
 
@@ -141,15 +145,30 @@ public final class AsyncKuduScanner {
 
   private final PartitionPruner pruner;
 
+  /**
+   * The residual filter bound to the projection, null if there's none.
+   */
+  private final RowFilter.Matcher residualFilter;
+
   /**
    * Map of column name to predicate.
    */
   private final Map<String, KuduPredicate> predicates;
 
   /**
-   * Maximum number of bytes returned by the scanner, on each batch.
+   * Maximum number of bytes returned by the scanner, on each batch. Tuned between
+   * minBatchSizeBytes and maxBatchSizeBytes when adaptive.
+   */
+  private volatile int batchSizeBytes;
+
+  /**
+   * Whether batchSizeBytes is tuned as the scan progresses.
    */
-  private final int batchSizeBytes;
+  private final boolean adaptiveBatchSize;
+
+  private final int minBatchSizeBytes;
+
+  private final int maxBatchSizeBytes;
 
   /**
    * The maximum number of rows to scan.
@@ -171,7 +190,15 @@ public final class AsyncKuduScanner {
 
   private byte[] lastPrimaryKey;
 
-  private final boolean prefetching;
+  /**
+   * The maximum number of batches to fetch ahead of the calls to nextRows, 0 if disabled.
+   */
+  private final int readAheadBatches;
+
+  /**
+   * The maximum number of bytes of row data in the batches fetched ahead.
+   */
+  private final long readAheadMaxBytes;
 
   private final boolean cacheBlocks;
 
@@ -185,6 +212,18 @@ public final class AsyncKuduScanner {
 
   private final ReplicaSelection replicaSelection;
 
+  /**
+   * The cache the scan is served from or added to, null if the scan isn't cacheable.
+   */
+  private final ScanResultCache resultCache;
+
+  private final ScanResultCache.Key resultCacheKey;
+
+  /**
+   * The cached batches nextRows returns instead of scanning, null unless the scan was cached.
+   */
+  private final List<ScanResultCache.Batch> cachedBatches;
+
   /////////////////////
   // Runtime variables.
   /////////////////////
@@ -217,7 +256,60 @@ public final class AsyncKuduScanner {
    */
   private int sequenceId;
 
-  private Deferred<RowResultIterator> prefetcherDeferred;
+  /** The index of the next cached batch to return. */
+  private int cachedBatchIndex;
+
+  /**
+   * The copies of the batches returned so far, added to the result cache once the scan is
+   * done. Null if the scan isn't cacheable, was served from the cache, or was abandoned.
+   */
+  private List<ScanResultCache.Batch> recordedBatches;
+
+  /** The number of bytes of row data in recordedBatches. */
+  private long recordedBytes;
+
+  /////////////////////
+  // Read-ahead state, only used when readAheadBatches > 0. The batches are received on other
+  // threads than the one calling nextRows, so it's guarded by readAheadLock.
+  /////////////////////
+
+  private final Object readAheadLock = new Object();
+
+  /** The results fetched ahead and not returned yet, each a RowResultIterator or an Exception. */
+  @GuardedBy("readAheadLock")
+  private final ArrayDeque<Object> readAheadResults = new ArrayDeque<>();
+
+  /** The number of bytes of row data in readAheadResults. */
+  @GuardedBy("readAheadLock")
+  private long readAheadBytes;
+
+  /** Whether a batch is being fetched. */
+  @GuardedBy("readAheadLock")
+  private boolean readAheadInFlight;
+
+  /** The deferred returned by nextRows while waiting for the batch being fetched, or null. */
+  @GuardedBy("readAheadLock")
+  private Deferred<RowResultIterator> readAheadWaiter;
+
+  /** The deferred returned by close while a batch was being fetched, or null. */
+  @GuardedBy("readAheadLock")
+  private Deferred<RowResultIterator> readAheadClose;
+
+  /////////////////////
+  // Measurements used to tune the batch size, only used when adaptiveBatchSize.
+  /////////////////////
+
+  /** When the batch being fetched was requested. */
+  private volatile long fetchStartNanos;
+
+  /** When the last batch was received. */
+  private volatile long lastResponseNanos;
+
+  /** How long it took to fetch the last batch. */
+  private volatile long lastFetchNanos;
+
+  /** When nextRows was last called, 0 if never. */
+  private long lastNextRowsNanos;
 
   final long scanRequestTimeout;
 
@@ -225,9 +317,11 @@ public final class AsyncKuduScanner {
                    List<Integer> projectedIndexes, ReadMode readMode, boolean isFaultTolerant,
                    long scanRequestTimeout,
                    Map<String, KuduPredicate> predicates, long limit,
-                   boolean cacheBlocks, boolean prefetching,
+                   boolean cacheBlocks, int readAheadBatches, long readAheadMaxBytes,
                    byte[] startPrimaryKey, byte[] endPrimaryKey,
-                   long htTimestamp, int batchSizeBytes, PartitionPruner pruner,
+                   long htTimestamp, int batchSizeBytes, int minBatchSizeBytes,
+                   int maxBatchSizeBytes, RowFilter residualFilter,
+                   ScanResultCache resultCache, byte[] resultCacheToken, PartitionPruner pruner,
                    ReplicaSelection replicaSelection) {
     checkArgument(batchSizeBytes > 0, "Need a strictly positive number of bytes, " +
         "got %s", batchSizeBytes);
@@ -257,10 +351,22 @@ public final class AsyncKuduScanner {
     this.predicates = predicates;
     this.limit = limit;
     this.cacheBlocks = cacheBlocks;
-    this.prefetching = prefetching;
+    this.readAheadBatches = readAheadBatches;
+    this.readAheadMaxBytes = readAheadMaxBytes;
     this.startPrimaryKey = startPrimaryKey;
     this.endPrimaryKey = endPrimaryKey;
     this.htTimestamp = htTimestamp;
+    this.adaptiveBatchSize = minBatchSizeBytes > 0;
+    if (adaptiveBatchSize) {
+      // The batches read ahead must fit in the bytes they're allowed to hold.
+      if (readAheadBatches > 0 && readAheadMaxBytes != Long.MAX_VALUE) {
+        maxBatchSizeBytes = (int) Math.max(minBatchSizeBytes,
+            Math.min(maxBatchSizeBytes, readAheadMaxBytes / readAheadBatches));
+      }
+      batchSizeBytes = Math.max(minBatchSizeBytes, Math.min(maxBatchSizeBytes, batchSizeBytes));
+    }
+    this.minBatchSizeBytes = minBatchSizeBytes;
+    this.maxBatchSizeBytes = maxBatchSizeBytes;
     this.batchSizeBytes = batchSizeBytes;
     this.lastPrimaryKey = AsyncKuduClient.EMPTY_ARRAY;
 
@@ -283,6 +389,26 @@ public final class AsyncKuduScanner {
     } else {
       this.schema = table.getSchema();
     }
+    this.residualFilter = residualFilter == null ? null : residualFilter.bind(this.schema);
+
+    // Only the scans at a fixed snapshot always return the same rows.
+    if (resultCache != null && readMode == ReadMode.READ_AT_SNAPSHOT &&
+        htTimestamp != AsyncKuduClient.NO_TIMESTAMP) {
+      this.resultCache = resultCache;
+      this.resultCacheKey = new ScanResultCache.Key(resultCacheToken, htTimestamp);
+      this.cachedBatches = resultCache.get(resultCacheKey);
+      if (cachedBatches == null) {
+        this.recordedBatches = new ArrayList<>();
+      } else {
+        // Served from the cache, no tablet server is contacted.
+        this.hasMore = false;
+        this.closed = true;
+      }
+    } else {
+      this.resultCache = null;
+      this.resultCacheKey = null;
+      this.cachedBatches = null;
+    }
 
     // If the partition pruner has pruned all partitions, then the scan can be
     // short circuited without contacting any tablet servers.
@@ -319,6 +445,14 @@ public final class AsyncKuduScanner {
    * @return true if there might be more data to scan, else false
    */
   public boolean hasMoreRows() {
+    if (cachedBatches != null) {
+      return cachedBatchIndex < cachedBatches.size();
+    }
+    if (readAheadBatches > 0) {
+      synchronized (readAheadLock) {
+        return this.hasMore || readAheadInFlight || !readAheadResults.isEmpty();
+      }
+    }
     return this.hasMore;
   }
 
@@ -331,7 +465,8 @@ public final class AsyncKuduScanner {
   }
 
   /**
-   * Returns the maximum number of bytes returned by the scanner, on each batch.
+   * Returns the maximum number of bytes returned by the scanner, on each batch. When the batch
+   * size is adaptive, this is the size the next batch will be requested with.
    * @return a long representing the maximum number of bytes that a scanner can receive at once
    * from a tablet server
    */
@@ -370,16 +505,241 @@ public final class AsyncKuduScanner {
    * Once this method returns {@code null} once (which indicates that this
    * {@code Scanner} is done scanning), calling it again leads to an undefined
    * behavior.
+   * <p>
+   * When reading ahead, the batches already fetched are returned first, and the scanner keeps
+   * fetching the next ones in the background.
+   * <p>
+   * When the scan was found in its {@link ScanResultCache}, the cached batches are returned.
    * @return a deferred list of rows.
    */
   public Deferred<RowResultIterator> nextRows() {
+    if (cachedBatches != null) {
+      if (cachedBatchIndex == cachedBatches.size()) {
+        return Deferred.fromResult(null);
+      }
+      ScanResultCache.Batch batch = cachedBatches.get(cachedBatchIndex++);
+      return Deferred.fromResult(batch.toIterator(schema, residualFilter));
+    }
+    Deferred<RowResultIterator> d = scanNextRows();
+    if (recordedBatches != null) {
+      d = d.addCallbacks(recordBatch, abandonRecording);
+    }
+    return d;
+  }
+
+  /**
+   * Returns the next batch from the tablet servers, or from the batches read ahead.
+   */
+  private Deferred<RowResultIterator> scanNextRows() {
+    if (adaptiveBatchSize) {
+      adaptBatchSize();
+    }
+    if (readAheadBatches == 0) {
+      return fetchNextRows();
+    }
+    Deferred<RowResultIterator> d;
+    boolean fetch;
+    synchronized (readAheadLock) {
+      Object result = readAheadResults.poll();
+      if (result instanceof Exception) {
+        d = Deferred.fromError((Exception) result);
+        fetch = startReadAhead();
+      } else if (result != null) {
+        readAheadBytes -= ((RowResultIterator) result).getDataSizeBytes();
+        d = Deferred.fromResult((RowResultIterator) result);
+        fetch = startReadAhead();
+      } else if (readAheadInFlight) {
+        d = new Deferred<>();
+        readAheadWaiter = d;
+        fetch = false;
+      } else if (closed) {
+        return Deferred.fromResult(null);
+      } else {
+        d = new Deferred<>();
+        readAheadWaiter = d;
+        readAheadInFlight = true;
+        fetch = true;
+      }
+    }
+    if (fetch) {
+      readAhead();
+    }
+    return d;
+  }
+
+  /**
+   * Copies the batch returned to the caller so as to add the whole scan to the result cache
+   * once it's done, unless the scan turns out to be too big for the cache.
+   */
+  private final Callback<RowResultIterator, RowResultIterator> recordBatch =
+      new Callback<RowResultIterator, RowResultIterator>() {
+        @Override
+        public RowResultIterator call(RowResultIterator batch) {
+          List<ScanResultCache.Batch> recorded = recordedBatches;
+          if (recorded == null) {
+            return batch;
+          }
+          if (batch != null && batch.getNumReceivedRows() > 0) {
+            recordedBytes += batch.getDataSizeBytes();
+            if (!resultCache.admits(recordedBytes)) {
+              recordedBatches = null;
+              return batch;
+            }
+            recorded.add(resultCache.copyOf(batch));
+          }
+          if (!hasMoreRows()) {
+            recordedBatches = null;
+            resultCache.put(resultCacheKey, recorded, recordedBytes);
+          }
+          return batch;
+        }
+
+        @Override
+        public String toString() {
+          return "record batch";
+        }
+      };
+
+  /**
+   * Stops recording the batches of a scan which failed, letting the error through.
+   */
+  private final Callback<Exception, Exception> abandonRecording =
+      new Callback<Exception, Exception>() {
+        @Override
+        public Exception call(Exception e) {
+          recordedBatches = null;
+          return e;
+        }
+
+        @Override
+        public String toString() {
+          return "abandon recording";
+        }
+      };
+
+  /**
+   * Tunes the size of the next batches from how long the caller took to process the last one,
+   * compared to how long the server took to return it.
+   */
+  private void adaptBatchSize() {
+    long now = System.nanoTime();
+    long previousCall = lastNextRowsNanos;
+    lastNextRowsNanos = now;
+    long fetchNanos = lastFetchNanos;
+    if (previousCall == 0 || fetchNanos <= 0) {
+      return;
+    }
+    // The caller started processing when it got the batch, which is either when it was received
+    // or, if it was already read ahead, when the caller asked for it.
+    long consumerNanos = now - Math.max(previousCall, lastResponseNanos);
+    int size = batchSizeBytes;
+    if (consumerNanos * 2 < fetchNanos) {
+      // The scan is bound by the round trips, make fewer of them.
+      size = (int) Math.min(maxBatchSizeBytes, size * 2L);
+    } else if (consumerNanos > fetchNanos * 4) {
+      // The round trips are cheap compared to the processing, return the rows sooner.
+      size = Math.max(minBatchSizeBytes, size / 2);
+    }
+    if (size != batchSizeBytes) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Changing the batch size of {} from {} to {} bytes", this, batchSizeBytes, size);
+      }
+      batchSizeBytes = size;
+    }
+  }
+
+  /**
+   * Records how long the batch that was just received took to fetch.
+   */
+  private void batchReceived() {
+    if (adaptiveBatchSize) {
+      long now = System.nanoTime();
+      lastFetchNanos = now - fetchStartNanos;
+      lastResponseNanos = now;
+    }
+  }
+
+  /**
+   * Decides whether to fetch the next batch ahead, and marks it as in flight if so.
+   * @return true if the caller must call {@link #readAhead()} once the lock is released
+   */
+  @GuardedBy("readAheadLock")
+  private boolean startReadAhead() {
+    if (readAheadInFlight || readAheadClose != null || closed || !hasMore ||
+        readAheadResults.size() >= readAheadBatches || readAheadBytes >= readAheadMaxBytes ||
+        readAheadResults.peekLast() instanceof Exception) {
+      return false;
+    }
+    readAheadInFlight = true;
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readAhead() {
+    // The result is handed as is to the callback, be it rows, null or an exception.
+    ((Deferred<Object>) (Deferred<?>) fetchNextRows()).addBoth(readAheadCallback);
+  }
+
+  /**
+   * Buffers the batch fetched ahead, or hands it to the caller waiting for it, and fetches the
+   * next one unless enough are buffered.
+   */
+  private final Callback<Object, Object> readAheadCallback = new Callback<Object, Object>() {
+    @Override
+    public Object call(Object result) {
+      Deferred<RowResultIterator> waiter;
+      Deferred<RowResultIterator> pendingClose;
+      boolean fetch;
+      synchronized (readAheadLock) {
+        readAheadInFlight = false;
+        waiter = readAheadWaiter;
+        readAheadWaiter = null;
+        pendingClose = readAheadClose;
+        readAheadClose = null;
+        if (waiter == null && pendingClose == null && result != null) {
+          readAheadResults.add(result);
+          if (result instanceof RowResultIterator) {
+            readAheadBytes += ((RowResultIterator) result).getDataSizeBytes();
+          }
+        }
+        fetch = pendingClose == null && startReadAhead();
+      }
+      if (fetch) {
+        readAhead();
+      }
+      if (pendingClose != null) {
+        closeScanner().chain(pendingClose);
+      }
+      if (waiter != null) {
+        waiter.callback(result);
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "read ahead";
+    }
+  };
+
+  /**
+   * Sends the request for the next batch of rows, opening a scanner on the next tablet first
+   * if needed.
+   * @return a deferred batch of rows, or null if the scan is done
+   */
+  private Deferred<RowResultIterator> fetchNextRows() {
     if (closed) {  // We're already done scanning.
       return Deferred.fromResult(null);
-    } else if (tablet == null) {
+    }
+    if (adaptiveBatchSize) {
+      fetchStartNanos = System.nanoTime();
+    }
+    if (tablet == null) {
       Callback<Deferred<RowResultIterator>, AsyncKuduScanner.Response> cb =
           new Callback<Deferred<RowResultIterator>, Response>() {
         @Override
         public Deferred<RowResultIterator> call(Response resp) throws Exception {
+          batchReceived();
           if (htTimestamp == AsyncKuduClient.NO_TIMESTAMP &&
               resp.scanTimestamp != AsyncKuduClient.NO_TIMESTAMP) {
             // If the server-assigned timestamp is present in the tablet
@@ -431,7 +791,7 @@ public final class AsyncKuduScanner {
             }
             scannerId = null;
             sequenceId = 0;
-            return nextRows();
+            return fetchNextRows();
           } else {
             LOG.warn("Can not open scanner", e);
             // Don't let the scanner think it's opened on this tablet.
@@ -446,31 +806,10 @@ public final class AsyncKuduScanner {
 
       // We need to open the scanner first.
       return client.sendRpcToTablet(getOpenRequest()).addCallbackDeferring(cb).addErrback(eb);
-    } else if (prefetching && prefetcherDeferred != null) {
-      // TODO KUDU-1260 - Check if this works and add a test
-      prefetcherDeferred.chain(new Deferred<RowResultIterator>().addCallback(prefetch));
-      return prefetcherDeferred;
-    }
-    final Deferred<RowResultIterator> d =
-        client.scanNextRows(this).addCallbacks(gotNextRow, nextRowErrback());
-    if (prefetching) {
-      d.chain(new Deferred<RowResultIterator>().addCallback(prefetch));
     }
-    return d;
+    return client.scanNextRows(this).addCallbacks(gotNextRow, nextRowErrback());
   }
 
-  private final Callback<RowResultIterator, RowResultIterator> prefetch =
-      new Callback<RowResultIterator, RowResultIterator>() {
-    @Override
-    public RowResultIterator call(RowResultIterator arg) throws Exception {
-      if (hasMoreRows()) {
-        prefetcherDeferred = client.scanNextRows(AsyncKuduScanner.this)
-            .addCallbacks(gotNextRow, nextRowErrback());
-      }
-      return null;
-    }
-  };
-
   /**
    * Singleton callback to handle responses of "next" RPCs.
    * This returns an {@code ArrayList<ArrayList<KeyValue>>} (possibly inside a
@@ -479,6 +818,7 @@ public final class AsyncKuduScanner {
   private final Callback<RowResultIterator, Response> gotNextRow =
       new Callback<RowResultIterator, Response>() {
         public RowResultIterator call(final Response resp) {
+          batchReceived();
           if (!resp.more) {  // We're done scanning this tablet.
             scanFinished();
             return resp.data;
@@ -511,7 +851,7 @@ public final class AsyncKuduScanner {
         if (e instanceof ScannerExpiredException) {
           scannerId = null;
           sequenceId = 0;
-          return nextRows();
+          return fetchNextRows();
         } else {
           return Deferred.fromError(e); // Let the error propagate.
         }
@@ -552,6 +892,29 @@ public final class AsyncKuduScanner {
    * in the scanner, or an Exception.
    */
   public Deferred<RowResultIterator> close() {
+    // A scan closed before its end isn't cached.
+    recordedBatches = null;
+    if (cachedBatches != null) {
+      cachedBatchIndex = cachedBatches.size();
+      return Deferred.fromResult(null);
+    }
+    if (readAheadBatches > 0) {
+      synchronized (readAheadLock) {
+        readAheadResults.clear();
+        readAheadBytes = 0;
+        if (readAheadInFlight) {
+          // The scanner is closed once the batch being fetched is received.
+          if (readAheadClose == null) {
+            readAheadClose = new Deferred<>();
+          }
+          return readAheadClose;
+        }
+      }
+    }
+    return closeScanner();
+  }
+
+  private Deferred<RowResultIterator> closeScanner() {
     if (closed) {
       return Deferred.fromResult(null);
     }
@@ -740,6 +1103,9 @@ public final class AsyncKuduScanner {
 
     State state;
 
+    /** The batch size this request was last serialized with, 0 when closing. */
+    private int requestedBatchSizeBytes;
+
     ScanRequest(KuduTable table, State state, RemoteTablet tablet) {
       super(table);
       setTablet(tablet);
@@ -775,6 +1141,7 @@ public final class AsyncKuduScanner {
     @Override
     Message createRequestPB() {
       final ScanRequestPB.Builder builder = ScanRequestPB.newBuilder();
+      requestedBatchSizeBytes = state == State.CLOSING ? 0 : batchSizeBytes;
       switch (state) {
         case OPENING:
           // Save the tablet in the AsyncKuduScanner.  This kind of a kludge but it really
@@ -816,12 +1183,12 @@ public final class AsyncKuduScanner {
             newBuilder.addColumnPredicates(pred.toPB());
           }
           builder.setNewScanRequest(newBuilder.build())
-                 .setBatchSizeBytes(batchSizeBytes);
+                 .setBatchSizeBytes(requestedBatchSizeBytes);
           break;
         case NEXT:
           builder.setScannerId(UnsafeByteOperations.unsafeWrap(scannerId))
                  .setCallSeqId(AsyncKuduScanner.this.sequenceId)
-                 .setBatchSizeBytes(batchSizeBytes);
+                 .setBatchSizeBytes(requestedBatchSizeBytes);
           break;
         case CLOSING:
           builder.setScannerId(UnsafeByteOperations.unsafeWrap(scannerId))
@@ -867,7 +1234,7 @@ public final class AsyncKuduScanner {
           }
       }
       RowResultIterator iterator = RowResultIterator.makeRowResultIterator(
-          deadlineTracker.getElapsedMillis(), tsUUID, schema, resp.getData(),
+          deadlineTracker.getElapsedMillis(), tsUUID, schema, resp.getData(), residualFilter,
           callResponse);
 
       boolean hasMore = resp.getHasMoreResults();
@@ -889,6 +1256,18 @@ public final class AsyncKuduScanner {
       return new Pair<Response, Object>(response, error);
     }
 
+    @Override
+    void updateStatistics(Statistics statistics, Response response) {
+      if (response == null || requestedBatchSizeBytes == 0) {
+        return;
+      }
+      TabletStatistics tabletStatistics =
+          statistics.getTabletStatistics(getTable().getName(), getTablet().getTabletId());
+      tabletStatistics.incrementStatistic(Statistic.SCAN_RPCS, 1);
+      tabletStatistics.incrementStatistic(Statistic.SCAN_BATCH_SIZE_BYTES,
+                                          requestedBatchSizeBytes);
+    }
+
     public String toString() {
       return "ScanRequest(scannerId=" + Bytes.pretty(scannerId) +
           (tablet != null ? ", tabletSlice=" + tablet.getTabletId() : "") +
@@ -923,8 +1302,10 @@ public final class AsyncKuduScanner {
       return new AsyncKuduScanner(
           client, table, projectedColumnNames, projectedColumnIndexes, readMode, isFaultTolerant,
           scanRequestTimeout, predicates, limit, cacheBlocks,
-          prefetching, lowerBoundPrimaryKey, upperBoundPrimaryKey,
-          htTimestamp, batchSizeBytes, PartitionPruner.create(this), replicaSelection);
+          readAheadBatches, readAheadMaxBytes, lowerBoundPrimaryKey, upperBoundPrimaryKey,
+          htTimestamp, batchSizeBytes, minBatchSizeBytes, maxBatchSizeBytes,
+          residualFilter, resultCache, resultCacheToken, PartitionPruner.create(this),
+          replicaSelection);
     }
   }
 }
@@ -179,6 +179,9 @@ public class AsyncKuduSession implements SessionConfiguration {
 
   private boolean ignoreAllDuplicateRows = false;
 
+  /** Cap on the encoded size of the row operations of each write RPC. */
+  private long maxBatchSizeBytes = Batch.DEFAULT_MAX_ROW_OPERATIONS_SIZE_BYTES;
+
   /**
    * Package-private constructor meant to be used via AsyncKuduClient
    * @param client client that creates this session
@@ -249,6 +252,17 @@ public class AsyncKuduSession implements SessionConfiguration {
     this.randomizer.setSeed(seed);
   }
 
+  @Override
+  public void setMaxBatchSizeBytes(long maxBatchSizeBytes) {
+    Preconditions.checkArgument(maxBatchSizeBytes > 0, "The batch size cap must be positive");
+    this.maxBatchSizeBytes = maxBatchSizeBytes;
+  }
+
+  @Override
+  public long getMaxBatchSizeBytes() {
+    return maxBatchSizeBytes;
+  }
+
   @Override
   public void setFlushInterval(int interval) {
     this.interval = interval;
@@ -314,6 +328,111 @@ public class AsyncKuduSession implements SessionConfiguration {
     localFlushNotification.callback(null);
   }
 
+  /**
+   * Groups the operations of a flush which go to the same tablet into batches whose encoded row
+   * operations don't exceed {@link #maxBatchSizeBytes}, so that no write RPC grows past what the
+   * tablet server accepts. Batches are sent concurrently, except when an operation is on the same
+   * row as an operation of an earlier batch: its batch is then only sent once that earlier batch
+   * completes, preserving the order in which the row's operations were applied.
+   */
+  private final class TabletBatches {
+    private final LocatedTablet tablet;
+    private final List<Batch> batches = new ArrayList<>(1);
+
+    /**
+     * The batches each batch has to wait for, indexed like {@link #batches}. Entries are null
+     * for batches which can be sent right away.
+     */
+    private final List<List<Batch>> dependencies = new ArrayList<>(1);
+
+    /**
+     * The last batch each primary key was added to. Only built once a second batch is needed,
+     * so that the common case of a single batch per tablet doesn't encode primary keys.
+     */
+    private Map<Slice, Batch> batchByKey;
+
+    TabletBatches(LocatedTablet tablet) {
+      this.tablet = tablet;
+    }
+
+    void add(Operation operation) {
+      long sizeBytes = operation.computeEncodedRowOperationSizeBytes();
+      Batch current = batches.isEmpty() ? null : batches.get(batches.size() - 1);
+      if (current == null ||
+          (!current.operations.isEmpty() &&
+              current.getBufferedRowOperationsSizeBytes() + sizeBytes > maxBatchSizeBytes)) {
+        if (current != null && batchByKey == null) {
+          batchByKey = new HashMap<>();
+          for (Operation op : current.operations) {
+            batchByKey.put(new Slice(op.getRow().encodePrimaryKey()), current);
+          }
+        }
+        current = new Batch(operation.getTable(), tablet, ignoreAllDuplicateRows);
+        batches.add(current);
+        dependencies.add(null);
+      }
+
+      if (batchByKey != null) {
+        Batch previous = batchByKey.put(new Slice(operation.getRow().encodePrimaryKey()), current);
+        if (previous != null && previous != current) {
+          int index = batches.size() - 1;
+          List<Batch> currentDependencies = dependencies.get(index);
+          if (currentDependencies == null) {
+            currentDependencies = new ArrayList<>(1);
+            dependencies.set(index, currentDependencies);
+          }
+          if (!currentDependencies.contains(previous)) {
+            currentDependencies.add(previous);
+          }
+        }
+      }
+      current.add(operation, sizeBytes);
+    }
+
+    /**
+     * Sends the batches, and adds their deferred responses to the passed list.
+     */
+    void send(List<Deferred<BatchResponse>> batchResponses) {
+      Map<Batch, Deferred<BatchResponse>> sent = new HashMap<>();
+      for (int i = 0; i < batches.size(); i++) {
+        final Batch batch = batches.get(i);
+        if (timeoutMs != 0) {
+          batch.deadlineTracker.reset();
+          batch.setTimeoutMillis(timeoutMs);
+        }
+        addBatchCallbacks(batch);
+
+        Deferred<BatchResponse> response;
+        List<Batch> batchDependencies = dependencies.get(i);
+        if (batchDependencies == null) {
+          response = client.sendRpcToTablet(batch);
+        } else {
+          // Batches only ever depend on batches created, and thus sent, before them.
+          List<Deferred<BatchResponse>> previousResponses =
+              new ArrayList<>(batchDependencies.size());
+          for (Batch dependency : batchDependencies) {
+            previousResponses.add(sent.get(dependency));
+          }
+          response = AsyncUtil.addBothDeferring(
+              Deferred.group(previousResponses),
+              new Callback<Deferred<BatchResponse>, Object>() {
+                @Override
+                public Deferred<BatchResponse> call(Object unused) {
+                  return client.sendRpcToTablet(batch);
+                }
+
+                @Override
+                public String toString() {
+                  return "send dependent batch";
+                }
+              });
+        }
+        sent.put(batch, response);
+        batchResponses.add(response);
+      }
+    }
+  }
+
   /**
    * Callback which waits for all tablet location lookups to complete, groups all operations into
    * batches by tablet, and dispatches them. When all of the batches are complete, a deferred is
@@ -324,8 +443,8 @@ public class AsyncKuduSession implements SessionConfiguration {
     private final Buffer buffer;
     private final Deferred<List<BatchResponse>> deferred;
 
-    public TabletLookupCB(Buffer buffer, Deferred<List<BatchResponse>> deferred) {
-      this.lookupsOutstanding = new AtomicInteger(buffer.getOperations().size());
+    public TabletLookupCB(Buffer buffer, Deferred<List<BatchResponse>> deferred, int lookups) {
+      this.lookupsOutstanding = new AtomicInteger(lookups);
       this.buffer = buffer;
       this.deferred = deferred;
     }
@@ -335,12 +454,20 @@ public class AsyncKuduSession implements SessionConfiguration {
       if (lookupsOutstanding.decrementAndGet() != 0) {
         return null;
       }
+      // The final tablet lookup is complete.
+      sendBatches();
+      return null;
+    }
 
-      // The final tablet lookup is complete. Batch all of the buffered
-      // operations into their respective tablet, and then send the batches.
+    /**
+     * Batches all of the buffered operations into their respective tablet, and then sends the
+     * batches. Called once all of the tablet lookups are complete.
+     */
+    void sendBatches() {
 
-      // Group the operations by tablet.
-      Map<Slice, Batch> batches = new HashMap<>();
+      // Group the operations by tablet, splitting the groups which are too large to fit in a
+      // single RPC.
+      Map<Slice, TabletBatches> batches = new HashMap<>();
       List<OperationResponse> opsFailedInLookup = new ArrayList<>();
 
       for (BufferedOperation bufferedOp : buffer.getOperations()) {
@@ -371,12 +498,12 @@ public class AsyncKuduSession implements SessionConfiguration {
         LocatedTablet tablet = bufferedOp.getTablet();
         Slice tabletId = new Slice(tablet.getTabletId());
 
-        Batch batch = batches.get(tabletId);
-        if (batch == null) {
-          batch = new Batch(operation.getTable(), tablet, ignoreAllDuplicateRows);
-          batches.put(tabletId, batch);
+        TabletBatches tabletBatches = batches.get(tabletId);
+        if (tabletBatches == null) {
+          tabletBatches = new TabletBatches(tablet);
+          batches.put(tabletId, tabletBatches);
         }
-        batch.add(operation);
+        tabletBatches.add(operation);
       }
 
       List<Deferred<BatchResponse>> batchResponses = new ArrayList<>(batches.size() + 1);
@@ -384,13 +511,8 @@ public class AsyncKuduSession implements SessionConfiguration {
         batchResponses.add(Deferred.fromResult(new BatchResponse(opsFailedInLookup)));
       }
 
-      for (Batch batch : batches.values()) {
-        if (timeoutMs != 0) {
-          batch.deadlineTracker.reset();
-          batch.setTimeoutMillis(timeoutMs);
-        }
-        addBatchCallbacks(batch);
-        batchResponses.add(client.sendRpcToTablet(batch));
+      for (TabletBatches tabletBatches : batches.values()) {
+        tabletBatches.send(batchResponses);
       }
 
       // On completion of all batches, fire the completion deferred, and add the buffer
@@ -405,15 +527,14 @@ public class AsyncKuduSession implements SessionConfiguration {
               return null;
             }
           });
-
-      return null;
     }
   }
 
   /**
    * Flush buffered writes.
    * @return a {@link Deferred} whose callback chain will be invoked when all applied operations at
-   *         the time of the call have been flushed.
+   *         the time of the call have been flushed. The list it's called with is a read-only
+   *         view, modifying it throws an {@link UnsupportedOperationException}.
    */
   public Deferred<List<OperationResponse>> flush() {
     Buffer buffer;
@@ -451,11 +572,26 @@ public class AsyncKuduSession implements SessionConfiguration {
       return Deferred.<List<OperationResponse>>fromResult(ImmutableList.<OperationResponse>of());
     }
 
+    // Only the operations whose tablet wasn't cached when they were applied have a lookup to
+    // wait for, the batches are sent right away when there are none.
+    int lookups = 0;
+    for (BufferedOperation bufferedOperation : buffer.getOperations()) {
+      if (bufferedOperation.getTabletLookup() != null) {
+        lookups++;
+      }
+    }
+
     Deferred<List<BatchResponse>> batchResponses = new Deferred<>();
-    Callback<Void, Object> tabletLookupCB = new TabletLookupCB(buffer, batchResponses);
+    TabletLookupCB tabletLookupCB = new TabletLookupCB(buffer, batchResponses, lookups);
 
-    for (BufferedOperation bufferedOperation : buffer.getOperations()) {
-      AsyncUtil.addBoth(bufferedOperation.getTabletLookup(), tabletLookupCB);
+    if (lookups == 0) {
+      tabletLookupCB.sendBatches();
+    } else {
+      for (BufferedOperation bufferedOperation : buffer.getOperations()) {
+        if (bufferedOperation.getTabletLookup() != null) {
+          AsyncUtil.addBoth(bufferedOperation.getTabletLookup(), tabletLookupCB);
+        }
+      }
     }
 
     return batchResponses.addCallback(ConvertBatchToListOfResponsesCB.getInstance());
@@ -472,19 +608,9 @@ public class AsyncKuduSession implements SessionConfiguration {
 
     @Override
     public List<OperationResponse> call(List<BatchResponse> batchResponses) throws Exception {
-      // First compute the size of the union of all the lists so that we don't trigger expensive
-      // list growths while adding responses to it.
-      int size = 0;
-      for (BatchResponse batchResponse : batchResponses) {
-        size += batchResponse.getIndividualResponses().size();
-      }
-
-      ArrayList<OperationResponse> responses = new ArrayList<>(size);
-      for (BatchResponse batchResponse : batchResponses) {
-        responses.addAll(batchResponse.getIndividualResponses());
-      }
-
-      return responses;
+      // The responses are only materialized if the application goes through them, those only
+      // interested in the errors can get them with OperationResponse.collectErrors().
+      return new BatchResponse.ResponsesView(batchResponses);
     }
 
     @Override
@@ -518,6 +644,22 @@ public class AsyncKuduSession implements SessionConfiguration {
    * @see SessionConfiguration.FlushMode FlushMode
    */
   public Deferred<OperationResponse> apply(final Operation operation) throws KuduException {
+    return apply(operation, true);
+  }
+
+  /**
+   * Applies an operation, optionally without tracking its individual response. Untracked
+   * operations buffered in the background or manual flush modes don't get a response built when
+   * their batch completes unless they have an error, or their response is read from the list
+   * returned by {@link #flush}.
+   * @param operation operation to apply
+   * @param trackResponse true to return a Deferred for the operation's response, always
+   *                      the case in {@link FlushMode#AUTO_FLUSH_SYNC AUTO_FLUSH_SYNC}
+   * @return a Deferred to track this operation, null if it isn't tracked
+   * @throws KuduException if an error happens or {@link PleaseThrottleException} is triggered
+   */
+  Deferred<OperationResponse> apply(final Operation operation, boolean trackResponse)
+      throws KuduException {
     Preconditions.checkNotNull(operation, "Can not apply a null operation");
 
     // Freeze the row so that the client can not concurrently modify it while it is in flight.
@@ -534,10 +676,28 @@ public class AsyncKuduSession implements SessionConfiguration {
           .addErrback(new SingleOperationErrCallback(operation));
     }
 
-    // Kick off a location lookup.
-    Deferred<LocatedTablet> tablet = client.getTabletLocation(operation.getTable(),
-                                                              operation.partitionKey(),
-                                                              timeoutMs);
+    // Push back if the tablet servers can't keep up with the writes already sent their way,
+    // buffering more would only grow the client's queues.
+    if (flushMode == FlushMode.AUTO_FLUSH_BACKGROUND) {
+      Deferred<Void> writeBacklogNotification = client.getWriteBacklogNotification();
+      if (writeBacklogNotification != null) {
+        Status statusServiceUnavailable =
+            Status.ServiceUnavailable("Writes to the tablet servers are backlogged");
+        throw new PleaseThrottleException(statusServiceUnavailable,
+                                          null, operation, writeBacklogNotification);
+      }
+    }
+
+    // Resolve the tablet from the location cache when it's there, and only kick off a location
+    // lookup on a miss.
+    byte[] partitionKey = operation.partitionKey();
+    LocatedTablet cachedTablet = client.getCachedTabletLocation(operation.getTable(), partitionKey);
+    BufferedOperation bufferedOperation = cachedTablet != null ?
+        new BufferedOperation(cachedTablet, operation) :
+        new BufferedOperation(client.getTabletLocation(operation.getTable(),
+                                                       partitionKey,
+                                                       timeoutMs),
+                              operation);
 
     // Holds a buffer that should be flushed outside the synchronized block, if necessary.
     Buffer fullBuffer = null;
@@ -560,7 +720,7 @@ public class AsyncKuduSession implements SessionConfiguration {
 
         if (flushMode == FlushMode.MANUAL_FLUSH) {
           if (activeBuffer.getOperations().size() < mutationBufferSpace) {
-            activeBuffer.getOperations().add(new BufferedOperation(tablet, operation));
+            activeBuffer.getOperations().add(bufferedOperation);
           } else {
             Status statusIllegalState =
                 Status.IllegalState("MANUAL_FLUSH is enabled but the buffer is too big");
@@ -604,7 +764,7 @@ public class AsyncKuduSession implements SessionConfiguration {
             }
           }
 
-          activeBuffer.getOperations().add(new BufferedOperation(tablet, operation));
+          activeBuffer.getOperations().add(bufferedOperation);
 
           if (activeBufferSize + 1 >= mutationBufferSpace && inactiveBufferAvailable()) {
             // If the operation filled the buffer, then flush it.
@@ -624,7 +784,7 @@ public class AsyncKuduSession implements SessionConfiguration {
         doFlush(fullBuffer);
       }
     }
-    return operation.getDeferred();
+    return trackResponse ? operation.getDeferred() : null;
   }
 
   /**
@@ -684,15 +844,21 @@ public class AsyncKuduSession implements SessionConfiguration {
           AsyncKuduSession.this.client.updateLastPropagatedTimestamp(response.getWriteTimestamp());
         }
 
-        // Send individualized responses to all the operations in this batch.
-        for (OperationResponse operationResponse : response.getIndividualResponses()) {
-          if (flushMode == FlushMode.AUTO_FLUSH_BACKGROUND && operationResponse.hasRowError()) {
-            errorCollector.addError(operationResponse.getRowError());
+        if (flushMode == FlushMode.AUTO_FLUSH_BACKGROUND) {
+          for (RowError rowError : response.getRowErrors()) {
+            errorCollector.addError(rowError);
           }
+        }
 
-          // Fire the callback after collecting the error so that the error is visible should the
-          // callback interrogate the error collector.
-          operationResponse.getOperation().callback(operationResponse);
+        // Send individualized responses to the operations of this batch which are tracked. Fire
+        // the callbacks after collecting the errors so that the errors are visible should the
+        // callbacks interrogate the error collector. The responses are the ones later returned
+        // by flush, they're only built for the operations which need them.
+        for (int i = 0; i < request.operations.size(); i++) {
+          Operation operation = request.operations.get(i);
+          if (operation.hasDeferred()) {
+            operation.callback(response.getIndividualResponse(i));
+          }
         }
 
         return response;
@@ -876,9 +1042,16 @@ public class AsyncKuduSession implements SessionConfiguration {
   private static final class BufferedOperation {
     /** Holds either a {@link LocatedTablet} or the failure exception if the lookup failed. */
     private Object tablet = null;
+    /** The pending tablet lookup, null if the tablet was found in the location cache. */
     private final Deferred<Void> tabletLookup;
     private final Operation operation;
 
+    public BufferedOperation(LocatedTablet tablet, Operation operation) {
+      this.tablet = Preconditions.checkNotNull(tablet);
+      this.tabletLookup = null;
+      this.operation = Preconditions.checkNotNull(operation);
+    }
+
     public BufferedOperation(Deferred<LocatedTablet> tablet,
                              Operation operation) {
       tabletLookup = AsyncUtil.addBoth(tablet, new Callback<Void, Object>() {
@@ -916,6 +1089,9 @@ public class AsyncKuduSession implements SessionConfiguration {
       return (Exception) tablet;
     }
 
+    /**
+     * @return the pending tablet lookup, or null if the tablet was already known
+     */
     public Deferred<Void> getTabletLookup() {
       return tabletLookup;
     }
@@ -41,6 +41,13 @@ import org.apache.kudu.util.Pair;
 @InterfaceAudience.Private
 class Batch extends KuduRpc<BatchResponse> {
 
+  /**
+   * Default cap on the encoded size of the row operations of a single batch. Larger groups of
+   * operations for a tablet are split into several batches, well below the tablet servers'
+   * default maximum RPC message size.
+   */
+  static final long DEFAULT_MAX_ROW_OPERATIONS_SIZE_BYTES = 7 * 1024 * 1024;
+
   /** Holds batched operations. */
   final List<Operation> operations = new ArrayList<>();
 
@@ -53,6 +60,12 @@ class Batch extends KuduRpc<BatchResponse> {
    */
   private long rowOperationsSizeBytes = 0;
 
+  /**
+   * The size the rows of all the operations added so far will take once serialized, tracked as
+   * operations are added so that batches can be capped before being serialized.
+   */
+  private long bufferedRowOperationsSizeBytes = 0;
+
   /** See {@link SessionConfiguration#setIgnoreAllDuplicateRows(boolean)} */
   private final boolean ignoreAllDuplicateRows;
 
@@ -75,7 +88,24 @@ class Batch extends KuduRpc<BatchResponse> {
     return this.rowOperationsSizeBytes;
   }
 
+  /**
+   * Returns the bytes size the row operations added so far will take after serialization.
+   * @return size in bytes
+   */
+  long getBufferedRowOperationsSizeBytes() {
+    return this.bufferedRowOperationsSizeBytes;
+  }
+
   public void add(Operation operation) {
+    add(operation, operation.computeEncodedRowOperationSizeBytes());
+  }
+
+  /**
+   * Adds an operation whose encoded size was already computed.
+   * @param operation the operation to add
+   * @param encodedSizeBytes the result of {@link Operation#computeEncodedRowOperationSizeBytes()}
+   */
+  void add(Operation operation, long encodedSizeBytes) {
     assert Bytes.memcmp(operation.partitionKey(),
                         tablet.getPartition().getPartitionKeyStart()) >= 0 &&
            (tablet.getPartition().getPartitionKeyEnd().length == 0 ||
@@ -83,6 +113,7 @@ class Batch extends KuduRpc<BatchResponse> {
                          tablet.getPartition().getPartitionKeyEnd()) < 0);
 
     operations.add(operation);
+    bufferedRowOperationsSizeBytes += encodedSizeBytes;
   }
 
   @Override
@@ -154,6 +185,11 @@ class Batch extends KuduRpc<BatchResponse> {
     return true;
   }
 
+  @Override
+  int getNumRowsWritten() {
+    return operations.size();
+  }
+
   @Override
   void updateStatistics(Statistics statistics, BatchResponse response) {
     String tabletId = this.getTablet().getTabletId();
@@ -165,13 +201,9 @@ class Batch extends KuduRpc<BatchResponse> {
       return;
     }
     tabletStatistics.incrementStatistic(Statistic.WRITE_RPCS, 1);
-    for (OperationResponse opResponse : response.getIndividualResponses()) {
-      if (opResponse.hasRowError()) {
-        tabletStatistics.incrementStatistic(Statistic.OPS_ERRORS, 1);
-      } else {
-        tabletStatistics.incrementStatistic(Statistic.WRITE_OPS, 1);
-      }
-    }
+    int numErrors = response.getRowErrors().size();
+    tabletStatistics.incrementStatistic(Statistic.OPS_ERRORS, numErrors);
+    tabletStatistics.incrementStatistic(Statistic.WRITE_OPS, operations.size() - numErrors);
     tabletStatistics.incrementStatistic(Statistic.BYTES_WRITTEN, getRowOperationsSizeBytes());
   }
 
@@ -17,11 +17,13 @@
 
 package org.apache.kudu.client;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-
-import com.google.common.collect.ImmutableList;
+import java.util.RandomAccess;
+import javax.annotation.concurrent.GuardedBy;
 
 import org.apache.kudu.annotations.InterfaceAudience;
 import org.apache.kudu.tserver.Tserver;
@@ -29,14 +31,29 @@ import org.apache.kudu.tserver.Tserver;
 /**
  * Response type for Batch (which is used internally by AsyncKuduSession).
  * Provides the Hybrid Time write timestamp returned by the Tablet Server.
+ * <p>
+ * When no row had an error, which is by far the most common case, the individual responses
+ * aren't built upfront: they're materialized one by one when asked for, and kept so that the
+ * operations' callbacks and the list returned by a flush share the same instances. Those
+ * responses carry the batch's elapsed time, captured when this response was deserialized, so
+ * it doesn't depend on when they're read.
  */
 @InterfaceAudience.Private
 public class BatchResponse extends KuduRpcResponse {
 
   private final long writeTimestamp;
   private final List<RowError> rowErrors;
+
+  /** The operations of the batch, null if the individual responses were passed directly. */
+  private final List<Operation> operations;
+
+  /** The individual responses, null if they're materialized lazily from the operations. */
   private final List<OperationResponse> individualResponses;
 
+  /** The responses materialized lazily so far, allocated on the first one. */
+  @GuardedBy("this")
+  private OperationResponse[] materializedResponses;
+
   /**
    * Package-private constructor to be used by the RPCs.
    * @param elapsedMillis time in milliseconds since RPC creation to now
@@ -49,13 +66,15 @@ public class BatchResponse extends KuduRpcResponse {
                 List<Operation> operations) {
     super(elapsedMillis, tsUUID);
     this.writeTimestamp = writeTimestamp;
-    individualResponses = new ArrayList<>(operations.size());
+    this.operations = operations;
     if (errorsPB.isEmpty()) {
       rowErrors = Collections.emptyList();
-    } else {
-      rowErrors = new ArrayList<>(errorsPB.size());
+      individualResponses = null;
+      return;
     }
 
+    rowErrors = new ArrayList<>(errorsPB.size());
+    individualResponses = new ArrayList<>(operations.size());
     // Populate the list of individual row responses and the list of row errors. Not all the rows
     // maybe have errors, but 'errorsPB' contains them in the same order as the operations that
     // were sent.
@@ -82,8 +101,9 @@ public class BatchResponse extends KuduRpcResponse {
   BatchResponse(List<OperationResponse> individualResponses) {
     super(0, null);
     writeTimestamp = 0;
-    rowErrors = ImmutableList.of();
+    operations = null;
     this.individualResponses = individualResponses;
+    rowErrors = OperationResponse.collectErrors(individualResponses);
   }
 
   /**
@@ -95,12 +115,110 @@ public class BatchResponse extends KuduRpcResponse {
     return writeTimestamp;
   }
 
+  /**
+   * @return the number of operations this response is for
+   */
+  int getOperationCount() {
+    return individualResponses == null ? operations.size() : individualResponses.size();
+  }
+
+  /**
+   * Gets the response of a single operation, building it the first time it's asked for if the
+   * responses are materialized lazily.
+   * @param index the index of the operation in the batch
+   * @return the operation's response
+   */
+  OperationResponse getIndividualResponse(int index) {
+    if (individualResponses != null) {
+      return individualResponses.get(index);
+    }
+    synchronized (this) {
+      if (materializedResponses == null) {
+        materializedResponses = new OperationResponse[operations.size()];
+      }
+      OperationResponse response = materializedResponses[index];
+      if (response == null) {
+        Operation operation = operations.get(index);
+        response = new OperationResponse(getElapsedMillis(), getTsUUID(), writeTimestamp,
+                                         operation, (RowError) null);
+        materializedResponses[index] = response;
+      }
+      return response;
+    }
+  }
+
   /**
    * Package-private method to get the individual responses.
-   * @return a list of OperationResponses
+   * @return a list of OperationResponses, materialized lazily when no row had an error
    */
   List<OperationResponse> getIndividualResponses() {
-    return individualResponses;
+    return new ResponsesView(Collections.singletonList(this));
+  }
+
+  /**
+   * Package-private method to get the row errors, without materializing the individual responses.
+   * @return a possibly empty list of row errors
+   */
+  List<RowError> getRowErrors() {
+    return rowErrors;
   }
 
+  /**
+   * A read-only view of the individual responses of several batches, which materializes them
+   * as they're accessed. Its row errors can be retrieved without going through the responses.
+   */
+  static final class ResponsesView extends AbstractList<OperationResponse>
+      implements RandomAccess {
+    private final List<BatchResponse> batchResponses;
+
+    /** The index of the first response of each batch in this view, and the total size last. */
+    private final int[] offsets;
+
+    ResponsesView(List<BatchResponse> batchResponses) {
+      this.batchResponses = batchResponses;
+      this.offsets = new int[batchResponses.size() + 1];
+      for (int i = 0; i < batchResponses.size(); i++) {
+        offsets[i + 1] = offsets[i] + batchResponses.get(i).getOperationCount();
+      }
+    }
+
+    @Override
+    public OperationResponse get(int index) {
+      if (index < 0 || index >= size()) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+      }
+      int batch = Arrays.binarySearch(offsets, index);
+      if (batch < 0) {
+        batch = -batch - 2;
+      } else {
+        // Skip the batches without responses, they share their offset with the next one.
+        while (offsets[batch + 1] == index) {
+          batch++;
+        }
+      }
+      return batchResponses.get(batch).getIndividualResponse(index - offsets[batch]);
+    }
+
+    @Override
+    public int size() {
+      return offsets[offsets.length - 1];
+    }
+
+    /**
+     * @return the row errors of all the batches
+     */
+    List<RowError> getRowErrors() {
+      List<RowError> errors = null;
+      for (BatchResponse batchResponse : batchResponses) {
+        if (batchResponse.getRowErrors().isEmpty()) {
+          continue;
+        }
+        if (errors == null) {
+          errors = new ArrayList<>();
+        }
+        errors.addAll(batchResponse.getRowErrors());
+      }
+      return errors == null ? new ArrayList<RowError>(0) : errors;
+    }
+  }
 }
@@ -0,0 +1,412 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.annotations.InterfaceAudience;
+import org.apache.kudu.annotations.InterfaceStability;
+import org.apache.kudu.util.Slice;
+
+/**
+ * A columnar view of the rows sent by a tablet server in a single response, meant for consumers
+ * that process whole batches instead of going through {@link RowResult} one row at a time.
+ * <p>
+ * Each column is decoded from the row data into a primitive array the first time it's requested,
+ * in a single pass over the rows, and the same array is returned afterwards. The arrays must not
+ * be modified. The values of the cells that are null are undefined, check {@link #getNulls(int)}
+ * for nullable columns. Like {@link RowResult}, this class isn't thread-safe.
+ * <p>
+ * STRING and BINARY cells are exposed as offsets and lengths into {@link #getIndirectData()}.
+ * <p>
+ * The arrays hold all the rows sent by the server. When the scan has a residual filter, the rows
+ * it skips are still in the arrays, and {@link #getSelection()} tells which rows match it.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class ColumnarRowBatch {
+
+  private static final Slice NO_DATA = new Slice(new byte[0]);
+
+  private final Schema schema;
+  private final int numRows;
+  private final Slice rowData;
+  private final Slice indirectData;
+
+  /** The decoded columns, indexed like the schema. */
+  private final Object[] values;
+  /** The decoded lengths of the STRING and BINARY columns, indexed like the schema. */
+  private final int[][] lengths;
+  /** The decoded null flags of the nullable columns, indexed like the schema. */
+  private final boolean[][] nulls;
+  /** Which rows match the scan's residual filter, null if it has none. */
+  private final boolean[] selection;
+  private final int numSelectedRows;
+
+  /**
+   * Package private, only meant to be instantiated from RowResultIterator.
+   * @param schema schema used to parse the rows
+   * @param numRows how many rows are contained in rowData
+   * @param rowData normal row data
+   * @param indirectData indirect row data
+   * @param selection which rows match the scan's residual filter, or null if it has none
+   */
+  ColumnarRowBatch(Schema schema, int numRows, Slice rowData, Slice indirectData,
+                   boolean[] selection) {
+    this.schema = schema;
+    this.numRows = numRows;
+    this.rowData = rowData == null ? NO_DATA : rowData;
+    this.indirectData = indirectData == null ? NO_DATA : indirectData;
+    int columnCount = schema == null ? 0 : schema.getColumnCount();
+    this.values = new Object[columnCount];
+    this.lengths = new int[columnCount][];
+    this.nulls = new boolean[columnCount][];
+    this.selection = selection;
+    int selected = numRows;
+    if (selection != null) {
+      selected = 0;
+      for (boolean isSelected : selection) {
+        if (isSelected) {
+          selected++;
+        }
+      }
+    }
+    this.numSelectedRows = selected;
+  }
+
+  /**
+   * Get the schema used for this scanner's column projection.
+   * @return a column projection as a schema
+   */
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Get the number of rows in this batch, which is also the length of its column arrays.
+   * @return number of rows
+   */
+  public int getNumRows() {
+    return numRows;
+  }
+
+  /**
+   * Get which rows match the scan's residual filter. The rows that don't must be skipped, they
+   * are only in the batch because the filter is evaluated by the client.
+   * @return an array whose element is true for each row matching the filter, or null if the
+   * scan has no residual filter and all the rows are to be read
+   */
+  public boolean[] getSelection() {
+    return selection;
+  }
+
+  /**
+   * Get the number of rows to read, which are all the rows unless the scan has a residual
+   * filter.
+   * @return the number of rows matching the scan's residual filter
+   */
+  public int getNumSelectedRows() {
+    return numSelectedRows;
+  }
+
+  /**
+   * Get which cells of the specified column are null.
+   * @param columnIndex column index in the schema
+   * @return an array whose element is true for each row where the column is null, or null if
+   * the column isn't nullable
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public boolean[] getNulls(int columnIndex) {
+    checkValidColumn(columnIndex);
+    if (!schema.getColumnByIndex(columnIndex).isNullable()) {
+      return null;
+    }
+    boolean[] columnNulls = nulls[columnIndex];
+    if (columnNulls == null) {
+      columnNulls = new boolean[numRows];
+      byte[] data = rowData.getRawArray();
+      int rowSize = schema.getRowSize();
+      // The null bitmap is at the end of each row, after the columns.
+      int offset = rowData.getRawOffset() + rowSize -
+          Bytes.getBitSetSize(schema.getColumnCount()) + columnIndex / 8;
+      int bit = 1 << (columnIndex % 8);
+      for (int row = 0; row < numRows; row++, offset += rowSize) {
+        columnNulls[row] = (data[offset] & bit) != 0;
+      }
+      nulls[columnIndex] = columnNulls;
+    }
+    return columnNulls;
+  }
+
+  /**
+   * Get the specified BOOL column.
+   * @param columnIndex column index in the schema
+   * @return the column's values, one per row
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public boolean[] getBooleans(int columnIndex) {
+    checkType(columnIndex, Type.BOOL);
+    boolean[] column = (boolean[]) values[columnIndex];
+    if (column == null) {
+      column = new boolean[numRows];
+      byte[] data = rowData.getRawArray();
+      int rowSize = schema.getRowSize();
+      int offset = firstCellOffset(columnIndex);
+      for (int row = 0; row < numRows; row++, offset += rowSize) {
+        column[row] = data[offset] == 1;
+      }
+      values[columnIndex] = column;
+    }
+    return column;
+  }
+
+  /**
+   * Get the specified INT8 column.
+   * @param columnIndex column index in the schema
+   * @return the column's values, one per row
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public byte[] getBytes(int columnIndex) {
+    checkType(columnIndex, Type.INT8);
+    byte[] column = (byte[]) values[columnIndex];
+    if (column == null) {
+      column = new byte[numRows];
+      byte[] data = rowData.getRawArray();
+      int rowSize = schema.getRowSize();
+      int offset = firstCellOffset(columnIndex);
+      for (int row = 0; row < numRows; row++, offset += rowSize) {
+        column[row] = data[offset];
+      }
+      values[columnIndex] = column;
+    }
+    return column;
+  }
+
+  /**
+   * Get the specified INT16 column.
+   * @param columnIndex column index in the schema
+   * @return the column's values, one per row
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public short[] getShorts(int columnIndex) {
+    checkType(columnIndex, Type.INT16);
+    short[] column = (short[]) values[columnIndex];
+    if (column == null) {
+      column = new short[numRows];
+      byte[] data = rowData.getRawArray();
+      int rowSize = schema.getRowSize();
+      int offset = firstCellOffset(columnIndex);
+      for (int row = 0; row < numRows; row++, offset += rowSize) {
+        column[row] = Bytes.getShort(data, offset);
+      }
+      values[columnIndex] = column;
+    }
+    return column;
+  }
+
+  /**
+   * Get the specified INT32 column.
+   * @param columnIndex column index in the schema
+   * @return the column's values, one per row
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public int[] getInts(int columnIndex) {
+    checkType(columnIndex, Type.INT32);
+    int[] column = (int[]) values[columnIndex];
+    if (column == null) {
+      column = new int[numRows];
+      byte[] data = rowData.getRawArray();
+      int rowSize = schema.getRowSize();
+      int offset = firstCellOffset(columnIndex);
+      for (int row = 0; row < numRows; row++, offset += rowSize) {
+        column[row] = Bytes.getInt(data, offset);
+      }
+      values[columnIndex] = column;
+    }
+    return column;
+  }
+
+  /**
+   * Get the specified INT64 or UNIXTIME_MICROS column. The values of a UNIXTIME_MICROS column
+   * are numbers of microseconds since midnight, January 1, 1970 UTC.
+   * @param columnIndex column index in the schema
+   * @return the column's values, one per row
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public long[] getLongs(int columnIndex) {
+    checkValidColumn(columnIndex);
+    if (schema.getColumnByIndex(columnIndex).getType() != Type.UNIXTIME_MICROS) {
+      checkType(columnIndex, Type.INT64);
+    }
+    long[] column = (long[]) values[columnIndex];
+    if (column == null) {
+      column = new long[numRows];
+      byte[] data = rowData.getRawArray();
+      int rowSize = schema.getRowSize();
+      int offset = firstCellOffset(columnIndex);
+      for (int row = 0; row < numRows; row++, offset += rowSize) {
+        column[row] = Bytes.getLong(data, offset);
+      }
+      values[columnIndex] = column;
+    }
+    return column;
+  }
+
+  /**
+   * Get the specified FLOAT column.
+   * @param columnIndex column index in the schema
+   * @return the column's values, one per row
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public float[] getFloats(int columnIndex) {
+    checkType(columnIndex, Type.FLOAT);
+    float[] column = (float[]) values[columnIndex];
+    if (column == null) {
+      column = new float[numRows];
+      byte[] data = rowData.getRawArray();
+      int rowSize = schema.getRowSize();
+      int offset = firstCellOffset(columnIndex);
+      for (int row = 0; row < numRows; row++, offset += rowSize) {
+        column[row] = Bytes.getFloat(data, offset);
+      }
+      values[columnIndex] = column;
+    }
+    return column;
+  }
+
+  /**
+   * Get the specified DOUBLE column.
+   * @param columnIndex column index in the schema
+   * @return the column's values, one per row
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public double[] getDoubles(int columnIndex) {
+    checkType(columnIndex, Type.DOUBLE);
+    double[] column = (double[]) values[columnIndex];
+    if (column == null) {
+      column = new double[numRows];
+      byte[] data = rowData.getRawArray();
+      int rowSize = schema.getRowSize();
+      int offset = firstCellOffset(columnIndex);
+      for (int row = 0; row < numRows; row++, offset += rowSize) {
+        column[row] = Bytes.getDouble(data, offset);
+      }
+      values[columnIndex] = column;
+    }
+    return column;
+  }
+
+  /**
+   * Get where the cells of the specified STRING or BINARY column start in
+   * {@link #getIndirectData()}.
+   * @param columnIndex column index in the schema
+   * @return the offset of each row's cell in the indirect data array
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public int[] getVarLenOffsets(int columnIndex) {
+    decodeVarLenColumn(columnIndex);
+    return (int[]) values[columnIndex];
+  }
+
+  /**
+   * Get the lengths of the cells of the specified STRING or BINARY column.
+   * @param columnIndex column index in the schema
+   * @return the length in bytes of each row's cell
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public int[] getVarLenLengths(int columnIndex) {
+    decodeVarLenColumn(columnIndex);
+    return lengths[columnIndex];
+  }
+
+  /**
+   * Get the array holding the data of the STRING and BINARY cells, which is shared with the
+   * scanner's response and must not be modified. STRING cells are UTF-8 encoded.
+   * @return the indirect data array
+   */
+  public byte[] getIndirectData() {
+    return indirectData.getRawArray();
+  }
+
+  private void decodeVarLenColumn(int columnIndex) {
+    checkValidColumn(columnIndex);
+    if (schema.getColumnByIndex(columnIndex).getType() != Type.BINARY) {
+      checkType(columnIndex, Type.STRING);
+    }
+    if (values[columnIndex] != null) {
+      return;
+    }
+    int[] columnOffsets = new int[numRows];
+    int[] columnLengths = new int[numRows];
+    byte[] data = rowData.getRawArray();
+    int rowSize = schema.getRowSize();
+    int offset = firstCellOffset(columnIndex);
+    int indirectOffset = indirectData.getRawOffset();
+    // C++ puts a Slice in rowData which is 16 bytes long, but we only support ints.
+    for (int row = 0; row < numRows; row++, offset += rowSize) {
+      columnOffsets[row] = indirectOffset + (int) Bytes.getLong(data, offset);
+      columnLengths[row] = (int) Bytes.getLong(data, offset + 8);
+    }
+    values[columnIndex] = columnOffsets;
+    lengths[columnIndex] = columnLengths;
+  }
+
+  private int firstCellOffset(int columnIndex) {
+    return rowData.getRawOffset() + schema.getColumnOffset(columnIndex);
+  }
+
+  /**
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  private void checkValidColumn(int columnIndex) {
+    if (columnIndex < 0 || columnIndex >= values.length) {
+      throw new IndexOutOfBoundsException("Requested column is out of range, " +
+          columnIndex + " out of " + values.length);
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  private void checkType(int columnIndex, Type expectedType) {
+    checkValidColumn(columnIndex);
+    ColumnSchema columnSchema = schema.getColumnByIndex(columnIndex);
+    Type columnType = columnSchema.getType();
+    if (!columnType.equals(expectedType)) {
+      throw new IllegalArgumentException("Column (name: " + columnSchema.getName() +
+          ", index: " + columnIndex + ") is of type " +
+          columnType.getName() + " but was requested as a type " + expectedType.getName());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ColumnarRowBatch for " + numRows + " rows";
+  }
+}
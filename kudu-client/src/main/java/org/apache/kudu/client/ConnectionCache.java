@@ -21,14 +21,13 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-import javax.annotation.concurrent.GuardedBy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
@@ -54,12 +53,18 @@ import org.apache.kudu.util.NetUtil;
  * There should only be one instance per Kudu client, and can <strong>not</strong> be shared between
  * clients.
  * <p>
- * {@link TabletClient}s are currently never removed from this cache. Since the map is keyed by
- * UUID, it would require an ever-growing set of unique tablet servers to encounter memory issues.
- * The reason for keeping disconnected connections in the cache is two-fold: 1) it makes
- * reconnecting easier since only UUIDs are passed around so we can use the dead TabletClient's
- * host and port to reconnect (see {@link #getLiveClient(String)}) and 2) having the dead
- * connection prevents tight looping when hitting "Connection refused"-type of errors.
+ * Disconnected {@link TabletClient}s are kept in this cache for a while, for two reasons: 1) it
+ * makes reconnecting easier since only UUIDs are passed around so we can use the dead
+ * TabletClient's host and port to reconnect (see {@link #getLiveClient(String)}) and 2) having
+ * the dead connection prevents tight looping when hitting "Connection refused"-type of errors.
+ * Connections which stay dead for longer than {@link #DEAD_CONNECTION_TTL_NANOS} are evicted
+ * though, so that servers which went away for good don't accumulate. Once evicted, a server is
+ * only connected to again after the master tells about it.
+ * <p>
+ * Each tablet server gets up to {@link
+ * AsyncKuduClient.AsyncKuduClientBuilder#connectionsPerServer(int)} connections,
+ * so that a single socket, and the thread decoding it, doesn't bottleneck the traffic to it.
+ * Looking up a connection doesn't lock.
  * <p>
  * This class is thread-safe.
  */
@@ -69,30 +74,36 @@ class ConnectionCache {
 
   private static final Logger LOG = LoggerFactory.getLogger(ConnectionCache.class);
 
+  /** How long a connection can stay dead before being evicted. */
+  private static final long DEAD_CONNECTION_TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+  /** How often, at most, the cache is checked for connections to evict. */
+  private static final long EVICTION_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
   /**
-   * Cache that maps UUIDs to the clients connected to them.
+   * Cache that maps UUIDs to the connections to those servers.
    * <p>
-   * This isn't a {@link ConcurrentHashMap} because we want to do an atomic get-and-put,
-   * {@code putIfAbsent} isn't a good fit for us since it requires creating
-   * an object that may be "wasted" in case another thread wins the insertion
-   * race, and we don't want to create unnecessary connections.
+   * Entries are never removed, only the dead connections they hold get evicted, so that a thread
+   * connecting to a server can't add its connection to an entry which was just dropped.
    */
-  @GuardedBy("lock")
-  private final HashMap<String, TabletClient> uuid2client = new HashMap<>();
-
-  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ConcurrentHashMap<String, ServerConnections> uuid2connections =
+      new ConcurrentHashMap<>();
 
-  private final Lock readLock = lock.readLock();
-  private final Lock writeLock = lock.readLock();
+  /** When dead connections were last looked for, in ns relative to the System nanotime clock. */
+  private final AtomicLong lastEvictionNanos = new AtomicLong(System.nanoTime());
 
   private final AsyncKuduClient kuduClient;
 
+  /** The number of connections opened to each tablet server. */
+  private final int connectionsPerServer;
+
   /**
    * Create a new empty ConnectionCache that will used the passed client to create connections.
    * @param client a client that contains the information we need to create connections
    */
   ConnectionCache(AsyncKuduClient client) {
     this.kuduClient = client;
+    this.connectionsPerServer = client.getConnectionsPerServer();
   }
 
   /**
@@ -118,7 +129,8 @@ class ConnectionCache {
       throw new UnknownHostException(
           "Failed to resolve the IP of `" + addresses.get(0).getHost() + "'");
     }
-    return newClient(new ServerInfo(uuid, hostPort, inetAddress)).getServerInfo();
+    ServerInfo serverInfo = new ServerInfo(uuid, hostPort, inetAddress);
+    return getConnections(uuid, connectionsPerServer).connect(serverInfo).getServerInfo();
   }
 
   TabletClient newMasterClient(HostAndPort hostPort) {
@@ -126,48 +138,51 @@ class ConnectionCache {
     // communicate with the masters to find out about them, and that's what we're trying to do.
     // The UUID is just used for logging and cache key, so instead we just use a constructed
     // string with the master host and port as.
-    return newClient("master-" + hostPort.toString(), hostPort);
-  }
-
-  TabletClient newClient(String uuid, HostAndPort hostPort) {
+    String uuid = "master-" + hostPort.toString();
     InetAddress inetAddress = NetUtil.getInetAddress(hostPort.getHostText());
     if (inetAddress == null) {
       // TODO(todd): should we log the resolution failure? throw an exception?
       return null;
     }
 
+    // The masters don't see enough traffic to warrant more than one connection each.
     ServerInfo serverInfo = new ServerInfo(uuid, hostPort, inetAddress);
-    return newClient(serverInfo);
+    return getConnections(uuid, 1).connect(serverInfo);
   }
 
-  TabletClient newClient(ServerInfo serverInfo) {
-    TabletClient client;
-    SocketChannel chan;
-
-    writeLock.lock();
-    try {
-      client = uuid2client.get(serverInfo.getUuid());
-      if (client != null && client.isAlive()) {
-        return client;
+  /**
+   * Gets the connections to a server, creating the entry if it's not known yet.
+   * @param uuid server's identifier
+   * @param stripes the number of connections to open to the server, if it's not known yet
+   * @return the server's connections
+   */
+  private ServerConnections getConnections(String uuid, int stripes) {
+    ServerConnections connections = uuid2connections.get(uuid);
+    if (connections == null) {
+      connections = new ServerConnections(stripes);
+      ServerConnections existing = uuid2connections.putIfAbsent(uuid, connections);
+      if (existing != null) {
+        connections = existing;
       }
-      final TabletClientPipeline pipeline = new TabletClientPipeline();
-      client = pipeline.init(serverInfo);
-      chan = this.kuduClient.getChannelFactory().newChannel(pipeline);
-      uuid2client.put(serverInfo.getUuid(), client);
-    } finally {
-      writeLock.unlock();
     }
+    return connections;
+  }
 
-    final SocketChannelConfig config = chan.getConfig();
-    config.setConnectTimeoutMillis(5000);
-    config.setTcpNoDelay(true);
-    // Unfortunately there is no way to override the keep-alive timeout in
-    // Java since the JRE doesn't expose any way to call setsockopt() with
-    // TCP_KEEPIDLE. And of course the default timeout is >2h. Sigh.
-    config.setKeepAlive(true);
-    chan.connect(new InetSocketAddress(serverInfo.getResolvedAddress(),
-                                       serverInfo.getPort())); // Won't block.
-    return client;
+  /**
+   * Evicts the connections which have been dead for longer than
+   * {@link #DEAD_CONNECTION_TTL_NANOS}, if it wasn't done recently.
+   */
+  private void maybeEvictDeadConnections() {
+    long now = System.nanoTime();
+    long last = lastEvictionNanos.get();
+    if (now - last < EVICTION_INTERVAL_NANOS || !lastEvictionNanos.compareAndSet(last, now)) {
+      return;
+    }
+    for (Map.Entry<String, ServerConnections> e : uuid2connections.entrySet()) {
+      if (e.getValue().evictDead()) {
+        LOG.debug("Evicted connections to {}, dead for too long", e.getKey());
+      }
+    }
   }
 
   /**
@@ -178,46 +193,31 @@ class ConnectionCache {
    * @return a connection to a server, or null if the passed UUID isn't known
    */
   TabletClient getClient(String uuid) {
-    readLock.lock();
-    try {
-      return uuid2client.get(uuid);
-    } finally {
-      readLock.unlock();
-    }
+    ServerConnections connections = uuid2connections.get(uuid);
+    return connections == null ? null : connections.get();
   }
 
   /**
-   * Get a connection to a server for the given UUID. This method will automatically call
-   * {@link #newClient(String, InetAddress, int)} if the cached connection is down.
+   * Get a connection to a server for the given UUID. This method will automatically reconnect
+   * to the server if the cached connection is down.
    * @param uuid server's identifier
    * @return a connection to a server, or null if the passed UUID isn't known
    */
   TabletClient getLiveClient(String uuid) {
-    TabletClient client = getClient(uuid);
-
-    if (client == null) {
-      return null;
-    } else if (client.isAlive()) {
-      return client;
-    } else {
-      return newClient(client.getServerInfo());
-    }
+    ServerConnections connections = uuid2connections.get(uuid);
+    return connections == null ? null : connections.getLive();
   }
 
   /**
    * Asynchronously closes every socket, which will also cancel all the RPCs in flight.
    */
   Deferred<ArrayList<Void>> disconnectEverything() {
-    readLock.lock();
-    try {
-      ArrayList<Deferred<Void>> deferreds = new ArrayList<>(uuid2client.size());
-      for (TabletClient ts : uuid2client.values()) {
-        deferreds.add(ts.shutdown());
-      }
-      return Deferred.group(deferreds);
-    } finally {
-      readLock.unlock();
+    List<TabletClient> clients = getImmutableTabletClientsList();
+    ArrayList<Deferred<Void>> deferreds = new ArrayList<>(clients.size());
+    for (TabletClient ts : clients) {
+      deferreds.add(ts.shutdown());
     }
+    return Deferred.group(deferreds);
   }
 
   /**
@@ -228,12 +228,11 @@ class ConnectionCache {
    * @return copy of the current TabletClients list
    */
   List<TabletClient> getImmutableTabletClientsList() {
-    readLock.lock();
-    try {
-      return ImmutableList.copyOf(uuid2client.values());
-    } finally {
-      readLock.unlock();
+    ImmutableList.Builder<TabletClient> clients = ImmutableList.builder();
+    for (ServerConnections connections : uuid2connections.values()) {
+      connections.addTo(clients);
     }
+    return clients.build();
   }
 
   /**
@@ -242,19 +241,147 @@ class ConnectionCache {
    */
   @VisibleForTesting
   boolean allConnectionsAreDead() {
-    readLock.lock();
-    try {
-      for (TabletClient tserver : uuid2client.values()) {
-        if (tserver.isAlive()) {
-          return false;
-        }
+    for (TabletClient tserver : getImmutableTabletClientsList()) {
+      if (tserver.isAlive()) {
+        return false;
       }
-    } finally {
-      readLock.unlock();
     }
     return true;
   }
 
+  /**
+   * The connections to a single server. RPCs are spread over them round-robin, and each one is
+   * connected, and negotiated, the first time it's picked.
+   * <p>
+   * A connection is only replaced after winning the race against the other threads doing the
+   * same, and only the winner connects, so that a server never gets more live connections than
+   * it has stripes.
+   */
+  private final class ServerConnections {
+    private final AtomicReferenceArray<TabletClient> stripes;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    ServerConnections(int stripes) {
+      this.stripes = new AtomicReferenceArray<>(stripes);
+    }
+
+    private int nextStripe() {
+      int n = stripes.length();
+      return n == 1 ? 0 : (nextStripe.getAndIncrement() & Integer.MAX_VALUE) % n;
+    }
+
+    /**
+     * @return the connection of the next stripe, or another one if that stripe isn't live,
+     * or null if there's no connection at all
+     */
+    TabletClient get() {
+      TabletClient client = stripes.get(nextStripe());
+      if (client != null && client.isAlive()) {
+        return client;
+      }
+      TabletClient dead = client;
+      for (int i = 0; i < stripes.length(); i++) {
+        client = stripes.get(i);
+        if (client != null) {
+          if (client.isAlive()) {
+            return client;
+          }
+          dead = client;
+        }
+      }
+      return dead;
+    }
+
+    /**
+     * @return a live connection of the next stripe, reconnecting it with the information of
+     * another connection if needed, or null if there's no connection at all
+     */
+    TabletClient getLive() {
+      int stripe = nextStripe();
+      TabletClient client = stripes.get(stripe);
+      if (client != null && client.isAlive()) {
+        return client;
+      }
+      // The stripe isn't connected yet, or anymore, any other connection tells where to.
+      TabletClient known = client != null ? client : get();
+      if (known == null) {
+        return null;
+      }
+      return connect(stripe, known.getServerInfo());
+    }
+
+    /**
+     * Gets the live connection of the next stripe, connecting it if it isn't.
+     * @param serverInfo the server to connect to
+     * @return a live, or negotiating, connection
+     */
+    TabletClient connect(ServerInfo serverInfo) {
+      return connect(nextStripe(), serverInfo);
+    }
+
+    private TabletClient connect(int stripe, ServerInfo serverInfo) {
+      TabletClient client;
+      SocketChannel chan;
+      while (true) {
+        TabletClient cached = stripes.get(stripe);
+        if (cached != null && cached.isAlive()) {
+          return cached;
+        }
+        // Open the channel before publishing the client, so that anyone who finds the client,
+        // like disconnectEverything(), can disconnect it. Opening the channel doesn't connect it,
+        // it's simply closed if we lose the race.
+        TabletClientPipeline pipeline = new TabletClientPipeline();
+        client = pipeline.init(serverInfo);
+        chan = kuduClient.getChannelFactory().newChannel(pipeline);
+        if (stripes.compareAndSet(stripe, cached, client)) {
+          break;
+        }
+        client.disconnect();
+      }
+
+      final SocketChannelConfig config = chan.getConfig();
+      config.setConnectTimeoutMillis(5000);
+      config.setTcpNoDelay(true);
+      // Unfortunately there is no way to override the keep-alive timeout in
+      // Java since the JRE doesn't expose any way to call setsockopt() with
+      // TCP_KEEPIDLE. And of course the default timeout is >2h. Sigh.
+      config.setKeepAlive(true);
+      chan.connect(new InetSocketAddress(serverInfo.getResolvedAddress(),
+                                         serverInfo.getPort())); // Won't block.
+
+      // Connections get created as servers come and go, a good time to drop the ones that left.
+      maybeEvictDeadConnections();
+      return client;
+    }
+
+    /**
+     * Evicts the connections which have been dead for longer than
+     * {@link #DEAD_CONNECTION_TTL_NANOS}.
+     * @return true if any connection was evicted
+     */
+    boolean evictDead() {
+      boolean evicted = false;
+      for (int i = 0; i < stripes.length(); i++) {
+        TabletClient client = stripes.get(i);
+        if (client != null &&
+            client.getNanosSinceDisconnected() > DEAD_CONNECTION_TTL_NANOS &&
+            stripes.compareAndSet(i, client, null)) {
+          evicted = true;
+        }
+      }
+      return evicted;
+    }
+
+    void addTo(ImmutableList.Builder<TabletClient> clients) {
+      for (int i = 0; i < stripes.length(); i++) {
+        TabletClient client = stripes.get(i);
+        if (client != null) {
+          clients.add(client);
+        }
+      }
+    }
+  }
+
   private final class TabletClientPipeline extends DefaultChannelPipeline {
     TabletClient init(ServerInfo serverInfo) {
       super.addFirst("decode-frames", new LengthFieldBasedFrameDecoder(
@@ -62,6 +62,47 @@ class KeyEncoder {
     return buf.toArray();
   }
 
+  /**
+   * Encodes the primary key of a row returned by a scanner, the primary key columns being the
+   * first columns of the scanner's projection.
+   *
+   * @param row the row to encode, positioned on a row
+   * @param numKeyColumns the number of primary key columns
+   * @return the encoded primary key of the row
+   */
+  static byte[] encodePrimaryKey(final RowResult row, int numKeyColumns) {
+    ByteVec buf = ByteVec.create();
+    byte[] value = new byte[8];
+    for (int columnIdx = 0; columnIdx < numKeyColumns; columnIdx++) {
+      final boolean isLast = columnIdx + 1 == numKeyColumns;
+      final Type type = row.getColumnType(columnIdx);
+      if (type == Type.STRING || type == Type.BINARY) {
+        Utf8View view = row.getVarLenView(columnIdx);
+        encodeBinary(view.getRawArray(), view.getRawOffset(), view.length(), isLast, buf);
+        continue;
+      }
+      long number;
+      switch (type) {
+        case INT8:
+          number = row.getByte(columnIdx);
+          break;
+        case INT16:
+          number = row.getShort(columnIdx);
+          break;
+        case INT32:
+          number = row.getInt(columnIdx);
+          break;
+        default:
+          number = row.getLong(columnIdx);
+          break;
+      }
+      // The low bytes of the little-endian long are the value at its own width.
+      Bytes.setLong(value, number);
+      encodeSignedInt(value, 0, type.getSize(), buf);
+    }
+    return buf.toArray();
+  }
+
   /**
    * Returns the bucket of the row for the given hash bucket schema. All columns
    * in the hash bucket schema must be set in the row.
@@ -180,6 +221,31 @@ class KeyEncoder {
     }
   }
 
+  /**
+   * Encodes a variable length binary value held in an array into the output buffer.
+   * @param value the array holding the value
+   * @param offset where the value starts in the array
+   * @param len the length of the value
+   * @param isLast whether the value is the final component in the key
+   * @param buf the output buffer
+   */
+  private static void encodeBinary(byte[] value, int offset, int len, boolean isLast,
+                                   ByteVec buf) {
+    for (int i = offset; i < offset + len; i++) {
+      byte currentByte = value[i];
+      buf.push(currentByte);
+      if (!isLast && currentByte == 0x00) {
+        // See encodeBinary(ByteBuffer, boolean, ByteVec).
+        buf.push((byte) 0x01);
+      }
+    }
+
+    if (!isLast) {
+      buf.push((byte) 0x00);
+      buf.push((byte) 0x00);
+    }
+  }
+
   /**
    * Encodes a signed integer into the output buffer
    *
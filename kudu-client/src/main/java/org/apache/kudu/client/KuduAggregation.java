@@ -0,0 +1,1124 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.annotations.InterfaceAudience;
+import org.apache.kudu.annotations.InterfaceStability;
+
+/**
+ * Computes aggregates over the rows of a table without returning them: the number of rows, and
+ * the sum, minimum and maximum of numeric columns, either over all the rows or per group of rows
+ * sharing the values of the group-by columns.
+ * <p>
+ * The table is scanned in parallel, one scan token per tablet. Each tablet's rows are aggregated
+ * into its own aggregates on an executor as its batches are received, straight from the batches'
+ * row data, then the thread calling {@link #execute()} merges the tablets' aggregates once they
+ * are all done. Only the columns needed by the aggregation are projected, and none at all when
+ * only counting rows. Groups are looked up in a primitive hash map when grouping by a single
+ * integral column, so aggregating doesn't allocate per row.
+ * <p>
+ * The aggregates are computed by the client, so all the rows matching the predicates are still
+ * sent by the tablet servers. An aggregation can be executed several times, each execution
+ * scanning the table anew.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class KuduAggregation {
+
+  private static final Logger LOG = LoggerFactory.getLogger(KuduAggregation.class);
+
+  /**
+   * The kinds of aggregates.
+   */
+  private enum Function {
+    SUM,
+    MIN,
+    MAX
+  }
+
+  private final KuduClient client;
+  private final KuduTable table;
+  private final List<KuduPredicate> predicates;
+  private final int batchSizeBytes;
+  private final int maxConcurrentScans;
+  /** The executor aggregating the batches, null to use a pool per execution. */
+  private final Executor executor;
+
+  /** The columns to project, the group-by columns first then the aggregated ones. */
+  private final List<String> projectedColumns;
+  /** The types of the group-by columns, which are the first projected columns. */
+  private final Type[] groupByTypes;
+  private final Function[] functions;
+  /** The index of each aggregate's column in the projection. */
+  private final int[] aggregateIndexes;
+  private final Type[] aggregateTypes;
+
+  private KuduAggregation(KuduAggregationBuilder builder) {
+    this.client = builder.client;
+    this.table = builder.table;
+    this.predicates = new ArrayList<>(builder.predicates);
+    this.batchSizeBytes = builder.batchSizeBytes;
+    this.maxConcurrentScans = builder.maxConcurrentScans;
+    this.executor = builder.executor;
+
+    Schema schema = table.getSchema();
+    this.projectedColumns = new ArrayList<>(builder.groupByColumns);
+    this.groupByTypes = new Type[builder.groupByColumns.size()];
+    for (int i = 0; i < groupByTypes.length; i++) {
+      groupByTypes[i] = schema.getColumn(builder.groupByColumns.get(i)).getType();
+    }
+    int numAggregates = builder.functions.size();
+    this.functions = builder.functions.toArray(new Function[numAggregates]);
+    this.aggregateIndexes = new int[numAggregates];
+    this.aggregateTypes = new Type[numAggregates];
+    for (int i = 0; i < numAggregates; i++) {
+      String column = builder.aggregateColumns.get(i);
+      int index = projectedColumns.indexOf(column);
+      if (index < 0) {
+        index = projectedColumns.size();
+        projectedColumns.add(column);
+      }
+      aggregateIndexes[i] = index;
+      aggregateTypes[i] = schema.getColumn(column).getType();
+    }
+  }
+
+  /**
+   * Scans the table and computes the aggregates, blocking until all the tablets are scanned.
+   * @return the aggregates, per group
+   * @throws KuduException if the scan tokens couldn't be built, if one of the scans failed or
+   * if the rows couldn't be aggregated
+   */
+  public Result execute() throws KuduException {
+    KuduScanToken.KuduScanTokenBuilder tokenBuilder = client.newScanTokenBuilder(table);
+    // An empty list projects no column, which is all a count needs.
+    tokenBuilder.setProjectedColumnNames(projectedColumns);
+    for (KuduPredicate predicate : predicates) {
+      tokenBuilder.addPredicate(predicate);
+    }
+    List<KuduScanToken> tokens = tokenBuilder.build();
+
+    Executor executor = this.executor;
+    ExecutorService pool = null;
+    if (executor == null) {
+      pool = Executors.newFixedThreadPool(maxConcurrentScans,
+          new ThreadFactoryBuilder()
+              .setNameFormat("kudu-aggregation-%d")
+              .setDaemon(true)
+              .build());
+      executor = pool;
+    }
+    List<Aggregates> partials;
+    try {
+      partials = KuduClient.joinAndHandleException(new Execution(tokens, executor).start());
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+    try {
+      return merge(partials);
+    } catch (RuntimeException e) {
+      throw KuduException.transformException(e);
+    }
+  }
+
+  /**
+   * Merges the aggregates of the tablets.
+   * @param partials the aggregates of each tablet
+   * @return the aggregates of all the tablets, with a single group when not grouping
+   */
+  Result merge(List<Aggregates> partials) {
+    Aggregates merged = new Aggregates();
+    if (groupByTypes.length == 0) {
+      // There's always a single group when not grouping, even if no rows match.
+      merged.grouper.groupOf(null, merged);
+    }
+    for (Aggregates partial : partials) {
+      merged.merge(partial);
+    }
+    return new Result(merged);
+  }
+
+  /**
+   * @return true if only rows are counted, so the batches don't need to be read
+   */
+  private boolean isCountOnly() {
+    return projectedColumns.isEmpty();
+  }
+
+  private static boolean isFloatingPoint(Type type) {
+    return type == Type.FLOAT || type == Type.DOUBLE;
+  }
+
+  /**
+   * Reads an integral or BOOL column as a long, the column not being null.
+   */
+  private static long readLong(RowResult row, int index, Type type) {
+    switch (type) {
+      case BOOL:
+        return row.getBoolean(index) ? 1 : 0;
+      case INT8:
+        return row.getByte(index);
+      case INT16:
+        return row.getShort(index);
+      case INT32:
+        return row.getInt(index);
+      default:
+        return row.getLong(index);
+    }
+  }
+
+  /**
+   * Reads a FLOAT or DOUBLE column, the column not being null.
+   */
+  private static double readDouble(RowResult row, int index, Type type) {
+    return type == Type.FLOAT ? row.getFloat(index) : row.getDouble(index);
+  }
+
+  private static long combine(Function function, boolean first, long current, long value) {
+    if (first) {
+      return value;
+    }
+    switch (function) {
+      case SUM:
+        return current + value;
+      case MIN:
+        return Math.min(current, value);
+      default:
+        return Math.max(current, value);
+    }
+  }
+
+  private static double combine(Function function, boolean first, double current, double value) {
+    if (first) {
+      return value;
+    }
+    switch (function) {
+      case SUM:
+        return current + value;
+      case MIN:
+        return Math.min(current, value);
+      default:
+        return Math.max(current, value);
+    }
+  }
+
+  /**
+   * Reads the group-by columns of a row, boxed, once per group.
+   */
+  private Object[] readGroupKey(RowResult row) {
+    Object[] key = new Object[groupByTypes.length];
+    for (int i = 0; i < groupByTypes.length; i++) {
+      if (row.isNull(i)) {
+        continue;
+      }
+      switch (groupByTypes[i]) {
+        case BOOL:
+          key[i] = row.getBoolean(i);
+          break;
+        case INT8:
+          key[i] = row.getByte(i);
+          break;
+        case INT16:
+          key[i] = row.getShort(i);
+          break;
+        case INT32:
+          key[i] = row.getInt(i);
+          break;
+        case STRING:
+          key[i] = row.getString(i);
+          break;
+        default:
+          key[i] = row.getLong(i);
+          break;
+      }
+    }
+    return key;
+  }
+
+  private Grouper newGrouper() {
+    if (groupByTypes.length == 0) {
+      return new SingleGroupGrouper();
+    }
+    if (groupByTypes.length == 1 && groupByTypes[0] != Type.STRING) {
+      return new LongGrouper();
+    }
+    return new BytesGrouper();
+  }
+
+  /**
+   * The aggregates of some of the rows, a tablet's or all of them, per group. The arrays are
+   * indexed by group, and by aggregate then group for the values.
+   */
+  final class Aggregates {
+    private final Grouper grouper = newGrouper();
+    private final List<Object[]> groupKeys = new ArrayList<>();
+    private int numGroups;
+    private long[] counts = new long[16];
+    /** The number of non-null values aggregated, the aggregate being null when 0. */
+    private final long[][] valueCounts = new long[functions.length][];
+    /** The values of the aggregates over integral columns. */
+    private final long[][] longValues = new long[functions.length][];
+    /** The values of the aggregates over floating point columns. */
+    private final double[][] doubleValues = new double[functions.length][];
+
+    Aggregates() {
+      for (int i = 0; i < functions.length; i++) {
+        valueCounts[i] = new long[counts.length];
+        if (isFloatingPoint(aggregateTypes[i])) {
+          doubleValues[i] = new double[counts.length];
+        } else {
+          longValues[i] = new long[counts.length];
+        }
+      }
+    }
+
+    /**
+     * Adds a group, growing the arrays when they're full.
+     * @param key the boxed values of the group-by columns
+     * @return the new group
+     */
+    int newGroup(Object[] key) {
+      if (numGroups == counts.length) {
+        int capacity = counts.length * 2;
+        counts = Arrays.copyOf(counts, capacity);
+        for (int i = 0; i < functions.length; i++) {
+          valueCounts[i] = Arrays.copyOf(valueCounts[i], capacity);
+          if (doubleValues[i] != null) {
+            doubleValues[i] = Arrays.copyOf(doubleValues[i], capacity);
+          } else {
+            longValues[i] = Arrays.copyOf(longValues[i], capacity);
+          }
+        }
+      }
+      groupKeys.add(key);
+      return numGroups++;
+    }
+
+    /**
+     * Aggregates the rows of a batch.
+     */
+    void add(RowResultIterator batch) {
+      if (isCountOnly()) {
+        int numRows = batch.getNumRows();
+        if (numRows > 0) {
+          counts[grouper.groupOf(null, this)] += numRows;
+        }
+        return;
+      }
+      for (RowResult row : batch) {
+        int group = grouper.groupOf(row, this);
+        counts[group]++;
+        for (int i = 0; i < functions.length; i++) {
+          int index = aggregateIndexes[i];
+          if (row.isNull(index)) {
+            continue;
+          }
+          boolean first = valueCounts[i][group]++ == 0;
+          if (doubleValues[i] != null) {
+            doubleValues[i][group] = combine(functions[i], first, doubleValues[i][group],
+                readDouble(row, index, aggregateTypes[i]));
+          } else {
+            longValues[i][group] = combine(functions[i], first, longValues[i][group],
+                readLong(row, index, aggregateTypes[i]));
+          }
+        }
+      }
+    }
+
+    /**
+     * Merges the aggregates of another tablet into these.
+     */
+    void merge(Aggregates other) {
+      for (int otherGroup = 0; otherGroup < other.numGroups; otherGroup++) {
+        int group = grouper.groupOf(other, otherGroup, this);
+        counts[group] += other.counts[otherGroup];
+        for (int i = 0; i < functions.length; i++) {
+          long otherValueCount = other.valueCounts[i][otherGroup];
+          if (otherValueCount == 0) {
+            continue;
+          }
+          boolean first = valueCounts[i][group] == 0;
+          valueCounts[i][group] += otherValueCount;
+          if (doubleValues[i] != null) {
+            doubleValues[i][group] = combine(functions[i], first, doubleValues[i][group],
+                other.doubleValues[i][otherGroup]);
+          } else {
+            longValues[i][group] = combine(functions[i], first, longValues[i][group],
+                other.longValues[i][otherGroup]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Maps rows to their groups, creating the groups as they're first seen.
+   */
+  private abstract class Grouper {
+    /**
+     * @param row the row, positioned by its batch
+     * @param aggregates the aggregates owning this grouper
+     * @return the group of the row
+     */
+    abstract int groupOf(RowResult row, Aggregates aggregates);
+
+    /**
+     * @param other aggregates with a grouper of the same kind as this one
+     * @param otherGroup a group of the other aggregates
+     * @param aggregates the aggregates owning this grouper
+     * @return the group of this grouper with the same key
+     */
+    abstract int groupOf(Aggregates other, int otherGroup, Aggregates aggregates);
+  }
+
+  /**
+   * Puts all the rows in the same group, when not grouping.
+   */
+  private final class SingleGroupGrouper extends Grouper {
+    @Override
+    int groupOf(RowResult row, Aggregates aggregates) {
+      return aggregates.numGroups == 0 ? aggregates.newGroup(new Object[0]) : 0;
+    }
+
+    @Override
+    int groupOf(Aggregates other, int otherGroup, Aggregates aggregates) {
+      return groupOf(null, aggregates);
+    }
+  }
+
+  /**
+   * Groups by a single integral, BOOL or UNIXTIME_MICROS column, the values being the keys of a
+   * primitive hash map.
+   */
+  private final class LongGrouper extends Grouper {
+    private final LongIntHashMap groups = new LongIntHashMap();
+    /** The value of each group, unused for the null group. */
+    private long[] values = new long[16];
+    private int nullGroup = -1;
+
+    @Override
+    int groupOf(RowResult row, Aggregates aggregates) {
+      if (row.isNull(0)) {
+        if (nullGroup < 0) {
+          nullGroup = aggregates.newGroup(readGroupKey(row));
+        }
+        return nullGroup;
+      }
+      long value = readLong(row, 0, groupByTypes[0]);
+      int group = groups.get(value);
+      if (group < 0) {
+        group = addGroup(value, readGroupKey(row), aggregates);
+      }
+      return group;
+    }
+
+    @Override
+    int groupOf(Aggregates other, int otherGroup, Aggregates aggregates) {
+      LongGrouper otherGrouper = (LongGrouper) other.grouper;
+      Object[] key = other.groupKeys.get(otherGroup);
+      if (otherGroup == otherGrouper.nullGroup) {
+        if (nullGroup < 0) {
+          nullGroup = aggregates.newGroup(key);
+        }
+        return nullGroup;
+      }
+      long value = otherGrouper.values[otherGroup];
+      int group = groups.get(value);
+      if (group < 0) {
+        group = addGroup(value, key, aggregates);
+      }
+      return group;
+    }
+
+    private int addGroup(long value, Object[] key, Aggregates aggregates) {
+      int group = aggregates.newGroup(key);
+      groups.put(value, group);
+      if (group >= values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      values[group] = value;
+      return group;
+    }
+  }
+
+  /**
+   * Groups by any of the supported columns, the rows' values being encoded in a reusable buffer
+   * to look up their group. The buffer is only copied when adding a group.
+   */
+  private final class BytesGrouper extends Grouper {
+    private final HashMap<GroupKey, Integer> groups = new HashMap<>();
+    /** The encoded key of each group. */
+    private final List<GroupKey> keys = new ArrayList<>();
+    private final GroupKey probe = new GroupKey();
+
+    @Override
+    int groupOf(RowResult row, Aggregates aggregates) {
+      probe.reset();
+      for (int i = 0; i < groupByTypes.length; i++) {
+        if (row.isNull(i)) {
+          probe.appendByte(0);
+          continue;
+        }
+        probe.appendByte(1);
+        if (groupByTypes[i] == Type.STRING) {
+          Utf8View view = row.getVarLenView(i);
+          probe.appendInt(view.length());
+          probe.append(view.getRawArray(), view.getRawOffset(), view.length());
+        } else {
+          probe.appendLong(readLong(row, i, groupByTypes[i]));
+        }
+      }
+      probe.computeHash();
+      Integer group = groups.get(probe);
+      if (group != null) {
+        return group;
+      }
+      return addGroup(probe.copy(), readGroupKey(row), aggregates);
+    }
+
+    @Override
+    int groupOf(Aggregates other, int otherGroup, Aggregates aggregates) {
+      GroupKey key = ((BytesGrouper) other.grouper).keys.get(otherGroup);
+      Integer group = groups.get(key);
+      if (group != null) {
+        return group;
+      }
+      return addGroup(key, other.groupKeys.get(otherGroup), aggregates);
+    }
+
+    private int addGroup(GroupKey key, Object[] boxedKey, Aggregates aggregates) {
+      int group = aggregates.newGroup(boxedKey);
+      groups.put(key, group);
+      keys.add(key);
+      return group;
+    }
+  }
+
+  /**
+   * The encoded values of the group-by columns of a row. Only the probe of a grouper is
+   * mutated, the keys of the groups never are.
+   */
+  private static final class GroupKey {
+    private byte[] data;
+    private int length;
+    private int hash;
+
+    GroupKey() {
+      this(new byte[64], 0, 0);
+    }
+
+    private GroupKey(byte[] data, int length, int hash) {
+      this.data = data;
+      this.length = length;
+      this.hash = hash;
+    }
+
+    void reset() {
+      length = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (length + extra > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+      }
+    }
+
+    void appendByte(int value) {
+      ensureCapacity(1);
+      data[length++] = (byte) value;
+    }
+
+    void appendInt(int value) {
+      ensureCapacity(4);
+      Bytes.setInt(data, value, length);
+      length += 4;
+    }
+
+    void appendLong(long value) {
+      ensureCapacity(8);
+      Bytes.setLong(data, value, length);
+      length += 8;
+    }
+
+    void append(byte[] bytes, int offset, int len) {
+      ensureCapacity(len);
+      System.arraycopy(bytes, offset, data, length, len);
+      length += len;
+    }
+
+    void computeHash() {
+      int h = 1;
+      for (int i = 0; i < length; i++) {
+        h = 31 * h + data[i];
+      }
+      hash = h;
+    }
+
+    GroupKey copy() {
+      return new GroupKey(Arrays.copyOf(data, length), length, hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof GroupKey)) {
+        return false;
+      }
+      GroupKey other = (GroupKey) o;
+      if (length != other.length || hash != other.hash) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (data[i] != other.data[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * An open addressing hash map from long keys to non-negative int values, with linear probing.
+   */
+  private static final class LongIntHashMap {
+    private long[] keys = new long[32];
+    /** The values plus one, 0 marking an empty slot. */
+    private int[] values = new int[32];
+    private int size;
+
+    private static int slot(long key, int mask) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return the value of the key, or -1 if it has none
+     */
+    int get(long key) {
+      int mask = keys.length - 1;
+      for (int i = slot(key, mask); values[i] != 0; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          return values[i] - 1;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Maps a key which isn't in the map yet.
+     */
+    void put(long key, int value) {
+      if ((size + 1) * 2 > keys.length) {
+        rehash(keys.length * 2);
+      }
+      insert(key, value + 1);
+      size++;
+    }
+
+    private void insert(long key, int storedValue) {
+      int mask = keys.length - 1;
+      int i = slot(key, mask);
+      while (values[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      values[i] = storedValue;
+    }
+
+    private void rehash(int capacity) {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[capacity];
+      values = new int[capacity];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldValues[i] != 0) {
+          insert(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Scans the tokens, at most {@code maxConcurrentScans} at once, each tablet's batches being
+   * aggregated on the executor, and collects the tablets' aggregates as they complete.
+   */
+  private final class Execution {
+    private final Executor executor;
+    private final Deferred<List<Aggregates>> done = new Deferred<>();
+
+    @GuardedBy("this")
+    private final ArrayDeque<KuduScanToken> pendingTokens;
+
+    /** The aggregates of the tablets scanned so far. */
+    @GuardedBy("this")
+    private final List<Aggregates> partials = new ArrayList<>();
+
+    @GuardedBy("this")
+    private int activeScans;
+
+    @GuardedBy("this")
+    private boolean failed;
+
+    Execution(List<KuduScanToken> tokens, Executor executor) {
+      this.pendingTokens = new ArrayDeque<>(tokens);
+      this.executor = executor;
+    }
+
+    Deferred<List<Aggregates>> start() {
+      List<KuduScanToken> toStart = new ArrayList<>();
+      synchronized (this) {
+        if (pendingTokens.isEmpty()) {
+          return Deferred.fromResult(partials);
+        }
+        while (activeScans < maxConcurrentScans && !pendingTokens.isEmpty()) {
+          toStart.add(pendingTokens.poll());
+          activeScans++;
+        }
+      }
+      for (KuduScanToken token : toStart) {
+        startScan(token);
+      }
+      return done;
+    }
+
+    /**
+     * Starts scanning a token on the executor, since opening its table may block.
+     */
+    private void startScan(final KuduScanToken token) {
+      submit(new Runnable() {
+        @Override
+        public void run() {
+          if (isFailed()) {
+            return;
+          }
+          AsyncKuduScanner scanner;
+          try {
+            scanner = token.intoScanner(client, batchSizeBytes).getAsyncScanner();
+          } catch (Exception e) {
+            fail(e);
+            return;
+          }
+          new TabletAggregation(scanner).fetch();
+        }
+      });
+    }
+
+    /**
+     * Runs a task on the executor, failing the execution if the executor rejects it.
+     * @return true if the task was accepted
+     */
+    private boolean submit(Runnable task) {
+      try {
+        executor.execute(task);
+        return true;
+      } catch (RejectedExecutionException e) {
+        fail(e);
+        return false;
+      }
+    }
+
+    private synchronized boolean isFailed() {
+      return failed;
+    }
+
+    /**
+     * Keeps the aggregates of a tablet, then starts the next token or completes the execution
+     * if it was the last one.
+     */
+    private void scanDone(Aggregates partial) {
+      KuduScanToken next;
+      boolean finished;
+      synchronized (this) {
+        if (failed) {
+          return;
+        }
+        partials.add(partial);
+        next = pendingTokens.poll();
+        if (next == null) {
+          activeScans--;
+        }
+        finished = activeScans == 0;
+      }
+      if (next != null) {
+        startScan(next);
+      } else if (finished) {
+        done.callback(partials);
+      }
+    }
+
+    private void fail(Exception e) {
+      synchronized (this) {
+        if (failed) {
+          return;
+        }
+        failed = true;
+        pendingTokens.clear();
+      }
+      done.callback(e);
+    }
+
+    /**
+     * Aggregates the rows of a tablet as its batches are received, on the executor, fetching
+     * the next batch once one is aggregated.
+     */
+    private final class TabletAggregation implements Callback<Void, RowResultIterator> {
+      private final AsyncKuduScanner scanner;
+      private final Aggregates partial = new Aggregates();
+
+      TabletAggregation(AsyncKuduScanner scanner) {
+        this.scanner = scanner;
+      }
+
+      void fetch() {
+        scanner.nextRows().addCallbacks(this, new Callback<Void, Exception>() {
+          @Override
+          public Void call(Exception e) {
+            fail(e);
+            return null;
+          }
+        });
+      }
+
+      @Override
+      public Void call(final RowResultIterator batch) {
+        boolean submitted = !isFailed() && submit(new Runnable() {
+          @Override
+          public void run() {
+            aggregate(batch);
+          }
+        });
+        if (!submitted) {
+          close();
+        }
+        return null;
+      }
+
+      private void aggregate(RowResultIterator batch) {
+        if (isFailed()) {
+          close();
+          return;
+        }
+        if (batch != null) {
+          try {
+            partial.add(batch);
+          } catch (RuntimeException e) {
+            fail(e);
+            close();
+            return;
+          }
+        }
+        if (scanner.hasMoreRows()) {
+          fetch();
+        } else {
+          scanDone(partial);
+        }
+      }
+
+      /**
+       * Closes the scanner after the execution failed, if it's still open on its server.
+       */
+      private void close() {
+        if (!scanner.hasMoreRows()) {
+          return;
+        }
+        scanner.close().addErrback(new Callback<Void, Exception>() {
+          @Override
+          public Void call(Exception e) {
+            LOG.debug("Failed to close scanner {}", scanner, e);
+            return null;
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * The aggregates computed by an execution, per group. The groups are in no particular order.
+   * The aggregates are numbered in the order they were added to the builder, from 0.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Unstable
+  public static final class Result {
+    private final int numGroups;
+    private final List<Object[]> groupKeys;
+    private final long[] counts;
+    private final long[][] valueCounts;
+    private final long[][] longValues;
+    private final double[][] doubleValues;
+
+    private Result(KuduAggregation.Aggregates aggregates) {
+      this.numGroups = aggregates.numGroups;
+      this.groupKeys = aggregates.groupKeys;
+      this.counts = aggregates.counts;
+      this.valueCounts = aggregates.valueCounts;
+      this.longValues = aggregates.longValues;
+      this.doubleValues = aggregates.doubleValues;
+    }
+
+    /**
+     * @return the number of groups, always 1 when not grouping
+     */
+    public int getNumGroups() {
+      return numGroups;
+    }
+
+    /**
+     * Gets the values of the group-by columns of a group, in the order of the group-by columns.
+     * Null values are null, the others are boxed as they'd be returned by {@link RowResult}.
+     * @param group a group, between 0 and the number of groups
+     * @return the values of the group-by columns, empty when not grouping
+     */
+    public List<Object> getGroupKey(int group) {
+      checkGroup(group);
+      return Collections.unmodifiableList(Arrays.asList(groupKeys.get(group)));
+    }
+
+    /**
+     * @param group a group, between 0 and the number of groups
+     * @return the number of rows of the group
+     */
+    public long getCount(int group) {
+      checkGroup(group);
+      return counts[group];
+    }
+
+    /**
+     * Tells if an aggregate is null, which happens when all the values it aggregated are null.
+     * @param group a group, between 0 and the number of groups
+     * @param aggregate an aggregate, in the order it was added to the builder
+     * @return true if the aggregate is null
+     */
+    public boolean isNull(int group, int aggregate) {
+      checkGroup(group);
+      return valueCounts[aggregate][group] == 0;
+    }
+
+    /**
+     * Gets the value of an aggregate over an integral, BOOL or UNIXTIME_MICROS column. A sum
+     * silently overflows like long additions do.
+     * @param group a group, between 0 and the number of groups
+     * @param aggregate an aggregate, in the order it was added to the builder
+     * @return the value of the aggregate
+     * @throws IllegalArgumentException if the aggregate is null or over a floating point column
+     */
+    public long getLong(int group, int aggregate) {
+      checkValue(group, aggregate);
+      Preconditions.checkArgument(longValues[aggregate] != null,
+          "Aggregate %s is over a floating point column", aggregate);
+      return longValues[aggregate][group];
+    }
+
+    /**
+     * Gets the value of an aggregate over a FLOAT or DOUBLE column.
+     * @param group a group, between 0 and the number of groups
+     * @param aggregate an aggregate, in the order it was added to the builder
+     * @return the value of the aggregate
+     * @throws IllegalArgumentException if the aggregate is null or over an integral column
+     */
+    public double getDouble(int group, int aggregate) {
+      checkValue(group, aggregate);
+      Preconditions.checkArgument(doubleValues[aggregate] != null,
+          "Aggregate %s is over an integral column", aggregate);
+      return doubleValues[aggregate][group];
+    }
+
+    private void checkGroup(int group) {
+      Preconditions.checkElementIndex(group, numGroups, "group");
+    }
+
+    private void checkValue(int group, int aggregate) {
+      Preconditions.checkArgument(!isNull(group, aggregate),
+          "Aggregate %s of group %s is null", aggregate, group);
+    }
+
+    @Override
+    public String toString() {
+      return "KuduAggregation.Result for " + numGroups + " groups";
+    }
+  }
+
+  /**
+   * A builder for an aggregation. Rows are only counted unless aggregates are added.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Unstable
+  public static class KuduAggregationBuilder {
+    private final KuduClient client;
+    private final KuduTable table;
+    private final List<KuduPredicate> predicates = new ArrayList<>();
+    private final List<String> groupByColumns = new ArrayList<>();
+    private final List<Function> functions = new ArrayList<>();
+    private final List<String> aggregateColumns = new ArrayList<>();
+    private int batchSizeBytes = 1024 * 1024;
+    private int maxConcurrentScans = 4;
+    private Executor executor;
+
+    KuduAggregationBuilder(KuduClient client, KuduTable table) {
+      this.client = client;
+      this.table = table;
+    }
+
+    /**
+     * Adds a predicate, only the rows matching all the predicates are aggregated.
+     * @param predicate predicate to add
+     * @return this instance
+     */
+    public KuduAggregationBuilder addPredicate(KuduPredicate predicate) {
+      predicates.add(Preconditions.checkNotNull(predicate));
+      return this;
+    }
+
+    /**
+     * Groups the rows by the values of the given columns, which can be of an integral, BOOL,
+     * UNIXTIME_MICROS or STRING type. Null values form their own group.
+     * @param columnNames the group-by columns, added after the ones already set
+     * @return this instance
+     * @throws IllegalArgumentException if a column doesn't exist or can't be grouped by
+     */
+    public KuduAggregationBuilder groupBy(String... columnNames) {
+      for (String columnName : columnNames) {
+        Type type = getColumn(columnName).getType();
+        Preconditions.checkArgument(!isFloatingPoint(type) && type != Type.BINARY,
+            "Can't group by column %s of type %s", columnName, type.getName());
+        Preconditions.checkArgument(!groupByColumns.contains(columnName),
+            "Already grouping by column %s", columnName);
+        groupByColumns.add(columnName);
+      }
+      return this;
+    }
+
+    /**
+     * Adds the sum of a numeric column.
+     * @param columnName an integral, BOOL, UNIXTIME_MICROS, FLOAT or DOUBLE column
+     * @return this instance
+     */
+    public KuduAggregationBuilder sum(String columnName) {
+      return addAggregate(Function.SUM, columnName);
+    }
+
+    /**
+     * Adds the minimum of a numeric column.
+     * @param columnName an integral, BOOL, UNIXTIME_MICROS, FLOAT or DOUBLE column
+     * @return this instance
+     */
+    public KuduAggregationBuilder min(String columnName) {
+      return addAggregate(Function.MIN, columnName);
+    }
+
+    /**
+     * Adds the maximum of a numeric column.
+     * @param columnName an integral, BOOL, UNIXTIME_MICROS, FLOAT or DOUBLE column
+     * @return this instance
+     */
+    public KuduAggregationBuilder max(String columnName) {
+      return addAggregate(Function.MAX, columnName);
+    }
+
+    /**
+     * Sets the maximum number of bytes returned by the scanners, on each batch. The default
+     * is 1MB.
+     * @param batchSizeBytes a strictly positive number of bytes
+     * @return this instance
+     */
+    public KuduAggregationBuilder batchSizeBytes(int batchSizeBytes) {
+      Preconditions.checkArgument(batchSizeBytes > 0,
+          "Need a strictly positive number of bytes, got %s", batchSizeBytes);
+      this.batchSizeBytes = batchSizeBytes;
+      return this;
+    }
+
+    /**
+     * Sets how many tablets are scanned at once. The default is 4.
+     * @param maxConcurrentScans a strictly positive number of scans
+     * @return this instance
+     */
+    public KuduAggregationBuilder maxConcurrentScans(int maxConcurrentScans) {
+      Preconditions.checkArgument(maxConcurrentScans > 0,
+          "Need a strictly positive number of scans, got %s", maxConcurrentScans);
+      this.maxConcurrentScans = maxConcurrentScans;
+      return this;
+    }
+
+    /**
+     * Sets the executor which opens the tablets' scanners and aggregates their batches as they're
+     * received, so that the scans' callbacks aren't held up. Opening a scanner may block, so the
+     * executor mustn't run its tasks on the threads submitting them. The executor isn't shut
+     * down by the aggregation.
+     * Optional.
+     * If not provided, each execution uses its own pool of {@code maxConcurrentScans} threads,
+     * shut down once the execution completes.
+     * @param executor the executor to aggregate with
+     * @return this instance
+     */
+    public KuduAggregationBuilder executor(Executor executor) {
+      this.executor = Preconditions.checkNotNull(executor);
+      return this;
+    }
+
+    /**
+     * @return a new aggregation, which can be executed
+     */
+    public KuduAggregation build() {
+      return new KuduAggregation(this);
+    }
+
+    private KuduAggregationBuilder addAggregate(Function function, String columnName) {
+      Type type = getColumn(columnName).getType();
+      Preconditions.checkArgument(type != Type.STRING && type != Type.BINARY,
+          "Can't aggregate column %s of type %s", columnName, type.getName());
+      functions.add(function);
+      aggregateColumns.add(columnName);
+      return this;
+    }
+
+    private ColumnSchema getColumn(String columnName) {
+      return table.getSchema().getColumn(columnName);
+    }
+  }
+}
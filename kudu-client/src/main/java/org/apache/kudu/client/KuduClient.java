@@ -19,6 +19,7 @@ package org.apache.kudu.client;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -241,6 +242,51 @@ public class KuduClient implements AutoCloseable {
     return asyncClient.getStatistics();
   }
 
+  /**
+   * Get the current number of writes each tablet server may have in flight from this client.
+   * @return a map of tablet server UUIDs to their in-flight write window
+   * @see AsyncKuduClient#getWriteWindows()
+   */
+  public Map<String, Integer> getWriteWindows() {
+    return asyncClient.getWriteWindows();
+  }
+
+  /**
+   * Get the current number of writes waiting for a slot in each tablet server's window.
+   * @return a map of tablet server UUIDs to their number of queued writes
+   * @see AsyncKuduClient#getQueuedWrites()
+   */
+  public Map<String, Integer> getQueuedWrites() {
+    return asyncClient.getQueuedWrites();
+  }
+
+  /**
+   * Get the average number of RPCs this client sent per write to a server's socket.
+   * @return the average number of RPCs per write
+   * @see AsyncKuduClient#getRpcsPerWrite()
+   */
+  public double getRpcsPerWrite() {
+    return asyncClient.getRpcsPerWrite();
+  }
+
+  /**
+   * Get the number of tablet location lookups this client sent to the master.
+   * @return the number of lookups sent
+   * @see AsyncKuduClient#getIssuedMasterLookups()
+   */
+  public long getIssuedMasterLookups() {
+    return asyncClient.getIssuedMasterLookups();
+  }
+
+  /**
+   * Get the number of tablet location lookups that shared another lookup in flight.
+   * @return the number of lookups coalesced
+   * @see AsyncKuduClient#getCoalescedMasterLookups()
+   */
+  public long getCoalescedMasterLookups() {
+    return asyncClient.getCoalescedMasterLookups();
+  }
+
   /**
    * Creates a new {@link KuduScanner.KuduScannerBuilder} for a particular table.
    * @param table the table you intend to scan.
@@ -251,6 +297,56 @@ public class KuduClient implements AutoCloseable {
     return new KuduScanner.KuduScannerBuilder(asyncClient, table);
   }
 
+  /**
+   * Looks up rows by primary key, usually with one scan per tablet holding some of the keys,
+   * see {@link AsyncKuduClient#multiGet}. All the columns are returned.
+   * @param table the table to look the keys up in
+   * @param keys the keys, only their primary key columns need to be set
+   * @return the rows in the order of the keys, null for the keys not found
+   * @throws KuduException if anything went wrong
+   */
+  public List<RowResult> multiGet(KuduTable table, List<PartialRow> keys) throws KuduException {
+    return multiGet(table, keys, null);
+  }
+
+  /**
+   * Looks up rows by primary key, usually with one scan per tablet holding some of the keys,
+   * see {@link AsyncKuduClient#multiGet}.
+   * @param table the table to look the keys up in
+   * @param keys the keys, only their primary key columns need to be set
+   * @param projectedColumnNames the columns to return, the primary key columns always being
+   *                             returned first, or null to return all the columns
+   * @return the rows in the order of the keys, null for the keys not found
+   * @throws KuduException if anything went wrong
+   */
+  public List<RowResult> multiGet(KuduTable table,
+                                  List<PartialRow> keys,
+                                  List<String> projectedColumnNames) throws KuduException {
+    Deferred<List<RowResult>> d = asyncClient.multiGet(table, keys, projectedColumnNames);
+    return joinAndHandleException(d);
+  }
+
+  /**
+   * Creates a new {@link KuduParallelScanner.KuduParallelScannerBuilder} which scans the given
+   * tokens concurrently.
+   * @param tokens the tokens to scan, usually all the tokens built for a scan of a table
+   * @return a new parallel scanner builder for the tokens
+   */
+  public KuduParallelScanner.KuduParallelScannerBuilder newParallelScannerBuilder(
+      List<KuduScanToken> tokens) {
+    return new KuduParallelScanner.KuduParallelScannerBuilder(this, tokens);
+  }
+
+  /**
+   * Creates a new {@link KuduAggregation.KuduAggregationBuilder} which aggregates the rows of a
+   * table.
+   * @param table the table to aggregate
+   * @return a new aggregation builder for the table
+   */
+  public KuduAggregation.KuduAggregationBuilder newAggregationBuilder(KuduTable table) {
+    return new KuduAggregation.KuduAggregationBuilder(this, table);
+  }
+
   /**
    * Creates a new {@link KuduScanToken.KuduScanTokenBuilder} for a particular table.
    * Used for integrations with compute frameworks.
@@ -430,6 +526,50 @@ public class KuduClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Enable an adaptive limit on the number of writes in flight to each tablet server.
+     * Disabled by default.
+     * @return this builder
+     */
+    public KuduClientBuilder enableWriteLimiter() {
+      clientBuilder.enableWriteLimiter();
+      return this;
+    }
+
+    /**
+     * Makes opening a table also look up the locations of all its tablets.
+     * Disabled by default.
+     * @return this builder
+     */
+    public KuduClientBuilder prefetchTableLocations() {
+      clientBuilder.prefetchTableLocations();
+      return this;
+    }
+
+    /**
+     * Makes cached tablet locations get looked up again in the background shortly
+     * before expiring.
+     * Disabled by default.
+     * @return this builder
+     */
+    public KuduClientBuilder refreshTableLocationsAhead() {
+      clientBuilder.refreshTableLocationsAhead();
+      return this;
+    }
+
+    /**
+     * Set an executor to build and serialize the requests of the RPCs with, instead of the
+     * threads sending them. The executor isn't shut down with the client.
+     * Optional.
+     * If not provided, the RPCs are encoded by the threads sending them.
+     * @param encodingExecutor the executor to encode the RPCs with
+     * @return this builder
+     */
+    public KuduClientBuilder encodingExecutor(Executor encodingExecutor) {
+      clientBuilder.encodingExecutor(encodingExecutor);
+      return this;
+    }
+
     /**
      * Set the executors which will be used for the embedded Netty boss and workers.
      * Optional.
@@ -464,6 +604,16 @@ public class KuduClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Set the number of connections opened to each tablet server.
+     * Optional.
+     * If not provided, 1 is used.
+     */
+    public KuduClientBuilder connectionsPerServer(int connectionsPerServer) {
+      clientBuilder.connectionsPerServer(connectionsPerServer);
+      return this;
+    }
+
     /**
      * Creates a new client that connects to the masters.
      * Doesn't block and won't throw an exception if the masters don't exist.
@@ -0,0 +1,555 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kudu.annotations.InterfaceAudience;
+import org.apache.kudu.annotations.InterfaceStability;
+
+/**
+ * A scanner which scans several tablets at once, one per scan token, and buffers the batches it
+ * receives until they're returned by {@link #nextRows()}.
+ * <p>
+ * At most {@code maxConcurrentScans} tokens are scanned at once, the next token being started
+ * once one is done. The scans fetch batches ahead of the caller as long as fewer than
+ * {@code maxBufferedBatches} are in flight or buffered, so the memory used by the scanner is
+ * bounded by {@code maxBufferedBatches * batchSizeBytes}, give or take the rows Kudu sends past
+ * the batch size. When ordered, one of these batches is kept for the token whose batches are
+ * returned next, so that the next tokens can't use them all.
+ * <p>
+ * By default the batches are returned in the order they're received, so the batches of the
+ * tablets are interleaved. When ordered, all the batches of a token are returned before the ones
+ * of the next token, in the order of the tokens, while the next tokens are still scanned ahead.
+ * <p>
+ * {@link #nextRows()} must be called by one thread at a time, while {@link #close()} can be
+ * called from any thread to cancel the scans. Don't forget to close the scanner when done.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+@ThreadSafe
+public class KuduParallelScanner implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(KuduParallelScanner.class);
+
+  private final ScanOpener opener;
+  private final int maxConcurrentScans;
+  private final int maxBufferedBatches;
+  private final boolean ordered;
+
+  /** The tokens which weren't turned into scanners yet. */
+  @GuardedBy("this")
+  private final ArrayDeque<KuduScanToken> pendingTokens;
+
+  /** The scans whose batches weren't all returned yet, in the order of their tokens. */
+  @GuardedBy("this")
+  private final ArrayDeque<TabletScan> scans = new ArrayDeque<>();
+
+  /**
+   * The scans with buffered batches, once per batch in the order they were received. Only used
+   * when not ordered.
+   */
+  @GuardedBy("this")
+  private final ArrayDeque<TabletScan> readyScans = new ArrayDeque<>();
+
+  /** The number of scans which may still fetch batches. */
+  @GuardedBy("this")
+  private int activeScans;
+
+  /** The number of batches in flight or buffered. */
+  @GuardedBy("this")
+  private int reservedBatches;
+
+  /** The first error a scan failed with, returned by all the following calls to nextRows. */
+  @GuardedBy("this")
+  private Exception error;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  private KuduParallelScanner(KuduParallelScannerBuilder builder) {
+    this.opener = builder.opener != null ? builder.opener :
+        new ScannerOpener(builder.client, builder.batchSizeBytes);
+    this.maxConcurrentScans = builder.maxConcurrentScans;
+    this.maxBufferedBatches = builder.maxBufferedBatches;
+    this.ordered = builder.ordered;
+    this.pendingTokens = new ArrayDeque<>(builder.tokens);
+  }
+
+  /**
+   * Tells if there might be more rows to scan.
+   * @return true if there might be more data to scan, else false
+   */
+  public synchronized boolean hasMoreRows() {
+    return !closed && (!pendingTokens.isEmpty() || !scans.isEmpty());
+  }
+
+  /**
+   * Returns the next batch of rows, waiting for one to be received if none is buffered.
+   * @return a batch of rows, which is empty if there are no more rows
+   * @throws KuduException if one of the scans failed or if interrupted while waiting
+   */
+  public RowResultIterator nextRows() throws KuduException {
+    while (true) {
+      startScans();
+      RowResultIterator batch;
+      List<TabletScan> toFetch;
+      synchronized (this) {
+        if (error != null) {
+          throw KuduException.transformException(error);
+        }
+        batch = pollBatch();
+        if (batch != null) {
+          reservedBatches--;
+        }
+        toFetch = collectFetches();
+        if (batch == null && toFetch.isEmpty()) {
+          if (closed || (scans.isEmpty() && pendingTokens.isEmpty())) {
+            return RowResultIterator.empty();
+          }
+          if (activeScans >= maxConcurrentScans || pendingTokens.isEmpty()) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              throw KuduException.transformException(e);
+            }
+          }
+          continue;
+        }
+      }
+      fetch(toFetch);
+      if (batch != null) {
+        return batch;
+      }
+    }
+  }
+
+  /**
+   * Cancels the scans and drops the buffered batches. Closing a scanner already closed has no
+   * effect.
+   */
+  @Override
+  public void close() {
+    List<TokenScan> toClose = new ArrayList<>();
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      pendingTokens.clear();
+      for (TabletScan scan : scans) {
+        // The scans with a batch in flight are closed once it's received.
+        if (!scan.inFlight && !scan.exhausted) {
+          toClose.add(scan.scanner);
+        }
+        scan.batches.clear();
+      }
+      scans.clear();
+      readyScans.clear();
+      notifyAll();
+    }
+    for (TokenScan scanner : toClose) {
+      closeScanner(scanner);
+    }
+  }
+
+  /**
+   * Turns tokens into scanners until {@code maxConcurrentScans} scans are active. This opens
+   * tables, so it's only called from the thread calling nextRows, never from callbacks.
+   */
+  private void startScans() {
+    while (true) {
+      KuduScanToken token;
+      synchronized (this) {
+        if (closed || error != null || activeScans >= maxConcurrentScans) {
+          return;
+        }
+        token = pendingTokens.poll();
+        if (token == null) {
+          return;
+        }
+      }
+
+      TokenScan scanner;
+      try {
+        scanner = opener.open(token);
+      } catch (KuduException e) {
+        synchronized (this) {
+          if (error == null) {
+            error = e;
+          }
+        }
+        return;
+      }
+
+      List<TabletScan> toFetch;
+      synchronized (this) {
+        if (closed) {
+          // The scanner isn't opened on a server until it fetches its first batch.
+          return;
+        }
+        scans.add(new TabletScan(scanner));
+        activeScans++;
+        toFetch = collectFetches();
+      }
+      fetch(toFetch);
+    }
+  }
+
+  /**
+   * @return the next batch to return, or null if none is buffered
+   */
+  @GuardedBy("this")
+  private RowResultIterator pollBatch() {
+    if (!ordered) {
+      TabletScan scan = readyScans.poll();
+      if (scan == null) {
+        return null;
+      }
+      RowResultIterator batch = scan.batches.poll();
+      if (scan.isFinished()) {
+        scans.remove(scan);
+      }
+      return batch;
+    }
+    while (!scans.isEmpty()) {
+      TabletScan head = scans.peekFirst();
+      if (!head.batches.isEmpty()) {
+        return head.batches.poll();
+      }
+      if (!head.isFinished()) {
+        return null;
+      }
+      scans.pollFirst();
+    }
+    return null;
+  }
+
+  /**
+   * Picks the scans which should fetch their next batch now, and reserves room for the batches.
+   * @return the scans to call {@link #fetch} on once the lock is released
+   */
+  @GuardedBy("this")
+  private List<TabletScan> collectFetches() {
+    if (closed || error != null) {
+      return Collections.emptyList();
+    }
+    List<TabletScan> toFetch = new ArrayList<>();
+    TabletScan head = scans.peekFirst();
+    for (TabletScan scan : scans) {
+      if (scan.inFlight || scan.exhausted) {
+        continue;
+      }
+      // When ordered, none of the batches could be returned if they were all from the scans
+      // after the head, so one is kept for the head while it has none in flight or buffered.
+      int maxBatches = maxBufferedBatches;
+      if (ordered && scan != head && !head.inFlight && head.batches.isEmpty()) {
+        maxBatches--;
+      }
+      if (reservedBatches >= maxBatches) {
+        if (ordered) {
+          continue;
+        }
+        break;
+      }
+      reservedBatches++;
+      scan.inFlight = true;
+      toFetch.add(scan);
+    }
+    return toFetch;
+  }
+
+  /**
+   * Sends the requests for the next batches of the given scans. Must not hold the lock since
+   * the callbacks may run right away.
+   */
+  private void fetch(List<TabletScan> toFetch) {
+    for (TabletScan scan : toFetch) {
+      scan.scanner.nextRows().addCallbacks(scan, scan.errback);
+    }
+  }
+
+  private static void closeScanner(final TokenScan scanner) {
+    scanner.close().addErrback(new Callback<Void, Exception>() {
+      @Override
+      public Void call(Exception e) {
+        LOG.warn("Couldn't close scanner {}", scanner, e);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * The scan of a single token, along with its batches that weren't returned yet.
+   */
+  private final class TabletScan implements Callback<Void, RowResultIterator> {
+    private final TokenScan scanner;
+
+    @GuardedBy("KuduParallelScanner.this")
+    private final ArrayDeque<RowResultIterator> batches = new ArrayDeque<>();
+
+    /** Whether a batch is being fetched. */
+    @GuardedBy("KuduParallelScanner.this")
+    private boolean inFlight;
+
+    /** Whether the scanner has no more batches to fetch, or failed. */
+    @GuardedBy("KuduParallelScanner.this")
+    private boolean exhausted;
+
+    private final Callback<Void, Exception> errback = new Callback<Void, Exception>() {
+      @Override
+      public Void call(Exception e) {
+        synchronized (KuduParallelScanner.this) {
+          inFlight = false;
+          exhausted = true;
+          activeScans--;
+          reservedBatches--;
+          if (error == null && !closed) {
+            error = e;
+          }
+          KuduParallelScanner.this.notifyAll();
+        }
+        return null;
+      }
+    };
+
+    private TabletScan(TokenScan scanner) {
+      this.scanner = scanner;
+    }
+
+    @GuardedBy("KuduParallelScanner.this")
+    private boolean isFinished() {
+      return exhausted && !inFlight && batches.isEmpty();
+    }
+
+    @Override
+    public Void call(RowResultIterator batch) {
+      boolean cancelled;
+      List<TabletScan> toFetch;
+      synchronized (KuduParallelScanner.this) {
+        inFlight = false;
+        if (!scanner.hasMoreRows()) {
+          exhausted = true;
+          activeScans--;
+        }
+        cancelled = closed && !exhausted;
+        if (!closed && batch != null && batch.getNumRows() > 0) {
+          batches.add(batch);
+          if (!ordered) {
+            readyScans.add(this);
+          }
+        } else {
+          reservedBatches--;
+        }
+        if (!ordered && isFinished()) {
+          scans.remove(this);
+        }
+        toFetch = collectFetches();
+        KuduParallelScanner.this.notifyAll();
+      }
+      if (cancelled) {
+        closeScanner(scanner);
+      }
+      fetch(toFetch);
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "parallel scan of " + scanner;
+    }
+  }
+
+  /**
+   * The scan of a single token, as used by the parallel scanner.
+   */
+  interface TokenScan {
+    /**
+     * @return a deferred batch, which is null or empty if there are no more rows
+     */
+    Deferred<RowResultIterator> nextRows();
+
+    /**
+     * @return true if there might be more batches to fetch
+     */
+    boolean hasMoreRows();
+
+    /**
+     * Closes the scan on its server, while it still has batches to fetch.
+     * @return a deferred completed once the scan is closed
+     */
+    Deferred<RowResultIterator> close();
+  }
+
+  /**
+   * Opens the scans of the tokens. Tests replace it to scan without a cluster.
+   */
+  interface ScanOpener {
+    /**
+     * Opens the scan of a token, which may block to open its table.
+     * @param token the token to scan
+     * @return the scan, which doesn't fetch any batch yet
+     * @throws KuduException if the scan couldn't be opened
+     */
+    TokenScan open(KuduScanToken token) throws KuduException;
+  }
+
+  /**
+   * Opens the scans of the tokens with scanners of the given batch size.
+   */
+  private static final class ScannerOpener implements ScanOpener {
+    private final KuduClient client;
+    private final int batchSizeBytes;
+
+    ScannerOpener(KuduClient client, int batchSizeBytes) {
+      this.client = client;
+      this.batchSizeBytes = batchSizeBytes;
+    }
+
+    @Override
+    public TokenScan open(KuduScanToken token) throws KuduException {
+      final AsyncKuduScanner scanner = token.intoScanner(client, batchSizeBytes).getAsyncScanner();
+      return new TokenScan() {
+        @Override
+        public Deferred<RowResultIterator> nextRows() {
+          return scanner.nextRows();
+        }
+
+        @Override
+        public boolean hasMoreRows() {
+          return scanner.hasMoreRows();
+        }
+
+        @Override
+        public Deferred<RowResultIterator> close() {
+          return scanner.close();
+        }
+
+        @Override
+        public String toString() {
+          return scanner.toString();
+        }
+      };
+    }
+  }
+
+  /**
+   * A Builder class to build {@link KuduParallelScanner}.
+   * Use {@link KuduClient#newParallelScannerBuilder} in order to get a builder instance.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Unstable
+  public static class KuduParallelScannerBuilder {
+    private final KuduClient client;
+    private final List<KuduScanToken> tokens;
+    private int batchSizeBytes = 1024 * 1024;
+    private int maxConcurrentScans = 4;
+    private int maxBufferedBatches = 8;
+    private boolean ordered = false;
+    private ScanOpener opener;
+
+    KuduParallelScannerBuilder(KuduClient client, List<KuduScanToken> tokens) {
+      this.client = client;
+      this.tokens = tokens;
+    }
+
+    /**
+     * Sets the maximum number of bytes returned by the scanners, on each batch. The default
+     * is 1MB.
+     * @param batchSizeBytes a strictly positive number of bytes
+     * @return this instance
+     */
+    public KuduParallelScannerBuilder batchSizeBytes(int batchSizeBytes) {
+      Preconditions.checkArgument(batchSizeBytes > 0,
+          "Need a strictly positive number of bytes, got %s", batchSizeBytes);
+      this.batchSizeBytes = batchSizeBytes;
+      return this;
+    }
+
+    /**
+     * Sets how many tokens are scanned at once. The default is 4.
+     * @param maxConcurrentScans a strictly positive number of scans
+     * @return this instance
+     */
+    public KuduParallelScannerBuilder maxConcurrentScans(int maxConcurrentScans) {
+      Preconditions.checkArgument(maxConcurrentScans > 0,
+          "Need a strictly positive number of scans, got %s", maxConcurrentScans);
+      this.maxConcurrentScans = maxConcurrentScans;
+      return this;
+    }
+
+    /**
+     * Sets how many batches can be in flight or buffered at once, which multiplied by the
+     * batch size bounds the memory used by the scanner. The default is 8. When the batches are
+     * ordered, one of them is kept for the token whose batches are returned next, so the next
+     * tokens have one less and with a single batch the tokens are scanned one after the other.
+     * @param maxBufferedBatches a strictly positive number of batches
+     * @return this instance
+     */
+    public KuduParallelScannerBuilder maxBufferedBatches(int maxBufferedBatches) {
+      Preconditions.checkArgument(maxBufferedBatches > 0,
+          "Need a strictly positive number of batches, got %s", maxBufferedBatches);
+      this.maxBufferedBatches = maxBufferedBatches;
+      return this;
+    }
+
+    /**
+     * Sets whether the batches are returned in the order of the tokens, a token's batches all
+     * being returned before the next token's. By default they're returned as they're received.
+     * @param ordered true to return the batches in the order of the tokens
+     * @return this instance
+     */
+    public KuduParallelScannerBuilder ordered(boolean ordered) {
+      this.ordered = ordered;
+      return this;
+    }
+
+    /**
+     * Sets how the scans of the tokens are opened, instead of with scanners of the configured
+     * batch size.
+     * @param opener opens the scans of the tokens
+     * @return this instance
+     */
+    @VisibleForTesting
+    KuduParallelScannerBuilder scanOpener(ScanOpener opener) {
+      this.opener = Preconditions.checkNotNull(opener);
+      return this;
+    }
+
+    /**
+     * Builds a {@link KuduParallelScanner} using the passed configurations. The scans start
+     * on the first call to {@link KuduParallelScanner#nextRows()}.
+     * @return a new {@link KuduParallelScanner}
+     */
+    public KuduParallelScanner build() {
+      return new KuduParallelScanner(this);
+    }
+  }
+}
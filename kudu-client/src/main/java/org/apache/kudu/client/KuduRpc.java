@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
@@ -139,6 +140,15 @@ public abstract class KuduRpc<R> {
    */
   long sequenceId = RequestTracker.NO_SEQ_NO;
 
+  /**
+   * Set by AsyncKuduClient when the current attempt of this write holds a slot in the tablet
+   * server's {@link AdaptiveWriteLimiter}, along with the time the attempt was sent. The slot
+   * can be released concurrently by a response and a connection failure, only one of them
+   * releases it.
+   */
+  private final AtomicReference<AdaptiveWriteLimiter> writeLimiter = new AtomicReference<>();
+  private volatile long writeLimiterSendNanos;
+
   KuduRpc(KuduTable table) {
     this.table = table;
     this.deadlineTracker = new DeadlineTracker();
@@ -220,7 +230,42 @@ public abstract class KuduRpc<R> {
     this.propagatedTimestamp = propagatedTimestamp;
   }
 
+  /**
+   * Records that the current attempt of this RPC holds a slot in the given limiter.
+   * @param writeLimiter the limiter of the tablet server the attempt is sent to
+   */
+  void acquiredWriteLimiterSlot(AdaptiveWriteLimiter writeLimiter) {
+    this.writeLimiterSendNanos = System.nanoTime();
+    boolean acquired = this.writeLimiter.compareAndSet(null, writeLimiter);
+    assert acquired;
+  }
+
+  /**
+   * Returns the number of rows this RPC writes, which the write limiter normalizes the RPC's
+   * latency by. Only meaningful for writes.
+   * @return the number of rows written, 1 by default
+   */
+  int getNumRowsWritten() {
+    return 1;
+  }
+
+  /**
+   * Releases the limiter slot held by the current attempt of this RPC, if any.
+   * This method is idempotent.
+   * @param answered true if the server answered the attempt, which makes its latency meaningful
+   * @param serverBusy true if the server rejected the attempt because it's too busy
+   */
+  void releaseWriteLimiterSlot(boolean answered, boolean serverBusy) {
+    AdaptiveWriteLimiter limiter = writeLimiter.getAndSet(null);
+    if (limiter == null) {
+      return;
+    }
+    limiter.release(answered ? System.nanoTime() - writeLimiterSendNanos : -1,
+                    getNumRowsWritten(), serverBusy);
+  }
+
   private void handleCallback(final Object result) {
+    releaseWriteLimiterSlot(false, false);
     final Deferred<R> d = deferred;
     if (d == null) {
       LOG.debug("Handling a callback on RPC {} with no deferred attached!", this);
@@ -410,4 +455,34 @@ public abstract class KuduRpc<R> {
     chanBuf.writerIndex(buf.length);
     return chanBuf;
   }
+
+  /**
+   * Like {@link #toChannelBuffer(Message, Message)}, for a request which was already serialized.
+   * The serialized request isn't copied, the returned buffer wraps it.
+   * @param header the call's header
+   * @param body the serialized request
+   * @return the buffer to write to the channel
+   */
+  static ChannelBuffer toChannelBuffer(Message header, byte[] body) {
+    int headerSize = header.getSerializedSize();
+    int prefixSize = CodedOutputStream.computeRawVarint32Size(headerSize) + headerSize +
+        CodedOutputStream.computeRawVarint32Size(body.length);
+    int totalSize = prefixSize + body.length;
+    byte[] buf = new byte[prefixSize + 4];
+    ChannelBuffer chanBuf = ChannelBuffers.wrappedBuffer(buf);
+    chanBuf.clear();
+    chanBuf.writeInt(totalSize);
+    final CodedOutputStream out = CodedOutputStream.newInstance(buf, 4, prefixSize);
+    try {
+      out.writeRawVarint32(headerSize);
+      header.writeTo(out);
+
+      out.writeRawVarint32(body.length);
+      out.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot serialize the following header " + header);
+    }
+    chanBuf.writerIndex(buf.length);
+    return ChannelBuffers.wrappedBuffer(chanBuf, ChannelBuffers.wrappedBuffer(body));
+  }
 }
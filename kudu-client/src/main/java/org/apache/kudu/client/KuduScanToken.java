@@ -82,6 +82,21 @@ public class KuduScanToken implements Comparable<KuduScanToken> {
     return pbIntoScanner(message, client);
   }
 
+  /**
+   * Creates a {@link KuduScanner} from this scan token which serves its batches from the cache
+   * when the token was already scanned at the same snapshot timestamp, and otherwise adds them
+   * to it once the scan completes. Only the tokens of {@code READ_AT_SNAPSHOT} scans with a
+   * snapshot timestamp use the cache.
+   * @param client a Kudu client for the cluster
+   * @param cache the cache of the scans' batches
+   * @return a scanner for the scan token
+   */
+  public KuduScanner intoScanner(KuduClient client, ScanResultCache cache) throws Exception {
+    return pbIntoScannerBuilder(message, client, client.openTable(message.getTableName()))
+        .resultCache(Preconditions.checkNotNull(cache), message.toByteArray())
+        .build();
+  }
+
   /**
    * Serializes this {@code KuduScanToken} into a byte array.
    * @return the serialized scan token
@@ -144,13 +159,31 @@ public class KuduScanToken implements Comparable<KuduScanToken> {
     return helper.toString();
   }
 
+  /**
+   * Creates a {@link KuduScanner} from this scan token, which fetches batches of the given size.
+   * @param client a Kudu client for the cluster
+   * @param batchSizeBytes the maximum number of bytes the scanner receives at once
+   * @return a scanner for the scan token
+   */
+  KuduScanner intoScanner(KuduClient client, int batchSizeBytes) throws KuduException {
+    return pbIntoScannerBuilder(message, client, client.openTable(message.getTableName()))
+        .batchSizeBytes(batchSizeBytes)
+        .build();
+  }
+
   private static KuduScanner pbIntoScanner(ScanTokenPB message,
                                            KuduClient client) throws KuduException {
+    return pbIntoScannerBuilder(message, client, client.openTable(message.getTableName()))
+        .build();
+  }
+
+  private static KuduScanner.KuduScannerBuilder pbIntoScannerBuilder(ScanTokenPB message,
+                                                                    KuduClient client,
+                                                                    KuduTable table) {
     Preconditions.checkArgument(
         !message.getFeatureFlagsList().contains(ScanTokenPB.Feature.Unknown),
         "Scan token requires an unsupported feature. This Kudu client must be updated.");
 
-    KuduTable table = client.openTable(message.getTableName());
     KuduScanner.KuduScannerBuilder builder = client.newScannerBuilder(table);
 
     List<Integer> columns = new ArrayList<>(message.getProjectedColumnsCount());
@@ -224,7 +257,7 @@ public class KuduScanToken implements Comparable<KuduScanToken> {
       builder.setFaultTolerant(message.getFaultTolerant());
     }
 
-    return builder.build();
+    return builder;
   }
 
   @Override
@@ -110,6 +110,13 @@ public class KuduScanner {
     return asyncScanner.getProjectionSchema();
   }
 
+  /**
+   * @return the asynchronous scanner this one wraps
+   */
+  AsyncKuduScanner getAsyncScanner() {
+    return asyncScanner;
+  }
+
   /**
    * Returns the RemoteTablet currently being scanned, if any.
    */
@@ -149,8 +156,10 @@ public class KuduScanner {
       return new KuduScanner(new AsyncKuduScanner(
           client, table, projectedColumnNames, projectedColumnIndexes, readMode, isFaultTolerant,
           scanRequestTimeout, predicates, limit, cacheBlocks,
-          prefetching, lowerBoundPrimaryKey, upperBoundPrimaryKey,
-          htTimestamp, batchSizeBytes, PartitionPruner.create(this), replicaSelection));
+          readAheadBatches, readAheadMaxBytes, lowerBoundPrimaryKey, upperBoundPrimaryKey,
+          htTimestamp, batchSizeBytes, minBatchSizeBytes, maxBatchSizeBytes,
+          residualFilter, resultCache, resultCacheToken, PartitionPruner.create(this),
+          replicaSelection));
     }
   }
 }
@@ -78,8 +78,10 @@ public class KuduSession implements SessionConfiguration {
   public OperationResponse apply(Operation operation) throws KuduException {
     while (true) {
       try {
-        Deferred<OperationResponse> d = session.apply(operation);
-        if (getFlushMode() == FlushMode.AUTO_FLUSH_SYNC) {
+        // Only the response of a synchronous operation is returned, don't track the others.
+        boolean sync = getFlushMode() == FlushMode.AUTO_FLUSH_SYNC;
+        Deferred<OperationResponse> d = session.apply(operation, sync);
+        if (sync) {
           return d.join();
         }
         break;
@@ -101,7 +103,8 @@ public class KuduSession implements SessionConfiguration {
   /**
    * Blocking call that force flushes this session's buffers. Data is persisted when this call
    * returns, else it will throw an exception.
-   * @return a list of OperationResponse, one per operation that was flushed
+   * @return a read-only list of OperationResponse, one per operation that was flushed; modifying
+   *         it throws an {@link UnsupportedOperationException}
    * @throws KuduException if anything went wrong
    */
   public List<OperationResponse> flush() throws KuduException {
@@ -132,6 +135,16 @@ public class KuduSession implements SessionConfiguration {
     session.setMutationBufferSpace(size);
   }
 
+  @Override
+  public void setMaxBatchSizeBytes(long maxBatchSizeBytes) {
+    session.setMaxBatchSizeBytes(maxBatchSizeBytes);
+  }
+
+  @Override
+  public long getMaxBatchSizeBytes() {
+    return session.getMaxBatchSizeBytes();
+  }
+
   @Override
   public void setMutationBufferLowWatermark(float mutationBufferLowWatermarkPercentage) {
     session.setMutationBufferLowWatermark(mutationBufferLowWatermarkPercentage);
@@ -24,6 +24,7 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.Iterators;
 import com.stumbleupon.async.Deferred;
 
+import org.apache.kudu.Common;
 import org.apache.kudu.Schema;
 import org.apache.kudu.annotations.InterfaceAudience;
 import org.apache.kudu.annotations.InterfaceStability;
@@ -48,6 +49,13 @@ public class KuduTable {
   private final String name;
   private final String tableId;
 
+  /**
+   * This table's schema as a SchemaPB. Built on first use, and then set as-is in every write
+   * request. The schema of a KuduTable never changes, a new instance is opened after it's
+   * altered.
+   */
+  private volatile Common.SchemaPB schemaPb;
+
   /**
    * Package-private constructor, use {@link KuduClient#openTable(String)} to get an instance.
    * @param client the client this instance belongs to
@@ -71,6 +79,21 @@ public class KuduTable {
     return this.schema;
   }
 
+  /**
+   * Get this table's schema as a protobuf message, as of the moment this instance was created.
+   * Racing threads may each build it the first time, which is harmless. The message is
+   * immutable and memoizes its serialized size, so it can be shared by all the requests.
+   * @return the SchemaPB of this table
+   */
+  Common.SchemaPB getSchemaPb() {
+    Common.SchemaPB pb = schemaPb;
+    if (pb == null) {
+      pb = ProtobufHelper.schemaToPb(schema);
+      schemaPb = pb;
+    }
+    return pb;
+  }
+
   /**
    * Gets the table's partition schema.
    *
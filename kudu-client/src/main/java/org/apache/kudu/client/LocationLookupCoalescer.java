@@ -0,0 +1,195 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.primitives.UnsignedBytes;
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+import org.apache.kudu.annotations.InterfaceAudience;
+import org.apache.kudu.master.Master;
+import org.apache.kudu.util.Pair;
+
+/**
+ * Tracks the tablet location lookups in flight to the master so that concurrent cache misses
+ * on the same table share a single lookup instead of each sending their own.
+ * <p>
+ * A lookup fetches the tablets starting at the one covering its partition key, so a miss joins
+ * the in-flight lookup with the closest partition key at or before its own, provided that lookup
+ * fetches at least as many tablets. The lookup may still not reach the key of the miss, in which
+ * case the caller finds the location uncached once the lookup completes and looks it up again.
+ */
+@InterfaceAudience.Private
+@ThreadSafe
+class LocationLookupCoalescer {
+
+  /** The lookups in flight, keyed by table ID and then by their partition key. */
+  private final ConcurrentHashMap<String, ConcurrentNavigableMap<byte[], Lookup>> lookups =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong issuedLookups = new AtomicLong();
+  private final AtomicLong coalescedLookups = new AtomicLong();
+
+  /**
+   * Either joins an in-flight lookup of the table which covers the partition key, or registers
+   * a new one that the caller must send and then {@link Lookup#attach}.
+   * @param tableId the table to look up
+   * @param partitionKey the partition key to look up, never null
+   * @param fetchBatchSize the number of tablets to fetch
+   * @return either a deferred sharing the result of an in-flight lookup, or a new lookup
+   */
+  Pair<Deferred<Master.GetTableLocationsResponsePB>, Lookup> joinOrStart(String tableId,
+                                                                          byte[] partitionKey,
+                                                                          int fetchBatchSize) {
+    ConcurrentNavigableMap<byte[], Lookup> tableLookups = lookups.get(tableId);
+    if (tableLookups == null) {
+      tableLookups = new ConcurrentSkipListMap<>(UnsignedBytes.lexicographicalComparator());
+      ConcurrentNavigableMap<byte[], Lookup> existing =
+          lookups.putIfAbsent(tableId, tableLookups);
+      if (existing != null) {
+        tableLookups = existing;
+      }
+    }
+
+    while (true) {
+      Map.Entry<byte[], Lookup> floor = tableLookups.floorEntry(partitionKey);
+      if (floor != null) {
+        Lookup inFlight = floor.getValue();
+        boolean sameKey = floor.getKey().length == partitionKey.length &&
+            Bytes.memcmp(floor.getKey(), partitionKey) == 0;
+        if (sameKey || inFlight.fetchBatchSize >= fetchBatchSize) {
+          Deferred<Master.GetTableLocationsResponsePB> d = inFlight.join();
+          if (d != null) {
+            coalescedLookups.incrementAndGet();
+            return new Pair<>(d, null);
+          }
+          // The lookup just completed, it's being removed.
+          tableLookups.remove(floor.getKey(), inFlight);
+          continue;
+        }
+      }
+
+      Lookup lookup = new Lookup(tableLookups, partitionKey, fetchBatchSize);
+      if (tableLookups.putIfAbsent(partitionKey, lookup) == null) {
+        issuedLookups.incrementAndGet();
+        return new Pair<>(null, lookup);
+      }
+      // Another lookup with the same key raced with us, try to join it.
+    }
+  }
+
+  /**
+   * @return the number of lookups that were sent to the master
+   */
+  long getIssuedLookups() {
+    return issuedLookups.get();
+  }
+
+  /**
+   * @return the number of lookups that shared the result of another one instead of being sent
+   */
+  long getCoalescedLookups() {
+    return coalescedLookups.get();
+  }
+
+  /**
+   * A lookup in flight, along with the deferreds of the callers waiting on it.
+   */
+  @ThreadSafe
+  final class Lookup implements Callback<Object, Object> {
+    private final ConcurrentNavigableMap<byte[], Lookup> tableLookups;
+    private final byte[] partitionKey;
+    private final int fetchBatchSize;
+
+    @GuardedBy("this")
+    private List<Deferred<Master.GetTableLocationsResponsePB>> waiters = new ArrayList<>();
+
+    private Lookup(ConcurrentNavigableMap<byte[], Lookup> tableLookups,
+                   byte[] partitionKey,
+                   int fetchBatchSize) {
+      this.tableLookups = tableLookups;
+      this.partitionKey = partitionKey;
+      this.fetchBatchSize = fetchBatchSize;
+    }
+
+    /**
+     * @return a deferred called back with the lookup's result, or null if it already completed
+     */
+    private synchronized Deferred<Master.GetTableLocationsResponsePB> join() {
+      if (waiters == null) {
+        return null;
+      }
+      Deferred<Master.GetTableLocationsResponsePB> d = new Deferred<>();
+      waiters.add(d);
+      return d;
+    }
+
+    /**
+     * Hands the lookup's result to its waiters once it completes.
+     * @param d the deferred of the lookup that was sent
+     */
+    @SuppressWarnings("unchecked")
+    void attach(Deferred<?> d) {
+      // The result is passed through untouched, be it a response, null or an exception.
+      ((Deferred<Object>) d).addBoth(this);
+    }
+
+    /**
+     * Completes a lookup which couldn't be sent, so that no other miss joins it. The misses which
+     * already joined it get a recoverable error, and retry their own lookup.
+     */
+    void abandon() {
+      call(new RecoverableException(
+          Status.ServiceUnavailable("The tablet location lookup to share couldn't be sent")));
+    }
+
+    @Override
+    public Object call(Object arg) {
+      tableLookups.remove(partitionKey, this);
+      List<Deferred<Master.GetTableLocationsResponsePB>> toNotify;
+      synchronized (this) {
+        toNotify = waiters;
+        waiters = null;
+      }
+      for (Deferred<Master.GetTableLocationsResponsePB> waiter : toNotify) {
+        waiter.callback(arg);
+      }
+      return arg;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return MoreObjects.toStringHelper(this)
+                        .add("partitionKey", Bytes.hex(partitionKey))
+                        .add("fetchBatchSize", fetchBatchSize)
+                        .add("waiters", waiters == null ? 0 : waiters.size())
+                        .toString();
+    }
+  }
+}
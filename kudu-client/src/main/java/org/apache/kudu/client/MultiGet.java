@@ -0,0 +1,361 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.annotations.InterfaceAudience;
+
+/**
+ * Looks up rows by primary key, scanning the keys of a tablet together rather than one by one
+ * where it doesn't read too many other rows.
+ * <p>
+ * The keys are routed to their tablets through the location cache, only the keys missing from
+ * it being looked up. The tablets are then scanned all at once. With a single primary key
+ * column, each tablet is scanned between the smallest and the largest of its keys, with an IN
+ * list on the column when it has several. With a composite primary key, such a scan could read
+ * any number of rows between two keys, so only the keys which share all their primary key
+ * columns but the last, an integral one with close values, are scanned together. The other
+ * keys are each scanned for on their own.
+ * <p>
+ * The rows returned are matched back to the keys by their encoded primary key, which drops the
+ * rows within the bounds that weren't asked for, and copied out of their batches.
+ */
+@InterfaceAudience.Private
+class MultiGet {
+
+  /**
+   * A run of keys with a composite primary key is scanned at once if the range of values of
+   * the last column it covers holds at most this many values per key, so that the scan doesn't
+   * read more rows than that per row asked for.
+   */
+  static final int MAX_RANGE_PER_KEY = 4;
+
+  private final AsyncKuduClient client;
+  private final KuduTable table;
+  private final List<PartialRow> keys;
+  private final List<String> projectedColumns;
+  private final int numKeyColumns;
+
+  /** The encoded primary key of each key. */
+  private final byte[][] primaryKeys;
+  /** The index of the first key with the same primary key, for each key. */
+  private final int[] firstIndexes;
+  /** The index of each distinct primary key, the first key with it. */
+  private final Map<ByteBuffer, Integer> indexesByPrimaryKey = new HashMap<>();
+  /** The row found for each distinct primary key, set by the scans. */
+  private final AtomicReferenceArray<RowResult> rows;
+
+  /**
+   * @param client the client to send the lookups and scans with
+   * @param table the table to look the keys up in
+   * @param keys the keys, with all their primary key columns set
+   * @param projectedColumnNames the columns to return, or null for all of them
+   */
+  MultiGet(AsyncKuduClient client, KuduTable table, List<PartialRow> keys,
+           List<String> projectedColumnNames) {
+    this.client = client;
+    this.table = table;
+    this.keys = keys;
+
+    Schema schema = table.getSchema();
+    this.numKeyColumns = schema.getPrimaryKeyColumnCount();
+    // The primary key columns come first so that the rows' keys can be encoded.
+    this.projectedColumns = new ArrayList<>();
+    for (ColumnSchema column : schema.getPrimaryKeyColumns()) {
+      projectedColumns.add(column.getName());
+    }
+    List<String> otherColumns = new ArrayList<>();
+    if (projectedColumnNames == null) {
+      for (ColumnSchema column : schema.getColumns()) {
+        otherColumns.add(column.getName());
+      }
+    } else {
+      otherColumns.addAll(projectedColumnNames);
+    }
+    for (String column : otherColumns) {
+      if (!projectedColumns.contains(column)) {
+        projectedColumns.add(column);
+      }
+    }
+
+    this.primaryKeys = new byte[keys.size()][];
+    this.firstIndexes = new int[keys.size()];
+    for (int i = 0; i < keys.size(); i++) {
+      primaryKeys[i] = KeyEncoder.encodePrimaryKey(keys.get(i));
+      Integer first = indexesByPrimaryKey.get(ByteBuffer.wrap(primaryKeys[i]));
+      if (first == null) {
+        first = i;
+        indexesByPrimaryKey.put(ByteBuffer.wrap(primaryKeys[i]), first);
+      }
+      firstIndexes[i] = first;
+    }
+    this.rows = new AtomicReferenceArray<>(keys.size());
+  }
+
+  /**
+   * Routes the keys to their tablets and scans them.
+   * @return a deferred with the rows in the order of the keys, null for the keys not found
+   */
+  Deferred<List<RowResult>> execute() {
+    final List<Integer> distinctIndexes = new ArrayList<>(indexesByPrimaryKey.values());
+    final List<LocatedTablet> tablets = new ArrayList<>(distinctIndexes.size());
+    List<Deferred<LocatedTablet>> lookups = new ArrayList<>();
+    for (int i = 0; i < distinctIndexes.size(); i++) {
+      byte[] partitionKey = KeyEncoder.encodePartitionKey(keys.get(distinctIndexes.get(i)),
+                                                          table.getPartitionSchema());
+      LocatedTablet tablet = client.getCachedTabletLocation(table, partitionKey);
+      tablets.add(tablet);
+      if (tablet == null) {
+        final int position = i;
+        lookups.add(client.getTabletLocation(table, partitionKey,
+                                             client.getDefaultOperationTimeoutMs())
+            .addCallbacks(new Callback<LocatedTablet, LocatedTablet>() {
+              @Override
+              public LocatedTablet call(LocatedTablet located) {
+                synchronized (tablets) {
+                  tablets.set(position, located);
+                }
+                return located;
+              }
+            }, new Callback<Object, Exception>() {
+              @Override
+              public Object call(Exception e) {
+                // A key in a non-covered range has no row, it's left without a tablet.
+                return e instanceof NonCoveredRangeException ? null : e;
+              }
+            }));
+      }
+    }
+
+    return Deferred.group(lookups).addCallbackDeferring(
+        new Callback<Deferred<List<RowResult>>, ArrayList<LocatedTablet>>() {
+          @Override
+          public Deferred<List<RowResult>> call(ArrayList<LocatedTablet> ignored) {
+            synchronized (tablets) {
+              return scanTablets(distinctIndexes, tablets);
+            }
+          }
+        });
+  }
+
+  /**
+   * Groups the keys by tablet and scans each tablet once.
+   * @param distinctIndexes the index of each distinct primary key
+   * @param tablets the tablet of each distinct primary key, null if it has none
+   */
+  private Deferred<List<RowResult>> scanTablets(List<Integer> distinctIndexes,
+                                                List<LocatedTablet> tablets) {
+    Map<ByteBuffer, List<Integer>> keysByTablet = new HashMap<>();
+    Map<ByteBuffer, LocatedTablet> tabletsById = new HashMap<>();
+    for (int i = 0; i < distinctIndexes.size(); i++) {
+      LocatedTablet tablet = tablets.get(i);
+      if (tablet == null) {
+        continue;
+      }
+      ByteBuffer tabletId = ByteBuffer.wrap(tablet.getTabletId());
+      List<Integer> tabletKeys = keysByTablet.get(tabletId);
+      if (tabletKeys == null) {
+        tabletKeys = new ArrayList<>();
+        keysByTablet.put(tabletId, tabletKeys);
+        tabletsById.put(tabletId, tablet);
+      }
+      tabletKeys.add(distinctIndexes.get(i));
+    }
+
+    List<Deferred<Void>> scans = new ArrayList<>(keysByTablet.size());
+    for (Map.Entry<ByteBuffer, List<Integer>> entry : keysByTablet.entrySet()) {
+      scans.add(scanTablet(tabletsById.get(entry.getKey()), entry.getValue()));
+    }
+    return Deferred.group(scans).addCallback(
+        new Callback<List<RowResult>, ArrayList<Void>>() {
+          @Override
+          public List<RowResult> call(ArrayList<Void> ignored) {
+            List<RowResult> results = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+              results.add(rows.get(firstIndexes[i]));
+            }
+            return results;
+          }
+        });
+  }
+
+  /**
+   * Scans a tablet for some of the keys.
+   * @param tablet the tablet
+   * @param keyIndexes the indexes of the keys in the tablet, each primary key appearing once
+   * @return a deferred called back once the rows of the tablet are all received
+   */
+  private Deferred<Void> scanTablet(LocatedTablet tablet, List<Integer> keyIndexes) {
+    Collections.sort(keyIndexes, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Bytes.memcmp(primaryKeys[a], primaryKeys[b]);
+      }
+    });
+    if (numKeyColumns == 1) {
+      return scanRange(tablet, keyIndexes);
+    }
+    List<List<Integer>> runs = splitIntoRuns(keyIndexes);
+    if (runs.size() == 1) {
+      return scanRange(tablet, runs.get(0));
+    }
+    List<Deferred<Void>> scans = new ArrayList<>(runs.size());
+    for (List<Integer> run : runs) {
+      scans.add(scanRange(tablet, run));
+    }
+    return Deferred.group(scans).addCallback(new Callback<Void, ArrayList<Void>>() {
+      @Override
+      public Void call(ArrayList<Void> ignored) {
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Splits sorted keys with a composite primary key into the runs of keys which can be scanned
+   * at once, see {@link #MAX_RANGE_PER_KEY}.
+   * @param keyIndexes the indexes of the keys, sorted by primary key
+   * @return the runs, in order
+   */
+  List<List<Integer>> splitIntoRuns(List<Integer> keyIndexes) {
+    int lastColumn = numKeyColumns - 1;
+    Type lastType = table.getSchema().getColumnByIndex(lastColumn).getType();
+    // The integers are encoded with a fixed size at the end of the primary key, after the
+    // other columns.
+    int lastColumnSize = lastType == Type.STRING || lastType == Type.BINARY ?
+        -1 : lastType.getSize();
+
+    List<List<Integer>> runs = new ArrayList<>();
+    List<Integer> run = null;
+    long runStart = 0;
+    for (int index : keyIndexes) {
+      if (run != null && lastColumnSize > 0) {
+        byte[] first = primaryKeys[run.get(0)];
+        byte[] key = primaryKeys[index];
+        long range = ((Number) keyColumnValue(keys.get(index), lastColumn)).longValue() -
+            runStart;
+        // The keys being sorted, a negative range is an overflow.
+        if (first.length == key.length &&
+            Bytes.memcmp(first, key, 0, first.length - lastColumnSize) == 0 &&
+            range >= 0 && range < (long) MAX_RANGE_PER_KEY * (run.size() + 1)) {
+          run.add(index);
+          continue;
+        }
+      }
+      run = new ArrayList<>();
+      run.add(index);
+      runs.add(run);
+      if (lastColumnSize > 0) {
+        runStart = ((Number) keyColumnValue(keys.get(index), lastColumn)).longValue();
+      }
+    }
+    return runs;
+  }
+
+  /**
+   * Scans a tablet between the smallest and the largest of some of its keys.
+   * @param tablet the tablet
+   * @param keyIndexes the indexes of the keys, sorted by primary key, which all share their
+   *                   primary key columns but the last one when there are several
+   * @return a deferred called back once the rows are all received
+   */
+  private Deferred<Void> scanRange(LocatedTablet tablet, List<Integer> keyIndexes) {
+    byte[] lowerBound = primaryKeys[keyIndexes.get(0)];
+    byte[] largest = primaryKeys[keyIndexes.get(keyIndexes.size() - 1)];
+    // The smallest key after the largest one.
+    byte[] upperBound = Arrays.copyOf(largest, largest.length + 1);
+
+    Partition partition = tablet.getPartition();
+    AsyncKuduScanner.AsyncKuduScannerBuilder builder = client.newScannerBuilder(table)
+        .setProjectedColumnNames(projectedColumns)
+        .lowerBoundRaw(lowerBound)
+        .exclusiveUpperBoundRaw(upperBound)
+        .lowerBoundPartitionKeyRaw(partition.getPartitionKeyStart())
+        .exclusiveUpperBoundPartitionKeyRaw(partition.getPartitionKeyEnd());
+    if (keyIndexes.size() > 1) {
+      builder.addPredicate(keyColumnInList(numKeyColumns - 1, keyIndexes));
+    }
+    final AsyncKuduScanner scanner = builder.build();
+
+    return scanner.nextRows().addCallbackDeferring(
+        new Callback<Deferred<Void>, RowResultIterator>() {
+          @Override
+          public Deferred<Void> call(RowResultIterator batch) {
+            if (batch != null) {
+              for (RowResult row : batch) {
+                byte[] primaryKey = KeyEncoder.encodePrimaryKey(row, numKeyColumns);
+                Integer index = indexesByPrimaryKey.get(ByteBuffer.wrap(primaryKey));
+                if (index != null) {
+                  rows.set(index, row.detach());
+                }
+              }
+            }
+            if (scanner.hasMoreRows()) {
+              return scanner.nextRows().addCallbackDeferring(this);
+            }
+            return Deferred.fromResult(null);
+          }
+        });
+  }
+
+  /**
+   * Builds an IN list predicate on a primary key column with the values of the keys.
+   */
+  private KuduPredicate keyColumnInList(int column, List<Integer> keyIndexes) {
+    List<Object> values = new ArrayList<>(keyIndexes.size());
+    for (int index : keyIndexes) {
+      values.add(keyColumnValue(keys.get(index), column));
+    }
+    return KuduPredicate.newInListPredicate(table.getSchema().getColumnByIndex(column), values);
+  }
+
+  /**
+   * @return the value of a primary key column of a key
+   */
+  private Object keyColumnValue(PartialRow key, int column) {
+    switch (table.getSchema().getColumnByIndex(column).getType()) {
+      case INT8:
+        return key.getByte(column);
+      case INT16:
+        return key.getShort(column);
+      case INT32:
+        return key.getInt(column);
+      case STRING:
+        return key.getString(column);
+      case BINARY:
+        return key.getBinaryCopy(column);
+      default:
+        return key.getLong(column);
+    }
+  }
+}
@@ -116,6 +116,35 @@ public abstract class Operation extends KuduRpc<OperationResponse> {
     return this.rowOperationSizeBytes;
   }
 
+  /**
+   * Computes the size in bytes this operation's row will take once encoded by the
+   * {@link OperationsEncoder}, without serializing it.
+   * @return size in bytes
+   */
+  long computeEncodedRowOperationSizeBytes() {
+    Schema schema = row.getSchema();
+    int columnBitSetSize = Bytes.getBitSetSize(schema.getColumnCount());
+    long size = 1 /* for the op type */ + columnBitSetSize;
+    if (schema.hasNullableColumns()) {
+      size += columnBitSetSize;
+    }
+    for (int i = 0; i < schema.getColumnCount(); i++) {
+      if (!row.isSet(i) || row.isSetToNull(i)) {
+        continue;
+      }
+      Type type = schema.getColumnByIndex(i).getType();
+      if (type == Type.STRING || type == Type.BINARY) {
+        ByteBuffer varLengthData = row.getVarLengthData().get(i).duplicate();
+        varLengthData.reset();
+        // Offset and length in the rows, the data itself in the indirect data.
+        size += 16 + varLengthData.remaining();
+      } else {
+        size += type.getSize();
+      }
+    }
+    return size;
+  }
+
   @Override
   String serviceName() {
     return TABLET_SERVER_SERVICE_NAME;
@@ -208,14 +237,13 @@ public abstract class Operation extends KuduRpc<OperationResponse> {
     if (operations == null || operations.isEmpty()) {
       return null;
     }
-    Schema schema = operations.get(0).table.getSchema();
     RowOperationsPB rowOps = new OperationsEncoder().encodeOperations(operations);
     if (rowOps == null) {
       return null;
     }
 
     Tserver.WriteRequestPB.Builder requestBuilder = Tserver.WriteRequestPB.newBuilder();
-    requestBuilder.setSchema(ProtobufHelper.schemaToPb(schema));
+    requestBuilder.setSchema(operations.get(0).table.getSchemaPb());
     requestBuilder.setRowOperations(rowOps);
     return requestBuilder;
   }
@@ -68,6 +68,10 @@ public class OperationResponse extends KuduRpcResponse {
    * @return a combined list of row errors
    */
   public static List<RowError> collectErrors(List<OperationResponse> responses) {
+    if (responses instanceof BatchResponse.ResponsesView) {
+      // Responses coming from a flush know their errors, no need to go through all of them.
+      return ((BatchResponse.ResponsesView) responses).getRowErrors();
+    }
     List<RowError> errors = new ArrayList<>(responses.size());
     for (OperationResponse resp : responses) {
       if (resp.hasRowError()) {
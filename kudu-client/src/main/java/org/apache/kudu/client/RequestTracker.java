@@ -17,25 +17,46 @@
 
 package org.apache.kudu.client;
 
-import java.util.TreeSet;
-import javax.annotation.concurrent.GuardedBy;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.kudu.annotations.InterfaceAudience;
 
 /**
  * This is the same class as src/kudu/rpc/request_tracker.h.
+ * <p>
+ * It doesn't lock: sequence numbers come from a counter, and every number allocated is
+ * incomplete until {@link #rpcCompleted} is called with it. The completions are recorded in a
+ * ring indexed by sequence number, which {@link #firstIncomplete} walks to move past the ones
+ * that completed. Completions too far ahead of the first incomplete number for the ring, which
+ * only happens when an RPC stays in flight while many others complete, are kept aside instead.
  */
 @InterfaceAudience.Private
+@ThreadSafe
 public class RequestTracker {
-  private Object lock = new Object();
-
-  @GuardedBy("lock")
-  private long nextSeqNo = 1;
-  @GuardedBy("lock")
-  private final TreeSet<Long> incompleteRpcs = new TreeSet<>();
+  /** How far ahead of the first incomplete sequence number the ring tracks completions. */
+  static final int WINDOW = 1 << 14;
+  private static final int WINDOW_MASK = WINDOW - 1;
 
   static final long NO_SEQ_NO = -1;
 
+  private final AtomicLong nextSeqNo = new AtomicLong(1);
+
+  /** The first sequence number that wasn't marked as completed, all the ones before it were. */
+  private final AtomicLong firstIncomplete = new AtomicLong(1);
+
+  /**
+   * Slot {@code seq & WINDOW_MASK} holds {@code seq} once it completed. A slot only ever holds
+   * increasing sequence numbers, and one is only written when the previous number of the slot
+   * is before {@link #firstIncomplete}, so it's never overwritten before being walked past.
+   */
+  private final AtomicLongArray completed = new AtomicLongArray(WINDOW);
+
+  /** The completed sequence numbers which were too far ahead to fit in {@link #completed}. */
+  private final ConcurrentSkipListSet<Long> completedBeyondWindow = new ConcurrentSkipListSet<>();
+
   private final String clientId;
 
   /**
@@ -51,11 +72,7 @@ public class RequestTracker {
    * @return a new sequence number
    */
   public long newSeqNo() {
-    synchronized (lock) {
-      long seq = nextSeqNo++;
-      incompleteRpcs.add(seq);
-      return seq;
-    }
+    return nextSeqNo.getAndIncrement();
   }
 
   /**
@@ -64,21 +81,48 @@ public class RequestTracker {
    * @return the first incomplete sequence number
    */
   public long firstIncomplete() {
-    synchronized (lock) {
-      if (incompleteRpcs.isEmpty()) {
-        return NO_SEQ_NO;
+    while (true) {
+      long first = firstIncomplete.get();
+      if (!isCompleted(first)) {
+        // Numbers not allocated yet aren't completed, so 'first' can at most reach the next one.
+        return first == nextSeqNo.get() ? NO_SEQ_NO : first;
       }
-      return incompleteRpcs.first();
+      firstIncomplete.compareAndSet(first, first + 1);
     }
   }
 
+  /**
+   * @return whether the sequence number, which must not be before the first incomplete one,
+   * was completed, consuming it from {@link #completedBeyondWindow} if it's there
+   */
+  private boolean isCompleted(long seq) {
+    return completed.get((int) (seq & WINDOW_MASK)) == seq ||
+        (!completedBeyondWindow.isEmpty() && completedBeyondWindow.remove(seq));
+  }
+
   /**
    * Marks the given sequence id as complete. This operation is idempotent.
    * @param sequenceId the sequence id to mark as complete
    */
   public void rpcCompleted(long sequenceId) {
-    synchronized (lock) {
-      incompleteRpcs.remove(sequenceId);
+    long first = firstIncomplete.get();
+    if (sequenceId < first) {
+      // Already walked past, or never allocated.
+      return;
+    }
+    if (sequenceId - first < WINDOW) {
+      int slot = (int) (sequenceId & WINDOW_MASK);
+      while (true) {
+        long current = completed.get(slot);
+        if (current >= sequenceId || completed.compareAndSet(slot, current, sequenceId)) {
+          return;
+        }
+      }
+    }
+    completedBeyondWindow.add(sequenceId);
+    if (sequenceId < firstIncomplete.get()) {
+      // Completed twice, and walked past in the meantime.
+      completedBeyondWindow.remove(sequenceId);
     }
   }
 
@@ -0,0 +1,1000 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import static org.apache.kudu.client.ExternalConsistencyMode.CLIENT_PROPAGATED;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnsafeByteOperations;
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.WireProtocol;
+import org.apache.kudu.WireProtocol.RowOperationsPB;
+import org.apache.kudu.annotations.InterfaceAudience;
+import org.apache.kudu.annotations.InterfaceStability;
+import org.apache.kudu.client.Operation.ChangeType;
+import org.apache.kudu.client.Statistics.Statistic;
+import org.apache.kudu.client.Statistics.TabletStatistics;
+import org.apache.kudu.tserver.Tserver;
+import org.apache.kudu.util.Pair;
+
+/**
+ * A {@code RowBatchWriter} writes batches of rows that are already laid out in column arrays
+ * (for example data coming from columnar file formats or vectorized engines) to a table.
+ * <p>
+ * Unlike {@link AsyncKuduSession}, no {@link Operation} or {@link PartialRow} is created per
+ * row: the partition key of every row is computed straight from the column arrays, the rows are
+ * scattered by tablet, and each tablet's rows are encoded directly into the row operations
+ * buffer of a single write RPC. {@link Operation}s are only materialized for rows that come back
+ * with an error, so that they can be reported through the usual {@link RowError}s.
+ * <p>
+ * Rows of a single {@link RowBatch} are sent in one RPC per tablet, the RPCs of the different
+ * tablets being in flight at the same time. A tablet's rows are split over several RPCs when
+ * they would encode to more than {@code maxBatchSizeBytes}, those RPCs being sent one after the
+ * other so that the rows are applied in order. There is no ordering guarantee between two
+ * batches unless the application waits for the first one to complete before applying the second.
+ * <p>
+ * This class is <b>not</b> thread-safe, but different threads can use different writers
+ * created from the same {@link AsyncKuduClient}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class RowBatchWriter {
+
+  private final AsyncKuduClient client;
+  private final KuduTable table;
+  private long timeoutMs;
+  private ExternalConsistencyMode consistencyMode = CLIENT_PROPAGATED;
+  private boolean ignoreAllDuplicateRows = false;
+  private long maxBatchSizeBytes = Batch.DEFAULT_MAX_ROW_OPERATIONS_SIZE_BYTES;
+
+  /**
+   * Package-private constructor meant to be used via {@link AsyncKuduClient#newRowBatchWriter}.
+   * @param client client that creates this writer
+   * @param table the table the rows are written to
+   */
+  RowBatchWriter(AsyncKuduClient client, KuduTable table) {
+    this.client = client;
+    this.table = table;
+    this.timeoutMs = client.getDefaultOperationTimeoutMs();
+  }
+
+  /**
+   * Sets the timeout for each batch written, covering the tablet lookups as well as the write
+   * RPCs. A value of 0 disables the timeout.
+   * @param timeoutMs a timeout in milliseconds
+   */
+  public void setTimeoutMillis(long timeoutMs) {
+    Preconditions.checkArgument(timeoutMs >= 0, "The timeout must be greater or equal to 0");
+    this.timeoutMs = timeoutMs;
+  }
+
+  /**
+   * @return the timeout applied to each batch, in milliseconds
+   */
+  public long getTimeoutMillis() {
+    return timeoutMs;
+  }
+
+  /**
+   * Sets the external consistency mode of the write RPCs.
+   * @param consistencyMode the mode to use
+   */
+  public void setExternalConsistencyMode(ExternalConsistencyMode consistencyMode) {
+    this.consistencyMode = consistencyMode;
+  }
+
+  /**
+   * See {@link SessionConfiguration#setIgnoreAllDuplicateRows(boolean)}.
+   * @param ignoreAllDuplicateRows true if duplicate row errors should be ignored
+   */
+  public void setIgnoreAllDuplicateRows(boolean ignoreAllDuplicateRows) {
+    this.ignoreAllDuplicateRows = ignoreAllDuplicateRows;
+  }
+
+  /**
+   * See {@link SessionConfiguration#setMaxBatchSizeBytes(long)}. A tablet's rows are split over
+   * several RPCs, sent one after the other, when they encode to more than that.
+   * @param maxBatchSizeBytes a strictly positive size in bytes
+   */
+  public void setMaxBatchSizeBytes(long maxBatchSizeBytes) {
+    Preconditions.checkArgument(maxBatchSizeBytes > 0, "The batch size cap must be positive");
+    this.maxBatchSizeBytes = maxBatchSizeBytes;
+  }
+
+  /**
+   * @return the maximum size of the rows sent in a single write RPC, in bytes
+   */
+  public long getMaxBatchSizeBytes() {
+    return maxBatchSizeBytes;
+  }
+
+  /**
+   * @return the table this writer writes to
+   */
+  public KuduTable getTable() {
+    return table;
+  }
+
+  /**
+   * Creates a new, empty, row batch for this writer's table.
+   * @param numRows the number of rows in the batch
+   * @return a new row batch
+   */
+  public RowBatch newRowBatch(int numRows) {
+    return new RowBatch(table.getSchema(), numRows);
+  }
+
+  /**
+   * Inserts the valid rows of the batch.
+   * @param batch the rows to insert
+   * @return a deferred containing the row errors, empty if all the rows were written
+   */
+  public Deferred<List<RowError>> insert(RowBatch batch) {
+    return apply(batch, ChangeType.INSERT);
+  }
+
+  /**
+   * Upserts the valid rows of the batch.
+   * @param batch the rows to upsert
+   * @return a deferred containing the row errors, empty if all the rows were written
+   */
+  public Deferred<List<RowError>> upsert(RowBatch batch) {
+    return apply(batch, ChangeType.UPSERT);
+  }
+
+  /**
+   * Updates the valid rows of the batch.
+   * @param batch the rows to update
+   * @return a deferred containing the row errors, empty if all the rows were written
+   */
+  public Deferred<List<RowError>> update(RowBatch batch) {
+    return apply(batch, ChangeType.UPDATE);
+  }
+
+  /**
+   * Deletes the valid rows of the batch, only the key columns are used.
+   * @param batch the rows to delete
+   * @return a deferred containing the row errors, empty if all the rows were written
+   */
+  public Deferred<List<RowError>> delete(RowBatch batch) {
+    return apply(batch, ChangeType.DELETE);
+  }
+
+  private Deferred<List<RowError>> apply(RowBatch batch, ChangeType changeType) {
+    Preconditions.checkNotNull(batch, "Can not apply a null batch");
+    Preconditions.checkArgument(batch.schema == table.getSchema(),
+                                "The row batch wasn't created for table %s", table.getName());
+    batch.checkKeyColumnsSet();
+    batch.frozen = true;
+
+    byte[][] partitionKeys = batch.encodePartitionKeys(table.getPartitionSchema());
+    DeadlineTracker deadlineTracker = new DeadlineTracker();
+    deadlineTracker.setDeadline(timeoutMs);
+    return routeAndSend(batch, changeType, partitionKeys, deadlineTracker);
+  }
+
+  /**
+   * Finds the tablet of every row using the location cache and sends the rows once they are all
+   * located. If a location isn't cached, it is looked up, and the routing starts over once the
+   * lookup completes. A single lookup caches the locations of several consecutive tablets.
+   */
+  private Deferred<List<RowError>> routeAndSend(final RowBatch batch,
+                                                final ChangeType changeType,
+                                                final byte[][] partitionKeys,
+                                                final DeadlineTracker deadlineTracker) {
+    final String tableId = table.getTableId();
+    final int numRows = batch.numRows;
+
+    // The RPCs of each tablet, in order, the last one being the one rows are added to.
+    Map<String, List<TabletRowBatch>> tabletBatches = new HashMap<>();
+    TabletRowBatch[] rowTablets = new TabletRowBatch[numRows];
+    List<RowError> rowErrors = new ArrayList<>();
+
+    for (int row = 0; row < numRows; row++) {
+      if (!batch.isRowValid(row)) {
+        continue;
+      }
+      TableLocationsCache.Entry entry = client.getTableLocationEntry(tableId, partitionKeys[row]);
+      if (entry == null) {
+        if (deadlineTracker.timedOut()) {
+          Status statusTimedOut = Status.TimedOut("Took too long locating the tablets of " +
+              table.getName() + ", " + deadlineTracker);
+          return Deferred.fromError(new NonRecoverableException(statusTimedOut));
+        }
+        long lookupTimeoutMs = deadlineTracker.hasDeadline() ?
+            deadlineTracker.getMillisBeforeDeadline() : 0;
+        Deferred<LocatedTablet> lookup =
+            client.getTabletLocation(table, partitionKeys[row], lookupTimeoutMs);
+        return lookup.addBothDeferring(new Callback<Deferred<List<RowError>>, Object>() {
+          @Override
+          public Deferred<List<RowError>> call(Object arg) {
+            if (arg instanceof Exception &&
+                !(arg instanceof NonCoveredRangeException) &&
+                !(arg instanceof RecoverableException)) {
+              return Deferred.fromError((Exception) arg);
+            }
+            return routeAndSend(batch, changeType, partitionKeys, deadlineTracker);
+          }
+
+          @Override
+          public String toString() {
+            return "RouteRowBatchCB";
+          }
+        });
+      }
+
+      if (entry.isNonCoveredRange()) {
+        // Reported as NotFound, like AsyncKuduSession does for operations in non-covered ranges.
+        NonCoveredRangeException e =
+            new NonCoveredRangeException(entry.getLowerBoundPartitionKey(),
+                                         entry.getUpperBoundPartitionKey());
+        rowErrors.add(new RowError(Status.NotFound(e.getMessage()),
+                                   batch.toOperation(table, row, changeType)));
+        continue;
+      }
+
+      String tabletId = entry.getTablet().getTabletId();
+      List<TabletRowBatch> rpcs = tabletBatches.get(tabletId);
+      if (rpcs == null) {
+        rpcs = new ArrayList<>(1);
+        tabletBatches.put(tabletId, rpcs);
+      }
+      TabletRowBatch tabletBatch = rpcs.isEmpty() ? null : rpcs.get(rpcs.size() - 1);
+      if (tabletBatch == null || !tabletBatch.fits(row, maxBatchSizeBytes)) {
+        tabletBatch = new TabletRowBatch(table, batch, changeType, ignoreAllDuplicateRows,
+                                         entry.getLowerBoundPartitionKey());
+        rpcs.add(tabletBatch);
+      }
+      tabletBatch.reserve(row);
+      rowTablets[row] = tabletBatch;
+    }
+
+    // All rows are located, scatter them into their tablet's buffers.
+    for (List<TabletRowBatch> rpcs : tabletBatches.values()) {
+      for (TabletRowBatch tabletBatch : rpcs) {
+        tabletBatch.allocate();
+      }
+    }
+    for (int row = 0; row < numRows; row++) {
+      if (rowTablets[row] != null) {
+        rowTablets[row].encodeRow(row);
+      }
+    }
+
+    List<Deferred<List<RowError>>> responses = new ArrayList<>(tabletBatches.size() + 1);
+    if (!rowErrors.isEmpty()) {
+      responses.add(Deferred.fromResult(rowErrors));
+    }
+    for (List<TabletRowBatch> rpcs : tabletBatches.values()) {
+      responses.add(sendInOrder(rpcs, 0, deadlineTracker));
+    }
+
+    return Deferred.group(responses).addCallback(
+        new Callback<List<RowError>, ArrayList<List<RowError>>>() {
+          @Override
+          public List<RowError> call(ArrayList<List<RowError>> tabletErrors) {
+            int size = 0;
+            for (List<RowError> errors : tabletErrors) {
+              size += errors.size();
+            }
+            if (size == 0) {
+              return Collections.emptyList();
+            }
+            List<RowError> errors = new ArrayList<>(size);
+            for (List<RowError> tabletError : tabletErrors) {
+              errors.addAll(tabletError);
+            }
+            return errors;
+          }
+
+          @Override
+          public String toString() {
+            return "CollectRowBatchErrorsCB";
+          }
+        });
+  }
+
+  /**
+   * Sends the RPCs of a tablet one after the other, starting at the given one, so that the rows
+   * are applied in the order of the batch.
+   * @return a deferred containing the row errors of all the RPCs
+   */
+  private Deferred<List<RowError>> sendInOrder(final List<TabletRowBatch> rpcs,
+                                               final int index,
+                                               final DeadlineTracker deadlineTracker) {
+    TabletRowBatch rpc = rpcs.get(index);
+    if (timeoutMs != 0) {
+      rpc.setTimeoutMillis(deadlineTracker.getMillisBeforeDeadline());
+    }
+    rpc.setExternalConsistencyMode(consistencyMode);
+    Deferred<List<RowError>> d = send(rpc);
+    if (index + 1 == rpcs.size()) {
+      return d;
+    }
+    return d.addCallbackDeferring(new Callback<Deferred<List<RowError>>, List<RowError>>() {
+      @Override
+      public Deferred<List<RowError>> call(final List<RowError> errors) {
+        Deferred<List<RowError>> next = sendInOrder(rpcs, index + 1, deadlineTracker);
+        if (errors.isEmpty()) {
+          return next;
+        }
+        return next.addCallback(new Callback<List<RowError>, List<RowError>>() {
+          @Override
+          public List<RowError> call(List<RowError> nextErrors) {
+            List<RowError> all = new ArrayList<>(errors.size() + nextErrors.size());
+            all.addAll(errors);
+            all.addAll(nextErrors);
+            return all;
+          }
+        });
+      }
+
+      @Override
+      public String toString() {
+        return "SendNextTabletRowBatchCB";
+      }
+    });
+  }
+
+  /**
+   * Sends the RPC, and converts its outcome into a list of row errors.
+   */
+  private Deferred<List<RowError>> send(final TabletRowBatch request) {
+    final class TabletRowBatchCB implements Callback<List<RowError>, TabletRowBatchResponse> {
+      @Override
+      public List<RowError> call(TabletRowBatchResponse response) {
+        if (response.getWriteTimestamp() != 0) {
+          client.updateLastPropagatedTimestamp(response.getWriteTimestamp());
+        }
+        return response.getRowErrors();
+      }
+
+      @Override
+      public String toString() {
+        return "row batch response";
+      }
+    }
+
+    final class TabletRowBatchErrCB implements Callback<Object, Exception> {
+      @Override
+      public Object call(Exception e) {
+        if (!(e instanceof KuduException)) {
+          return e;
+        }
+        // Returning a list of errors leaves the errback chain.
+        Status status = ((KuduException) e).getStatus();
+        List<RowError> errors = new ArrayList<>(request.numRows);
+        for (int i = 0; i < request.numRows; i++) {
+          errors.add(new RowError(status, request.toOperation(i)));
+        }
+        return errors;
+      }
+
+      @Override
+      public String toString() {
+        return "row batch error response";
+      }
+    }
+
+    Deferred<TabletRowBatchResponse> d = client.sendRpcToTablet(request);
+    return d.addCallbacks(new TabletRowBatchCB(), new TabletRowBatchErrCB());
+  }
+
+  /**
+   * A batch of rows held in column arrays. Each column which is part of the batch is set with
+   * an array of values containing at least {@code numRows} elements, and an optional null bitmap.
+   * Columns which aren't set aren't written, which means they keep their default value on insert
+   * and their current value on update. The key columns must always be set.
+   * <p>
+   * Bitmaps are byte arrays where bit {@code i} is {@code (bitmap[i / 8] >> (i % 8)) & 1}.
+   * In a column's null bitmap, a set bit means the cell is null. In the row validity bitmap,
+   * a set bit means the row is part of the batch, which lets applications skip rows without
+   * having to compact their arrays.
+   * <p>
+   * The arrays aren't copied, so they must not be modified until the batch is written.
+   * A batch can't be modified once it's been applied.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Unstable
+  public static class RowBatch {
+    private final Schema schema;
+    private final int numRows;
+    private final Object[] values;
+    private final byte[][] nulls;
+    private byte[] rowValidity;
+    private boolean frozen = false;
+
+    /**
+     * Creates an empty batch, prefer {@link RowBatchWriter#newRowBatch(int)}.
+     * @param schema the schema of the table the batch will be written to
+     * @param numRows the number of rows in the batch
+     */
+    RowBatch(Schema schema, int numRows) {
+      Preconditions.checkArgument(numRows >= 0, "The number of rows can't be negative");
+      this.schema = schema;
+      this.numRows = numRows;
+      this.values = new Object[schema.getColumnCount()];
+      this.nulls = new byte[schema.getColumnCount()][];
+    }
+
+    /**
+     * @return the number of rows in the batch, including the invalid ones
+     */
+    public int getNumRows() {
+      return numRows;
+    }
+
+    /**
+     * Sets the values of a BOOL column.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setBoolColumn(int columnIndex, boolean[] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap, Type.BOOL);
+    }
+
+    /**
+     * Sets the values of an INT8 column.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setByteColumn(int columnIndex, byte[] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap, Type.INT8);
+    }
+
+    /**
+     * Sets the values of an INT16 column.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setShortColumn(int columnIndex, short[] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap, Type.INT16);
+    }
+
+    /**
+     * Sets the values of an INT32 column.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setIntColumn(int columnIndex, int[] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap, Type.INT32);
+    }
+
+    /**
+     * Sets the values of an INT64 or UNIXTIME_MICROS column.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setLongColumn(int columnIndex, long[] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap,
+                Type.INT64, Type.UNIXTIME_MICROS);
+    }
+
+    /**
+     * Sets the values of a FLOAT column.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setFloatColumn(int columnIndex, float[] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap, Type.FLOAT);
+    }
+
+    /**
+     * Sets the values of a DOUBLE column.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setDoubleColumn(int columnIndex, double[] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap, Type.DOUBLE);
+    }
+
+    /**
+     * Sets the values of a STRING column, encoded as UTF8.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row, null elements are null cells
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setStringColumn(int columnIndex, byte[][] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap, Type.STRING);
+    }
+
+    /**
+     * Sets the values of a BINARY column.
+     * @param columnIndex the column's index in the schema
+     * @param columnValues the values, one per row, null elements are null cells
+     * @param nullBitmap the null bitmap, or null if no cell is null
+     */
+    public void setBinaryColumn(int columnIndex, byte[][] columnValues, byte[] nullBitmap) {
+      setColumn(columnIndex, columnValues, columnValues.length, nullBitmap, Type.BINARY);
+    }
+
+    /**
+     * Sets which rows are part of the batch. By default all the rows are.
+     * @param validityBitmap bitmap where a set bit means the row is written, or null
+     */
+    public void setRowValidity(byte[] validityBitmap) {
+      checkNotFrozen();
+      Preconditions.checkArgument(validityBitmap == null ||
+                                  validityBitmap.length >= Bytes.getBitSetSize(numRows),
+                                  "The validity bitmap must have at least %s bits", numRows);
+      this.rowValidity = validityBitmap;
+    }
+
+    private void setColumn(int columnIndex, Object columnValues, int length, byte[] nullBitmap,
+                           Type... types) {
+      checkNotFrozen();
+      ColumnSchema column = schema.getColumnByIndex(columnIndex);
+      boolean typeMatches = false;
+      for (Type type : types) {
+        typeMatches |= column.getType() == type;
+      }
+      if (!typeMatches) {
+        throw new IllegalArgumentException(String.format("%s isn't %s, it's %s", column.getName(),
+            Arrays.toString(types), column.getType().getName()));
+      }
+      Preconditions.checkArgument(length >= numRows,
+                                  "Column %s has %s values, expected at least %s",
+                                  column.getName(), length, numRows);
+      Preconditions.checkArgument(nullBitmap == null ||
+                                  nullBitmap.length >= Bytes.getBitSetSize(numRows),
+                                  "The null bitmap of column %s must have at least %s bits",
+                                  column.getName(), numRows);
+      if (!column.isNullable()) {
+        for (int row = 0; row < numRows; row++) {
+          if (isBitSet(nullBitmap, row) ||
+              (columnValues instanceof byte[][] && ((byte[][]) columnValues)[row] == null)) {
+            throw new IllegalArgumentException(column.getName() + " cannot be set to null");
+          }
+        }
+      }
+      values[columnIndex] = columnValues;
+      nulls[columnIndex] = nullBitmap;
+    }
+
+    private void checkNotFrozen() {
+      if (frozen) {
+        throw new IllegalStateException("This batch was already applied and cannot be modified.");
+      }
+    }
+
+    private void checkKeyColumnsSet() {
+      for (int i = 0; i < schema.getPrimaryKeyColumnCount(); i++) {
+        if (values[i] == null) {
+          throw new IllegalStateException(String.format("Primary key column %s is not set",
+              schema.getColumnByIndex(i).getName()));
+        }
+      }
+    }
+
+    private static boolean isBitSet(byte[] bitmap, int idx) {
+      return bitmap != null && (bitmap[idx >> 3] & (1 << (idx & 7))) != 0;
+    }
+
+    boolean isRowValid(int row) {
+      return rowValidity == null || isBitSet(rowValidity, row);
+    }
+
+    boolean isSet(int columnIndex) {
+      return values[columnIndex] != null;
+    }
+
+    boolean isNull(int columnIndex, int row) {
+      return isBitSet(nulls[columnIndex], row) ||
+          (values[columnIndex] instanceof byte[][] &&
+              ((byte[][]) values[columnIndex])[row] == null);
+    }
+
+    /**
+     * @return the number of bytes of variable length data of a row
+     */
+    long getIndirectSize(int row) {
+      long size = 0;
+      for (int col = 0; col < values.length; col++) {
+        Object columnValues = values[col];
+        if (columnValues instanceof byte[][] && !isNull(col, row)) {
+          size += ((byte[][]) columnValues)[row].length;
+        }
+      }
+      return size;
+    }
+
+    /**
+     * @return an upper bound of the encoded size of a row, without its variable length data
+     */
+    int getEncodedRowSizeBound() {
+      int bitSetSize = Bytes.getBitSetSize(schema.getColumnCount());
+      int sizePerRow = 1 /* for the op type */ + bitSetSize;
+      if (schema.hasNullableColumns()) {
+        sizePerRow += bitSetSize;
+      }
+      for (int col = 0; col < schema.getColumnCount(); col++) {
+        if (isSet(col)) {
+          Type type = schema.getColumnByIndex(col).getType();
+          sizePerRow += type == Type.STRING || type == Type.BINARY ? 16 : type.getSize();
+        }
+      }
+      return sizePerRow;
+    }
+
+    /**
+     * Encodes the partition key of every valid row. The key columns of each row are copied into a
+     * single scratch row which is handed to the {@link KeyEncoder}.
+     */
+    byte[][] encodePartitionKeys(PartitionSchema partitionSchema) {
+      byte[][] keys = new byte[numRows][];
+      PartialRow keyRow = schema.newPartialRow();
+      for (int row = 0; row < numRows; row++) {
+        if (isRowValid(row)) {
+          copyColumns(row, keyRow, schema.getPrimaryKeyColumnCount());
+          keys[row] = KeyEncoder.encodePartitionKey(keyRow, partitionSchema);
+        }
+      }
+      return keys;
+    }
+
+    /**
+     * Builds a stand-alone operation out of a row of the batch. Only used to report errors.
+     */
+    Operation toOperation(KuduTable table, int row, ChangeType changeType) {
+      Operation operation;
+      switch (changeType) {
+        case INSERT: operation = new Insert(table); break;
+        case UPSERT: operation = new Upsert(table); break;
+        case UPDATE: operation = new Update(table); break;
+        case DELETE: operation = new Delete(table); break;
+        default: throw new IllegalArgumentException("Unexpected change type " + changeType);
+      }
+      int numColumns = changeType == ChangeType.DELETE ?
+          schema.getPrimaryKeyColumnCount() : schema.getColumnCount();
+      copyColumns(row, operation.getRow(), numColumns);
+      return operation;
+    }
+
+    /**
+     * Copies the first {@code numColumns} set columns of a row of the batch into a partial row.
+     */
+    private void copyColumns(int row, PartialRow target, int numColumns) {
+      for (int col = 0; col < numColumns; col++) {
+        Object columnValues = values[col];
+        if (columnValues == null) {
+          continue;
+        }
+        if (isNull(col, row)) {
+          target.setNull(col);
+          continue;
+        }
+        switch (schema.getColumnByIndex(col).getType()) {
+          case BOOL: target.addBoolean(col, ((boolean[]) columnValues)[row]); break;
+          case INT8: target.addByte(col, ((byte[]) columnValues)[row]); break;
+          case INT16: target.addShort(col, ((short[]) columnValues)[row]); break;
+          case INT32: target.addInt(col, ((int[]) columnValues)[row]); break;
+          case INT64:
+          case UNIXTIME_MICROS: target.addLong(col, ((long[]) columnValues)[row]); break;
+          case FLOAT: target.addFloat(col, ((float[]) columnValues)[row]); break;
+          case DOUBLE: target.addDouble(col, ((double[]) columnValues)[row]); break;
+          case STRING: target.addStringUtf8(col, ((byte[][]) columnValues)[row]); break;
+          case BINARY: target.addBinary(col, ((byte[][]) columnValues)[row]); break;
+          default: throw new IllegalArgumentException("Unsupported column type");
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+                        .add("numRows", numRows)
+                        .add("hasRowValidity", rowValidity != null)
+                        .toString();
+    }
+  }
+
+  /**
+   * Write RPC carrying the rows of a {@link RowBatch} that belong to a single tablet. The rows are
+   * encoded once, straight from the column arrays, in the same format as
+   * {@link Operation.OperationsEncoder}; retries reuse the encoded buffers.
+   */
+  static final class TabletRowBatch extends KuduRpc<TabletRowBatchResponse> {
+    private final RowBatch batch;
+    private final ChangeType changeType;
+    private final boolean ignoreAllDuplicateRows;
+    private final byte[] partitionKey;
+    private final int sizePerRow;
+
+    /** Maps the index of a row in this RPC to its index in the batch. */
+    private int[] rowIndexes = new int[16];
+    private int numRows = 0;
+    private long indirectSize = 0;
+
+    private ByteBuffer rows;
+    private ByteBuffer indirect;
+
+    TabletRowBatch(KuduTable table, RowBatch batch, ChangeType changeType,
+                   boolean ignoreAllDuplicateRows, byte[] partitionKey) {
+      super(table);
+      this.batch = batch;
+      this.changeType = changeType;
+      this.ignoreAllDuplicateRows = ignoreAllDuplicateRows;
+      this.partitionKey = partitionKey;
+      this.sizePerRow = batch.getEncodedRowSizeBound();
+    }
+
+    /**
+     * @return the number of bytes the reserved rows encode to, at most
+     */
+    long getEncodedSizeBound() {
+      return (long) sizePerRow * numRows + indirectSize;
+    }
+
+    /**
+     * Tells if a row can be added without the RPC encoding to more than the given size. A row
+     * always fits an empty RPC, however large it is.
+     * @param row the row of the batch
+     * @param maxSizeBytes the maximum encoded size of the RPC's rows
+     * @return true if the row can be reserved
+     */
+    boolean fits(int row, long maxSizeBytes) {
+      return numRows == 0 ||
+          getEncodedSizeBound() + sizePerRow + batch.getIndirectSize(row) <= maxSizeBytes;
+    }
+
+    /**
+     * Accounts for a row of the batch routed to this tablet.
+     */
+    void reserve(int row) {
+      if (numRows == rowIndexes.length) {
+        rowIndexes = Arrays.copyOf(rowIndexes, numRows * 2);
+      }
+      rowIndexes[numRows++] = row;
+      indirectSize += batch.getIndirectSize(row);
+    }
+
+    /**
+     * Allocates the buffers once all the rows are reserved. The rows buffer is sized for rows
+     * without null cells, which is an upper bound.
+     */
+    void allocate() {
+      long rowsSize = (long) sizePerRow * numRows;
+      Preconditions.checkState(rowsSize <= Integer.MAX_VALUE,
+                               "Too many rows for a single tablet: %s bytes", rowsSize);
+      Preconditions.checkState(indirectSize <= Integer.MAX_VALUE,
+                               "Too much variable length data for a single tablet: %s bytes",
+                               indirectSize);
+      rows = ByteBuffer.allocate((int) rowsSize).order(ByteOrder.LITTLE_ENDIAN);
+      indirect = ByteBuffer.allocate((int) indirectSize);
+    }
+
+    /**
+     * Appends a row of the batch to the encoded row operations.
+     */
+    void encodeRow(int row) {
+      Schema schema = batch.schema;
+      int numColumns = schema.getColumnCount();
+      int bitSetSize = Bytes.getBitSetSize(numColumns);
+      int numColumnsToEncode = changeType == ChangeType.DELETE ?
+          schema.getPrimaryKeyColumnCount() : numColumns;
+
+      rows.put(changeType.toEncodedByte());
+      int columnsBitSetPosition = rows.position();
+      rows.position(columnsBitSetPosition + bitSetSize);
+      int nullsBitSetPosition = rows.position();
+      if (schema.hasNullableColumns()) {
+        rows.position(nullsBitSetPosition + bitSetSize);
+      }
+
+      for (int col = 0; col < numColumnsToEncode; col++) {
+        Object columnValues = batch.values[col];
+        if (columnValues == null) {
+          continue;
+        }
+        setBit(columnsBitSetPosition, col);
+        if (batch.isNull(col, row)) {
+          setBit(nullsBitSetPosition, col);
+          continue;
+        }
+        switch (schema.getColumnByIndex(col).getType()) {
+          case BOOL: rows.put((byte) (((boolean[]) columnValues)[row] ? 1 : 0)); break;
+          case INT8: rows.put(((byte[]) columnValues)[row]); break;
+          case INT16: rows.putShort(((short[]) columnValues)[row]); break;
+          case INT32: rows.putInt(((int[]) columnValues)[row]); break;
+          case INT64:
+          case UNIXTIME_MICROS: rows.putLong(((long[]) columnValues)[row]); break;
+          case FLOAT: rows.putFloat(((float[]) columnValues)[row]); break;
+          case DOUBLE: rows.putDouble(((double[]) columnValues)[row]); break;
+          case STRING:
+          case BINARY: {
+            byte[] value = ((byte[][]) columnValues)[row];
+            rows.putLong(indirect.position());
+            rows.putLong(value.length);
+            indirect.put(value);
+            break;
+          }
+          default: throw new IllegalArgumentException("Unsupported column type");
+        }
+      }
+    }
+
+    private void setBit(int bitSetPosition, int idx) {
+      int pos = bitSetPosition + (idx >> 3);
+      rows.put(pos, (byte) (rows.get(pos) | (1 << (idx & 7))));
+    }
+
+    Operation toOperation(int rpcRowIndex) {
+      return batch.toOperation(table, rowIndexes[rpcRowIndex], changeType);
+    }
+
+    /**
+     * @return the encoded rows, wrapping the buffers without copying them
+     */
+    RowOperationsPB toRowOperationsPB() {
+      RowOperationsPB.Builder rowOps = RowOperationsPB.newBuilder();
+      rowOps.setRows(UnsafeByteOperations.unsafeWrap(rows.array(), 0, rows.position()));
+      if (indirect.position() > 0) {
+        rowOps.setIndirectData(
+            UnsafeByteOperations.unsafeWrap(indirect.array(), 0, indirect.position()));
+      }
+      return rowOps.build();
+    }
+
+    @Override
+    Message createRequestPB() {
+      Tserver.WriteRequestPB.Builder builder = Tserver.WriteRequestPB.newBuilder();
+      builder.setSchema(table.getSchemaPb());
+      builder.setRowOperations(toRowOperationsPB());
+      builder.setTabletId(UnsafeByteOperations.unsafeWrap(getTablet().getTabletIdAsBytes()));
+      builder.setExternalConsistencyMode(externalConsistencyMode.pbVersion());
+      if (propagatedTimestamp != AsyncKuduClient.NO_TIMESTAMP) {
+        builder.setPropagatedTimestamp(propagatedTimestamp);
+      }
+      return builder.build();
+    }
+
+    @Override
+    String serviceName() {
+      return TABLET_SERVER_SERVICE_NAME;
+    }
+
+    @Override
+    String method() {
+      return Operation.METHOD;
+    }
+
+    @Override
+    int getNumRowsWritten() {
+      return numRows;
+    }
+
+    @Override
+    Pair<TabletRowBatchResponse, Object> deserialize(CallResponse callResponse,
+                                                     String tsUUID) throws KuduException {
+      Tserver.WriteResponsePB.Builder builder = Tserver.WriteResponsePB.newBuilder();
+      readProtobuf(callResponse.getPBMessage(), builder);
+
+      List<Tserver.WriteResponsePB.PerRowErrorPB> errorsPB = builder.getPerRowErrorsList();
+      if (ignoreAllDuplicateRows) {
+        boolean allAlreadyPresent = true;
+        for (Tserver.WriteResponsePB.PerRowErrorPB errorPB : errorsPB) {
+          if (errorPB.getError().getCode() != WireProtocol.AppStatusPB.ErrorCode.ALREADY_PRESENT) {
+            allAlreadyPresent = false;
+            break;
+          }
+        }
+        if (allAlreadyPresent) {
+          errorsPB = Collections.emptyList();
+        }
+      }
+
+      List<RowError> rowErrors;
+      if (errorsPB.isEmpty()) {
+        rowErrors = Collections.emptyList();
+      } else {
+        rowErrors = new ArrayList<>(errorsPB.size());
+        for (Tserver.WriteResponsePB.PerRowErrorPB errorPB : errorsPB) {
+          rowErrors.add(RowError.fromRowErrorPb(errorPB, toOperation(errorPB.getRowIndex()),
+                                                tsUUID));
+        }
+      }
+
+      TabletRowBatchResponse response = new TabletRowBatchResponse(
+          deadlineTracker.getElapsedMillis(), tsUUID, builder.getTimestamp(), rowErrors);
+      return new Pair<TabletRowBatchResponse, Object>(
+          response, builder.hasError() ? builder.getError() : null);
+    }
+
+    @Override
+    byte[] partitionKey() {
+      return partitionKey;
+    }
+
+    @Override
+    boolean isRequestTracked() {
+      return true;
+    }
+
+    @Override
+    void updateStatistics(Statistics statistics, TabletRowBatchResponse response) {
+      TabletStatistics tabletStatistics =
+          statistics.getTabletStatistics(table.getName(), getTablet().getTabletId());
+      if (response == null) {
+        tabletStatistics.incrementStatistic(Statistic.OPS_ERRORS, numRows);
+        tabletStatistics.incrementStatistic(Statistic.RPC_ERRORS, 1);
+        return;
+      }
+      int numErrors = response.getRowErrors().size();
+      tabletStatistics.incrementStatistic(Statistic.WRITE_RPCS, 1);
+      tabletStatistics.incrementStatistic(Statistic.WRITE_OPS, numRows - numErrors);
+      tabletStatistics.incrementStatistic(Statistic.OPS_ERRORS, numErrors);
+      tabletStatistics.incrementStatistic(Statistic.BYTES_WRITTEN,
+                                          rows.position() + indirect.position());
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+                        .add("rows", numRows)
+                        .add("changeType", changeType)
+                        .add("rpc", super.toString())
+                        .toString();
+    }
+  }
+
+  /**
+   * Response of a {@link TabletRowBatch}.
+   */
+  static final class TabletRowBatchResponse extends KuduRpcResponse {
+    private final long writeTimestamp;
+    private final List<RowError> rowErrors;
+
+    TabletRowBatchResponse(long elapsedMillis, String tsUUID, long writeTimestamp,
+                           List<RowError> rowErrors) {
+      super(elapsedMillis, tsUUID);
+      this.writeTimestamp = writeTimestamp;
+      this.rowErrors = rowErrors;
+    }
+
+    long getWriteTimestamp() {
+      return writeTimestamp;
+    }
+
+    List<RowError> getRowErrors() {
+      return rowErrors;
+    }
+  }
+}
@@ -0,0 +1,632 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import java.util.Arrays;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.annotations.InterfaceAudience;
+import org.apache.kudu.annotations.InterfaceStability;
+
+/**
+ * A filter that the client evaluates on the rows returned by a scan, for the conditions which
+ * can't be expressed with {@link KuduPredicate} and evaluated by the tablet servers: substring
+ * and LIKE matches on strings, disjunctions and negations. Predicates can be part of a filter
+ * too, for example to OR them.
+ * <p>
+ * The rows are matched directly on the data sent by the servers, without materializing their
+ * values, and {@link RowResultIterator} skips the ones that don't match. Since the servers still
+ * send these rows, the conditions which can be pushed down should be added to the scanner as
+ * predicates, and a filter only used for the rest. The columns a filter refers to must be part
+ * of the scan's projection.
+ * <p>
+ * Like in SQL, a condition on a null cell is neither true nor false but unknown, which stays
+ * unknown when negated, and a row only matches the filter if it evaluates to true.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public abstract class RowFilter {
+
+  // The three values of a condition.
+  static final int FALSE = 0;
+  static final int TRUE = 1;
+  static final int UNKNOWN = 2;
+
+  RowFilter() {
+  }
+
+  /**
+   * Resolves the columns of this filter in the given projection.
+   * @param schema the projection of the scan
+   * @return a matcher for the rows of the scan
+   * @throws IllegalArgumentException if a column isn't projected or has the wrong type
+   */
+  abstract Matcher bind(Schema schema);
+
+  /**
+   * A filter resolved against a projection.
+   */
+  abstract static class Matcher {
+    /**
+     * @param row a row positioned on the row to evaluate
+     * @return {@link #TRUE}, {@link #FALSE} or {@link #UNKNOWN}
+     */
+    abstract int evaluate(RowResult row);
+
+    /**
+     * @param row a row positioned on the row to evaluate
+     * @return whether the row matches the filter
+     */
+    final boolean matches(RowResult row) {
+      return evaluate(row) == TRUE;
+    }
+  }
+
+  /**
+   * Creates a filter matching the rows that match all the given filters.
+   * @param filters the filters to combine
+   * @return a new filter
+   */
+  public static RowFilter and(RowFilter... filters) {
+    return new Junction(true, filters);
+  }
+
+  /**
+   * Creates a filter matching the rows that match any of the given filters.
+   * @param filters the filters to combine
+   * @return a new filter
+   */
+  public static RowFilter or(RowFilter... filters) {
+    return new Junction(false, filters);
+  }
+
+  /**
+   * Creates a filter matching the rows that don't match the given filter, and for which it
+   * isn't unknown.
+   * @param filter the filter to negate
+   * @return a new filter
+   */
+  public static RowFilter not(RowFilter filter) {
+    return new Not(filter);
+  }
+
+  /**
+   * Creates a filter matching the rows that match the given predicate.
+   * @param predicate the predicate to evaluate
+   * @return a new filter
+   */
+  public static RowFilter predicate(KuduPredicate predicate) {
+    return new PredicateFilter(predicate);
+  }
+
+  /**
+   * Creates a filter matching the rows where the column is null.
+   * @param column the name of the column
+   * @return a new filter
+   */
+  public static RowFilter isNull(String column) {
+    return new NullFilter(column, true);
+  }
+
+  /**
+   * Creates a filter matching the rows where the column isn't null.
+   * @param column the name of the column
+   * @return a new filter
+   */
+  public static RowFilter isNotNull(String column) {
+    return new NullFilter(column, false);
+  }
+
+  /**
+   * Creates a filter matching the rows where a STRING or BINARY column contains the given value.
+   * @param column the name of the column
+   * @param value the value to look for
+   * @return a new filter
+   */
+  public static RowFilter stringContains(String column, String value) {
+    return new StringFilter(column, StringFilter.CONTAINS, value);
+  }
+
+  /**
+   * Creates a filter matching the rows where a STRING or BINARY column starts with the given
+   * value.
+   * @param column the name of the column
+   * @param value the prefix to look for
+   * @return a new filter
+   */
+  public static RowFilter stringStartsWith(String column, String value) {
+    return new StringFilter(column, StringFilter.STARTS_WITH, value);
+  }
+
+  /**
+   * Creates a filter matching the rows where a STRING or BINARY column ends with the given
+   * value.
+   * @param column the name of the column
+   * @param value the suffix to look for
+   * @return a new filter
+   */
+  public static RowFilter stringEndsWith(String column, String value) {
+    return new StringFilter(column, StringFilter.ENDS_WITH, value);
+  }
+
+  /**
+   * Creates a filter matching the rows where a STRING column matches the given SQL LIKE
+   * pattern, in which {@code %} matches any sequence of characters, {@code _} matches any
+   * single character, and a backslash matches the character following it literally.
+   * @param column the name of the column
+   * @param pattern the pattern to match
+   * @return a new filter
+   */
+  public static RowFilter like(String column, String pattern) {
+    return new LikeFilter(column, pattern);
+  }
+
+  /**
+   * @return the index of the column in the projection
+   * @throws IllegalArgumentException if the column isn't projected or has none of the types
+   */
+  private static int columnIndex(Schema schema, String column, Type... types) {
+    int index;
+    try {
+      index = schema.getColumnIndex(column);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(String.format(
+          "The column '%s' of a row filter isn't projected by the scan", column), e);
+    }
+    Type type = schema.getColumnByIndex(index).getType();
+    if (types.length > 0 && !Arrays.asList(types).contains(type)) {
+      throw new IllegalArgumentException(String.format(
+          "The column '%s' of a row filter is of type %s, expected one of %s",
+          column, type.getName(), Arrays.toString(types)));
+    }
+    return index;
+  }
+
+  /**
+   * AND or OR of filters.
+   */
+  private static final class Junction extends RowFilter {
+    private final boolean and;
+    private final RowFilter[] filters;
+
+    private Junction(boolean and, RowFilter[] filters) {
+      Preconditions.checkArgument(filters.length > 0, "Need at least one filter");
+      this.and = and;
+      this.filters = filters.clone();
+    }
+
+    @Override
+    Matcher bind(Schema schema) {
+      final Matcher[] matchers = new Matcher[filters.length];
+      for (int i = 0; i < filters.length; i++) {
+        matchers[i] = filters[i].bind(schema);
+      }
+      // AND stops on the first false condition, OR on the first true one.
+      final int decisive = and ? FALSE : TRUE;
+      return new Matcher() {
+        @Override
+        int evaluate(RowResult row) {
+          int result = and ? TRUE : FALSE;
+          for (Matcher matcher : matchers) {
+            int value = matcher.evaluate(row);
+            if (value == decisive) {
+              return decisive;
+            }
+            if (value == UNKNOWN) {
+              result = UNKNOWN;
+            }
+          }
+          return result;
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return "(" + Joiner.on(and ? " AND " : " OR ").join(filters) + ")";
+    }
+  }
+
+  private static final class Not extends RowFilter {
+    private final RowFilter filter;
+
+    private Not(RowFilter filter) {
+      this.filter = Preconditions.checkNotNull(filter);
+    }
+
+    @Override
+    Matcher bind(Schema schema) {
+      final Matcher matcher = filter.bind(schema);
+      return new Matcher() {
+        @Override
+        int evaluate(RowResult row) {
+          int value = matcher.evaluate(row);
+          return value == UNKNOWN ? UNKNOWN : TRUE - value;
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return "NOT " + filter;
+    }
+  }
+
+  private static final class NullFilter extends RowFilter {
+    private final String column;
+    private final boolean isNull;
+
+    private NullFilter(String column, boolean isNull) {
+      this.column = Preconditions.checkNotNull(column);
+      this.isNull = isNull;
+    }
+
+    @Override
+    Matcher bind(Schema schema) {
+      final int index = columnIndex(schema, column);
+      return new Matcher() {
+        @Override
+        int evaluate(RowResult row) {
+          return row.isNull(index) == isNull ? TRUE : FALSE;
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return "`" + column + (isNull ? "` IS NULL" : "` IS NOT NULL");
+    }
+  }
+
+  private static final class StringFilter extends RowFilter {
+    private static final int CONTAINS = 0;
+    private static final int STARTS_WITH = 1;
+    private static final int ENDS_WITH = 2;
+
+    private final String column;
+    private final int kind;
+    private final String value;
+    private final byte[] utf8;
+
+    private StringFilter(String column, int kind, String value) {
+      this.column = Preconditions.checkNotNull(column);
+      this.kind = kind;
+      this.value = value;
+      this.utf8 = Bytes.fromString(value);
+    }
+
+    @Override
+    Matcher bind(Schema schema) {
+      final int index = columnIndex(schema, column, Type.STRING, Type.BINARY);
+      return new Matcher() {
+        @Override
+        int evaluate(RowResult row) {
+          if (row.isNull(index)) {
+            return UNKNOWN;
+          }
+          Utf8View cell = row.getVarLenView(index);
+          byte[] data = cell.getRawArray();
+          int offset = cell.getRawOffset();
+          int length = cell.length();
+          boolean matches;
+          switch (kind) {
+            case STARTS_WITH:
+              matches = regionMatches(data, offset, length, 0);
+              break;
+            case ENDS_WITH:
+              matches = regionMatches(data, offset, length, length - utf8.length);
+              break;
+            default:
+              matches = false;
+              for (int start = 0; start <= length - utf8.length && !matches; start++) {
+                matches = regionMatches(data, offset, length, start);
+              }
+          }
+          return matches ? TRUE : FALSE;
+        }
+      };
+    }
+
+    /**
+     * @return whether the value is found at the given position of the cell
+     */
+    private boolean regionMatches(byte[] data, int offset, int length, int start) {
+      if (start < 0 || start + utf8.length > length) {
+        return false;
+      }
+      for (int i = 0; i < utf8.length; i++) {
+        if (data[offset + start + i] != utf8[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      String op = kind == CONTAINS ? "CONTAINS" : kind == STARTS_WITH ? "STARTS WITH" : "ENDS WITH";
+      return "`" + column + "` " + op + " '" + value + "'";
+    }
+  }
+
+  private static final class LikeFilter extends RowFilter {
+    // The wildcards of a compiled pattern, the other elements being literal bytes.
+    private static final int ANY_CHAR = -1;
+    private static final int ANY_STRING = -2;
+
+    private final String column;
+    private final String pattern;
+    private final int[] compiled;
+
+    private LikeFilter(String column, String pattern) {
+      this.column = Preconditions.checkNotNull(column);
+      this.pattern = pattern;
+      this.compiled = compile(pattern);
+    }
+
+    /**
+     * Turns the pattern into a sequence of UTF-8 bytes and wildcards.
+     */
+    private static int[] compile(String pattern) {
+      int[] compiled = new int[pattern.length() * 4];
+      int size = 0;
+      for (int i = 0; i < pattern.length(); ) {
+        int codePoint = pattern.codePointAt(i);
+        i += Character.charCount(codePoint);
+        if (codePoint == '%') {
+          compiled[size++] = ANY_STRING;
+          continue;
+        }
+        if (codePoint == '_') {
+          compiled[size++] = ANY_CHAR;
+          continue;
+        }
+        if (codePoint == '\\' && i < pattern.length()) {
+          codePoint = pattern.codePointAt(i);
+          i += Character.charCount(codePoint);
+        }
+        for (byte b : Bytes.fromString(new String(Character.toChars(codePoint)))) {
+          compiled[size++] = b & 0xFF;
+        }
+      }
+      return Arrays.copyOf(compiled, size);
+    }
+
+    @Override
+    Matcher bind(Schema schema) {
+      final int index = columnIndex(schema, column, Type.STRING);
+      return new Matcher() {
+        @Override
+        int evaluate(RowResult row) {
+          if (row.isNull(index)) {
+            return UNKNOWN;
+          }
+          Utf8View cell = row.getVarLenView(index);
+          return matches(cell.getRawArray(), cell.getRawOffset(),
+                         cell.getRawOffset() + cell.length()) ? TRUE : FALSE;
+        }
+      };
+    }
+
+    /**
+     * Matches the pattern on the UTF-8 bytes between start and end, backtracking to the last
+     * {@code %} on a mismatch.
+     */
+    private boolean matches(byte[] data, int start, int end) {
+      int p = 0;
+      int t = start;
+      int lastAnyString = -1;
+      int lastAnyStringText = -1;
+      while (t < end) {
+        int element = p < compiled.length ? compiled[p] : 0;
+        if (p < compiled.length && element == ANY_STRING) {
+          lastAnyString = p++;
+          lastAnyStringText = t;
+        } else if (p < compiled.length && element == ANY_CHAR &&
+            t + utf8CharLength(data[t]) <= end) {
+          t += utf8CharLength(data[t]);
+          p++;
+        } else if (p < compiled.length && element >= 0 && (data[t] & 0xFF) == element) {
+          t++;
+          p++;
+        } else if (lastAnyString >= 0) {
+          // Let the last % match one more character, and retry from there.
+          lastAnyStringText += utf8CharLength(data[lastAnyStringText]);
+          t = lastAnyStringText;
+          p = lastAnyString + 1;
+        } else {
+          return false;
+        }
+      }
+      while (p < compiled.length && compiled[p] == ANY_STRING) {
+        p++;
+      }
+      return t == end && p == compiled.length;
+    }
+
+    /**
+     * @return the number of bytes of the UTF-8 character starting with the given byte
+     */
+    private static int utf8CharLength(byte lead) {
+      if ((lead & 0x80) == 0) {
+        return 1;
+      } else if ((lead & 0xE0) == 0xC0) {
+        return 2;
+      } else if ((lead & 0xF0) == 0xE0) {
+        return 3;
+      } else if ((lead & 0xF8) == 0xF0) {
+        return 4;
+      }
+      return 1;
+    }
+
+    @Override
+    public String toString() {
+      return "`" + column + "` LIKE '" + pattern + "'";
+    }
+  }
+
+  private static final class PredicateFilter extends RowFilter {
+    private final KuduPredicate predicate;
+
+    private PredicateFilter(KuduPredicate predicate) {
+      this.predicate = Preconditions.checkNotNull(predicate);
+    }
+
+    @Override
+    Matcher bind(Schema schema) {
+      final ColumnSchema column = predicate.getColumn();
+      final int index = columnIndex(schema, column.getName(), column.getType());
+      switch (predicate.getType()) {
+        case NONE:
+          return new Matcher() {
+            @Override
+            int evaluate(RowResult row) {
+              return row.isNull(index) ? UNKNOWN : FALSE;
+            }
+          };
+        case IS_NULL:
+          return new NullFilter(column.getName(), true).bind(schema);
+        case IS_NOT_NULL:
+          return new NullFilter(column.getName(), false).bind(schema);
+        case EQUALITY:
+          return new ValueMatcher(index, column.getType(), ValueMatcher.EQUALITY,
+                                  new byte[][] { predicate.getLower() });
+        case RANGE:
+          return new ValueMatcher(index, column.getType(), ValueMatcher.RANGE,
+                                  new byte[][] { predicate.getLower(), predicate.getUpper() });
+        case IN_LIST:
+          return new ValueMatcher(index, column.getType(), ValueMatcher.IN_LIST,
+                                  predicate.getInListValues());
+        default:
+          throw new IllegalArgumentException("unknown predicate type " + predicate.getType());
+      }
+    }
+
+    @Override
+    public String toString() {
+      return predicate.toString();
+    }
+  }
+
+  /**
+   * Compares a cell with the values of an EQUALITY, RANGE or IN_LIST predicate, decoded once
+   * so that the cells don't need to be encoded.
+   */
+  private static final class ValueMatcher extends Matcher {
+    private static final int EQUALITY = 0;
+    private static final int RANGE = 1;
+    private static final int IN_LIST = 2;
+
+    private final int index;
+    private final Type type;
+    private final int kind;
+    /** The values, null for the missing bound of a RANGE. Sorted for an IN_LIST. */
+    private final byte[][] values;
+    private final long[] longValues;
+    private final double[] doubleValues;
+
+    private ValueMatcher(int index, Type type, int kind, byte[][] values) {
+      this.index = index;
+      this.type = type;
+      this.kind = kind;
+      this.values = values;
+      this.longValues = new long[values.length];
+      this.doubleValues = new double[values.length];
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] == null) {
+          continue;
+        }
+        switch (type) {
+          case BOOL: longValues[i] = Bytes.getBoolean(values[i]) ? 1 : 0; break;
+          case INT8: longValues[i] = Bytes.getByte(values[i]); break;
+          case INT16: longValues[i] = Bytes.getShort(values[i]); break;
+          case INT32: longValues[i] = Bytes.getInt(values[i]); break;
+          case INT64:
+          case UNIXTIME_MICROS: longValues[i] = Bytes.getLong(values[i]); break;
+          case FLOAT: doubleValues[i] = Bytes.getFloat(values[i]); break;
+          case DOUBLE: doubleValues[i] = Bytes.getDouble(values[i]); break;
+          default: break;
+        }
+      }
+    }
+
+    @Override
+    int evaluate(RowResult row) {
+      if (row.isNull(index)) {
+        return UNKNOWN;
+      }
+      boolean matches;
+      switch (kind) {
+        case EQUALITY:
+          matches = compare(row, 0) == 0;
+          break;
+        case RANGE:
+          matches = (values[0] == null || compare(row, 0) >= 0) &&
+              (values[1] == null || compare(row, 1) < 0);
+          break;
+        default:
+          matches = false;
+          int low = 0;
+          int high = values.length - 1;
+          while (low <= high && !matches) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(row, mid);
+            if (cmp > 0) {
+              low = mid + 1;
+            } else if (cmp < 0) {
+              high = mid - 1;
+            } else {
+              matches = true;
+            }
+          }
+      }
+      return matches ? TRUE : FALSE;
+    }
+
+    /**
+     * @return the comparison of the row's cell with the value at the given position
+     */
+    private int compare(RowResult row, int valueIndex) {
+      switch (type) {
+        case BOOL:
+          return Long.compare(row.getBoolean(index) ? 1 : 0, longValues[valueIndex]);
+        case INT8:
+          return Long.compare(row.getByte(index), longValues[valueIndex]);
+        case INT16:
+          return Long.compare(row.getShort(index), longValues[valueIndex]);
+        case INT32:
+          return Long.compare(row.getInt(index), longValues[valueIndex]);
+        case INT64:
+        case UNIXTIME_MICROS:
+          return Long.compare(row.getLong(index), longValues[valueIndex]);
+        case FLOAT:
+          return Double.compare(row.getFloat(index), doubleValues[valueIndex]);
+        case DOUBLE:
+          return Double.compare(row.getDouble(index), doubleValues[valueIndex]);
+        default:
+          return row.getVarLenView(index).compareTo(values[valueIndex]);
+      }
+    }
+  }
+}
@@ -21,7 +21,6 @@ import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.FieldPosition;
 import java.text.SimpleDateFormat;
-import java.util.BitSet;
 import java.util.Date;
 import java.util.TimeZone;
 
@@ -55,12 +54,13 @@ public class RowResult {
   private static final long US_IN_S = 1000L * 1000L;
   private int index = INDEX_RESET_LOCATION;
   private int offset;
-  private BitSet nullsBitSet;
   private final int rowSize;
   private final int[] columnOffsets;
   private final Schema schema;
   private final Slice rowData;
   private final Slice indirectData;
+  /** The views returned by getVarLenView, reused across rows. Created on demand. */
+  private Utf8View[] stringViews;
 
   /**
    * Prepares the row representation using the provided data. Doesn't copy data
@@ -108,13 +108,44 @@ public class RowResult {
   void advancePointerTo(int rowIndex) {
     this.index = rowIndex;
     this.offset = this.rowSize * this.index;
-    if (schema.hasNullableColumns() && this.index != INDEX_RESET_LOCATION) {
-      this.nullsBitSet = Bytes.toBitSet(
-          this.rowData.getRawArray(),
-          this.rowData.getRawOffset() +
-              getCurrentRowDataOffsetForColumn(schema.getColumnCount()),
-          schema.getColumnCount());
+  }
+
+  /**
+   * Package-protected, creates a row result holding a copy of the current row which, unlike
+   * this one, isn't moved by the iterator. Only the row's own data is copied, so it doesn't
+   * keep the rest of the batch in memory.
+   * @return a new row result on a copy of the current row
+   */
+  RowResult detach() {
+    byte[] row = new byte[this.rowSize];
+    System.arraycopy(this.rowData.getRawArray(), this.rowData.getRawOffset() + this.offset,
+                     row, 0, this.rowSize);
+    // The strings and binaries are copied next to each other, and their offsets rewritten.
+    int indirectSize = 0;
+    for (int i = 0; i < schema.getColumnCount(); i++) {
+      if (isVarLen(i) && !isNull(i)) {
+        indirectSize += getVarLenView(i).length();
+      }
     }
+    byte[] indirect = new byte[indirectSize];
+    int indirectOffset = 0;
+    for (int i = 0; i < schema.getColumnCount(); i++) {
+      if (isVarLen(i) && !isNull(i)) {
+        Utf8View view = getVarLenView(i);
+        System.arraycopy(view.getRawArray(), view.getRawOffset(), indirect, indirectOffset,
+                         view.length());
+        Bytes.setLong(row, indirectOffset, this.columnOffsets[i]);
+        indirectOffset += view.length();
+      }
+    }
+    RowResult copy = new RowResult(this.schema, new Slice(row), new Slice(indirect));
+    copy.advancePointerTo(0);
+    return copy;
+  }
+
+  private boolean isVarLen(int columnIndex) {
+    Type type = schema.getColumnByIndex(columnIndex).getType();
+    return type == Type.STRING || type == Type.BINARY;
   }
 
   int getCurrentRowDataOffsetForColumn(int columnIndex) {
@@ -365,6 +396,62 @@ public class RowResult {
                            (int)length);
   }
 
+  /**
+   * Get a view of the specified column's string, which points into the scan's data without
+   * copying or decoding it. See {@link Utf8View}.
+   * @param columnName name of the column to get data for
+   * @return a view of the string, reused for this column when moving to the next row
+   * @throws IllegalArgumentException if the column doesn't exist, is null,
+   * or if the type doesn't match the column's type
+   */
+  public Utf8View getStringView(String columnName) {
+    return getStringView(this.schema.getColumnIndex(columnName));
+  }
+
+  /**
+   * Get a view of the specified column's string, which points into the scan's data without
+   * copying or decoding it. See {@link Utf8View}.
+   * @param columnIndex Column index in the schema
+   * @return a view of the string, reused for this column when moving to the next row
+   * @throws IllegalArgumentException if the column is null
+   * or if the type doesn't match the column's type
+   * @throws IndexOutOfBoundsException if the column doesn't exist
+   */
+  public Utf8View getStringView(int columnIndex) {
+    checkValidColumn(columnIndex);
+    checkNull(columnIndex);
+    checkType(columnIndex, Type.STRING);
+    return getVarLenView(columnIndex);
+  }
+
+  /**
+   * Get a view of the specified STRING or BINARY column's data, without checking the column.
+   * Package-private, only meant to be used by the client.
+   * @param columnIndex Column index in the schema
+   * @return a view of the data, reused for this column when moving to the next row
+   */
+  Utf8View getVarLenView(int columnIndex) {
+    long offset = getLong(columnIndex);
+    long length = rowData.getLong(getCurrentRowDataOffsetForColumn(columnIndex) + 8);
+    assert offset < Integer.MAX_VALUE;
+    assert length < Integer.MAX_VALUE;
+    if (stringViews == null) {
+      stringViews = new Utf8View[schema.getColumnCount()];
+    }
+    Utf8View view = stringViews[columnIndex];
+    if (view == null) {
+      view = new Utf8View(indirectData.getRawArray(),
+                          indirectData.getRawOffset() + (int) offset,
+                          (int) length);
+      stringViews[columnIndex] = view;
+    } else {
+      view.reset(indirectData.getRawArray(),
+                 indirectData.getRawOffset() + (int) offset,
+                 (int) length);
+    }
+    return view;
+  }
+
   /**
    * Get a copy of the specified column's binary data.
    * @param columnName name of the column to get data for
@@ -461,11 +548,17 @@ public class RowResult {
    */
   public boolean isNull(int columnIndex) {
     checkValidColumn(columnIndex);
-    if (nullsBitSet == null) {
+    if (!schema.hasNullableColumns() || this.index == INDEX_RESET_LOCATION) {
+      return false;
+    }
+    if (!schema.getColumnByIndex(columnIndex).isNullable()) {
       return false;
     }
-    return schema.getColumnByIndex(columnIndex).isNullable() &&
-        nullsBitSet.get(columnIndex);
+    // The null bitmap is at the end of the row, it's read in place rather than decoded for
+    // every row since most columns are usually never checked.
+    byte nullBits = this.rowData.getRawArray()[this.rowData.getRawOffset() +
+        getCurrentRowDataOffsetForColumn(schema.getColumnCount()) + columnIndex / 8];
+    return (nullBits >> (columnIndex % 8) & 1) == 1;
   }
 
   /**
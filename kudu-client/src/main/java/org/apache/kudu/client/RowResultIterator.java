@@ -17,7 +17,9 @@
 
 package org.apache.kudu.client;
 
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.apache.kudu.Schema;
 import org.apache.kudu.WireProtocol;
@@ -35,7 +37,7 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
     Iterable<RowResult> {
 
   private static final RowResultIterator EMPTY =
-      new RowResultIterator(0, null, null, 0, null, null);
+      new RowResultIterator(0, null, null, 0, null, null, null);
 
   private final Schema schema;
   private final Slice bs;
@@ -43,6 +45,21 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
   private final int numRows;
   private final RowResult rowResult;
   private int currentRow = 0;
+  private ColumnarRowBatch columnarBatch;
+
+  /** The scan's residual filter, null if it has none. */
+  private final RowFilter.Matcher filter;
+  /** Whether rowResult is positioned on currentRow, which matches the filter. */
+  private boolean positionedOnMatch;
+  /**
+   * The rows known to match the filter, among the first evaluatedRows ones, so that counting
+   * and iterating the rows only evaluate the filter once for each of them.
+   */
+  private final BitSet matches;
+  /** The number of rows, from the first one, which the filter was evaluated on. */
+  private int evaluatedRows = 0;
+  /** The number of rows matching the filter, -1 until counted. */
+  private int numMatchingRows = -1;
 
   /**
    * Package private constructor, only meant to be instantiated from AsyncKuduScanner.
@@ -52,14 +69,18 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
    * @param numRows how many rows are contained in the bs slice
    * @param bs normal row data
    * @param indirectBs indirect row data
+   * @param filter the rows to skip, or null to return them all
    */
   private RowResultIterator(long ellapsedMillis, String tsUUID, Schema schema,
-                            int numRows, Slice bs, Slice indirectBs) {
+                            int numRows, Slice bs, Slice indirectBs,
+                            RowFilter.Matcher filter) {
     super(ellapsedMillis, tsUUID);
     this.schema = schema;
     this.bs = bs;
     this.indirectBs = indirectBs;
     this.numRows = numRows;
+    this.filter = filter;
+    this.matches = filter == null ? null : new BitSet(numRows);
 
     this.rowResult = numRows == 0 ? null : new RowResult(this.schema, this.bs, this.indirectBs);
   }
@@ -67,10 +88,11 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
   static RowResultIterator makeRowResultIterator(long ellapsedMillis, String tsUUID,
                                                  Schema schema,
                                                  WireProtocol.RowwiseRowBlockPB data,
+                                                 RowFilter.Matcher filter,
                                                  final CallResponse callResponse)
       throws KuduException {
     if (data == null || data.getNumRows() == 0) {
-      return new RowResultIterator(ellapsedMillis, tsUUID, schema, 0, null, null);
+      return new RowResultIterator(ellapsedMillis, tsUUID, schema, 0, null, null, null);
     }
 
     Slice bs = callResponse.getSidecar(data.getRowsSidecar());
@@ -85,7 +107,23 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
           " bytes of data but expected " + expectedSize + " for " + numRows + " rows");
       throw new NonRecoverableException(statusIllegalState);
     }
-    return new RowResultIterator(ellapsedMillis, tsUUID, schema, numRows, bs, indirectBs);
+    return new RowResultIterator(ellapsedMillis, tsUUID, schema, numRows, bs, indirectBs,
+                                 filter);
+  }
+
+  /**
+   * Creates an iterator over a batch served from a {@link ScanResultCache}.
+   * @param schema schema used to parse the rows
+   * @param numRows how many rows are contained in the bs slice
+   * @param bs normal row data, null if there are no rows
+   * @param indirectBs indirect row data, null if there are no rows
+   * @param filter the rows to skip, or null to return them all
+   * @return an iterator over the batch
+   */
+  static RowResultIterator makeCachedRowResultIterator(Schema schema, int numRows, Slice bs,
+                                                       Slice indirectBs,
+                                                       RowFilter.Matcher filter) {
+    return new RowResultIterator(0, null, schema, numRows, bs, indirectBs, filter);
   }
 
   /**
@@ -97,17 +135,58 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
 
   @Override
   public boolean hasNext() {
+    if (filter != null) {
+      return findNextMatch();
+    }
     return this.currentRow < numRows;
   }
 
   @Override
   public RowResult next() {
+    if (filter != null) {
+      if (!findNextMatch()) {
+        throw new NoSuchElementException();
+      }
+      positionedOnMatch = false;
+      this.currentRow++;
+      return rowResult;
+    }
     // The rowResult keeps track of where it is internally
     this.rowResult.advancePointer();
     this.currentRow++;
     return rowResult;
   }
 
+  /**
+   * Positions rowResult on the first row from currentRow which matches the filter.
+   * @return false if no row is left to match
+   */
+  private boolean findNextMatch() {
+    if (positionedOnMatch) {
+      return true;
+    }
+    if (this.currentRow < evaluatedRows) {
+      int next = matches.nextSetBit(this.currentRow);
+      if (next >= 0 && next < evaluatedRows) {
+        this.currentRow = next;
+        this.rowResult.advancePointerTo(this.currentRow);
+        positionedOnMatch = true;
+        return true;
+      }
+      this.currentRow = evaluatedRows;
+    }
+    for (; this.currentRow < numRows; this.currentRow++) {
+      this.rowResult.advancePointerTo(this.currentRow);
+      evaluatedRows = this.currentRow + 1;
+      if (filter.matches(rowResult)) {
+        matches.set(this.currentRow);
+        positionedOnMatch = true;
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public void remove() {
     throw new UnsupportedOperationException();
@@ -115,11 +194,79 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
 
   /**
    * Get the number of rows in this iterator. If all you want is to count
-   * rows, call this and skip the rest.
+   * rows, call this and skip the rest. When the scan has a residual filter,
+   * only the rows matching it are counted, which evaluates the filter on the rows not iterated
+   * over yet. Iterating over them afterwards doesn't evaluate it again.
    * @return number of rows in this iterator
    */
   public int getNumRows() {
-    return this.numRows;
+    if (filter == null) {
+      return this.numRows;
+    }
+    if (numMatchingRows < 0) {
+      // Evaluated with another RowResult so as to not move this one.
+      RowResult row = new RowResult(this.schema, this.bs, this.indirectBs);
+      for (int i = evaluatedRows; i < numRows; i++) {
+        row.advancePointerTo(i);
+        if (filter.matches(row)) {
+          matches.set(i);
+        }
+      }
+      evaluatedRows = numRows;
+      numMatchingRows = matches.cardinality();
+    }
+    return numMatchingRows;
+  }
+
+  /**
+   * Get a columnar view of the rows in this iterator, see {@link ColumnarRowBatch}. It can be
+   * used independently of iterating over the rows. The batch holds all the rows sent by the
+   * server: when the scan has a residual filter, it's evaluated on the rows not evaluated yet
+   * and {@link ColumnarRowBatch#getSelection()} tells which rows match it.
+   * @return the rows of this iterator, decoded column by column
+   */
+  public ColumnarRowBatch getColumnarBatch() {
+    if (columnarBatch == null) {
+      boolean[] selection = null;
+      if (filter != null) {
+        // Evaluates the filter on all the rows, at most once each.
+        getNumRows();
+        selection = new boolean[numRows];
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+          selection[i] = true;
+        }
+      }
+      columnarBatch = new ColumnarRowBatch(schema, numRows, bs, indirectBs, selection);
+    }
+    return columnarBatch;
+  }
+
+  /**
+   * @return the number of bytes of row data held by this iterator
+   */
+  long getDataSizeBytes() {
+    return (bs == null ? 0 : bs.length()) + (indirectBs == null ? 0 : indirectBs.length());
+  }
+
+  /**
+   * @return the number of rows sent by the server, including the ones the filter skips
+   */
+  int getNumReceivedRows() {
+    return numRows;
+  }
+
+  /**
+   * @return the row data sent by the server, null if there are no rows
+   */
+  Slice getRowData() {
+    return bs;
+  }
+
+  /**
+   * @return the indirect row data sent by the server, null if there are no rows
+   */
+  Slice getIndirectRowData() {
+    return indirectBs;
   }
 
   @Override
@@ -0,0 +1,311 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import org.apache.kudu.Schema;
+import org.apache.kudu.annotations.InterfaceAudience;
+import org.apache.kudu.annotations.InterfaceStability;
+import org.apache.kudu.util.Slice;
+
+/**
+ * A cache of the batches returned by snapshot scans, keyed by scan token and snapshot timestamp.
+ * The rows of a scan at a fixed snapshot timestamp never change, so scanning the same token at
+ * the same timestamp again can be served from memory instead of the tablet servers.
+ * <p>
+ * The cache is opt-in, it's passed to {@link KuduScanToken#intoScanner(KuduClient,
+ * ScanResultCache)}. Only the scans in {@code READ_AT_SNAPSHOT} mode with a snapshot timestamp
+ * set on the token are cached, the other scans bypass it. A scan is only added to the cache
+ * once all its batches were received, and not if it failed or was closed before the end.
+ * <p>
+ * The cache is bounded by the number of bytes of row data it holds, the least recently used
+ * scans being evicted first. Scans bigger than the whole cache aren't cached. The batches can
+ * be held off-heap, which keeps large caches out of the garbage collector's way at the cost of
+ * copying each batch back on-heap when it's returned.
+ * <p>
+ * A cache can be shared by the scanners of several threads and clients.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+@ThreadSafe
+public class ScanResultCache {
+
+  private final long maxSizeBytes;
+  private final boolean offHeap;
+
+  /** The cached scans, from the least to the most recently used. */
+  @GuardedBy("this")
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  @GuardedBy("this")
+  private long sizeBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache holding its batches on-heap.
+   * @param maxSizeBytes the maximum number of bytes of row data held by the cache
+   */
+  public ScanResultCache(long maxSizeBytes) {
+    this(maxSizeBytes, false);
+  }
+
+  /**
+   * Creates a cache.
+   * @param maxSizeBytes the maximum number of bytes of row data held by the cache
+   * @param offHeap whether to hold the batches in direct buffers rather than on-heap
+   */
+  public ScanResultCache(long maxSizeBytes, boolean offHeap) {
+    Preconditions.checkArgument(maxSizeBytes > 0,
+        "Need a strictly positive number of bytes, got %s", maxSizeBytes);
+    this.maxSizeBytes = maxSizeBytes;
+    this.offHeap = offHeap;
+  }
+
+  /**
+   * @return the number of bytes of row data held by the cache
+   */
+  public synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  /**
+   * @return the number of scans held by the cache
+   */
+  public synchronized int getNumScans() {
+    return entries.size();
+  }
+
+  /**
+   * @return the number of cacheable scans which were served from the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of cacheable scans which weren't in the cache
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Drops all the cached scans.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    sizeBytes = 0;
+  }
+
+  /**
+   * Gets the batches of a cached scan, marking it as the most recently used.
+   * @param key the scan
+   * @return the batches of the scan, or null if it isn't cached
+   */
+  List<Batch> get(Key key) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.batches;
+  }
+
+  /**
+   * @param sizeBytes the number of bytes of row data of a scan
+   * @return true if a scan of that size can be cached
+   */
+  boolean admits(long sizeBytes) {
+    return sizeBytes <= maxSizeBytes;
+  }
+
+  /**
+   * Caches the batches of a scan, evicting the least recently used scans to make room.
+   * @param key the scan
+   * @param batches all the batches of the scan, in order
+   * @param batchesSizeBytes the number of bytes of row data of the batches
+   */
+  synchronized void put(Key key, List<Batch> batches, long batchesSizeBytes) {
+    if (!admits(batchesSizeBytes)) {
+      return;
+    }
+    Entry previous = entries.put(key, new Entry(batches, batchesSizeBytes));
+    if (previous != null) {
+      sizeBytes -= previous.sizeBytes;
+    }
+    sizeBytes += batchesSizeBytes;
+    Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+    while (sizeBytes > maxSizeBytes && it.hasNext()) {
+      Map.Entry<Key, Entry> eldest = it.next();
+      if (eldest.getKey().equals(key)) {
+        continue;
+      }
+      sizeBytes -= eldest.getValue().sizeBytes;
+      it.remove();
+    }
+  }
+
+  /**
+   * Copies the row data of a batch received from a tablet server, so that it doesn't pin the
+   * buffers of the response.
+   * @param batch the batch to copy
+   * @return the copy
+   */
+  Batch copyOf(RowResultIterator batch) {
+    Slice rows = batch.getRowData();
+    Slice indirect = batch.getIndirectRowData();
+    int rowsLength = rows == null ? 0 : rows.length();
+    int indirectLength = indirect == null ? 0 : indirect.length();
+    ByteBuffer data = offHeap ? ByteBuffer.allocateDirect(rowsLength + indirectLength)
+                              : ByteBuffer.allocate(rowsLength + indirectLength);
+    if (rows != null) {
+      data.put(rows.getRawArray(), rows.getRawOffset(), rowsLength);
+    }
+    if (indirect != null) {
+      data.put(indirect.getRawArray(), indirect.getRawOffset(), indirectLength);
+    }
+    return new Batch(batch.getNumReceivedRows(), data, rowsLength, indirectLength);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return MoreObjects.toStringHelper(this)
+                      .add("maxSizeBytes", maxSizeBytes)
+                      .add("sizeBytes", sizeBytes)
+                      .add("scans", entries.size())
+                      .add("offHeap", offHeap)
+                      .add("hits", hits.get())
+                      .add("misses", misses.get())
+                      .toString();
+  }
+
+  /**
+   * Identifies a scan: its serialized scan token and its snapshot timestamp.
+   */
+  static final class Key {
+    private final byte[] token;
+    private final long htTimestamp;
+    private final int hash;
+
+    Key(byte[] token, long htTimestamp) {
+      this.token = token;
+      this.htTimestamp = htTimestamp;
+      this.hash = 31 * Arrays.hashCode(token) + (int) (htTimestamp ^ (htTimestamp >>> 32));
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return htTimestamp == other.htTimestamp && Arrays.equals(token, other.token);
+    }
+  }
+
+  /**
+   * A cached batch: its rows, followed by their indirect data, in a single buffer.
+   */
+  static final class Batch {
+    private final int numRows;
+    private final ByteBuffer data;
+    private final int rowsLength;
+    private final int indirectLength;
+
+    private Batch(int numRows, ByteBuffer data, int rowsLength, int indirectLength) {
+      this.numRows = numRows;
+      this.data = data;
+      this.rowsLength = rowsLength;
+      this.indirectLength = indirectLength;
+    }
+
+    /**
+     * @return the number of bytes of row data of the batch
+     */
+    long getSizeBytes() {
+      return rowsLength + indirectLength;
+    }
+
+    /**
+     * Creates an iterator over the batch's rows for a scanner. On-heap batches are shared by
+     * the iterators, which never modify them, while off-heap ones are copied.
+     * @param schema the projection of the scanner
+     * @param filter the scanner's residual filter, or null
+     * @return a new iterator over the batch
+     */
+    RowResultIterator toIterator(Schema schema, RowFilter.Matcher filter) {
+      if (numRows == 0) {
+        return RowResultIterator.makeCachedRowResultIterator(schema, 0, null, null, filter);
+      }
+      byte[] array;
+      int offset;
+      if (data.hasArray()) {
+        array = data.array();
+        offset = data.arrayOffset();
+      } else {
+        array = new byte[rowsLength + indirectLength];
+        offset = 0;
+        ByteBuffer source = data.duplicate();
+        source.position(0);
+        source.get(array);
+      }
+      return RowResultIterator.makeCachedRowResultIterator(
+          schema, numRows, new Slice(array, offset, rowsLength),
+          new Slice(array, offset + rowsLength, indirectLength), filter);
+    }
+  }
+
+  /**
+   * The batches of a cached scan.
+   */
+  private static final class Entry {
+    private final List<Batch> batches;
+    private final long sizeBytes;
+
+    private Entry(List<Batch> batches, long sizeBytes) {
+      this.batches = batches;
+      this.sizeBytes = sizeBytes;
+    }
+  }
+}
@@ -105,6 +105,23 @@ public interface SessionConfiguration {
    */
   void setMutationBufferLowWatermark(float mutationBufferLowWatermarkPercentage);
 
+  /**
+   * Set the maximum size of the row operations sent in a single write RPC. A tablet's buffered
+   * operations are split over several RPCs when they encode to more than that. The default is
+   * 7MB, which fits the tablet servers' default maximum RPC message size; lower it along with
+   * the servers' {@code rpc_max_message_size}. A single operation bigger than the cap is still
+   * sent in its own RPC.
+   * @param maxBatchSizeBytes a strictly positive size in bytes
+   * @throws IllegalArgumentException if the size isn't strictly positive
+   */
+  void setMaxBatchSizeBytes(long maxBatchSizeBytes);
+
+  /**
+   * Get the maximum size of the row operations sent in a single write RPC.
+   * @return a size in bytes
+   */
+  long getMaxBatchSizeBytes();
+
   /**
    * Set the flush interval, which will be used for the next scheduling decision.
    * @param interval interval in milliseconds.
@@ -72,7 +72,17 @@ public class Statistics {
     /**
      * How many rpcs have been sent to server but failed.
      */
-    RPC_ERRORS(4);
+    RPC_ERRORS(4),
+    /**
+     * How many scan rpcs have been sent to server and succeeded, not counting
+     * the ones closing scanners.
+     */
+    SCAN_RPCS(5),
+    /**
+     * The sum of the batch sizes, in bytes, requested by the scan rpcs counted in
+     * SCAN_RPCS. Divided by SCAN_RPCS, it gives the average batch size requested.
+     */
+    SCAN_BATCH_SIZE_BYTES(6);
 
     Statistic(int idx) {
       this.idx = idx;
@@ -209,6 +219,10 @@ public class Statistics {
     buf.append(getClientStatistic(Statistic.WRITE_OPS));
     buf.append(", operation errors:");
     buf.append(getClientStatistic(Statistic.OPS_ERRORS));
+    buf.append(", scan rpcs:");
+    buf.append(getClientStatistic(Statistic.SCAN_RPCS));
+    buf.append(", scan batch size bytes:");
+    buf.append(getClientStatistic(Statistic.SCAN_BATCH_SIZE_BYTES));
     return buf.toString();
   }
 
@@ -247,6 +261,10 @@ public class Statistics {
       buf.append(getStatistic(Statistic.WRITE_OPS));
       buf.append(", operation errors:");
       buf.append(getStatistic(Statistic.OPS_ERRORS));
+      buf.append(", scan rpcs:");
+      buf.append(getStatistic(Statistic.SCAN_RPCS));
+      buf.append(", scan batch size bytes:");
+      buf.append(getStatistic(Statistic.SCAN_BATCH_SIZE_BYTES));
       return buf.toString();
     }
   }
@@ -18,15 +18,12 @@
 package org.apache.kudu.client;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import javax.annotation.concurrent.GuardedBy;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import javax.annotation.concurrent.ThreadSafe;
 
 import com.google.common.base.MoreObjects;
@@ -40,47 +37,91 @@ import org.apache.kudu.annotations.InterfaceAudience;
 /**
  * A cache of the tablet locations in a table, keyed by partition key. Entries
  * in the cache are either tablets or non-covered ranges.
+ * <p>
+ * Lookups are on the path of every write and scan RPC, so they take no lock and allocate
+ * nothing: the entries live in an immutable array sorted by lower bound partition key, which
+ * lookups binary search. Updates, which only happen after master lookups, build a new array
+ * and publish it atomically.
  */
 @ThreadSafe
 @InterfaceAudience.Private
 class TableLocationsCache {
   private static final Logger LOG = LoggerFactory.getLogger(TableLocationsCache.class);
   private static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
+  private static final Entry[] NO_ENTRIES = new Entry[0];
 
-  private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+  /**
+   * Entries are due for a refresh-ahead once this fraction of their ttl is left, see
+   * {@link Entry#isDueForRefresh()}.
+   */
+  private static final double REFRESH_AHEAD_FRACTION = 0.25;
+
+  /** The table the locations belong to, used to look them up again. */
+  private final KuduTable table;
+
+  /**
+   * The current snapshot of the entries, sorted by lower bound partition key, which never
+   * overlap. Arrays are never modified once published.
+   */
+  private volatile Entry[] entries = NO_ENTRIES;
 
-  @GuardedBy("rwl")
-  private final NavigableMap<byte[], Entry> entries = new TreeMap<>(COMPARATOR);
+  /** Serializes the updates, each one replacing {@link #entries} with a modified copy. */
+  private final Object writeLock = new Object();
+
+  TableLocationsCache(KuduTable table) {
+    this.table = table;
+  }
+
+  /**
+   * @return the table the locations belong to
+   */
+  KuduTable getTable() {
+    return table;
+  }
 
   public Entry get(byte[] partitionKey) {
+    Entry[] snapshot = entries;
 
     if (partitionKey == null) {
       // Master lookup.
-      rwl.readLock().lock();
-      try {
-        Preconditions.checkState(entries.size() <= 1);
-        return entries.get(AsyncKuduClient.EMPTY_ARRAY);
-      } finally {
-        rwl.readLock().unlock();
-      }
-
+      Preconditions.checkState(snapshot.length <= 1);
+      return snapshot.length == 0 ? null : snapshot[0];
     }
 
-    Map.Entry<byte[], Entry> entry;
-    rwl.readLock().lock();
-    try {
-      entry = entries.floorEntry(partitionKey);
-    } finally {
-      rwl.readLock().unlock();
+    int index = floorIndex(snapshot, partitionKey);
+    if (index < 0) {
+      return null;
     }
-
-    if (entry == null ||
-        (entry.getValue().getUpperBoundPartitionKey().length > 0 &&
-            Bytes.memcmp(partitionKey, entry.getValue().getUpperBoundPartitionKey()) >= 0) ||
-        entry.getValue().isStale()) {
+    Entry entry = snapshot[index];
+    if ((entry.getUpperBoundPartitionKey().length > 0 &&
+            Bytes.memcmp(partitionKey, entry.getUpperBoundPartitionKey()) >= 0) ||
+        entry.isStale()) {
       return null;
     }
-    return entry.getValue();
+    return entry;
+  }
+
+  /**
+   * Finds the entry with the greatest lower bound less than or equal to the partition key.
+   * @param snapshot the entries to search
+   * @param partitionKey the partition key to look for
+   * @return the index of the entry, or -1 if all the entries are past the key
+   */
+  private static int floorIndex(Entry[] snapshot, byte[] partitionKey) {
+    int low = 0;
+    int high = snapshot.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = Bytes.memcmp(snapshot[mid].getLowerBoundPartitionKey(), partitionKey);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return high;
   }
 
   /**
@@ -98,18 +139,17 @@ class TableLocationsCache {
                                    byte[] requestPartitionKey,
                                    int requestedBatchSize,
                                    long ttl) {
-    long deadline = System.nanoTime() + ttl * TimeUnit.MILLISECONDS.toNanos(1);
+    long now = System.nanoTime();
+    long deadline = now + ttl * TimeUnit.MILLISECONDS.toNanos(1);
+    long refreshDeadline =
+        deadline - (long) (ttl * TimeUnit.MILLISECONDS.toNanos(1) * REFRESH_AHEAD_FRACTION);
     if (requestPartitionKey == null) {
       // Master lookup.
       Preconditions.checkArgument(tablets.size() == 1);
       Entry entry = Entry.tablet(tablets.get(0), TimeUnit.DAYS.toMillis(1));
 
-      rwl.writeLock().lock();
-      try {
-        entries.clear();
-        entries.put(AsyncKuduClient.EMPTY_ARRAY, entry);
-      } finally {
-        rwl.writeLock().unlock();
+      synchronized (writeLock) {
+        entries = new Entry[] { entry };
       }
       return;
     }
@@ -124,7 +164,7 @@ class TableLocationsCache {
       // bound partition key on the request.
       newEntries.add(Entry.nonCoveredRange(AsyncKuduClient.EMPTY_ARRAY,
                                            AsyncKuduClient.EMPTY_ARRAY,
-                                           deadline));
+                                           deadline, refreshDeadline));
     } else {
       // The comments below will reference the following diagram:
       //
@@ -147,7 +187,8 @@ class TableLocationsCache {
         // If the first tablet is past the requested partition key, then the
         // partition key falls in an initial non-covered range, such as A.
         newEntries.add(
-            Entry.nonCoveredRange(AsyncKuduClient.EMPTY_ARRAY, firstLowerBound, deadline));
+            Entry.nonCoveredRange(AsyncKuduClient.EMPTY_ARRAY, firstLowerBound,
+                                  deadline, refreshDeadline));
       }
 
       // lastUpperBound tracks the upper bound of the previously processed
@@ -161,12 +202,13 @@ class TableLocationsCache {
         if (Bytes.memcmp(lastUpperBound, tabletLowerBound) < 0) {
           // There is a non-covered range between the previous tablet and this tablet.
           // This will discover C while processing the tablet location for D.
-          newEntries.add(Entry.nonCoveredRange(lastUpperBound, tabletLowerBound, deadline));
+          newEntries.add(Entry.nonCoveredRange(lastUpperBound, tabletLowerBound,
+                                               deadline, refreshDeadline));
         }
         lastUpperBound = tabletUpperBound;
 
         // Now add the tablet itself (such as B, D, or E).
-        newEntries.add(Entry.tablet(tablet, deadline));
+        newEntries.add(Entry.tablet(tablet, deadline, refreshDeadline));
       }
 
       if (lastUpperBound.length > 0 &&
@@ -174,7 +216,8 @@ class TableLocationsCache {
         // There is a non-covered range between the last tablet and the end of the
         // partition key space, such as F.
         newEntries.add(
-            Entry.nonCoveredRange(lastUpperBound, AsyncKuduClient.EMPTY_ARRAY, deadline));
+            Entry.nonCoveredRange(lastUpperBound, AsyncKuduClient.EMPTY_ARRAY,
+                                  deadline, refreshDeadline));
       }
     }
 
@@ -184,31 +227,52 @@ class TableLocationsCache {
 
     LOG.debug("Discovered table locations:\t{}", newEntries);
 
-    rwl.writeLock().lock();
-    try {
+    synchronized (writeLock) {
+      Entry[] current = entries;
+
       // Remove all existing overlapping entries, and add the new entries.
-      Map.Entry<byte[], Entry> floorEntry = entries.floorEntry(discoveredlowerBound);
-      if (floorEntry != null &&
+      int floorIndex = floorIndex(current, discoveredlowerBound);
+      if (floorIndex >= 0 &&
           Bytes.memcmp(requestPartitionKey,
-                       floorEntry.getValue().getUpperBoundPartitionKey()) < 0) {
-        discoveredlowerBound = floorEntry.getKey();
+                       current[floorIndex].getUpperBoundPartitionKey()) < 0) {
+        discoveredlowerBound = current[floorIndex].getLowerBoundPartitionKey();
       }
 
-      NavigableMap<byte[], Entry> overlappingEntries = entries.tailMap(discoveredlowerBound, true);
-      if (discoveredUpperBound.length > 0) {
-        overlappingEntries = overlappingEntries.headMap(discoveredUpperBound, false);
+      // The overlapping entries are those whose lower bound is in
+      // [discoveredlowerBound, discoveredUpperBound), they're contiguous in the array.
+      int overlapStart = floorIndex(current, discoveredlowerBound);
+      if (overlapStart < 0 ||
+          Bytes.memcmp(current[overlapStart].getLowerBoundPartitionKey(),
+                       discoveredlowerBound) < 0) {
+        overlapStart++;
       }
+      int overlapEnd = overlapStart;
+      while (overlapEnd < current.length &&
+          (discoveredUpperBound.length == 0 ||
+              Bytes.memcmp(current[overlapEnd].getLowerBoundPartitionKey(),
+                           discoveredUpperBound) < 0)) {
+        overlapEnd++;
+      }
+
       if (LOG.isTraceEnabled()) {
-        LOG.trace("Existing table locations:\t\t{}", entries.values());
-        LOG.trace("Removing table locations:\t\t{}", overlappingEntries.values());
+        LOG.trace("Existing table locations:\t\t{}", Arrays.asList(current));
+        LOG.trace("Removing table locations:\t\t{}",
+                  Arrays.asList(current).subList(overlapStart, overlapEnd));
       }
-      overlappingEntries.clear();
 
+      // The new entries may still collide with kept entries sharing the same lower bound, just
+      // like puts in a map would have replaced them.
+      TreeMap<byte[], Entry> merged = new TreeMap<>(COMPARATOR);
+      for (int i = 0; i < overlapStart; i++) {
+        merged.put(current[i].getLowerBoundPartitionKey(), current[i]);
+      }
+      for (int i = overlapEnd; i < current.length; i++) {
+        merged.put(current[i].getLowerBoundPartitionKey(), current[i]);
+      }
       for (Entry entry : newEntries) {
-        entries.put(entry.getLowerBoundPartitionKey(), entry);
+        merged.put(entry.getLowerBoundPartitionKey(), entry);
       }
-    } finally {
-      rwl.writeLock().unlock();
+      entries = merged.values().toArray(new Entry[merged.size()]);
     }
   }
 
@@ -216,20 +280,23 @@ class TableLocationsCache {
    * Clears all non-covered range entries from the cache.
    */
   public void clearNonCoveredRangeEntries() {
-    rwl.writeLock().lock();
-    try {
-      Iterator<Map.Entry<byte[], Entry>> it = entries.entrySet().iterator();
-      while (it.hasNext()) {
-        if (it.next().getValue().isNonCoveredRange()) it.remove();
+    synchronized (writeLock) {
+      Entry[] current = entries;
+      List<Entry> kept = new ArrayList<>(current.length);
+      for (Entry entry : current) {
+        if (!entry.isNonCoveredRange()) {
+          kept.add(entry);
+        }
+      }
+      if (kept.size() != current.length) {
+        entries = kept.toArray(new Entry[kept.size()]);
       }
-    } finally {
-      rwl.writeLock().unlock();
     }
   }
 
   @Override
   public String toString() {
-    return entries.values().toString();
+    return Arrays.toString(entries);
   }
 
   /**
@@ -244,25 +311,50 @@ class TableLocationsCache {
     private final byte[] upperBoundPartitionKey;
     /** Deadline in ns relative the the System nanotime clock. */
     private final long deadline;
+    /** Time in ns relative to the System nanotime clock after which to refresh ahead. */
+    private final long refreshDeadline;
+
+    private static final AtomicIntegerFieldUpdater<Entry> REFRESHING =
+        AtomicIntegerFieldUpdater.newUpdater(Entry.class, "refreshing");
+
+    /** 1 while a refresh-ahead lookup of this entry is in flight, 0 otherwise. */
+    private volatile int refreshing = 0;
+
+    /** The tablet as handed to the sessions, built on first use. */
+    private volatile LocatedTablet locatedTablet;
 
     private Entry(RemoteTablet tablet,
                   byte[] lowerBoundPartitionKey,
                   byte[] upperBoundPartitionKey,
-                  long deadline) {
+                  long deadline,
+                  long refreshDeadline) {
       this.tablet = tablet;
       this.lowerBoundPartitionKey = lowerBoundPartitionKey;
       this.upperBoundPartitionKey = upperBoundPartitionKey;
       this.deadline = deadline;
+      this.refreshDeadline = refreshDeadline;
     }
 
     public static Entry nonCoveredRange(byte[] lowerBoundPartitionKey,
                                         byte[] upperBoundPartitionKey,
                                         long deadline) {
-      return new Entry(null, lowerBoundPartitionKey, upperBoundPartitionKey, deadline);
+      return nonCoveredRange(lowerBoundPartitionKey, upperBoundPartitionKey, deadline, deadline);
+    }
+
+    public static Entry nonCoveredRange(byte[] lowerBoundPartitionKey,
+                                        byte[] upperBoundPartitionKey,
+                                        long deadline,
+                                        long refreshDeadline) {
+      return new Entry(null, lowerBoundPartitionKey, upperBoundPartitionKey,
+                       deadline, refreshDeadline);
     }
 
     public static Entry tablet(RemoteTablet tablet, long deadline) {
-      return new Entry(tablet, null, null, deadline);
+      return tablet(tablet, deadline, deadline);
+    }
+
+    public static Entry tablet(RemoteTablet tablet, long deadline, long refreshDeadline) {
+      return new Entry(tablet, null, null, deadline, refreshDeadline);
     }
 
     /**
@@ -280,6 +372,23 @@ class TableLocationsCache {
       return tablet;
     }
 
+    /**
+     * @return the tablet as a {@link LocatedTablet}, shared by all the users of this entry,
+     * or null for a non-covered range
+     */
+    LocatedTablet getLocatedTablet() {
+      if (tablet == null) {
+        return null;
+      }
+      LocatedTablet located = locatedTablet;
+      if (located == null) {
+        // Racing threads may each build one, they're equivalent.
+        located = new LocatedTablet(tablet);
+        locatedTablet = located;
+      }
+      return located;
+    }
+
     public byte[] getLowerBoundPartitionKey() {
       return tablet == null ? lowerBoundPartitionKey : tablet.getPartition().getPartitionKeyStart();
     }
@@ -296,6 +405,29 @@ class TableLocationsCache {
       return ttl() <= 0;
     }
 
+    /**
+     * @return {@code true} if this entry is close enough to going stale that it should be
+     * looked up again ahead of time
+     */
+    boolean isDueForRefresh() {
+      return System.nanoTime() - refreshDeadline >= 0;
+    }
+
+    /**
+     * Claims the refresh-ahead of this entry, so that a single lookup is sent for it.
+     * @return {@code true} if the caller should refresh this entry
+     */
+    boolean tryStartRefresh() {
+      return REFRESHING.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * Lets another caller try to refresh this entry, after a failed refresh-ahead.
+     */
+    void refreshFailed() {
+      refreshing = 0;
+    }
+
     @Override
     public String toString() {
       if (isNonCoveredRange()) {
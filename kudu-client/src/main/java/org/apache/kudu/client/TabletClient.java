@@ -27,10 +27,12 @@
 package org.apache.kudu.client;
 
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -43,6 +45,7 @@ import com.google.common.collect.Lists;
 import com.google.protobuf.Message;
 import com.stumbleupon.async.Deferred;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelEvent;
@@ -54,6 +57,7 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioSocketChannel;
 import org.jboss.netty.handler.timeout.ReadTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -91,6 +95,10 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
   public static final Logger LOG = LoggerFactory.getLogger(TabletClient.class);
 
   public static final byte RPC_CURRENT_VERSION = 9;
+
+  /** Pending calls are written right away once they add up to this many bytes. */
+  private static final int MAX_COALESCED_WRITE_BYTES = 64 * 1024;
+
   /** Initial header sent by the client upon connection establishment */
   private static final byte[] CONNECTION_HEADER = new byte[] { 'h', 'r', 'p', 'c',
       RPC_CURRENT_VERSION,     // RPC version.
@@ -117,6 +125,30 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
   @GuardedBy("lock")
   ArrayList<KuduRpc<?>> pendingRpcs = Lists.newArrayList();
 
+  /**
+   * Calls which are encoded but not written to the channel yet. They're written together, once
+   * per tick of the channel's I/O thread, or as soon as they reach
+   * {@link #MAX_COALESCED_WRITE_BYTES}, so that a burst of calls takes a single write.
+   */
+  @GuardedBy("lock")
+  private final ArrayList<ChannelBuffer> pendingWrites = new ArrayList<>();
+
+  @GuardedBy("lock")
+  private int pendingWriteBytes = 0;
+
+  /** Writes the calls which were coalesced since it got scheduled. */
+  private final Runnable flushPendingWritesTask = new Runnable() {
+    @Override
+    public void run() {
+      lock.lock();
+      try {
+        flushPendingWrites();
+      } finally {
+        lock.unlock();
+      }
+    }
+  };
+
   /**
    * A monotonically increasing counter for RPC IDs.
    */
@@ -132,6 +164,10 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
   @GuardedBy("lock")
   private State state = State.NEGOTIATING;
 
+  /** When this client got disconnected, in ns relative to the System nanotime clock. */
+  @GuardedBy("lock")
+  private long disconnectedNanos;
+
   @GuardedBy("lock")
   private HashMap<Integer, KuduRpc<?>> rpcsInflight = new HashMap<>();
 
@@ -146,6 +182,17 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
 
   private final ServerInfo serverInfo;
 
+  /**
+   * The RPCs handed to the client's encoding executor, in the order they were sent. They're
+   * passed on to the channel in that order, a call waiting for the ones before it to be encoded.
+   */
+  @GuardedBy("encodedCalls")
+  private final ArrayDeque<EncodedCall> encodedCalls = new ArrayDeque<>();
+
+  /** Whether a thread is passing on the encoded calls, so that only one at a time does. */
+  @GuardedBy("encodedCalls")
+  private boolean sendingEncodedCalls = false;
+
   /**
    * Set to true when the client initiates a disconnect. The channelDisconnected
    * event handler then knows not to log any warning about unexpected disconnection
@@ -173,6 +220,12 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
       LOG.warn(getPeerUuidLoggingString() + " sending an rpc without a timeout " + rpc);
     }
 
+    Executor encodingExecutor = kuduClient.getEncodingExecutor();
+    if (encodingExecutor != null) {
+      encodeInBackground(rpc, encodingExecutor);
+      return;
+    }
+
     // Serialize the request outside the lock.
     Message req;
     try {
@@ -182,7 +235,76 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
       rpc.errback(e);  // Make the RPC fail with the exception.
       return;
     }
+    sendRequest(rpc, req, null);
+  }
+
+  /**
+   * Builds and serializes the request of an RPC with the encoding executor, then sends it once
+   * the RPCs sent before it on this connection are.
+   * @param rpc the RPC to send
+   * @param encodingExecutor the executor to encode the request with
+   */
+  private void encodeInBackground(KuduRpc<?> rpc, Executor encodingExecutor) {
+    final EncodedCall call = new EncodedCall(rpc);
+    synchronized (encodedCalls) {
+      encodedCalls.add(call);
+    }
+    Runnable encode = new Runnable() {
+      @Override
+      public void run() {
+        call.encode();
+        synchronized (encodedCalls) {
+          call.encoded = true;
+        }
+        sendEncodedCalls();
+      }
+    };
+    try {
+      encodingExecutor.execute(encode);
+    } catch (RejectedExecutionException e) {
+      // The executor is shutting down or full, encode on this thread instead.
+      encode.run();
+    }
+  }
 
+  /**
+   * Sends the calls at the head of {@link #encodedCalls} which are encoded, stopping at the
+   * first one which isn't yet. Its encoding thread will resume from there.
+   */
+  private void sendEncodedCalls() {
+    synchronized (encodedCalls) {
+      if (sendingEncodedCalls) {
+        // The thread sending calls will find ours after the ones it's sending.
+        return;
+      }
+      sendingEncodedCalls = true;
+    }
+    while (true) {
+      EncodedCall call;
+      synchronized (encodedCalls) {
+        call = encodedCalls.peek();
+        if (call == null || !call.encoded) {
+          sendingEncodedCalls = false;
+          return;
+        }
+        encodedCalls.poll();
+      }
+      if (call.failure != null) {
+        LOG.error("Uncaught exception while constructing RPC request: " + call.rpc, call.failure);
+        call.rpc.errback(call.failure);  // Make the RPC fail with the exception.
+      } else {
+        sendRequest(call.rpc, call.request, call.body);
+      }
+    }
+  }
+
+  /**
+   * Sends an RPC whose request was built, unless the connection isn't ready for it.
+   * @param rpc the RPC to send
+   * @param req the RPC's request
+   * @param body the serialized request, or null to serialize it when writing it to the channel
+   */
+  private void sendRequest(KuduRpc<?> rpc, Message req, byte[] body) {
     lock.lock();
     boolean needsUnlock = true;
     try {
@@ -223,7 +345,7 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
       }
 
       // Assign the call ID and write it to the wire.
-      sendCallToWire(rpc, req);
+      sendCallToWire(rpc, req, body);
     } finally {
       if (needsUnlock) {
         lock.unlock();
@@ -232,7 +354,7 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
   }
 
   @GuardedBy("lock")
-  private <R> void sendCallToWire(final KuduRpc<R> rpc, Message reqPB) {
+  private <R> void sendCallToWire(final KuduRpc<R> rpc, Message reqPB, byte[] body) {
     assert lock.isHeldByCurrentThread();
     assert state == State.ALIVE;
     assert chan != null;
@@ -288,8 +410,52 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
       return;
     }
 
-    RpcOutboundMessage outbound = new RpcOutboundMessage(headerBuilder, reqPB);
-    Channels.write(chan, outbound);
+    ChannelBuffer buf = body == null ?
+        KuduRpc.toChannelBuffer(headerBuilder.build(), reqPB) :
+        KuduRpc.toChannelBuffer(headerBuilder.build(), body);
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("{}: sending RPC {}", chan, new RpcOutboundMessage(headerBuilder, reqPB));
+    }
+    pendingWrites.add(buf);
+    pendingWriteBytes += buf.readableBytes();
+    if (pendingWriteBytes >= MAX_COALESCED_WRITE_BYTES) {
+      flushPendingWrites();
+    } else if (pendingWrites.size() == 1) {
+      scheduleFlushPendingWrites();
+    }
+  }
+
+  /**
+   * Makes the channel's I/O thread write the pending calls once it's done with its current
+   * work, by which time the calls sent in the meantime have joined them.
+   */
+  @GuardedBy("lock")
+  private void scheduleFlushPendingWrites() {
+    if (chan instanceof NioSocketChannel) {
+      // Always queue the task, even from the I/O thread, or it would run right away.
+      ((NioSocketChannel) chan).getWorker().executeInIoThread(flushPendingWritesTask, true);
+    } else {
+      chan.getPipeline().execute(flushPendingWritesTask);
+    }
+  }
+
+  /**
+   * Writes all the pending calls to the channel at once.
+   */
+  @GuardedBy("lock")
+  private void flushPendingWrites() {
+    assert lock.isHeldByCurrentThread();
+    int rpcs = pendingWrites.size();
+    if (rpcs == 0 || chan == null) {
+      return;
+    }
+    ChannelBuffer buf = rpcs == 1 ?
+        pendingWrites.get(0) :
+        ChannelBuffers.wrappedBuffer(pendingWrites.toArray(new ChannelBuffer[rpcs]));
+    pendingWrites.clear();
+    pendingWriteBytes = 0;
+    Channels.write(chan, buf);
+    kuduClient.recordOutboundWrite(rpcs);
   }
 
   /**
@@ -440,6 +606,14 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
           ", rpc=" + rpc);
     }
 
+    // The server answered, let the write limiter learn from it before the RPC is retried or
+    // completed.
+    boolean serverBusy = !retryableHeaderError.ok() ||
+        (decoded != null && decoded.getSecond() instanceof Tserver.TabletServerErrorPB &&
+            ((Tserver.TabletServerErrorPB) decoded.getSecond()).getStatus().getCode() ==
+                WireProtocol.AppStatusPB.ErrorCode.SERVICE_UNAVAILABLE);
+    rpc.releaseWriteLimiterSlot(true, serverBusy);
+
     // This check is specifically for the ERROR_SERVER_TOO_BUSY case above.
     if (!retryableHeaderError.ok()) {
       rpc.addTrace(traceBuilder.callStatus(retryableHeaderError).build());
@@ -576,6 +750,19 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
     }
   }
 
+  /**
+   * Tells for how long this handler has been disconnected from the server.
+   * @return the time in nanoseconds since the disconnection, or -1 if it's still alive
+   */
+  long getNanosSinceDisconnected() {
+    lock.lock();
+    try {
+      return state == State.DISCONNECTED ? System.nanoTime() - disconnectedNanos : -1;
+    } finally {
+      lock.unlock();
+    }
+  }
+
   @Override
   public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e)
       throws Exception {
@@ -636,6 +823,7 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
         return;
       }
       state = State.DISCONNECTED;
+      disconnectedNanos = System.nanoTime();
 
       // In case we were negotiating, we need to fail any that were waiting
       // for negotiation to complete.
@@ -644,6 +832,10 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
         pendingRpcs = null;
       }
 
+      // The calls which weren't written yet are in flight too, they're failed below.
+      pendingWrites.clear();
+      pendingWriteBytes = 0;
+
       // Similarly, we need to fail any that were already sent and in-flight.
       if (rpcsInflight != null) {
         rpcsToFail.addAll(rpcsInflight.values());
@@ -678,6 +870,7 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
    */
   private void failOrRetryRpc(final KuduRpc<?> rpc,
                               final RecoverableException exception) {
+    rpc.releaseWriteLimiterSlot(false, false);
     rpc.addTrace(
         new RpcTraceFrame.RpcTraceFrameBuilder(
             rpc.method(),
@@ -778,4 +971,29 @@ public class TabletClient extends SimpleChannelUpstreamHandler {
     return buf.toString();
   }
 
+  /**
+   * An RPC handed to the encoding executor, and the result of its encoding.
+   */
+  private static final class EncodedCall {
+    final KuduRpc<?> rpc;
+    Message request;
+    byte[] body;
+    Exception failure;
+
+    /** Set once the fields above are, guarded by {@link TabletClient#encodedCalls}. */
+    boolean encoded = false;
+
+    EncodedCall(KuduRpc<?> rpc) {
+      this.rpc = rpc;
+    }
+
+    void encode() {
+      try {
+        request = rpc.createRequestPB();
+        body = request.toByteArray();
+      } catch (Exception e) {
+        failure = e;
+      }
+    }
+  }
 }
@@ -0,0 +1,183 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import java.util.Arrays;
+
+import org.apache.kudu.annotations.InterfaceAudience;
+import org.apache.kudu.annotations.InterfaceStability;
+
+/**
+ * A view of a UTF-8 encoded string which points into the data of a scan response instead of
+ * copying it, see {@link RowResult#getStringView(int)}. Equality, hashing and ordering work on
+ * the bytes without decoding them, and the ordering is the one Kudu uses for STRING columns.
+ * <p>
+ * The views returned by {@link RowResult} are reused as the result moves to the next row, so
+ * one must be {@link #copy() copied} before being kept, for example as the key of a map.
+ * <p>
+ * The bytes can be handed to other libraries without copying them, for example to Spark with
+ * {@code UTF8String.fromBytes(view.getRawArray(), view.getRawOffset(), view.length())}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class Utf8View implements Comparable<Utf8View> {
+
+  private byte[] data;
+  private int offset;
+  private int length;
+
+  /**
+   * Creates a view over the given UTF-8 encoded bytes, without copying them.
+   * @param data the array holding the bytes
+   * @param offset where the bytes start in the array
+   * @param length the number of bytes
+   */
+  public Utf8View(byte[] data, int offset, int length) {
+    reset(data, offset, length);
+  }
+
+  /**
+   * Creates a view over a copy of the UTF-8 encoding of the given string.
+   * @param string the string to encode
+   */
+  public Utf8View(String string) {
+    byte[] utf8 = Bytes.fromString(string);
+    reset(utf8, 0, utf8.length);
+  }
+
+  /**
+   * Points this view to other bytes. Package private, only meant to be used by RowResult.
+   */
+  void reset(byte[] data, int offset, int length) {
+    this.data = data;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * @return the array holding the bytes, which must not be modified
+   */
+  public byte[] getRawArray() {
+    return data;
+  }
+
+  /**
+   * @return where the bytes start in {@link #getRawArray()}
+   */
+  public int getRawOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the number of bytes
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * @return a view over a copy of the bytes, which isn't affected by reuse of this one
+   */
+  public Utf8View copy() {
+    return new Utf8View(copyBytes(), 0, length);
+  }
+
+  /**
+   * @return a copy of the bytes
+   */
+  public byte[] copyBytes() {
+    return Arrays.copyOfRange(data, offset, offset + length);
+  }
+
+  /**
+   * Compares the bytes of this view with the given UTF-8 encoded bytes.
+   * @param utf8 the bytes to compare with
+   * @return true if they're the same
+   */
+  public boolean equalsBytes(byte[] utf8) {
+    if (utf8.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (data[offset + i] != utf8[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compares the bytes of this view with the given UTF-8 encoded bytes, as unsigned bytes.
+   * @param utf8 the bytes to compare with
+   * @return a negative number, zero or a positive number if this view sorts before, the same
+   * as or after the bytes
+   */
+  public int compareTo(byte[] utf8) {
+    return compare(data, offset, length, utf8, 0, utf8.length);
+  }
+
+  @Override
+  public int compareTo(Utf8View other) {
+    return compare(data, offset, length, other.data, other.offset, other.length);
+  }
+
+  private static int compare(byte[] a, int aOffset, int aLength,
+                             byte[] b, int bOffset, int bLength) {
+    int minLength = Math.min(aLength, bLength);
+    for (int i = 0; i < minLength; i++) {
+      int cmp = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return aLength - bLength;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Utf8View)) {
+      return false;
+    }
+    Utf8View other = (Utf8View) o;
+    return length == other.length &&
+        compare(data, offset, length, other.data, other.offset, other.length) == 0;
+  }
+
+  /**
+   * @return a hash of the bytes, the same as {@link Arrays#hashCode(byte[])} of a copy of them
+   */
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + data[i];
+    }
+    return hash;
+  }
+
+  /**
+   * @return the decoded string
+   */
+  @Override
+  public String toString() {
+    return Bytes.getString(data, offset, length);
+  }
+}
@@ -0,0 +1,128 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.google.common.base.Preconditions;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.util.Slice;
+
+/**
+ * Builds the row data of a scan batch the way the tablet servers lay it out, so that tests can
+ * create {@link RowResult}s without a cluster.
+ */
+class RowDataBuilder {
+  private final Schema schema;
+  private final ByteArrayOutputStream rows = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream indirect = new ByteArrayOutputStream();
+  private int numRows = 0;
+
+  RowDataBuilder(Schema schema) {
+    this.schema = schema;
+  }
+
+  /**
+   * Adds a row.
+   * @param values the values of the columns, in order, null for a null cell. Strings are
+   *               encoded in UTF-8, and integers of any width are accepted for integer columns.
+   * @return this builder
+   */
+  RowDataBuilder addRow(Object... values) {
+    Preconditions.checkArgument(values.length == schema.getColumnCount(),
+                                "Expected %s values", schema.getColumnCount());
+    ByteBuffer row = ByteBuffer.allocate(schema.getRowSize()).order(ByteOrder.LITTLE_ENDIAN);
+    byte[] nulls = new byte[Bytes.getBitSetSize(schema.getColumnCount())];
+    for (int i = 0; i < values.length; i++) {
+      ColumnSchema column = schema.getColumnByIndex(i);
+      Object value = values[i];
+      if (value == null) {
+        Preconditions.checkArgument(column.isNullable(), "Column %s isn't nullable", i);
+        nulls[i / 8] |= 1 << (i % 8);
+        row.position(row.position() + column.getType().getSize());
+        continue;
+      }
+      switch (column.getType()) {
+        case BOOL:
+          row.put((byte) ((Boolean) value ? 1 : 0));
+          break;
+        case INT8:
+          row.put(((Number) value).byteValue());
+          break;
+        case INT16:
+          row.putShort(((Number) value).shortValue());
+          break;
+        case INT32:
+          row.putInt(((Number) value).intValue());
+          break;
+        case INT64:
+        case UNIXTIME_MICROS:
+          row.putLong(((Number) value).longValue());
+          break;
+        case FLOAT:
+          row.putFloat(((Number) value).floatValue());
+          break;
+        case DOUBLE:
+          row.putDouble(((Number) value).doubleValue());
+          break;
+        case STRING:
+        case BINARY:
+          byte[] bytes = value instanceof String ? Bytes.fromString((String) value) :
+              (byte[]) value;
+          row.putLong(indirect.size());
+          row.putLong(bytes.length);
+          indirect.write(bytes, 0, bytes.length);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported type " + column.getType());
+      }
+    }
+    if (schema.hasNullableColumns()) {
+      row.put(nulls);
+    }
+    rows.write(row.array(), 0, row.capacity());
+    numRows++;
+    return this;
+  }
+
+  int getNumRows() {
+    return numRows;
+  }
+
+  Slice getRowData() {
+    return new Slice(rows.toByteArray());
+  }
+
+  Slice getIndirectData() {
+    return new Slice(indirect.toByteArray());
+  }
+
+  /**
+   * @return a row result over all the rows added so far, positioned on the given one
+   */
+  RowResult getRow(int index) {
+    RowResult row = new RowResult(schema, getRowData(), getIndirectData());
+    row.advancePointerTo(index);
+    return row;
+  }
+}
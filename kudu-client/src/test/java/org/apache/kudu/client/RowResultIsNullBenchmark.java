@@ -0,0 +1,133 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.util.Slice;
+
+/**
+ * Compares reading the null bit of a cell in place, as {@link RowResult#isNull(int)} does, to
+ * decoding the row's whole null bitmap into a {@link BitSet} every time the iterator moves to a
+ * row, as it used to, when going over a batch and checking a few columns of every row.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.kudu.client.RowResultIsNullBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowResultIsNullBenchmark {
+
+  private static final int ROWS = 1024;
+
+  @Param({"8", "64"})
+  public int columns;
+
+  @Param({"1", "4"})
+  public int checkedColumns;
+
+  private Schema schema;
+  private byte[] rowData;
+  private RowResult rowResult;
+  private int nullBitmapOffset;
+
+  @Setup
+  public void setUp() {
+    List<ColumnSchema> columnSchemas = new ArrayList<>(columns);
+    List<Integer> columnIds = new ArrayList<>(columns);
+    columnSchemas.add(new ColumnSchema.ColumnSchemaBuilder("key", Type.INT64).key(true).build());
+    columnIds.add(0);
+    for (int i = 1; i < columns; i++) {
+      columnSchemas.add(new ColumnSchema.ColumnSchemaBuilder("c" + i, Type.INT32)
+                            .nullable(true)
+                            .build());
+      columnIds.add(i);
+    }
+    schema = new Schema(columnSchemas, columnIds);
+    rowData = new byte[schema.getRowSize() * ROWS];
+    new Random(0).nextBytes(rowData);
+    rowResult = new RowResult(schema, new Slice(rowData), new Slice(new byte[0]));
+    nullBitmapOffset = 8 + 4 * (columns - 1);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int inPlace() {
+    int nulls = 0;
+    rowResult.resetPointer();
+    for (int row = 0; row < ROWS; row++) {
+      rowResult.advancePointer();
+      for (int column = 1; column <= checkedColumns; column++) {
+        if (rowResult.isNull(column)) {
+          nulls++;
+        }
+      }
+    }
+    return nulls;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int decodedBitSet() {
+    int nulls = 0;
+    int rowSize = schema.getRowSize();
+    for (int row = 0; row < ROWS; row++) {
+      BitSet nullsBitSet =
+          Bytes.toBitSet(rowData, row * rowSize + nullBitmapOffset, schema.getColumnCount());
+      for (int column = 1; column <= checkedColumns; column++) {
+        if (schema.getColumnByIndex(column).isNullable() && nullsBitSet.get(column)) {
+          nulls++;
+        }
+      }
+    }
+    return nulls;
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder()
+        .include(RowResultIsNullBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
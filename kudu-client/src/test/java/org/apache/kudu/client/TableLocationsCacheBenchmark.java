@@ -0,0 +1,240 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.primitives.UnsignedBytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the lookups of {@link TableLocationsCache}, which binary search an immutable array,
+ * to those of the cache it replaced, a TreeMap guarded by a read-write lock, from 1, 8 and 32
+ * threads.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.kudu.client.TableLocationsCacheBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableLocationsCacheBenchmark {
+
+  private static final long TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+  @State(Scope.Benchmark)
+  public static class Caches {
+    @Param({"10", "1000"})
+    public int tablets;
+
+    TableLocationsCache arrayCache;
+    LockedTableLocationsCache lockedCache;
+    byte[][] keys;
+
+    @Setup
+    public void setUp() {
+      List<RemoteTablet> remoteTablets = new ArrayList<>(tablets);
+      for (int i = 0; i < tablets; i++) {
+        remoteTablets.add(TestTableLocationsCache.tablet(
+            Integer.toString(i), i == 0 ? "" : key(i), i == tablets - 1 ? "" : key(i + 1)));
+      }
+      arrayCache = new TableLocationsCache(null);
+      arrayCache.cacheTabletLocations(remoteTablets, AsyncKuduClient.EMPTY_ARRAY,
+                                      tablets, TTL_MS);
+      lockedCache = new LockedTableLocationsCache();
+      lockedCache.cacheTabletLocations(remoteTablets, AsyncKuduClient.EMPTY_ARRAY,
+                                       tablets, TTL_MS);
+
+      Random random = new Random(0);
+      keys = new byte[4096][];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = (key(random.nextInt(tablets)) + random.nextInt(100)).getBytes();
+      }
+    }
+
+    private static String key(int tablet) {
+      return String.format("%08d", tablet);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+
+    byte[] nextKey(Caches caches) {
+      next = (next + 1) & (caches.keys.length - 1);
+      return caches.keys[next];
+    }
+  }
+
+  @Benchmark
+  public TableLocationsCache.Entry arrayGet(Caches caches, Cursor cursor) {
+    return caches.arrayCache.get(cursor.nextKey(caches));
+  }
+
+  @Benchmark
+  public TableLocationsCache.Entry lockedGet(Caches caches, Cursor cursor) {
+    return caches.lockedCache.get(cursor.nextKey(caches));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public TableLocationsCache.Entry arrayGet8Threads(Caches caches, Cursor cursor) {
+    return caches.arrayCache.get(cursor.nextKey(caches));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public TableLocationsCache.Entry lockedGet8Threads(Caches caches, Cursor cursor) {
+    return caches.lockedCache.get(cursor.nextKey(caches));
+  }
+
+  @Benchmark
+  @Threads(32)
+  public TableLocationsCache.Entry arrayGet32Threads(Caches caches, Cursor cursor) {
+    return caches.arrayCache.get(cursor.nextKey(caches));
+  }
+
+  @Benchmark
+  @Threads(32)
+  public TableLocationsCache.Entry lockedGet32Threads(Caches caches, Cursor cursor) {
+    return caches.lockedCache.get(cursor.nextKey(caches));
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder()
+        .include(TableLocationsCacheBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+  /**
+   * The lookups and updates of the TreeMap based cache TableLocationsCache replaced, as they
+   * were, storing the same entries.
+   */
+  static final class LockedTableLocationsCache {
+    private static final Comparator<byte[]> COMPARATOR =
+        UnsignedBytes.lexicographicalComparator();
+
+    private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+
+    private final NavigableMap<byte[], TableLocationsCache.Entry> entries =
+        new TreeMap<>(COMPARATOR);
+
+    TableLocationsCache.Entry get(byte[] partitionKey) {
+      Map.Entry<byte[], TableLocationsCache.Entry> entry;
+      rwl.readLock().lock();
+      try {
+        entry = entries.floorEntry(partitionKey);
+      } finally {
+        rwl.readLock().unlock();
+      }
+
+      if (entry == null ||
+          (entry.getValue().getUpperBoundPartitionKey().length > 0 &&
+              Bytes.memcmp(partitionKey, entry.getValue().getUpperBoundPartitionKey()) >= 0) ||
+          entry.getValue().isStale()) {
+        return null;
+      }
+      return entry.getValue();
+    }
+
+    void cacheTabletLocations(List<RemoteTablet> tablets,
+                              byte[] requestPartitionKey,
+                              int requestedBatchSize,
+                              long ttl) {
+      long deadline = System.nanoTime() + ttl * TimeUnit.MILLISECONDS.toNanos(1);
+      List<TableLocationsCache.Entry> newEntries = new ArrayList<>();
+      if (tablets.isEmpty()) {
+        newEntries.add(TableLocationsCache.Entry.nonCoveredRange(AsyncKuduClient.EMPTY_ARRAY,
+                                                                 AsyncKuduClient.EMPTY_ARRAY,
+                                                                 deadline));
+      } else {
+        final byte[] firstLowerBound = tablets.get(0).getPartition().getPartitionKeyStart();
+        if (Bytes.memcmp(requestPartitionKey, firstLowerBound) < 0) {
+          newEntries.add(TableLocationsCache.Entry.nonCoveredRange(
+              AsyncKuduClient.EMPTY_ARRAY, firstLowerBound, deadline));
+        }
+        byte[] lastUpperBound = firstLowerBound;
+        for (RemoteTablet tablet : tablets) {
+          final byte[] tabletLowerBound = tablet.getPartition().getPartitionKeyStart();
+          final byte[] tabletUpperBound = tablet.getPartition().getPartitionKeyEnd();
+          if (Bytes.memcmp(lastUpperBound, tabletLowerBound) < 0) {
+            newEntries.add(TableLocationsCache.Entry.nonCoveredRange(
+                lastUpperBound, tabletLowerBound, deadline));
+          }
+          lastUpperBound = tabletUpperBound;
+          newEntries.add(TableLocationsCache.Entry.tablet(tablet, deadline));
+        }
+        if (lastUpperBound.length > 0 && tablets.size() < requestedBatchSize) {
+          newEntries.add(TableLocationsCache.Entry.nonCoveredRange(
+              lastUpperBound, AsyncKuduClient.EMPTY_ARRAY, deadline));
+        }
+      }
+
+      byte[] discoveredlowerBound = newEntries.get(0).getLowerBoundPartitionKey();
+      byte[] discoveredUpperBound = newEntries.get(newEntries.size() - 1)
+                                              .getUpperBoundPartitionKey();
+
+      rwl.writeLock().lock();
+      try {
+        Map.Entry<byte[], TableLocationsCache.Entry> floorEntry =
+            entries.floorEntry(discoveredlowerBound);
+        if (floorEntry != null &&
+            Bytes.memcmp(requestPartitionKey,
+                         floorEntry.getValue().getUpperBoundPartitionKey()) < 0) {
+          discoveredlowerBound = floorEntry.getKey();
+        }
+        NavigableMap<byte[], TableLocationsCache.Entry> overlappingEntries =
+            entries.tailMap(discoveredlowerBound, true);
+        if (discoveredUpperBound.length > 0) {
+          overlappingEntries = overlappingEntries.headMap(discoveredUpperBound, false);
+        }
+        overlappingEntries.clear();
+        for (TableLocationsCache.Entry entry : newEntries) {
+          entries.put(entry.getLowerBoundPartitionKey(), entry);
+        }
+      } finally {
+        rwl.writeLock().unlock();
+      }
+    }
+  }
+}
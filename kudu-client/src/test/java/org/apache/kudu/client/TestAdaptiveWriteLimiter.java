@@ -0,0 +1,129 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestAdaptiveWriteLimiter {
+
+  private static final long MICROS = TimeUnit.MICROSECONDS.toNanos(1);
+
+  private final AtomicInteger backlogged = new AtomicInteger();
+  private final AtomicInteger sent = new AtomicInteger();
+
+  private final Runnable send = new Runnable() {
+    @Override
+    public void run() {
+      sent.incrementAndGet();
+    }
+  };
+
+  /** Sends a write through the limiter and completes it right away. */
+  private static void write(AdaptiveWriteLimiter limiter, Runnable send,
+                            long latencyNanos, int numRows, boolean serverBusy) {
+    limiter.submit(send);
+    limiter.release(latencyNanos, numRows, serverBusy);
+  }
+
+  @Test
+  public void testQueuesBeyondTheWindow() {
+    AdaptiveWriteLimiter limiter = new AdaptiveWriteLimiter("ts", backlogged);
+    int window = limiter.getWindow();
+    for (int i = 0; i < window * 4; i++) {
+      limiter.submit(send);
+    }
+    assertEquals(window, sent.get());
+    assertEquals(window, limiter.getInFlight());
+    assertEquals(window * 3, limiter.getQueued());
+    assertEquals(1, backlogged.get());
+    assertNotNull(limiter.getBacklogNotification());
+
+    // Failed writes release their slot without adapting the window.
+    for (int i = 0; i < window * 2; i++) {
+      limiter.release(-1, 1, false);
+    }
+    assertEquals(window, limiter.getWindow());
+    assertEquals(window * 3, sent.get());
+    assertEquals(window, limiter.getQueued());
+    assertEquals(0, backlogged.get());
+    assertNull(limiter.getBacklogNotification());
+  }
+
+  @Test
+  public void testWindowGrowsWhileLatencyIsStable() {
+    AdaptiveWriteLimiter limiter = new AdaptiveWriteLimiter("ts", backlogged);
+    for (int i = 0; i < 1000; i++) {
+      write(limiter, send, 100 * MICROS, 1, false);
+    }
+    assertTrue(limiter.getWindow() > AdaptiveWriteLimiter.INITIAL_WINDOW);
+  }
+
+  @Test
+  public void testServerBusyHalvesTheWindowOncePerRoundTrip() {
+    AdaptiveWriteLimiter limiter = new AdaptiveWriteLimiter("ts", backlogged);
+    write(limiter, send, 0, 1, true);
+    assertEquals(AdaptiveWriteLimiter.INITIAL_WINDOW / 2, limiter.getWindow());
+
+    // This write was sent before the window was halved, it saw the same congestion.
+    write(limiter, send, TimeUnit.SECONDS.toNanos(1), 1, true);
+    assertEquals(AdaptiveWriteLimiter.INITIAL_WINDOW / 2, limiter.getWindow());
+
+    write(limiter, send, 0, 1, true);
+    assertEquals(AdaptiveWriteLimiter.INITIAL_WINDOW / 4, limiter.getWindow());
+  }
+
+  @Test
+  public void testHighLatencyShrinksTheWindow() {
+    AdaptiveWriteLimiter limiter = new AdaptiveWriteLimiter("ts", backlogged);
+    for (int i = 0; i < 10; i++) {
+      write(limiter, send, 100 * MICROS, 1, false);
+    }
+    int window = limiter.getWindow();
+    // Well above the lowest latency.
+    write(limiter, send, 1000 * MICROS, 1, false);
+    assertTrue(limiter.getWindow() < window);
+  }
+
+  @Test
+  public void testLargeWritesAreNotCongestion() {
+    AdaptiveWriteLimiter limiter = new AdaptiveWriteLimiter("ts", backlogged);
+    for (int i = 0; i < 10; i++) {
+      write(limiter, send, 100 * MICROS, 1, false);
+    }
+    int window = limiter.getWindow();
+    // A thousand rows taking ten times as long as a single one is cheaper per row.
+    for (int i = 0; i < 10; i++) {
+      write(limiter, send, 1000 * MICROS, 1000, false);
+    }
+    assertTrue(limiter.getWindow() >= window);
+    // Small writes aren't held to the latency per row of large ones either.
+    for (int i = 0; i < 10; i++) {
+      write(limiter, send, 100 * MICROS, 1, false);
+    }
+    assertTrue(limiter.getWindow() >= window);
+  }
+}
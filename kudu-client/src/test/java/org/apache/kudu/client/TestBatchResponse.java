@@ -0,0 +1,114 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.tserver.Tserver;
+
+public class TestBatchResponse {
+
+  private static final Schema SCHEMA = new Schema(
+      ImmutableList.of(
+          new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build()),
+      ImmutableList.of(0));
+
+  private static final KuduTable TABLE = new KuduTable(
+      null, "test", "test-id", SCHEMA,
+      new PartitionSchema(new PartitionSchema.RangeSchema(ImmutableList.of(0)),
+                          ImmutableList.<PartitionSchema.HashBucketSchema>of(), SCHEMA));
+
+  private static List<Operation> newOperations(int count) {
+    List<Operation> operations = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Insert insert = TABLE.newInsert();
+      insert.getRow().addInt("key", i);
+      operations.add(insert);
+    }
+    return operations;
+  }
+
+  @Test
+  public void testLazyResponsesAreShared() {
+    List<Operation> operations = newOperations(3);
+    BatchResponse response = new BatchResponse(
+        0, "ts", 42, ImmutableList.<Tserver.WriteResponsePB.PerRowErrorPB>of(), operations);
+    assertEquals(3, response.getOperationCount());
+    assertTrue(response.getRowErrors().isEmpty());
+
+    OperationResponse second = response.getIndividualResponse(1);
+    assertSame(operations.get(1), second.getOperation());
+    assertEquals(42, second.getWriteTimestampRaw());
+    assertFalse(second.hasRowError());
+    assertSame(second, response.getIndividualResponse(1));
+
+    // The list returned by a flush reads the same instances as the operations' callbacks.
+    List<OperationResponse> responses = response.getIndividualResponses();
+    assertEquals(3, responses.size());
+    assertSame(second, responses.get(1));
+    for (int i = 0; i < responses.size(); i++) {
+      assertSame(response.getIndividualResponse(i), responses.get(i));
+      assertSame(operations.get(i), responses.get(i).getOperation());
+    }
+  }
+
+  @Test
+  public void testViewOverSeveralBatches() {
+    BatchResponse first = new BatchResponse(
+        0, "ts", 1, ImmutableList.<Tserver.WriteResponsePB.PerRowErrorPB>of(), newOperations(2));
+    BatchResponse empty = new BatchResponse(ImmutableList.<OperationResponse>of());
+    BatchResponse last = new BatchResponse(
+        0, "ts", 2, ImmutableList.<Tserver.WriteResponsePB.PerRowErrorPB>of(), newOperations(3));
+    BatchResponse.ResponsesView view =
+        new BatchResponse.ResponsesView(ImmutableList.of(first, empty, last));
+    assertEquals(5, view.size());
+    assertSame(first.getIndividualResponse(1), view.get(1));
+    assertSame(last.getIndividualResponse(0), view.get(2));
+    assertSame(last.getIndividualResponse(2), view.get(4));
+    assertTrue(view.getRowErrors().isEmpty());
+  }
+
+  @Test
+  public void testLazyResponsesUseTheBatchElapsedTime() {
+    BatchResponse response = new BatchResponse(
+        42, "ts", 1, ImmutableList.<Tserver.WriteResponsePB.PerRowErrorPB>of(), newOperations(2));
+    // The elapsed time was captured with the response, it doesn't depend on when it's read.
+    assertEquals(42, response.getIndividualResponse(0).getElapsedMillis());
+    assertEquals(42, response.getIndividualResponses().get(1).getElapsedMillis());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testResponsesAreReadOnly() {
+    BatchResponse response = new BatchResponse(
+        0, "ts", 1, ImmutableList.<Tserver.WriteResponsePB.PerRowErrorPB>of(), newOperations(2));
+    response.getIndividualResponses().remove(0);
+  }
+}
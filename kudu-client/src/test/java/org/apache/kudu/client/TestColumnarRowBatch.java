@@ -0,0 +1,193 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.util.Slice;
+
+public class TestColumnarRowBatch {
+
+  /** Ten columns, so that the last ones' null bits are in the second byte of the bitmap. */
+  private static final Schema SCHEMA = new Schema(ImmutableList.of(
+      new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("bool", Type.BOOL).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("int8", Type.INT8).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("int16", Type.INT16).build(),
+      new ColumnSchema.ColumnSchemaBuilder("int64", Type.INT64).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("timestamp", Type.UNIXTIME_MICROS)
+          .nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("float", Type.FLOAT).build(),
+      new ColumnSchema.ColumnSchemaBuilder("double", Type.DOUBLE).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("string", Type.STRING).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("binary", Type.BINARY).nullable(true).build()));
+
+  private final RowDataBuilder rows = new RowDataBuilder(SCHEMA)
+      .addRow(0, true, 1, 2, 3L, 1500000000000000L, 0.5f, 1.5, "a", new byte[] {1})
+      .addRow(1, null, null, -2, null, null, -0.5f, null, null, null)
+      .addRow(2, false, -128, Short.MAX_VALUE, Long.MIN_VALUE, -1L, Float.MAX_VALUE,
+              Double.MIN_VALUE, "", new byte[0])
+      .addRow(3, true, 127, 0, Long.MAX_VALUE, 0L, 0f, 2.0, "été", null)
+      .addRow(4, null, 0, 1, 0L, Long.MAX_VALUE, 1f, null, "abc", new byte[] {4, 5, 6});
+
+  /**
+   * Copies the slice's bytes after some padding, so that they don't start at the beginning of
+   * their array, like the data of a scanner's response.
+   */
+  private static Slice shifted(Slice slice, int padding) {
+    byte[] data = new byte[padding + slice.length()];
+    Arrays.fill(data, 0, padding, (byte) 0xFF);
+    System.arraycopy(slice.getRawArray(), slice.getRawOffset(), data, padding, slice.length());
+    return new Slice(data, padding, slice.length());
+  }
+
+  @Test
+  public void testColumnsMatchRowResult() {
+    Slice rowData = shifted(rows.getRowData(), 7);
+    Slice indirectData = shifted(rows.getIndirectData(), 13);
+    ColumnarRowBatch batch =
+        new ColumnarRowBatch(SCHEMA, rows.getNumRows(), rowData, indirectData, null);
+    RowResult row = new RowResult(SCHEMA, rowData, indirectData);
+
+    assertEquals(5, batch.getNumRows());
+    assertNull(batch.getSelection());
+    assertEquals(5, batch.getNumSelectedRows());
+    // The columns which aren't nullable have no null flags.
+    assertNull(batch.getNulls(0));
+    assertNull(batch.getNulls(3));
+    assertNull(batch.getNulls(6));
+
+    for (int i = 0; i < batch.getNumRows(); i++) {
+      row.advancePointerTo(i);
+      for (int column = 0; column < SCHEMA.getColumnCount(); column++) {
+        boolean[] nulls = batch.getNulls(column);
+        assertEquals(row.isNull(column), nulls != null && nulls[i]);
+      }
+      assertEquals(row.getInt(0), batch.getInts(0)[i]);
+      if (!row.isNull(1)) {
+        assertEquals(row.getBoolean(1), batch.getBooleans(1)[i]);
+      }
+      if (!row.isNull(2)) {
+        assertEquals(row.getByte(2), batch.getBytes(2)[i]);
+      }
+      assertEquals(row.getShort(3), batch.getShorts(3)[i]);
+      if (!row.isNull(4)) {
+        assertEquals(row.getLong(4), batch.getLongs(4)[i]);
+      }
+      if (!row.isNull(5)) {
+        assertEquals(row.getLong(5), batch.getLongs(5)[i]);
+      }
+      assertEquals(row.getFloat(6), batch.getFloats(6)[i], 0);
+      if (!row.isNull(7)) {
+        assertEquals(row.getDouble(7), batch.getDoubles(7)[i], 0);
+      }
+      if (!row.isNull(8)) {
+        String value = Bytes.getString(batch.getIndirectData(), batch.getVarLenOffsets(8)[i],
+                                       batch.getVarLenLengths(8)[i]);
+        assertEquals(row.getString(8), value);
+      }
+      if (!row.isNull(9)) {
+        int offset = batch.getVarLenOffsets(9)[i];
+        byte[] value = Arrays.copyOfRange(batch.getIndirectData(), offset,
+                                          offset + batch.getVarLenLengths(9)[i]);
+        assertArrayEquals(row.getBinaryCopy(9), value);
+      }
+    }
+  }
+
+  @Test
+  public void testNullBitmap() {
+    ColumnarRowBatch batch = new ColumnarRowBatch(
+        SCHEMA, rows.getNumRows(), shifted(rows.getRowData(), 3), rows.getIndirectData(), null);
+    assertArrayEquals(new boolean[] {false, true, false, false, true}, batch.getNulls(1));
+    assertArrayEquals(new boolean[] {false, true, false, false, false}, batch.getNulls(2));
+    assertArrayEquals(new boolean[] {false, true, false, false, true}, batch.getNulls(7));
+    // The null bits of these columns are in the second byte of each row's bitmap.
+    assertArrayEquals(new boolean[] {false, true, false, false, false}, batch.getNulls(8));
+    assertArrayEquals(new boolean[] {false, true, false, true, false}, batch.getNulls(9));
+  }
+
+  @Test
+  public void testVarLenWithShiftedIndirectData() {
+    int padding = 21;
+    ColumnarRowBatch batch = new ColumnarRowBatch(SCHEMA, rows.getNumRows(),
+        rows.getRowData(), shifted(rows.getIndirectData(), padding), null);
+    int[] offsets = batch.getVarLenOffsets(8);
+    int[] lengths = batch.getVarLenLengths(8);
+    // The offsets are in the indirect data's array, past its padding.
+    assertEquals(padding, offsets[0]);
+    assertEquals(1, lengths[0]);
+    assertEquals(0, lengths[2]);
+    assertEquals(Bytes.fromString("été").length, lengths[3]);
+    assertEquals("été", Bytes.getString(batch.getIndirectData(), offsets[3], lengths[3]));
+    assertEquals("abc", Bytes.getString(batch.getIndirectData(), offsets[4], lengths[4]));
+    assertEquals(3, lengths[4]);
+    assertEquals(6, batch.getIndirectData()[batch.getVarLenOffsets(9)[4] + 2]);
+  }
+
+  @Test
+  public void testTimestampsAsLongs() {
+    ColumnarRowBatch batch = new ColumnarRowBatch(
+        SCHEMA, rows.getNumRows(), rows.getRowData(), rows.getIndirectData(), null);
+    long[] timestamps = batch.getLongs(5);
+    assertEquals(1500000000000000L, timestamps[0]);
+    assertEquals(-1L, timestamps[2]);
+    assertEquals(0L, timestamps[3]);
+    assertEquals(Long.MAX_VALUE, timestamps[4]);
+    // The arrays are decoded once.
+    assertSame(timestamps, batch.getLongs(5));
+  }
+
+  @Test
+  public void testWrongType() {
+    ColumnarRowBatch batch = new ColumnarRowBatch(
+        SCHEMA, rows.getNumRows(), rows.getRowData(), rows.getIndirectData(), null);
+    try {
+      batch.getInts(4);
+      fail("Read an INT64 column as INT32");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("int64"));
+    }
+    try {
+      batch.getLongs(8);
+      fail("Read a STRING column as INT64");
+    } catch (IllegalArgumentException e) {
+      assertFalse(e.getMessage().isEmpty());
+    }
+    try {
+      batch.getNulls(SCHEMA.getColumnCount());
+      fail("Read a column out of range");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+}
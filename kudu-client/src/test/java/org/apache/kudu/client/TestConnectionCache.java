@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.net.HostAndPort;
+import org.junit.Test;
+
+public class TestConnectionCache {
+
+  /**
+   * Stress test for disconnecting everything while connections are being opened: every
+   * connection found in the cache must have its channel, and be disconnected cleanly.
+   */
+  @Test(timeout = 100000)
+  public void testDisconnectEverythingWhileConnecting() throws Exception {
+    // Connections to a port nobody listens to are refused right away, so they keep being
+    // reopened.
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    final HostAndPort hostPort = HostAndPort.fromParts("127.0.0.1", port);
+
+    AsyncKuduClient client =
+        new AsyncKuduClient.AsyncKuduClientBuilder(hostPort.toString()).build();
+    try {
+      final ConnectionCache cache = new ConnectionCache(client);
+      final AtomicReference<Throwable> error = new AtomicReference<>();
+      final AtomicBoolean done = new AtomicBoolean();
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<>();
+
+      for (int i = 0; i < 4; i++) {
+        threads.add(new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              for (int i = 0; i < 2000 && error.get() == null; i++) {
+                assertNotNull(cache.newMasterClient(hostPort));
+              }
+            } catch (Throwable t) {
+              error.compareAndSet(null, t);
+            }
+          }
+        }));
+      }
+      Thread disconnector = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            while (!done.get() && error.get() == null) {
+              cache.disconnectEverything();
+            }
+          } catch (Throwable t) {
+            error.compareAndSet(null, t);
+          }
+        }
+      });
+
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      disconnector.start();
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      done.set(true);
+      disconnector.join();
+
+      if (error.get() != null) {
+        throw new AssertionError(error.get());
+      }
+      cache.disconnectEverything();
+    } finally {
+      client.shutdown().join(50000);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+
+public class TestKeyEncoder {
+
+  private static ColumnSchema key(String name, Type type) {
+    return new ColumnSchema.ColumnSchemaBuilder(name, type).key(true).build();
+  }
+
+  /**
+   * Encodes the primary key of each row both from a {@link PartialRow} and from the
+   * {@link RowResult} a scan would return, checks that they're the same and decode back to the
+   * row, and returns them.
+   */
+  private static List<byte[]> assertRoundTrip(Schema schema, Object[]... rows) {
+    RowDataBuilder data = new RowDataBuilder(schema);
+    for (Object[] row : rows) {
+      data.addRow(row);
+    }
+    RowResult result = new RowResult(schema, data.getRowData(), data.getIndirectData());
+    int numKeyColumns = schema.getPrimaryKeyColumnCount();
+    List<byte[]> keys = new ArrayList<>();
+    for (Object[] row : rows) {
+      PartialRow partialRow = schema.newPartialRow();
+      for (int i = 0; i < numKeyColumns; i++) {
+        set(partialRow, i, row[i]);
+      }
+      byte[] expected = KeyEncoder.encodePrimaryKey(partialRow);
+
+      result.advancePointer();
+      byte[] key = KeyEncoder.encodePrimaryKey(result, numKeyColumns);
+      assertArrayEquals(partialRow.stringifyRowKey(), expected, key);
+
+      PartialRow decoded = KeyEncoder.decodePrimaryKey(schema, key);
+      assertEquals(partialRow.stringifyRowKey(), decoded.stringifyRowKey());
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  private static void set(PartialRow row, int index, Object value) {
+    switch (row.getSchema().getColumnByIndex(index).getType()) {
+      case INT8: row.addByte(index, ((Number) value).byteValue()); break;
+      case INT16: row.addShort(index, ((Number) value).shortValue()); break;
+      case INT32: row.addInt(index, ((Number) value).intValue()); break;
+      case INT64:
+      case UNIXTIME_MICROS: row.addLong(index, ((Number) value).longValue()); break;
+      case STRING: row.addString(index, (String) value); break;
+      case BINARY: row.addBinary(index, (byte[]) value); break;
+      default: throw new IllegalArgumentException("Not a key type");
+    }
+  }
+
+  private static void assertSorted(List<byte[]> keys) {
+    for (int i = 1; i < keys.size(); i++) {
+      assertTrue("Key " + i + " is out of order", Bytes.memcmp(keys.get(i - 1), keys.get(i)) < 0);
+    }
+  }
+
+  @Test
+  public void testIntegerKeys() {
+    Schema schema = new Schema(ImmutableList.of(
+        key("a", Type.INT8), key("b", Type.INT16), key("c", Type.INT32), key("d", Type.INT64),
+        key("e", Type.UNIXTIME_MICROS),
+        new ColumnSchema.ColumnSchemaBuilder("v", Type.INT32).nullable(true).build()));
+    // In primary key order, the encoding sorting negative values before positive ones.
+    List<byte[]> keys = assertRoundTrip(
+        schema,
+        new Object[] { Byte.MIN_VALUE, Short.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, 0L, 1 },
+        new Object[] { -1, 0, 0, 0, 0L, null },
+        new Object[] { 0, Short.MIN_VALUE, 5, -3L, 7L, 2 },
+        new Object[] { 0, -1, Integer.MIN_VALUE, 0, 0L, null },
+        new Object[] { 0, -1, -1, Long.MIN_VALUE, Long.MAX_VALUE, 3 },
+        new Object[] { 0, -1, -1, Long.MIN_VALUE + 1, Long.MIN_VALUE, null },
+        new Object[] { 1, 0, 0, 0, 0L, 4 },
+        new Object[] { Byte.MAX_VALUE, 0, 0, 0, 0L, 5 });
+    assertSorted(keys);
+  }
+
+  @Test
+  public void testStringKeys() {
+    Schema schema = new Schema(ImmutableList.of(
+        key("a", Type.STRING), key("b", Type.BINARY), key("c", Type.STRING),
+        new ColumnSchema.ColumnSchemaBuilder("v", Type.STRING).nullable(true).build()));
+    // Strings which aren't in the last key column have their zeros escaped and are terminated,
+    // so that a prefix sorts first.
+    List<byte[]> keys = assertRoundTrip(
+        schema,
+        new Object[] { "", new byte[0], "", null },
+        new Object[] { "", new byte[0], "\0", "x" },
+        new Object[] { "", new byte[] { 0 }, "", null },
+        new Object[] { "", new byte[] { 0, 0 }, "a", "y" },
+        new Object[] { "", new byte[] { 0, 1 }, "", null },
+        new Object[] { "", new byte[] { 1 }, "", null },
+        new Object[] { "a", new byte[0], "b\0c", null },
+        new Object[] { "a\0", new byte[] { -1 }, "", "z" },
+        new Object[] { "a\0b", new byte[0], "", null },
+        new Object[] { "ab", new byte[0], "", null },
+        new Object[] { "caf\u00e9", new byte[] { 1, 2, 3 }, "\u4e2d\u6587", null });
+    assertSorted(keys);
+  }
+
+  @Test
+  public void testMixedKeys() {
+    Schema schema = new Schema(ImmutableList.of(
+        key("host", Type.STRING), key("time", Type.UNIXTIME_MICROS), key("id", Type.INT32),
+        new ColumnSchema.ColumnSchemaBuilder("metric", Type.DOUBLE).build(),
+        new ColumnSchema.ColumnSchemaBuilder("tag", Type.BINARY).nullable(true).build()));
+    List<byte[]> keys = assertRoundTrip(
+        schema,
+        new Object[] { "host-1", -1000L, 3, 0.5, null },
+        new Object[] { "host-1", 1000L, -3, 1.5, new byte[] { 7 } },
+        new Object[] { "host-1", 1000L, 3, 2.5, null },
+        new Object[] { "host-10", Long.MIN_VALUE, 0, 3.5, new byte[0] },
+        new Object[] { "host-2", 0L, 0, 4.5, null });
+    assertSorted(keys);
+  }
+
+  @Test
+  public void testProjectedKeyColumnsOnly() {
+    // A scan may project the key columns only, in which case there's no null bitmap.
+    Schema schema = new Schema(ImmutableList.of(key("a", Type.INT32), key("b", Type.STRING)));
+    assertSorted(assertRoundTrip(
+        schema,
+        new Object[] { 1, "x" },
+        new Object[] { 1, "x\0" },
+        new Object[] { 2, "" }));
+  }
+}
@@ -0,0 +1,285 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+
+/**
+ * Tests the aggregation of batches and the merging of the tablets' aggregates, without a cluster:
+ * the batches are built in memory with the columns the aggregation projects.
+ */
+public class TestKuduAggregation {
+
+  private static final Schema SCHEMA = new Schema(ImmutableList.of(
+      new ColumnSchema.ColumnSchemaBuilder("key", Type.INT64).key(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("group", Type.INT32).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("name", Type.STRING).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("value", Type.INT64).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("ratio", Type.DOUBLE).nullable(true).build()));
+
+  private static final KuduTable TABLE = new KuduTable(
+      null, "test", "test-id", SCHEMA,
+      new PartitionSchema(new PartitionSchema.RangeSchema(ImmutableList.of(0)),
+                          ImmutableList.<PartitionSchema.HashBucketSchema>of(), SCHEMA));
+
+  private static KuduAggregation.KuduAggregationBuilder newBuilder() {
+    return new KuduAggregation.KuduAggregationBuilder(null, TABLE);
+  }
+
+  /**
+   * @return the schema of the given columns of the table, in that order
+   */
+  private static Schema projection(String... columnNames) {
+    List<ColumnSchema> columns = new ArrayList<>();
+    for (String columnName : columnNames) {
+      columns.add(SCHEMA.getColumn(columnName));
+    }
+    return new Schema(columns);
+  }
+
+  private static RowResultIterator batch(RowDataBuilder rows, Schema projection) {
+    return RowResultIterator.makeCachedRowResultIterator(
+        projection, rows.getNumRows(), rows.getRowData(), rows.getIndirectData(), null);
+  }
+
+  /**
+   * @return the aggregates of a tablet which received the given batches
+   */
+  private static KuduAggregation.Aggregates tablet(KuduAggregation aggregation,
+                                                  RowResultIterator... batches) {
+    KuduAggregation.Aggregates partial = aggregation.new Aggregates();
+    for (RowResultIterator batch : batches) {
+      partial.add(batch);
+    }
+    return partial;
+  }
+
+  /**
+   * @return the group with the given key, failing if there's none
+   */
+  private static int findGroup(KuduAggregation.Result result, Object... key) {
+    for (int group = 0; group < result.getNumGroups(); group++) {
+      if (result.getGroupKey(group).equals(Arrays.asList(key))) {
+        return group;
+      }
+    }
+    fail("No group for key " + Arrays.toString(key));
+    return -1;
+  }
+
+  @Test
+  public void testAggregatesPerGroup() {
+    KuduAggregation aggregation = newBuilder()
+        .groupBy("group")
+        .sum("value")
+        .min("value")
+        .max("ratio")
+        .build();
+    Schema projection = projection("group", "value", "ratio");
+
+    RowDataBuilder first = new RowDataBuilder(projection)
+        .addRow(1, 10, 0.5)
+        .addRow(1, null, 1.5)
+        .addRow(2, 5, null);
+    RowDataBuilder second = new RowDataBuilder(projection)
+        .addRow(null, 7, 2.0);
+    RowDataBuilder third = new RowDataBuilder(projection)
+        .addRow(2, 3, 4.0)
+        .addRow(3, null, null)
+        .addRow(null, 1, -1.0);
+    KuduAggregation.Result result = aggregation.merge(ImmutableList.of(
+        tablet(aggregation, batch(first, projection), batch(second, projection)),
+        tablet(aggregation, batch(third, projection))));
+
+    assertEquals(4, result.getNumGroups());
+
+    int group = findGroup(result, 1);
+    assertEquals(2, result.getCount(group));
+    assertEquals(10, result.getLong(group, 0));
+    assertEquals(10, result.getLong(group, 1));
+    assertEquals(1.5, result.getDouble(group, 2), 0);
+
+    group = findGroup(result, 2);
+    assertEquals(2, result.getCount(group));
+    assertEquals(8, result.getLong(group, 0));
+    assertEquals(3, result.getLong(group, 1));
+    assertEquals(4.0, result.getDouble(group, 2), 0);
+
+    // All the values of the group are null, so are its aggregates.
+    group = findGroup(result, 3);
+    assertEquals(1, result.getCount(group));
+    assertTrue(result.isNull(group, 0));
+    assertTrue(result.isNull(group, 1));
+    assertTrue(result.isNull(group, 2));
+
+    group = findGroup(result, (Object) null);
+    assertEquals(2, result.getCount(group));
+    assertEquals(8, result.getLong(group, 0));
+    assertEquals(1, result.getLong(group, 1));
+    assertEquals(2.0, result.getDouble(group, 2), 0);
+  }
+
+  @Test
+  public void testLongGrouperRehashes() {
+    KuduAggregation aggregation = newBuilder().groupBy("key").sum("value").build();
+    Schema projection = projection("key", "value");
+
+    // Enough keys to grow the hash map several times, in each tablet and while merging.
+    RowDataBuilder first = new RowDataBuilder(projection);
+    for (long key = 0; key < 1000; key++) {
+      first.addRow(key, key);
+    }
+    first.addRow(Long.MIN_VALUE, 1);
+    first.addRow(Long.MAX_VALUE, 2);
+    RowDataBuilder second = new RowDataBuilder(projection);
+    for (long key = 500; key < 1500; key++) {
+      second.addRow(key, 1);
+    }
+    second.addRow(Long.MIN_VALUE, 3);
+    KuduAggregation.Result result = aggregation.merge(ImmutableList.of(
+        tablet(aggregation, batch(first, projection)),
+        tablet(aggregation, batch(second, projection))));
+
+    assertEquals(1502, result.getNumGroups());
+    for (long key = 0; key < 1500; key++) {
+      int group = findGroup(result, key);
+      if (key < 500) {
+        assertEquals(1, result.getCount(group));
+        assertEquals(key, result.getLong(group, 0));
+      } else if (key < 1000) {
+        assertEquals(2, result.getCount(group));
+        assertEquals(key + 1, result.getLong(group, 0));
+      } else {
+        assertEquals(1, result.getCount(group));
+        assertEquals(1, result.getLong(group, 0));
+      }
+    }
+    int group = findGroup(result, Long.MIN_VALUE);
+    assertEquals(2, result.getCount(group));
+    assertEquals(4, result.getLong(group, 0));
+    group = findGroup(result, Long.MAX_VALUE);
+    assertEquals(1, result.getCount(group));
+    assertEquals(2, result.getLong(group, 0));
+  }
+
+  @Test
+  public void testBytesGrouperStringAndNullKeys() {
+    KuduAggregation aggregation = newBuilder().groupBy("name", "group").build();
+    Schema projection = projection("name", "group");
+
+    RowDataBuilder first = new RowDataBuilder(projection)
+        .addRow("a", 1)
+        .addRow("a", 1)
+        .addRow("a", null)
+        .addRow(null, 1)
+        .addRow("", 1);
+    RowDataBuilder second = new RowDataBuilder(projection)
+        .addRow("a", 1)
+        .addRow(null, null)
+        .addRow(null, 1)
+        .addRow("été", 1)
+        .addRow("ab", 1);
+    KuduAggregation.Result result = aggregation.merge(ImmutableList.of(
+        tablet(aggregation, batch(first, projection)),
+        tablet(aggregation, batch(second, projection))));
+
+    assertEquals(7, result.getNumGroups());
+    assertEquals(3, result.getCount(findGroup(result, "a", 1)));
+    assertEquals(1, result.getCount(findGroup(result, "a", null)));
+    assertEquals(2, result.getCount(findGroup(result, null, 1)));
+    assertEquals(1, result.getCount(findGroup(result, null, null)));
+    // An empty string isn't null.
+    assertEquals(1, result.getCount(findGroup(result, "", 1)));
+    assertEquals(1, result.getCount(findGroup(result, "été", 1)));
+    assertEquals(1, result.getCount(findGroup(result, "ab", 1)));
+  }
+
+  @Test
+  public void testGroupByString() {
+    KuduAggregation aggregation = newBuilder().groupBy("name").max("value").build();
+    Schema projection = projection("name", "value");
+
+    RowDataBuilder rows = new RowDataBuilder(projection)
+        .addRow("x", 1)
+        .addRow(null, 2)
+        .addRow("x", 3)
+        .addRow(null, null);
+    KuduAggregation.Result result = aggregation.merge(ImmutableList.of(
+        tablet(aggregation, batch(rows, projection))));
+
+    assertEquals(2, result.getNumGroups());
+    int group = findGroup(result, "x");
+    assertEquals(2, result.getCount(group));
+    assertEquals(3, result.getLong(group, 0));
+    group = findGroup(result, (Object) null);
+    assertEquals(2, result.getCount(group));
+    assertEquals(2, result.getLong(group, 0));
+  }
+
+  @Test
+  public void testCountOnly() {
+    KuduAggregation aggregation = newBuilder().build();
+    // Nothing is projected when only counting rows.
+    Schema projection = projection();
+
+    RowDataBuilder first = new RowDataBuilder(projection).addRow().addRow().addRow();
+    RowDataBuilder empty = new RowDataBuilder(projection);
+    RowDataBuilder second = new RowDataBuilder(projection).addRow().addRow();
+    KuduAggregation.Result result = aggregation.merge(ImmutableList.of(
+        tablet(aggregation, batch(first, projection), batch(empty, projection)),
+        tablet(aggregation, batch(empty, projection)),
+        tablet(aggregation, batch(second, projection))));
+
+    assertEquals(1, result.getNumGroups());
+    assertTrue(result.getGroupKey(0).isEmpty());
+    assertEquals(5, result.getCount(0));
+  }
+
+  @Test
+  public void testSingleGroupWithoutRows() {
+    KuduAggregation aggregation = newBuilder().sum("value").build();
+
+    KuduAggregation.Result result = aggregation.merge(
+        ImmutableList.<KuduAggregation.Aggregates>of());
+    assertEquals(1, result.getNumGroups());
+    assertEquals(0, result.getCount(0));
+    assertTrue(result.isNull(0, 0));
+
+    // A tablet without matching rows has no group, but the merged aggregates still do.
+    Schema projection = projection("value");
+    KuduAggregation.Aggregates partial =
+        tablet(aggregation, batch(new RowDataBuilder(projection), projection));
+    result = aggregation.merge(ImmutableList.of(partial));
+    assertEquals(1, result.getNumGroups());
+    assertEquals(0, result.getCount(0));
+    assertTrue(result.isNull(0, 0));
+  }
+}
@@ -0,0 +1,402 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.collect.ImmutableList;
+import com.stumbleupon.async.Deferred;
+import org.junit.After;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+
+/**
+ * Tests the parallel scanner without a cluster: the scans of the tokens are fakes whose batches
+ * are delivered by the tests, one at a time.
+ */
+public class TestKuduParallelScanner {
+
+  private static final long TIMEOUT_MS = 10000;
+
+  private static final Schema SCHEMA = new Schema(ImmutableList.of(
+      new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build()));
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  /** The number of batches delivered by the fake scans, and returned by the scanner. */
+  private int deliveredBatches = 0;
+  private int returnedBatches = 0;
+
+  private final List<FakeScan> allScans = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * A scan whose batches are delivered by the test, each batch having a single row.
+   */
+  private final class FakeScan implements KuduParallelScanner.TokenScan {
+    private Deferred<RowResultIterator> pending;
+    private int requests = 0;
+    private boolean hasMoreRows = true;
+    private boolean closed = false;
+
+    FakeScan() {
+      allScans.add(this);
+    }
+
+    @Override
+    public synchronized Deferred<RowResultIterator> nextRows() {
+      assertNull("Fetched a batch while another is in flight", pending);
+      requests++;
+      pending = new Deferred<>();
+      return pending;
+    }
+
+    @Override
+    public synchronized boolean hasMoreRows() {
+      return hasMoreRows;
+    }
+
+    @Override
+    public synchronized Deferred<RowResultIterator> close() {
+      closed = true;
+      hasMoreRows = false;
+      return Deferred.fromResult(null);
+    }
+
+    synchronized int getRequests() {
+      return requests;
+    }
+
+    synchronized boolean isInFlight() {
+      return pending != null;
+    }
+
+    synchronized boolean isClosed() {
+      return closed;
+    }
+
+    /**
+     * Completes the batch in flight with a single row.
+     * @param key the key of the row
+     * @param last whether it's the scan's last batch
+     */
+    void deliver(int key, boolean last) {
+      RowDataBuilder rows = new RowDataBuilder(SCHEMA).addRow(key);
+      Deferred<RowResultIterator> batch = takePending(!last);
+      deliveredBatches++;
+      batch.callback(RowResultIterator.makeCachedRowResultIterator(
+          SCHEMA, rows.getNumRows(), rows.getRowData(), rows.getIndirectData(), null));
+    }
+
+    /**
+     * Fails the batch in flight.
+     */
+    void fail(Exception e) {
+      takePending(false).callback(e);
+    }
+
+    private synchronized Deferred<RowResultIterator> takePending(boolean hasMoreRows) {
+      assertTrue("No batch in flight", pending != null);
+      Deferred<RowResultIterator> batch = pending;
+      pending = null;
+      this.hasMoreRows = hasMoreRows;
+      return batch;
+    }
+  }
+
+  private static KuduParallelScanner.KuduParallelScannerBuilder newBuilder(
+      final FakeScan... scans) {
+    final Map<KuduScanToken, FakeScan> scansByToken = new IdentityHashMap<>();
+    List<KuduScanToken> tokens = new ArrayList<>();
+    for (FakeScan scan : scans) {
+      KuduScanToken token = mock(KuduScanToken.class);
+      scansByToken.put(token, scan);
+      tokens.add(token);
+    }
+    return new KuduParallelScanner.KuduParallelScannerBuilder(null, tokens)
+        .scanOpener(new KuduParallelScanner.ScanOpener() {
+          @Override
+          public KuduParallelScanner.TokenScan open(KuduScanToken token) {
+            return scansByToken.get(token);
+          }
+        });
+  }
+
+  private Future<RowResultIterator> nextRowsInBackground(final KuduParallelScanner scanner) {
+    return executor.submit(new Callable<RowResultIterator>() {
+      @Override
+      public RowResultIterator call() throws Exception {
+        return scanner.nextRows();
+      }
+    });
+  }
+
+  private int key(RowResultIterator batch) {
+    assertEquals(1, batch.getNumRows());
+    returnedBatches++;
+    return batch.next().getInt(0);
+  }
+
+  private int nextKey(KuduParallelScanner scanner) throws Exception {
+    return key(scanner.nextRows());
+  }
+
+  private static void awaitRequests(FakeScan scan, int requests) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (scan.getRequests() < requests) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("The scan wasn't asked for " + requests + " batches");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  private static void assertWaiting(Future<RowResultIterator> batch) throws Exception {
+    try {
+      batch.get(50, TimeUnit.MILLISECONDS);
+      fail("A batch was returned");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Checks that the batches in flight and the ones buffered by the scanner don't exceed the cap.
+   */
+  private void assertWithinCap(int maxBufferedBatches) {
+    int inFlight = 0;
+    for (FakeScan scan : allScans) {
+      if (scan.isInFlight()) {
+        inFlight++;
+      }
+    }
+    int buffered = deliveredBatches - returnedBatches;
+    assertTrue(inFlight + " batches in flight and " + buffered + " buffered",
+               inFlight + buffered <= maxBufferedBatches);
+  }
+
+  @Test(timeout = 100000)
+  public void testOrderedWithStalledHead() throws Exception {
+    FakeScan a = new FakeScan();
+    FakeScan b = new FakeScan();
+    FakeScan c = new FakeScan();
+    KuduParallelScanner scanner = newBuilder(a, b, c)
+        .maxConcurrentScans(3)
+        .maxBufferedBatches(2)
+        .ordered(true)
+        .build();
+
+    Future<RowResultIterator> first = nextRowsInBackground(scanner);
+    awaitRequests(a, 1);
+    awaitRequests(b, 1);
+    // B's batch can't be returned before A's.
+    b.deliver(20, false);
+    assertWaiting(first);
+    assertEquals(1, b.getRequests());
+    assertEquals(0, c.getRequests());
+    assertWithinCap(2);
+
+    a.deliver(10, false);
+    assertEquals(10, key(first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS)));
+    // The head fetches its next batch, which B's buffered batch doesn't prevent.
+    assertEquals(2, a.getRequests());
+    assertWithinCap(2);
+
+    a.deliver(11, true);
+    assertEquals(11, nextKey(scanner));
+    // A has no batch left but is still the head, one batch is kept for it.
+    assertEquals(1, b.getRequests());
+    assertEquals(0, c.getRequests());
+    assertWithinCap(2);
+
+    assertEquals(20, nextKey(scanner));
+    // B is the head now, and C gets the other batch.
+    assertEquals(2, b.getRequests());
+    assertEquals(1, c.getRequests());
+    assertWithinCap(2);
+
+    c.deliver(30, true);
+    b.deliver(21, true);
+    assertEquals(21, nextKey(scanner));
+    assertEquals(30, nextKey(scanner));
+    assertEquals(0, scanner.nextRows().getNumRows());
+    assertFalse(scanner.hasMoreRows());
+    scanner.close();
+  }
+
+  @Test(timeout = 100000)
+  public void testCloseWhileFetching() throws Exception {
+    FakeScan a = new FakeScan();
+    FakeScan b = new FakeScan();
+    KuduParallelScanner scanner = newBuilder(a, b).maxConcurrentScans(2).build();
+
+    Future<RowResultIterator> first = nextRowsInBackground(scanner);
+    awaitRequests(a, 1);
+    awaitRequests(b, 1);
+    scanner.close();
+    // The waiting call returns without rows.
+    assertEquals(0, first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getNumRows());
+    assertFalse(scanner.hasMoreRows());
+
+    // The scans are closed once their batch in flight is received, unless they're done.
+    assertFalse(a.isClosed());
+    assertFalse(b.isClosed());
+    a.deliver(10, false);
+    b.deliver(20, true);
+    assertTrue(a.isClosed());
+    assertFalse(b.isClosed());
+    assertEquals(1, a.getRequests());
+    assertEquals(1, b.getRequests());
+
+    // The batches received after closing were dropped.
+    assertEquals(0, scanner.nextRows().getNumRows());
+    scanner.close();
+  }
+
+  @Test(timeout = 100000)
+  public void testFirstErrorIsPropagated() throws Exception {
+    FakeScan a = new FakeScan();
+    FakeScan b = new FakeScan();
+    FakeScan c = new FakeScan();
+    KuduParallelScanner scanner = newBuilder(a, b, c).maxConcurrentScans(2).build();
+
+    Future<RowResultIterator> first = nextRowsInBackground(scanner);
+    awaitRequests(a, 1);
+    awaitRequests(b, 1);
+    a.fail(new NonRecoverableException(Status.IllegalState("first")));
+    try {
+      first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      fail("The scan's error wasn't thrown");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof KuduException);
+      assertTrue(e.getCause().getMessage().contains("first"));
+    }
+
+    // A later error, or a batch received after the error, doesn't replace it.
+    b.deliver(20, false);
+    try {
+      scanner.nextRows();
+      fail("The scan's error wasn't thrown");
+    } catch (KuduException e) {
+      assertTrue(e.getMessage().contains("first"));
+    }
+    assertEquals(1, b.getRequests());
+    // The next token isn't scanned after the error.
+    assertEquals(0, c.getRequests());
+
+    scanner.close();
+    assertFalse(a.isClosed());
+    assertTrue(b.isClosed());
+  }
+
+  @Test(timeout = 100000)
+  public void testOpenFailure() throws Exception {
+    final FakeScan a = new FakeScan();
+    KuduScanToken failing = mock(KuduScanToken.class);
+    final KuduScanToken opened = mock(KuduScanToken.class);
+    KuduParallelScanner scanner =
+        new KuduParallelScanner.KuduParallelScannerBuilder(null, ImmutableList.of(opened, failing))
+            .scanOpener(new KuduParallelScanner.ScanOpener() {
+              @Override
+              public KuduParallelScanner.TokenScan open(KuduScanToken token)
+                  throws KuduException {
+                if (token == opened) {
+                  return a;
+                }
+                throw new NonRecoverableException(Status.NotFound("no such table"));
+              }
+            })
+            .build();
+    try {
+      scanner.nextRows();
+      fail("The failure to open a scan wasn't thrown");
+    } catch (KuduException e) {
+      assertTrue(e.getMessage().contains("no such table"));
+    }
+    scanner.close();
+  }
+
+  @Test(timeout = 100000)
+  public void testReservedBatchesCap() throws Exception {
+    FakeScan a = new FakeScan();
+    FakeScan b = new FakeScan();
+    FakeScan c = new FakeScan();
+    FakeScan d = new FakeScan();
+    KuduParallelScanner scanner = newBuilder(a, b, c, d)
+        .maxConcurrentScans(4)
+        .maxBufferedBatches(2)
+        .build();
+
+    Future<RowResultIterator> first = nextRowsInBackground(scanner);
+    awaitRequests(a, 1);
+    awaitRequests(b, 1);
+    a.deliver(10, false);
+    assertEquals(10, key(first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS)));
+    // The returned batch made room for one more, and no more.
+    assertEquals(2, a.getRequests());
+    assertEquals(0, c.getRequests());
+    assertEquals(0, d.getRequests());
+    assertWithinCap(2);
+
+    b.deliver(20, false);
+    a.deliver(11, false);
+    assertWithinCap(2);
+    // Unordered, the batches are returned as they were received.
+    assertEquals(20, nextKey(scanner));
+    assertEquals(3, a.getRequests());
+    assertEquals(1, b.getRequests());
+    assertWithinCap(2);
+    assertEquals(11, nextKey(scanner));
+    assertEquals(2, b.getRequests());
+    assertEquals(0, c.getRequests());
+    assertWithinCap(2);
+
+    a.deliver(12, true);
+    b.deliver(21, true);
+    assertEquals(12, nextKey(scanner));
+    assertEquals(1, c.getRequests());
+    assertEquals(0, d.getRequests());
+    assertWithinCap(2);
+
+    scanner.close();
+  }
+}
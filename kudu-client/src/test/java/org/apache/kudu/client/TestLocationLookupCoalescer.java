@@ -0,0 +1,136 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.stumbleupon.async.Deferred;
+import org.junit.Test;
+
+import org.apache.kudu.master.Master;
+import org.apache.kudu.util.Pair;
+
+public class TestLocationLookupCoalescer {
+
+  private static final Master.GetTableLocationsResponsePB RESPONSE =
+      Master.GetTableLocationsResponsePB.getDefaultInstance();
+
+  private final LocationLookupCoalescer coalescer = new LocationLookupCoalescer();
+
+  private Pair<Deferred<Master.GetTableLocationsResponsePB>, LocationLookupCoalescer.Lookup>
+      joinOrStart(String tableId, String partitionKey, int fetchBatchSize) {
+    return coalescer.joinOrStart(tableId, partitionKey.getBytes(), fetchBatchSize);
+  }
+
+  private LocationLookupCoalescer.Lookup start(String tableId, String partitionKey,
+                                               int fetchBatchSize) {
+    Pair<Deferred<Master.GetTableLocationsResponsePB>, LocationLookupCoalescer.Lookup> p =
+        joinOrStart(tableId, partitionKey, fetchBatchSize);
+    assertNull(p.getFirst());
+    assertNotNull(p.getSecond());
+    return p.getSecond();
+  }
+
+  private Deferred<Master.GetTableLocationsResponsePB> join(String tableId, String partitionKey,
+                                                            int fetchBatchSize) {
+    Pair<Deferred<Master.GetTableLocationsResponsePB>, LocationLookupCoalescer.Lookup> p =
+        joinOrStart(tableId, partitionKey, fetchBatchSize);
+    assertNotNull(p.getFirst());
+    assertNull(p.getSecond());
+    return p.getFirst();
+  }
+
+  @Test
+  public void testSameKeyJoins() throws Exception {
+    LocationLookupCoalescer.Lookup lookup = start("t", "b", 10);
+    Deferred<Master.GetTableLocationsResponsePB> first = join("t", "b", 10);
+    // The same key is joined even when fetching more tablets.
+    Deferred<Master.GetTableLocationsResponsePB> second = join("t", "b", 100);
+    assertEquals(1, coalescer.getIssuedLookups());
+    assertEquals(2, coalescer.getCoalescedLookups());
+
+    Deferred<Master.GetTableLocationsResponsePB> sent = new Deferred<>();
+    lookup.attach(sent);
+    sent.callback(RESPONSE);
+    assertSame(RESPONSE, first.join());
+    assertSame(RESPONSE, second.join());
+  }
+
+  @Test
+  public void testFloorJoins() throws Exception {
+    start("t", "b", 10);
+    // Keys after the in-flight lookup's share it if it fetches at least as many tablets.
+    join("t", "c", 10);
+    join("t", "z", 5);
+    start("t", "d", 20);
+    // Keys before every in-flight lookup don't.
+    start("t", "a", 10);
+    // Nor do other tables.
+    start("u", "c", 10);
+    assertEquals(4, coalescer.getIssuedLookups());
+    assertEquals(2, coalescer.getCoalescedLookups());
+  }
+
+  @Test
+  public void testCompletedLookupIsRemoved() throws Exception {
+    LocationLookupCoalescer.Lookup lookup = start("t", "b", 10);
+    Deferred<Master.GetTableLocationsResponsePB> sent = new Deferred<>();
+    lookup.attach(sent);
+    sent.callback(RESPONSE);
+    // The next miss sends its own lookup.
+    assertTrue(start("t", "b", 10) != lookup);
+    assertEquals(2, coalescer.getIssuedLookups());
+    assertEquals(0, coalescer.getCoalescedLookups());
+  }
+
+  @Test
+  public void testErrorsArePassedToWaiters() throws Exception {
+    LocationLookupCoalescer.Lookup lookup = start("t", "b", 10);
+    Deferred<Master.GetTableLocationsResponsePB> waiter = join("t", "b", 10);
+    Deferred<Master.GetTableLocationsResponsePB> sent = new Deferred<>();
+    lookup.attach(sent);
+    Exception error = new NonRecoverableException(Status.TimedOut("timed out"));
+    sent.callback(error);
+    try {
+      waiter.join();
+      fail("The waiter should have gotten the lookup's error");
+    } catch (NonRecoverableException e) {
+      assertSame(error, e);
+    }
+  }
+
+  @Test
+  public void testAbandonedLookup() throws Exception {
+    LocationLookupCoalescer.Lookup lookup = start("t", "b", 10);
+    Deferred<Master.GetTableLocationsResponsePB> waiter = join("t", "c", 10);
+    lookup.abandon();
+    try {
+      waiter.join();
+      fail("The waiter should have gotten an error");
+    } catch (RecoverableException e) {
+      // Expected, the waiter retries its own lookup.
+    }
+    start("t", "c", 10);
+  }
+}
@@ -0,0 +1,119 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+
+public class TestMultiGet {
+
+  private static KuduTable table(Type lastKeyType) {
+    Schema schema = new Schema(ImmutableList.of(
+        new ColumnSchema.ColumnSchemaBuilder("host", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("time", lastKeyType).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("value", Type.INT32).nullable(true).build()));
+    return new KuduTable(
+        null, "test", "test-id", schema,
+        new PartitionSchema(new PartitionSchema.RangeSchema(ImmutableList.of(0, 1)),
+                            ImmutableList.<PartitionSchema.HashBucketSchema>of(), schema));
+  }
+
+  private static PartialRow key(KuduTable table, String host, long time) {
+    PartialRow key = table.getSchema().newPartialRow();
+    key.addString(0, host);
+    key.addLong(1, time);
+    return key;
+  }
+
+  /**
+   * Splits keys given in primary key order into runs, as lists of their indexes.
+   */
+  private static List<List<Integer>> runs(KuduTable table, PartialRow... keys) {
+    MultiGet multiGet = new MultiGet(null, table, ImmutableList.copyOf(keys), null);
+    List<Integer> keyIndexes = new ArrayList<>();
+    for (int i = 0; i < keys.length; i++) {
+      keyIndexes.add(i);
+    }
+    return multiGet.splitIntoRuns(keyIndexes);
+  }
+
+  @SafeVarargs
+  private static List<List<Integer>> expected(List<Integer>... runs) {
+    return ImmutableList.copyOf(runs);
+  }
+
+  @Test
+  public void testDenseKeysAreScannedTogether() {
+    KuduTable table = table(Type.INT64);
+    assertEquals(expected(ImmutableList.of(0, 1, 2, 3)),
+                 runs(table, key(table, "a", 0), key(table, "a", 1), key(table, "a", 2),
+                      key(table, "a", 3)));
+    // Each key lets the run cover MAX_RANGE_PER_KEY more values.
+    assertEquals(expected(ImmutableList.of(0, 1, 2)),
+                 runs(table, key(table, "a", -3), key(table, "a", 4), key(table, "a", 8)));
+  }
+
+  @Test
+  public void testSparseKeysAreSplit() {
+    KuduTable table = table(Type.INT64);
+    int range = MultiGet.MAX_RANGE_PER_KEY;
+    assertEquals(expected(ImmutableList.of(0, 1), ImmutableList.of(2), ImmutableList.of(3, 4)),
+                 runs(table, key(table, "a", 0), key(table, "a", 2 * range - 1),
+                      key(table, "a", 4 * range), key(table, "a", 1000),
+                      key(table, "a", 1001)));
+    // The values of the last column are far apart enough to overflow.
+    assertEquals(expected(ImmutableList.of(0), ImmutableList.of(1)),
+                 runs(table, key(table, "a", Long.MIN_VALUE), key(table, "a", Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testRunsShareTheirPrefix() {
+    KuduTable table = table(Type.UNIXTIME_MICROS);
+    assertEquals(expected(ImmutableList.of(0, 1), ImmutableList.of(2), ImmutableList.of(3)),
+                 runs(table, key(table, "a", 1), key(table, "a", 2), key(table, "a\0", 3),
+                      key(table, "b", 4)));
+  }
+
+  @Test
+  public void testStringLastColumnIsScannedPerKey() {
+    Schema schema = new Schema(ImmutableList.of(
+        new ColumnSchema.ColumnSchemaBuilder("id", Type.INT32).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("name", Type.STRING).key(true).build()));
+    KuduTable table = new KuduTable(
+        null, "test", "test-id", schema,
+        new PartitionSchema(new PartitionSchema.RangeSchema(ImmutableList.of(0, 1)),
+                            ImmutableList.<PartitionSchema.HashBucketSchema>of(), schema));
+    PartialRow a = schema.newPartialRow();
+    a.addInt(0, 1);
+    a.addString(1, "a");
+    PartialRow b = schema.newPartialRow();
+    b.addInt(0, 1);
+    b.addString(1, "b");
+    assertEquals(expected(ImmutableList.of(0), ImmutableList.of(1)), runs(table, a, b));
+  }
+}
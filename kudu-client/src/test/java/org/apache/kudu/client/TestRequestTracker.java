@@ -0,0 +1,186 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class TestRequestTracker {
+
+  @Test
+  public void testSingleThreadedOrdering() {
+    RequestTracker tracker = new RequestTracker("test");
+
+    // A new tracker has no incomplete RPCs.
+    assertEquals(RequestTracker.NO_SEQ_NO, tracker.firstIncomplete());
+
+    long seq1 = tracker.newSeqNo();
+    long seq2 = tracker.newSeqNo();
+    long seq3 = tracker.newSeqNo();
+    assertTrue(seq1 < seq2 && seq2 < seq3);
+    assertEquals(seq1, tracker.firstIncomplete());
+
+    // Completing an RPC after the first incomplete one doesn't move it.
+    tracker.rpcCompleted(seq2);
+    assertEquals(seq1, tracker.firstIncomplete());
+
+    // Completing the first one moves past all the completed ones.
+    tracker.rpcCompleted(seq1);
+    assertEquals(seq3, tracker.firstIncomplete());
+
+    // Completions are idempotent.
+    tracker.rpcCompleted(seq1);
+    tracker.rpcCompleted(seq2);
+    assertEquals(seq3, tracker.firstIncomplete());
+
+    long seq4 = tracker.newSeqNo();
+    tracker.rpcCompleted(seq3);
+    assertEquals(seq4, tracker.firstIncomplete());
+    tracker.rpcCompleted(seq4);
+    tracker.rpcCompleted(seq4);
+    assertEquals(RequestTracker.NO_SEQ_NO, tracker.firstIncomplete());
+
+    // A sequence number allocated after everything completed is the first incomplete one.
+    long seq5 = tracker.newSeqNo();
+    assertEquals(seq5, tracker.firstIncomplete());
+    tracker.rpcCompleted(seq5);
+    assertEquals(RequestTracker.NO_SEQ_NO, tracker.firstIncomplete());
+  }
+
+  @Test
+  public void testRandomCompletionOrder() {
+    RequestTracker tracker = new RequestTracker("test");
+    List<Long> seqs = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      seqs.add(tracker.newSeqNo());
+    }
+    List<Long> incomplete = new ArrayList<>(seqs);
+    Collections.shuffle(seqs, new Random(0));
+    for (long seq : seqs) {
+      tracker.rpcCompleted(seq);
+      incomplete.remove(seq);
+      long expected = incomplete.isEmpty() ? RequestTracker.NO_SEQ_NO : incomplete.get(0);
+      assertEquals(expected, tracker.firstIncomplete());
+    }
+  }
+
+  @Test
+  public void testWindowOverflow() {
+    RequestTracker tracker = new RequestTracker("test");
+    int count = RequestTracker.WINDOW * 3 + 10;
+    long[] seqs = new long[count];
+    for (int i = 0; i < count; i++) {
+      seqs[i] = tracker.newSeqNo();
+    }
+
+    // The first RPC stays in flight while all the others complete, most of them too far ahead
+    // of it to fit in the window.
+    int stuck = RequestTracker.WINDOW * 2 + 5;
+    for (int i = 1; i < count; i++) {
+      if (i != stuck) {
+        tracker.rpcCompleted(seqs[i]);
+      }
+      if (i % 1000 == 0) {
+        assertEquals(seqs[0], tracker.firstIncomplete());
+      }
+    }
+    // Completing those beyond the window again is harmless.
+    tracker.rpcCompleted(seqs[count - 1]);
+    assertEquals(seqs[0], tracker.firstIncomplete());
+
+    // Once the first one completes, the next incomplete one is found past the window.
+    tracker.rpcCompleted(seqs[0]);
+    assertEquals(seqs[stuck], tracker.firstIncomplete());
+
+    // Numbers allocated now land in slots of the window that were used before.
+    long next = tracker.newSeqNo();
+    tracker.rpcCompleted(next);
+    assertEquals(seqs[stuck], tracker.firstIncomplete());
+
+    tracker.rpcCompleted(seqs[stuck]);
+    assertEquals(RequestTracker.NO_SEQ_NO, tracker.firstIncomplete());
+
+    // Completions walked past are ignored.
+    tracker.rpcCompleted(seqs[count - 1]);
+    long last = tracker.newSeqNo();
+    assertEquals(last, tracker.firstIncomplete());
+    tracker.rpcCompleted(last);
+    assertEquals(RequestTracker.NO_SEQ_NO, tracker.firstIncomplete());
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentCompletion() throws Exception {
+    final RequestTracker tracker = new RequestTracker("test");
+    final int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final Random random = new Random(t);
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            // Each thread keeps a few RPCs in flight and completes them in random order, along
+            // with one that stays in flight long enough for the others to overflow the window.
+            long held = tracker.newSeqNo();
+            List<Long> inFlight = new ArrayList<>();
+            for (int i = 1; i <= 100000; i++) {
+              inFlight.add(tracker.newSeqNo());
+              if (inFlight.size() > 10) {
+                tracker.rpcCompleted(inFlight.remove(random.nextInt(inFlight.size())));
+              }
+              if (i % (RequestTracker.WINDOW / 2) == 0) {
+                tracker.rpcCompleted(held);
+                held = tracker.newSeqNo();
+              }
+              // Our own RPCs in flight aren't complete, so the first incomplete one is at most
+              // the oldest of them.
+              long first = tracker.firstIncomplete();
+              assertNotEquals(RequestTracker.NO_SEQ_NO, first);
+              assertTrue(first <= Math.min(held, Collections.min(inFlight)));
+            }
+            tracker.rpcCompleted(held);
+            for (long seq : inFlight) {
+              tracker.rpcCompleted(seq);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(RequestTracker.NO_SEQ_NO, tracker.firstIncomplete());
+  }
+}
@@ -0,0 +1,186 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.WireProtocol.RowOperationsPB;
+import org.apache.kudu.client.Operation.ChangeType;
+
+public class TestRowBatchWriter {
+
+  private static final Schema SCHEMA = new Schema(
+      ImmutableList.of(
+          new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("s", Type.STRING).nullable(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("v", Type.INT64).nullable(true).build()),
+      ImmutableList.of(0, 1, 2));
+
+  private static final KuduTable TABLE = new KuduTable(
+      null, "test", "test-id", SCHEMA,
+      new PartitionSchema(new PartitionSchema.RangeSchema(ImmutableList.of(0)),
+                          ImmutableList.<PartitionSchema.HashBucketSchema>of(), SCHEMA));
+
+  private static RowBatchWriter.RowBatch newBatch(int numRows) {
+    RowBatchWriter.RowBatch batch = new RowBatchWriter.RowBatch(SCHEMA, numRows);
+    int[] keys = new int[numRows];
+    byte[][] strings = new byte[numRows][];
+    long[] longs = new long[numRows];
+    byte[] longNulls = new byte[Bytes.getBitSetSize(numRows)];
+    for (int i = 0; i < numRows; i++) {
+      keys[i] = i;
+      // Every third string is null, and every other long.
+      strings[i] = i % 3 == 0 ? null : ("row " + i).getBytes();
+      longs[i] = i * 1000L;
+      if (i % 2 == 1) {
+        longNulls[i / 8] |= 1 << (i % 8);
+      }
+    }
+    batch.setIntColumn(0, keys, null);
+    batch.setStringColumn(1, strings, null);
+    batch.setLongColumn(2, longs, longNulls);
+    return batch;
+  }
+
+  private static RowBatchWriter.TabletRowBatch encode(RowBatchWriter.RowBatch batch,
+                                                      ChangeType changeType) {
+    RowBatchWriter.TabletRowBatch rpc =
+        new RowBatchWriter.TabletRowBatch(TABLE, batch, changeType, false, new byte[0]);
+    for (int row = 0; row < batch.getNumRows(); row++) {
+      rpc.reserve(row);
+    }
+    rpc.allocate();
+    for (int row = 0; row < batch.getNumRows(); row++) {
+      rpc.encodeRow(row);
+    }
+    return rpc;
+  }
+
+  private static void checkSameEncoding(ChangeType changeType) {
+    RowBatchWriter.RowBatch batch = newBatch(20);
+    RowOperationsPB encoded = encode(batch, changeType).toRowOperationsPB();
+
+    List<Operation> operations = new ArrayList<>();
+    for (int row = 0; row < batch.getNumRows(); row++) {
+      operations.add(batch.toOperation(TABLE, row, changeType));
+    }
+    RowOperationsPB expected = new Operation.OperationsEncoder().encodeOperations(operations);
+
+    assertArrayEquals(expected.getRows().toByteArray(), encoded.getRows().toByteArray());
+    assertArrayEquals(expected.getIndirectData().toByteArray(),
+                      encoded.getIndirectData().toByteArray());
+  }
+
+  /**
+   * The rows encoded from the column arrays must be the same as the ones encoded from
+   * operations holding the same values.
+   */
+  @Test
+  public void testEncodingMatchesOperations() {
+    checkSameEncoding(ChangeType.INSERT);
+    checkSameEncoding(ChangeType.UPDATE);
+    checkSameEncoding(ChangeType.DELETE);
+  }
+
+  @Test
+  public void testEncodedSizeIsAnUpperBound() {
+    RowBatchWriter.RowBatch batch = newBatch(50);
+    RowBatchWriter.TabletRowBatch rpc = encode(batch, ChangeType.INSERT);
+    RowOperationsPB encoded = rpc.toRowOperationsPB();
+    long encodedSize = encoded.getRows().size() + encoded.getIndirectData().size();
+    assertTrue(encodedSize <= rpc.getEncodedSizeBound());
+  }
+
+  @Test
+  public void testSplitByEncodedSize() {
+    RowBatchWriter.RowBatch batch = newBatch(100);
+    long maxSizeBytes = 200;
+    List<RowBatchWriter.TabletRowBatch> rpcs = new ArrayList<>();
+    RowBatchWriter.TabletRowBatch current = null;
+    for (int row = 0; row < batch.getNumRows(); row++) {
+      if (current == null || !current.fits(row, maxSizeBytes)) {
+        current = new RowBatchWriter.TabletRowBatch(TABLE, batch, ChangeType.INSERT, false,
+                                                    new byte[0]);
+        rpcs.add(current);
+      }
+      current.reserve(row);
+    }
+    assertTrue(rpcs.size() > 1);
+    for (RowBatchWriter.TabletRowBatch rpc : rpcs) {
+      assertTrue(rpc.getEncodedSizeBound() <= maxSizeBytes);
+    }
+  }
+
+  @Test
+  public void testRowLargerThanTheCapFitsAnEmptyRpc() {
+    RowBatchWriter.RowBatch batch = newBatch(2);
+    RowBatchWriter.TabletRowBatch rpc =
+        new RowBatchWriter.TabletRowBatch(TABLE, batch, ChangeType.INSERT, false, new byte[0]);
+    assertTrue(rpc.fits(1, 1));
+    rpc.reserve(1);
+    assertFalse(rpc.fits(0, 1));
+  }
+
+  @Test
+  public void testColumnValidation() {
+    RowBatchWriter.RowBatch batch = new RowBatchWriter.RowBatch(SCHEMA, 2);
+    try {
+      batch.setLongColumn(0, new long[2], null);
+      fail("INT32 column set with longs");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      batch.setIntColumn(0, new int[1], null);
+      fail("Column set with too few values");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      batch.setIntColumn(0, new int[2], new byte[] { 1 });
+      fail("Key column set to null");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testPartitionKeysOfInvalidRowsAreSkipped() {
+    RowBatchWriter.RowBatch batch = newBatch(3);
+    batch.setRowValidity(new byte[] { 0x5 });
+    byte[][] keys = batch.encodePartitionKeys(TABLE.getPartitionSchema());
+    assertEquals(3, keys.length);
+    assertEquals(null, keys[1]);
+    PartialRow row = SCHEMA.newPartialRow();
+    row.addInt(0, 2);
+    assertArrayEquals(KeyEncoder.encodePartitionKey(row, TABLE.getPartitionSchema()), keys[2]);
+  }
+}
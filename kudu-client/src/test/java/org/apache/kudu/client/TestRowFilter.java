@@ -0,0 +1,266 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.apache.kudu.client.KuduPredicate.ComparisonOp.EQUAL;
+import static org.apache.kudu.client.KuduPredicate.ComparisonOp.GREATER_EQUAL;
+import static org.apache.kudu.client.KuduPredicate.ComparisonOp.LESS;
+import static org.apache.kudu.client.RowFilter.FALSE;
+import static org.apache.kudu.client.RowFilter.TRUE;
+import static org.apache.kudu.client.RowFilter.UNKNOWN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+
+public class TestRowFilter {
+
+  private final Schema schema = new Schema(ImmutableList.of(
+      new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("s", Type.STRING).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("i", Type.INT64).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("b", Type.BINARY).nullable(true).build()));
+
+  /**
+   * @return the value of the filter on a row with the given string and integer cells
+   */
+  private int evaluate(RowFilter filter, String s, Long i) {
+    RowDataBuilder rows = new RowDataBuilder(schema).addRow(0, s, i, null);
+    return filter.bind(schema).evaluate(rows.getRow(0));
+  }
+
+  private boolean like(String pattern, String value) {
+    return evaluate(RowFilter.like("s", pattern), value, null) == TRUE;
+  }
+
+  private KuduPredicate predicate(KuduPredicate.ComparisonOp op, long value) {
+    return KuduPredicate.newComparisonPredicate(schema.getColumn("i"), op, value);
+  }
+
+  @Test
+  public void testLike() {
+    assertTrue(like("abc", "abc"));
+    assertFalse(like("abc", "abcd"));
+    assertFalse(like("abc", "ab"));
+    assertTrue(like("", ""));
+    assertFalse(like("", "a"));
+
+    assertTrue(like("%", ""));
+    assertTrue(like("%", "anything"));
+    assertTrue(like("a%", "abc"));
+    assertFalse(like("a%", "bac"));
+    assertTrue(like("%c", "abc"));
+    assertFalse(like("%c", "acb"));
+    assertTrue(like("%b%", "abc"));
+    assertFalse(like("%d%", "abc"));
+    assertTrue(like("a%%c", "ac"));
+
+    assertTrue(like("_", "a"));
+    assertFalse(like("_", ""));
+    assertFalse(like("_", "ab"));
+    assertTrue(like("a_c", "abc"));
+    assertTrue(like("_%_", "ab"));
+    assertFalse(like("_%_", "a"));
+
+    // The matcher needs to backtrack to the last % for these.
+    assertTrue(like("%aab", "aaab"));
+    assertTrue(like("a%b%c", "abbbcbc"));
+    assertFalse(like("a%b%c", "abbbcb"));
+    assertTrue(like("%a_c", "abcabc"));
+  }
+
+  @Test
+  public void testLikeEscapes() {
+    assertTrue(like("100\\%", "100%"));
+    assertFalse(like("100\\%", "1000"));
+    assertTrue(like("a\\_c", "a_c"));
+    assertFalse(like("a\\_c", "abc"));
+    assertTrue(like("a\\\\c", "a\\c"));
+    // A trailing backslash is literal.
+    assertTrue(like("a\\", "a\\"));
+  }
+
+  @Test
+  public void testLikeMultiByteCharacters() {
+    // _ is a character, not a byte.
+    assertTrue(like("_", "\u00e9"));
+    assertTrue(like("_", "\uD83D\uDE00"));
+    assertFalse(like("__", "\u00e9"));
+    assertTrue(like("caf_", "caf\u00e9"));
+    assertTrue(like("%\u00e9", "caf\u00e9"));
+    assertTrue(like("%\u4e2d%", "\u4e2d\u6587"));
+    // Only the last byte of these two characters differs.
+    assertFalse(like("%\u4e2e%", "\u4e2d\u6587"));
+    assertTrue(like("_\u6587", "\u4e2d\u6587"));
+  }
+
+  @Test
+  public void testStringFilters() {
+    assertEquals(TRUE, evaluate(RowFilter.stringContains("s", "bc"), "abcd", null));
+    assertEquals(TRUE, evaluate(RowFilter.stringContains("s", ""), "", null));
+    assertEquals(FALSE, evaluate(RowFilter.stringContains("s", "ac"), "abcd", null));
+    assertEquals(FALSE, evaluate(RowFilter.stringContains("s", "abcde"), "abcd", null));
+
+    assertEquals(TRUE, evaluate(RowFilter.stringStartsWith("s", "ab"), "abcd", null));
+    assertEquals(FALSE, evaluate(RowFilter.stringStartsWith("s", "bc"), "abcd", null));
+    assertEquals(FALSE, evaluate(RowFilter.stringStartsWith("s", "abcde"), "abcd", null));
+
+    assertEquals(TRUE, evaluate(RowFilter.stringEndsWith("s", "cd"), "abcd", null));
+    assertEquals(FALSE, evaluate(RowFilter.stringEndsWith("s", "bc"), "abcd", null));
+    assertEquals(FALSE, evaluate(RowFilter.stringEndsWith("s", "zabcd"), "abcd", null));
+  }
+
+  @Test
+  public void testNullSemantics() {
+    // Conditions on a null cell are unknown, and so is their negation.
+    RowFilter[] filters = {
+        RowFilter.like("s", "%"),
+        RowFilter.stringContains("s", ""),
+        RowFilter.stringStartsWith("s", ""),
+        RowFilter.stringEndsWith("s", ""),
+    };
+    for (RowFilter filter : filters) {
+      assertEquals(filter.toString(), UNKNOWN, evaluate(filter, null, null));
+      assertEquals(filter.toString(), UNKNOWN, evaluate(RowFilter.not(filter), null, null));
+    }
+    assertEquals(UNKNOWN, evaluate(RowFilter.predicate(predicate(EQUAL, 1)), null, null));
+    assertEquals(UNKNOWN,
+                 evaluate(RowFilter.not(RowFilter.predicate(predicate(LESS, 1))), null, null));
+
+    // IS NULL and IS NOT NULL are never unknown.
+    assertEquals(TRUE, evaluate(RowFilter.isNull("s"), null, null));
+    assertEquals(FALSE, evaluate(RowFilter.isNull("s"), "a", null));
+    assertEquals(FALSE, evaluate(RowFilter.isNotNull("s"), null, null));
+    assertEquals(TRUE, evaluate(RowFilter.isNotNull("s"), "a", null));
+    assertEquals(FALSE, evaluate(RowFilter.not(RowFilter.isNull("s")), null, null));
+    assertEquals(TRUE, evaluate(RowFilter.predicate(
+        KuduPredicate.newIsNullPredicate(schema.getColumn("i"))), null, null));
+    assertEquals(TRUE, evaluate(RowFilter.predicate(
+        KuduPredicate.newIsNotNullPredicate(schema.getColumn("i"))), null, 5L));
+  }
+
+  @Test
+  public void testNot() {
+    RowFilter startsWithA = RowFilter.stringStartsWith("s", "a");
+    assertEquals(FALSE, evaluate(RowFilter.not(startsWithA), "abc", null));
+    assertEquals(TRUE, evaluate(RowFilter.not(startsWithA), "bcd", null));
+    assertEquals(TRUE, evaluate(RowFilter.not(RowFilter.not(startsWithA)), "abc", null));
+    assertEquals(FALSE, evaluate(RowFilter.not(RowFilter.like("s", "a%")), "abc", null));
+  }
+
+  @Test
+  public void testJunctions() {
+    RowFilter unknown = RowFilter.like("s", "%");
+    RowFilter isTrue = RowFilter.isNotNull("key");
+    RowFilter isFalse = RowFilter.isNull("key");
+
+    // Three-valued AND.
+    assertEquals(TRUE, evaluate(RowFilter.and(isTrue, isTrue), null, null));
+    assertEquals(FALSE, evaluate(RowFilter.and(isTrue, isFalse), null, null));
+    assertEquals(UNKNOWN, evaluate(RowFilter.and(isTrue, unknown), null, null));
+    assertEquals(FALSE, evaluate(RowFilter.and(unknown, isFalse), null, null));
+
+    // Three-valued OR.
+    assertEquals(FALSE, evaluate(RowFilter.or(isFalse, isFalse), null, null));
+    assertEquals(TRUE, evaluate(RowFilter.or(isFalse, isTrue), null, null));
+    assertEquals(UNKNOWN, evaluate(RowFilter.or(isFalse, unknown), null, null));
+    assertEquals(TRUE, evaluate(RowFilter.or(unknown, isTrue), null, null));
+
+    // NOT (a AND unknown) with a false is true, with a true is unknown.
+    assertEquals(TRUE, evaluate(RowFilter.not(RowFilter.and(isFalse, unknown)), null, null));
+    assertEquals(UNKNOWN, evaluate(RowFilter.not(RowFilter.and(isTrue, unknown)), null, null));
+
+    // An OR of predicates, which the servers can't evaluate.
+    RowFilter outside = RowFilter.or(RowFilter.predicate(predicate(LESS, 10)),
+                                     RowFilter.predicate(predicate(GREATER_EQUAL, 20)));
+    assertEquals(TRUE, evaluate(outside, null, 5L));
+    assertEquals(FALSE, evaluate(outside, null, 10L));
+    assertEquals(FALSE, evaluate(outside, null, 19L));
+    assertEquals(TRUE, evaluate(outside, null, 20L));
+  }
+
+  @Test
+  public void testPredicates() {
+    RowFilter range = RowFilter.and(RowFilter.predicate(predicate(GREATER_EQUAL, -5)),
+                                    RowFilter.predicate(predicate(LESS, 5)));
+    assertEquals(FALSE, evaluate(range, null, -6L));
+    assertEquals(TRUE, evaluate(range, null, -5L));
+    assertEquals(TRUE, evaluate(range, null, 4L));
+    assertEquals(FALSE, evaluate(range, null, 5L));
+
+    RowFilter equal = RowFilter.predicate(KuduPredicate.newComparisonPredicate(
+        schema.getColumn("s"), EQUAL, "abc"));
+    assertEquals(TRUE, evaluate(equal, "abc", null));
+    assertEquals(FALSE, evaluate(equal, "abcd", null));
+  }
+
+  @Test
+  public void testMatchesSeveralRows() {
+    RowDataBuilder rows = new RowDataBuilder(schema)
+        .addRow(0, "apple", 1L, null)
+        .addRow(1, null, 2L, null)
+        .addRow(2, "banana", null, null)
+        .addRow(3, "avocado", 4L, null);
+    RowFilter.Matcher matcher = RowFilter.like("s", "a%").bind(schema);
+    RowResult row = new RowResult(schema, rows.getRowData(), rows.getIndirectData());
+    boolean[] expected = { true, false, false, true };
+    for (int i = 0; i < expected.length; i++) {
+      row.advancePointer();
+      assertEquals(expected[i], matcher.matches(row));
+    }
+  }
+
+  @Test
+  public void testBindErrors() {
+    try {
+      RowFilter.isNull("missing").bind(schema);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("isn't projected"));
+    }
+    try {
+      // Nested filters are bound too.
+      RowFilter.not(RowFilter.or(RowFilter.isNull("s"), RowFilter.like("missing", "%")))
+          .bind(schema);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("isn't projected"));
+    }
+    try {
+      RowFilter.stringContains("i", "a").bind(schema);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("of type"));
+    }
+    try {
+      // LIKE works on characters, so it doesn't apply to binary columns.
+      RowFilter.like("b", "%").bind(schema);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("of type"));
+    }
+  }
+}
@@ -0,0 +1,173 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.util.Slice;
+
+public class TestRowResult {
+
+  private final Schema schema = new Schema(ImmutableList.of(
+      new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("s", Type.STRING).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("b", Type.BINARY).nullable(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("d", Type.DOUBLE).nullable(true).build()));
+
+  @Test
+  public void testDetachCopiesTheRow() {
+    RowDataBuilder rows = new RowDataBuilder(schema)
+        .addRow(1, "first", new byte[] { 1, 2 }, 1.5)
+        .addRow(2, null, new byte[] { 3 }, null)
+        .addRow(3, "third", null, 3.5);
+    Slice rowData = rows.getRowData();
+    Slice indirectData = rows.getIndirectData();
+    RowResult row = new RowResult(schema, rowData, indirectData);
+
+    row.advancePointer();
+    RowResult first = row.detach();
+    row.advancePointer();
+    RowResult second = row.detach();
+    row.advancePointer();
+    RowResult third = row.detach();
+
+    // The rows don't reference the batch's data.
+    Arrays.fill(rowData.getRawArray(), (byte) 0xFF);
+    Arrays.fill(indirectData.getRawArray(), (byte) 0xFF);
+
+    assertEquals(1, first.getInt(0));
+    assertEquals("first", first.getString(1));
+    assertArrayEquals(new byte[] { 1, 2 }, first.getBinaryCopy(2));
+    assertEquals(1.5, first.getDouble(3), 0);
+
+    assertEquals(2, second.getInt(0));
+    assertTrue(second.isNull(1));
+    assertArrayEquals(new byte[] { 3 }, second.getBinaryCopy(2));
+    assertTrue(second.isNull(3));
+
+    assertEquals(3, third.getInt(0));
+    assertEquals("third", third.getString(1));
+    assertTrue(third.isNull(2));
+    assertEquals(3.5, third.getDouble(3), 0);
+  }
+
+  @Test
+  public void testUtf8ViewCompareIsUnsigned() {
+    // Code points past U+007F are encoded with bytes >= 0x80, which must sort after ASCII.
+    Utf8View ascii = new Utf8View("z");
+    Utf8View twoBytes = new Utf8View("é");
+    Utf8View threeBytes = new Utf8View("€");
+    Utf8View fourBytes = new Utf8View("\uD83D\uDE00");
+    assertTrue(ascii.compareTo(twoBytes) < 0);
+    assertTrue(twoBytes.compareTo(threeBytes) < 0);
+    assertTrue(threeBytes.compareTo(fourBytes) < 0);
+    assertTrue(fourBytes.compareTo(ascii) > 0);
+    assertTrue(twoBytes.compareTo(Bytes.fromString("z")) > 0);
+    assertEquals(0, threeBytes.compareTo(Bytes.fromString("€")));
+
+    // A prefix sorts first.
+    assertTrue(new Utf8View("ab").compareTo(new Utf8View("abc")) < 0);
+    assertTrue(new Utf8View("é").compareTo(new Utf8View("éa")) < 0);
+    assertEquals(0, new Utf8View("").compareTo(new byte[0]));
+
+    // Views over a part of a larger array only compare that part.
+    byte[] data = Bytes.fromString("xéx");
+    Utf8View middle = new Utf8View(data, 1, data.length - 2);
+    assertEquals(0, middle.compareTo(twoBytes));
+    assertEquals(twoBytes, middle);
+  }
+
+  @Test
+  public void testUtf8ViewHashAndEquality() {
+    byte[] data = Bytes.fromString("--naïve--");
+    Utf8View view = new Utf8View(data, 2, data.length - 4);
+    assertEquals(Arrays.hashCode(view.copyBytes()), view.hashCode());
+    assertEquals(Arrays.hashCode(Bytes.fromString("naïve")), view.hashCode());
+    assertEquals(Arrays.hashCode(new byte[0]), new Utf8View("").hashCode());
+    assertEquals("naïve", view.toString());
+
+    Utf8View same = new Utf8View("naïve");
+    assertEquals(same, view);
+    assertEquals(same.hashCode(), view.hashCode());
+    assertNotEquals(new Utf8View("naive"), view);
+
+    assertTrue(view.equalsBytes(Bytes.fromString("naïve")));
+    assertFalse(view.equalsBytes(Bytes.fromString("naïv")));
+    assertFalse(view.equalsBytes(Bytes.fromString("naïvE")));
+    assertFalse(view.equalsBytes(data));
+
+    // A copy doesn't share the array.
+    Utf8View copy = view.copy();
+    assertEquals(view, copy);
+    assertEquals(0, copy.getRawOffset());
+    Arrays.fill(data, (byte) 0);
+    assertEquals("naïve", copy.toString());
+  }
+
+  @Test
+  public void testStringViewIsReusedPerColumn() {
+    Schema twoStrings = new Schema(ImmutableList.of(
+        new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("s1", Type.STRING).nullable(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("s2", Type.STRING).build()));
+    RowDataBuilder rows = new RowDataBuilder(twoStrings)
+        .addRow(1, "un", "one")
+        .addRow(2, null, "two");
+    RowResult row = new RowResult(twoStrings, rows.getRowData(), rows.getIndirectData());
+
+    row.advancePointer();
+    Utf8View first = row.getStringView(1);
+    Utf8View second = row.getStringView(2);
+    assertEquals("un", first.toString());
+    assertEquals("one", second.toString());
+    assertSame(first, row.getStringView(1));
+
+    // Moving to the next row repositions the same views.
+    row.advancePointer();
+    assertSame(second, row.getStringView(2));
+    assertEquals("two", second.toString());
+    assertEquals("un", first.toString());
+    try {
+      row.getStringView(1);
+      fail("Got a view of a null cell");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      row.getStringView(0);
+      fail("Got a view of an INT32 column");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+}
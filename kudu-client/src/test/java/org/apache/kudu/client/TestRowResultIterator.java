@@ -0,0 +1,168 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+
+public class TestRowResultIterator {
+
+  private final Schema schema = new Schema(ImmutableList.of(
+      new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build()));
+
+  /** Matches the rows with an even key, counting the evaluations. */
+  private static class EvenKeyFilter extends RowFilter {
+    private int evaluations = 0;
+
+    @Override
+    Matcher bind(Schema schema) {
+      return new Matcher() {
+        @Override
+        int evaluate(RowResult row) {
+          evaluations++;
+          return row.getInt(0) % 2 == 0 ? TRUE : FALSE;
+        }
+      };
+    }
+  }
+
+  private final EvenKeyFilter filter = new EvenKeyFilter();
+
+  private RowResultIterator iterator(int... keys) {
+    RowDataBuilder rows = new RowDataBuilder(schema);
+    for (int key : keys) {
+      rows.addRow(key);
+    }
+    return RowResultIterator.makeCachedRowResultIterator(
+        schema, rows.getNumRows(), rows.getRowData(), rows.getIndirectData(),
+        filter.bind(schema));
+  }
+
+  private static List<Integer> remainingKeys(RowResultIterator iterator) {
+    List<Integer> keys = new ArrayList<>();
+    for (RowResult row : iterator) {
+      keys.add(row.getInt(0));
+    }
+    return keys;
+  }
+
+  @Test
+  public void testIterateWithFilter() {
+    RowResultIterator iterator = iterator(1, 2, 3, 4, 5, 6, 7);
+    assertEquals(ImmutableList.of(2, 4, 6), remainingKeys(iterator));
+    assertEquals(7, filter.evaluations);
+    assertEquals(3, iterator.getNumRows());
+    assertEquals(7, iterator.getNumReceivedRows());
+    assertEquals(7, filter.evaluations);
+  }
+
+  @Test
+  public void testCountThenIterate() {
+    RowResultIterator iterator = iterator(1, 2, 3, 4, 5, 6, 7);
+    assertEquals(3, iterator.getNumRows());
+    assertEquals(7, filter.evaluations);
+    // The rows are matched with the results of the count.
+    assertEquals(ImmutableList.of(2, 4, 6), remainingKeys(iterator));
+    assertEquals(3, iterator.getNumRows());
+    assertEquals(7, filter.evaluations);
+  }
+
+  @Test
+  public void testCountWhileIterating() {
+    RowResultIterator iterator = iterator(2, 3, 5, 6, 8, 9);
+    assertTrue(iterator.hasNext());
+    assertEquals(2, iterator.next().getInt(0));
+    assertTrue(iterator.hasNext());
+    assertEquals(6, iterator.next().getInt(0));
+    assertEquals(4, filter.evaluations);
+
+    // The count covers the rows already iterated over, without evaluating them again.
+    assertEquals(3, iterator.getNumRows());
+    assertEquals(6, filter.evaluations);
+    assertEquals(ImmutableList.of(8), remainingKeys(iterator));
+    assertEquals(6, filter.evaluations);
+  }
+
+  @Test
+  public void testCountWhilePositioned() {
+    RowResultIterator iterator = iterator(1, 2, 3, 4);
+    // hasNext positions the row result on the next match, which counting doesn't move.
+    assertTrue(iterator.hasNext());
+    assertEquals(2, iterator.getNumRows());
+    assertEquals(2, iterator.next().getInt(0));
+    assertEquals(ImmutableList.of(4), remainingKeys(iterator));
+    assertEquals(4, filter.evaluations);
+  }
+
+  @Test
+  public void testNoMatches() {
+    RowResultIterator iterator = iterator(1, 3, 5);
+    assertEquals(0, iterator.getNumRows());
+    assertFalse(iterator.hasNext());
+    assertEquals(3, filter.evaluations);
+
+    RowResultIterator empty = iterator();
+    assertEquals(0, empty.getNumRows());
+    assertFalse(empty.hasNext());
+  }
+
+  @Test
+  public void testColumnarBatchSelection() {
+    RowResultIterator iterator = iterator(2, 3, 5, 6, 8, 9);
+    assertTrue(iterator.hasNext());
+    assertEquals(2, iterator.next().getInt(0));
+    assertEquals(1, filter.evaluations);
+
+    // The batch holds all the rows, the selection tells which ones match the filter.
+    ColumnarRowBatch batch = iterator.getColumnarBatch();
+    assertEquals(6, batch.getNumRows());
+    assertArrayEquals(new int[] {2, 3, 5, 6, 8, 9}, batch.getInts(0));
+    assertArrayEquals(new boolean[] {true, false, false, true, true, false},
+                      batch.getSelection());
+    assertEquals(3, batch.getNumSelectedRows());
+    assertEquals(6, filter.evaluations);
+
+    // Iterating afterwards uses the same evaluations.
+    assertEquals(ImmutableList.of(6, 8), remainingKeys(iterator));
+    assertEquals(6, filter.evaluations);
+  }
+
+  @Test
+  public void testColumnarBatchWithoutFilter() {
+    RowDataBuilder rows = new RowDataBuilder(schema).addRow(1).addRow(2);
+    RowResultIterator iterator = RowResultIterator.makeCachedRowResultIterator(
+        schema, rows.getNumRows(), rows.getRowData(), rows.getIndirectData(), null);
+    ColumnarRowBatch batch = iterator.getColumnarBatch();
+    assertNull(batch.getSelection());
+    assertEquals(2, batch.getNumSelectedRows());
+  }
+}
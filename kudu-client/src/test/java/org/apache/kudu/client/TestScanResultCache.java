@@ -0,0 +1,297 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.util.Slice;
+
+public class TestScanResultCache {
+
+  private static final Schema SCHEMA = new Schema(ImmutableList.of(
+      new ColumnSchema.ColumnSchemaBuilder("key", Type.INT64).key(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("value", Type.STRING).nullable(true).build()));
+
+  private static final KuduTable TABLE = new KuduTable(
+      null, "test", "test-id", SCHEMA,
+      new PartitionSchema(new PartitionSchema.RangeSchema(ImmutableList.of(0)),
+                          ImmutableList.<PartitionSchema.HashBucketSchema>of(), SCHEMA));
+
+  private static final long TIMESTAMP = 12345;
+
+  private static ScanResultCache.Key key(String token, long htTimestamp) {
+    return new ScanResultCache.Key(Bytes.fromString(token), htTimestamp);
+  }
+
+  /**
+   * @return a batch whose row data and indirect data don't start at the beginning of their
+   * array, like the data of a scanner's response
+   */
+  private static RowResultIterator batch(RowDataBuilder rows) {
+    return RowResultIterator.makeCachedRowResultIterator(
+        SCHEMA, rows.getNumRows(), shifted(rows.getRowData()), shifted(rows.getIndirectData()),
+        null);
+  }
+
+  private static Slice shifted(Slice slice) {
+    byte[] data = new byte[5 + slice.length()];
+    System.arraycopy(slice.getRawArray(), slice.getRawOffset(), data, 5, slice.length());
+    return new Slice(data, 5, slice.length());
+  }
+
+  /**
+   * @return the cached batches of a scan with a row per key, each row being 16 bytes plus the
+   * length of its value
+   */
+  private static List<ScanResultCache.Batch> scan(ScanResultCache cache, long... keys) {
+    RowDataBuilder rows = new RowDataBuilder(SCHEMA);
+    for (long key : keys) {
+      rows.addRow(key, null);
+    }
+    return ImmutableList.of(cache.copyOf(batch(rows)));
+  }
+
+  private static void put(ScanResultCache cache, ScanResultCache.Key key,
+                          List<ScanResultCache.Batch> batches) {
+    long sizeBytes = 0;
+    for (ScanResultCache.Batch batch : batches) {
+      sizeBytes += batch.getSizeBytes();
+    }
+    cache.put(key, batches, sizeBytes);
+  }
+
+  @Test
+  public void testPutEvictsLeastRecentlyUsed() {
+    // Rows of 8 bytes for the key, 16 for the value's offset and length and 1 for the nulls.
+    assertEquals(25, SCHEMA.getRowSize());
+    ScanResultCache cache = new ScanResultCache(200);
+    ScanResultCache.Key first = key("first", TIMESTAMP);
+    ScanResultCache.Key second = key("second", TIMESTAMP);
+    ScanResultCache.Key third = key("third", TIMESTAMP);
+
+    put(cache, first, scan(cache, 1, 2, 3));
+    put(cache, second, scan(cache, 4, 5, 6));
+    assertEquals(150, cache.getSizeBytes());
+    // Using the first scan makes the second one the least recently used.
+    assertNotNull(cache.get(first));
+
+    put(cache, third, scan(cache, 7, 8, 9));
+    assertEquals(2, cache.getNumScans());
+    assertEquals(150, cache.getSizeBytes());
+    assertNull(cache.get(second));
+    assertNotNull(cache.get(first));
+    assertNotNull(cache.get(third));
+
+    // Replacing a scan accounts for the previous batches.
+    put(cache, first, scan(cache, 1));
+    assertEquals(2, cache.getNumScans());
+    assertEquals(100, cache.getSizeBytes());
+  }
+
+  @Test
+  public void testPutKeepsTheInsertedScan() {
+    ScanResultCache cache = new ScanResultCache(200);
+    put(cache, key("first", TIMESTAMP), scan(cache, 1, 2));
+    put(cache, key("second", TIMESTAMP), scan(cache, 3, 4));
+
+    // A scan as big as the cache evicts all the others, but not itself.
+    ScanResultCache.Key big = key("big", TIMESTAMP);
+    List<ScanResultCache.Batch> batches = scan(cache, 1, 2, 3, 4, 5, 6, 7, 8);
+    put(cache, big, batches);
+    assertEquals(1, cache.getNumScans());
+    assertEquals(200, cache.getSizeBytes());
+    assertSame(batches, cache.get(big));
+  }
+
+  @Test
+  public void testAdmits() {
+    ScanResultCache cache = new ScanResultCache(100);
+    assertTrue(cache.admits(0));
+    assertTrue(cache.admits(100));
+    assertFalse(cache.admits(101));
+
+    // A scan bigger than the cache isn't cached, and doesn't evict anything.
+    ScanResultCache.Key small = key("small", TIMESTAMP);
+    put(cache, small, scan(cache, 1, 2));
+    put(cache, key("big", TIMESTAMP), scan(cache, 1, 2, 3, 4, 5));
+    assertEquals(1, cache.getNumScans());
+    assertEquals(50, cache.getSizeBytes());
+    assertNotNull(cache.get(small));
+  }
+
+  @Test
+  public void testKeyEquality() {
+    ScanResultCache.Key key = key("token", TIMESTAMP);
+    ScanResultCache.Key same = key("token", TIMESTAMP);
+    assertEquals(key, same);
+    assertEquals(key.hashCode(), same.hashCode());
+    assertNotEquals(key, key("token", TIMESTAMP + 1));
+    assertNotEquals(key, key("other", TIMESTAMP));
+    assertNotEquals(key, key("token", TIMESTAMP + (1L << 32)));
+    assertFalse(key.equals(null));
+    assertFalse(key.equals("token"));
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    ScanResultCache cache = new ScanResultCache(1000);
+    ScanResultCache.Key key = key("token", TIMESTAMP);
+    assertNull(cache.get(key));
+    put(cache, key, scan(cache, 1));
+    assertNotNull(cache.get(key));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    cache.clear();
+    assertEquals(0, cache.getNumScans());
+    assertEquals(0, cache.getSizeBytes());
+    assertNull(cache.get(key));
+  }
+
+  private static void checkRows(RowResultIterator iterator) {
+    assertEquals(3, iterator.getNumRows());
+    RowResult row = iterator.next();
+    assertEquals(1, row.getLong(0));
+    assertEquals("one", row.getString(1));
+    row = iterator.next();
+    assertEquals(2, row.getLong(0));
+    assertTrue(row.isNull(1));
+    row = iterator.next();
+    assertEquals(3, row.getLong(0));
+    assertEquals("été", row.getString(1));
+    assertFalse(iterator.hasNext());
+  }
+
+  private static ScanResultCache.Batch copyOf(ScanResultCache cache) {
+    RowDataBuilder rows = new RowDataBuilder(SCHEMA)
+        .addRow(1, "one")
+        .addRow(2, null)
+        .addRow(3, "été");
+    ScanResultCache.Batch batch = cache.copyOf(batch(rows));
+    assertEquals(rows.getRowData().length() + rows.getIndirectData().length(),
+                 batch.getSizeBytes());
+    return batch;
+  }
+
+  @Test
+  public void testOnHeapBatch() {
+    ScanResultCache.Batch batch = copyOf(new ScanResultCache(1000));
+    RowResultIterator first = batch.toIterator(SCHEMA, null);
+    RowResultIterator second = batch.toIterator(SCHEMA, null);
+    checkRows(first);
+    checkRows(second);
+    // The iterators share the cached data.
+    assertSame(first.getRowData().getRawArray(), second.getRowData().getRawArray());
+  }
+
+  @Test
+  public void testOffHeapBatch() {
+    ScanResultCache.Batch batch = copyOf(new ScanResultCache(1000, true));
+    RowResultIterator first = batch.toIterator(SCHEMA, null);
+    RowResultIterator second = batch.toIterator(SCHEMA, null);
+    checkRows(first);
+    checkRows(second);
+    // Each iterator gets its own on-heap copy.
+    assertNotSame(first.getRowData().getRawArray(), second.getRowData().getRawArray());
+    assertArrayEquals(first.getRowData().getRawArray(), second.getRowData().getRawArray());
+    assertSame(first.getRowData().getRawArray(), first.getIndirectRowData().getRawArray());
+  }
+
+  @Test
+  public void testEmptyBatch() {
+    ScanResultCache cache = new ScanResultCache(1000, true);
+    ScanResultCache.Batch batch = cache.copyOf(batch(new RowDataBuilder(SCHEMA)));
+    assertEquals(0, batch.getSizeBytes());
+    RowResultIterator iterator = batch.toIterator(SCHEMA, null);
+    assertEquals(0, iterator.getNumRows());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test(timeout = 100000)
+  public void testScannerBypassesCache() throws Exception {
+    // The scanners below don't contact the cluster, the client is only needed to build them.
+    AsyncKuduClient client = new AsyncKuduClient.AsyncKuduClientBuilder("127.0.0.1:1").build();
+    try {
+      ScanResultCache cache = new ScanResultCache(1000);
+      byte[] token = Bytes.fromString("token");
+
+      // The rows of READ_LATEST scans, or of snapshot scans at a timestamp the server picks,
+      // may change from one scan to the next.
+      AsyncKuduScanner latest = client.newScannerBuilder(TABLE)
+          .resultCache(cache, token)
+          .build();
+      assertTrue(latest.hasMoreRows());
+      AsyncKuduScanner serverTimestamp = client.newScannerBuilder(TABLE)
+          .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+          .resultCache(cache, token)
+          .build();
+      assertTrue(serverTimestamp.hasMoreRows());
+      assertEquals(0, cache.getMisses());
+      assertEquals(0, cache.getHits());
+
+      AsyncKuduScanner snapshot = client.newScannerBuilder(TABLE)
+          .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+          .snapshotTimestampRaw(TIMESTAMP)
+          .resultCache(cache, token)
+          .build();
+      assertTrue(snapshot.hasMoreRows());
+      assertEquals(1, cache.getMisses());
+
+      // Once cached, the scan at the same timestamp is served from the cache.
+      ScanResultCache.Batch batch = copyOf(cache);
+      cache.put(new ScanResultCache.Key(token, TIMESTAMP), ImmutableList.of(batch),
+                batch.getSizeBytes());
+      AsyncKuduScanner cached = client.newScannerBuilder(TABLE)
+          .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+          .snapshotTimestampRaw(TIMESTAMP)
+          .resultCache(cache, token)
+          .build();
+      assertEquals(1, cache.getHits());
+      assertTrue(cached.hasMoreRows());
+      checkRows(cached.nextRows().join());
+      assertFalse(cached.hasMoreRows());
+      assertNull(cached.nextRows().join());
+
+      // The other scans still bypass it.
+      AsyncKuduScanner latestAgain = client.newScannerBuilder(TABLE)
+          .resultCache(cache, token)
+          .build();
+      assertTrue(latestAgain.hasMoreRows());
+      assertEquals(1, cache.getHits());
+      assertEquals(1, cache.getMisses());
+    } finally {
+      client.shutdown().join();
+    }
+  }
+}
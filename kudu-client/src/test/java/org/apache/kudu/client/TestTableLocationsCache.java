@@ -0,0 +1,262 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import org.apache.kudu.Common;
+import org.apache.kudu.master.Master;
+
+public class TestTableLocationsCache {
+
+  private static final long TTL_MS = 60000;
+
+  private final TableLocationsCache cache = new TableLocationsCache(null);
+
+  static RemoteTablet tablet(String tabletId, String start, String end) {
+    Master.TabletLocationsPB pb = Master.TabletLocationsPB.newBuilder()
+        .setTabletId(ByteString.copyFromUtf8(tabletId))
+        .setPartition(Common.PartitionPB.newBuilder()
+                          .setPartitionKeyStart(ByteString.copyFromUtf8(start))
+                          .setPartitionKeyEnd(ByteString.copyFromUtf8(end)))
+        .build();
+    return new RemoteTablet("table", pb, ImmutableList.<ServerInfo>of());
+  }
+
+  private static byte[] key(String key) {
+    return key.getBytes();
+  }
+
+  private void cache(List<RemoteTablet> tablets, String requestKey, int batchSize) {
+    cache.cacheTabletLocations(tablets, key(requestKey), batchSize, TTL_MS);
+  }
+
+  private void assertTablet(String expectedTabletId, String partitionKey) {
+    TableLocationsCache.Entry entry = cache.get(key(partitionKey));
+    assertFalse(entry.isNonCoveredRange());
+    assertEquals(expectedTabletId, entry.getTablet().getTabletId());
+  }
+
+  private void assertNonCoveredRange(String lower, String upper, String partitionKey) {
+    TableLocationsCache.Entry entry = cache.get(key(partitionKey));
+    assertTrue(entry.isNonCoveredRange());
+    assertArrayEquals(key(lower), entry.getLowerBoundPartitionKey());
+    assertArrayEquals(key(upper), entry.getUpperBoundPartitionKey());
+  }
+
+  @Test
+  public void testFloorLookup() {
+    assertNull(cache.get(key("a")));
+    cache(ImmutableList.of(tablet("1", "b", "d"), tablet("2", "d", "f")), "b", 2);
+
+    // Before the first tablet, nothing is known.
+    assertNull(cache.get(key("")));
+    assertNull(cache.get(key("a")));
+    assertNull(cache.get(key("azzz")));
+    // Lower bounds are inclusive, upper bounds exclusive.
+    assertTablet("1", "b");
+    assertTablet("1", "c");
+    assertTablet("1", "czzz");
+    assertTablet("2", "d");
+    assertTablet("2", "e");
+    // The lookup fetched as many tablets as requested, there may be more after the last one.
+    assertNull(cache.get(key("f")));
+    assertNull(cache.get(key("z")));
+  }
+
+  @Test
+  public void testNonCoveredRanges() {
+    cache(ImmutableList.of(tablet("1", "b", "c"), tablet("2", "d", "e")), "a", 10);
+
+    // The range before the first tablet, between the tablets, and after the last one, since
+    // fewer tablets than requested were returned.
+    assertNonCoveredRange("", "b", "");
+    assertNonCoveredRange("", "b", "a");
+    assertTablet("1", "b");
+    assertNonCoveredRange("c", "d", "c");
+    assertNonCoveredRange("c", "d", "cz");
+    assertTablet("2", "d");
+    assertNonCoveredRange("e", "", "e");
+    assertNonCoveredRange("e", "", "zzz");
+
+    cache.clearNonCoveredRangeEntries();
+    assertNull(cache.get(key("a")));
+    assertNull(cache.get(key("c")));
+    assertNull(cache.get(key("e")));
+    assertTablet("1", "b");
+    assertTablet("2", "d");
+  }
+
+  @Test
+  public void testEmptyTable() {
+    cache(ImmutableList.<RemoteTablet>of(), "m", 10);
+    assertNonCoveredRange("", "", "");
+    assertNonCoveredRange("", "", "m");
+    assertNonCoveredRange("", "", "zzz");
+  }
+
+  @Test
+  public void testUnboundedTablets() {
+    cache(ImmutableList.of(tablet("1", "", "m"), tablet("2", "m", "")), "", 10);
+    assertTablet("1", "");
+    assertTablet("1", "a");
+    assertTablet("2", "m");
+    assertTablet("2", "zzz");
+  }
+
+  @Test
+  public void testReplacement() {
+    cache(ImmutableList.of(tablet("1", "a", "c"), tablet("2", "c", "e"), tablet("3", "e", "g")),
+          "a", 3);
+    TableLocationsCache.Entry third = cache.get(key("e"));
+
+    // The first tablet was split, the entries the new tablets overlap are replaced.
+    cache(ImmutableList.of(tablet("1a", "a", "b"), tablet("1b", "b", "c"),
+                           tablet("2", "c", "e")),
+          "a", 3);
+    assertTablet("1a", "a");
+    assertTablet("1b", "b");
+    assertTablet("2", "c");
+    // Entries past the lookup are kept as they were.
+    assertSame(third, cache.get(key("e")));
+
+    // Looking up a tablet again refreshes its entry.
+    TableLocationsCache.Entry second = cache.get(key("c"));
+    cache(ImmutableList.of(tablet("2", "c", "e")), "d", 1);
+    assertNotSame(second, cache.get(key("c")));
+    assertTablet("2", "d");
+    assertTablet("1b", "b");
+    assertSame(third, cache.get(key("e")));
+
+    // A key in a non-covered range gets the tablet before it from the master.
+    cache(ImmutableList.of(tablet("3", "e", "g"), tablet("4", "h", "j")), "g", 10);
+    assertTablet("3", "f");
+    assertNonCoveredRange("g", "h", "g");
+    assertTablet("4", "i");
+    assertNonCoveredRange("j", "", "k");
+
+    // A tablet replacing a non-covered range.
+    cache(ImmutableList.of(tablet("3", "e", "g"), tablet("5", "g", "h"), tablet("4", "h", "j")),
+          "g", 3);
+    assertTablet("5", "g");
+    assertTablet("4", "i");
+    assertNonCoveredRange("j", "", "k");
+  }
+
+  @Test
+  public void testStaleEntries() {
+    cache.cacheTabletLocations(ImmutableList.of(tablet("1", "a", "c")), key("a"), 1, 0);
+    assertNull(cache.get(key("a")));
+    assertNull(cache.get(key("b")));
+  }
+
+  @Test
+  public void testMasterLookup() {
+    assertNull(cache.get(null));
+    RemoteTablet master = tablet("master", "", "");
+    cache.cacheTabletLocations(ImmutableList.of(master), null, 1, TTL_MS);
+    assertSame(master, cache.get(null).getTablet());
+  }
+
+  @Test
+  public void testRefreshDueWindow() throws Exception {
+    // Entries are due for a refresh once a quarter of their ttl is left.
+    long ttlMs = 2000;
+    long start = System.nanoTime();
+    cache.cacheTabletLocations(ImmutableList.of(tablet("1", "a", "c")), key("a"), 1, ttlMs);
+    TableLocationsCache.Entry entry = cache.get(key("b"));
+    assertFalse(entry.isDueForRefresh());
+
+    Thread.sleep(Math.max(0, 1600 - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    assertTrue(entry.isDueForRefresh());
+    assertFalse(entry.isStale());
+    assertSame(entry, cache.get(key("b")));
+
+    // The entry cached by the refresh starts a new window.
+    cache.cacheTabletLocations(ImmutableList.of(tablet("1", "a", "c")), key("a"), 1, ttlMs);
+    assertFalse(cache.get(key("b")).isDueForRefresh());
+
+    // A long lived entry isn't due.
+    cache(ImmutableList.of(tablet("2", "c", "e")), "c", 1);
+    assertFalse(cache.get(key("d")).isDueForRefresh());
+  }
+
+  @Test(timeout = 60000)
+  public void testSingleRefresher() throws Exception {
+    cache(ImmutableList.of(tablet("1", "a", "c")), "a", 1);
+    final TableLocationsCache.Entry entry = cache.get(key("a"));
+
+    // Out of many threads trying at once, a single one gets to refresh the entry.
+    int threads = 16;
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Boolean>> claims = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        claims.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            barrier.await();
+            return entry.tryStartRefresh();
+          }
+        }));
+      }
+      int refreshers = 0;
+      for (Future<Boolean> claim : claims) {
+        if (claim.get()) {
+          refreshers++;
+        }
+      }
+      assertEquals(1, refreshers);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertFalse(entry.tryStartRefresh());
+
+    // A failed refresh lets the next caller try again, once.
+    entry.refreshFailed();
+    assertTrue(entry.tryStartRefresh());
+    assertFalse(entry.tryStartRefresh());
+
+    // The entry cached by a successful refresh can be refreshed again.
+    cache(ImmutableList.of(tablet("1", "a", "c")), "a", 1);
+    TableLocationsCache.Entry refreshed = cache.get(key("a"));
+    assertNotSame(entry, refreshed);
+    assertTrue(refreshed.tryStartRefresh());
+  }
+}
@@ -0,0 +1,125 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package org.apache.kudu.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.tserver.Tserver;
+
+/**
+ * Compares the ways of setting the table's schema in a write request, followed by the
+ * serialization of the request: building a SchemaPB for every request, as the client used to,
+ * splicing the cached serialized schema as an unknown field, and setting the table's cached
+ * SchemaPB.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.kudu.client.WriteRequestSchemaBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteRequestSchemaBenchmark {
+
+  @Param({"4", "32"})
+  public int columns;
+
+  private KuduTable table;
+  private ByteString serializedSchema;
+  private Tserver.WriteRequestPB.Builder template;
+
+  @Setup
+  public void setUp() {
+    List<ColumnSchema> columnSchemas = new ArrayList<>(columns);
+    List<Integer> columnIds = new ArrayList<>(columns);
+    columnSchemas.add(new ColumnSchema.ColumnSchemaBuilder("key", Type.INT64).key(true).build());
+    columnIds.add(0);
+    for (int i = 1; i < columns; i++) {
+      columnSchemas.add(new ColumnSchema.ColumnSchemaBuilder("c" + i, Type.STRING)
+                            .nullable(true)
+                            .build());
+      columnIds.add(i);
+    }
+    Schema schema = new Schema(columnSchemas, columnIds);
+    table = new KuduTable(
+        null, "test", "test-id", schema,
+        new PartitionSchema(new PartitionSchema.RangeSchema(ImmutableList.of(0)),
+                            ImmutableList.<PartitionSchema.HashBucketSchema>of(), schema));
+    serializedSchema = table.getSchemaPb().toByteString();
+    template = Tserver.WriteRequestPB.newBuilder()
+        .setTabletId(ByteString.copyFromUtf8("0123456789abcdef0123456789abcdef"));
+  }
+
+  @Benchmark
+  public ByteString buildSchemaPerRequest() {
+    Tserver.WriteRequestPB.Builder builder = template.clone();
+    builder.setSchema(ProtobufHelper.schemaToPb(table.getSchema()));
+    return builder.build().toByteString();
+  }
+
+  @Benchmark
+  public ByteString spliceSerializedSchema() {
+    Tserver.WriteRequestPB.Builder builder = template.clone();
+    UnknownFieldSet.Field schemaField = UnknownFieldSet.Field.newBuilder()
+        .addLengthDelimited(serializedSchema)
+        .build();
+    builder.setUnknownFields(
+        UnknownFieldSet.newBuilder()
+            .addField(Tserver.WriteRequestPB.SCHEMA_FIELD_NUMBER, schemaField)
+            .build());
+    return builder.build().toByteString();
+  }
+
+  @Benchmark
+  public ByteString setCachedSchemaPb() {
+    Tserver.WriteRequestPB.Builder builder = template.clone();
+    builder.setSchema(table.getSchemaPb());
+    return builder.build().toByteString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder()
+        .include(WriteRequestSchemaBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
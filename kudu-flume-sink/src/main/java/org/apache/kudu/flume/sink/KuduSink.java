@@ -51,6 +51,7 @@ import org.apache.kudu.client.KuduSession;
 import org.apache.kudu.client.KuduTable;
 import org.apache.kudu.client.Operation;
 import org.apache.kudu.client.OperationResponse;
+import org.apache.kudu.client.RowError;
 import org.apache.kudu.client.SessionConfiguration;
 
 /**
@@ -254,18 +255,18 @@ public class KuduSink extends AbstractSink implements Configurable {
       logger.debug("Flushing {} events", txnEventCount);
       List<OperationResponse> responses = session.flush();
       if (responses != null) {
-        for (OperationResponse response : responses) {
-          // Throw an EventDeliveryException if at least one of the responses was
-          // a row error. Row errors can occur for example when an event is inserted
-          // into Kudu successfully but the Flume transaction is rolled back for some reason,
-          // and a subsequent replay of the same Flume transaction leads to a
-          // duplicate key error since the row already exists in Kudu.
-          // Note: Duplicate keys will not be reported as errors if ignoreDuplicateRows
-          // is enabled in the config.
-          if (response.hasRowError()) {
-            throw new EventDeliveryException("Failed to flush one or more changes. " +
-                "Transaction rolled back: " + response.getRowError().toString());
-          }
+        // Throw an EventDeliveryException if at least one of the responses was
+        // a row error. Row errors can occur for example when an event is inserted
+        // into Kudu successfully but the Flume transaction is rolled back for some reason,
+        // and a subsequent replay of the same Flume transaction leads to a
+        // duplicate key error since the row already exists in Kudu.
+        // Note: Duplicate keys will not be reported as errors if ignoreDuplicateRows
+        // is enabled in the config.
+        // Only the errors are looked at, which spares building a response per row.
+        List<RowError> errors = OperationResponse.collectErrors(responses);
+        if (!errors.isEmpty()) {
+          throw new EventDeliveryException("Failed to flush one or more changes. " +
+              "Transaction rolled back: " + errors.get(0).toString());
         }
       }
 